@@ -0,0 +1,511 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: ArcadeOperations.java holds the member, token and redemption operations without any
+ * console input or output, so the Scanner menus in Project.java and the network service in
+ * ArcadeService.java run exactly the same code against whichever connection they are given.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class Name: ArcadeOperations
+ * External Packages: java.sql
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Every method takes the connection to work on and commits or rolls back its own
+ * transaction before returning. Outcomes the caller has to tell the user about (member not found,
+ * member already exists, too many tickets to delete) are returned, not printed; database failures
+ * are thrown as SQLException after the transaction has been rolled back. The single-row member, game
+ * and prize changes go through the ArcadeStore arcade.store selects instead of a connection, so they
+ * also run on the embedded store; its failures are thrown as SQLException too.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * memberExists(Connection conn, String MID): Whether a member ID is taken.
+ * memberExists(ArcadeStore store, String MID): The same, asked of the store arcade.store selects.
+ * ticketsOf(Connection conn, String MID): A member's ticket count, from MemberTable when it is loaded, or -1 if there is no such member.
+ * addMember(ArcadeStore store, ...): Inserts a member unless the ID is taken.
+ * updateMember(ArcadeStore store, ...): Changes a member's name, phone number and address.
+ * addGame(ArcadeStore store, ...): Inserts a game unless the ID is taken.
+ * addPrize(ArcadeStore store, ...): Adds a prize, or inventory to an existing one.
+ * deletePrize(ArcadeStore store, String prizeId): Deletes a prize and its redemptions.
+ * deleteMember(Connection conn, TicketLedger ledger, String MID): Deletes a member and their records.
+ * buyTokens(Connection conn, TicketLedger ledger, String MID, double amountSpent, String coupon): Sells tokens to a member.
+ * purchaseConflicts(): How many buyTokens attempts lost a race with another purchase.
+ * redeem(Connection conn, String MID, String prizeId, String coupon): Redeems a prize and keeps the prize catalog in step.
+ */
+public class ArcadeOperations {
+
+    // A member holding more tickets than this has to redeem them before the account can be deleted
+    public static final int DELETE_TICKET_LIMIT = 10;
+
+    // Optimistic buyTokens attempts before the next one locks the member row
+    private static final int OPTIMISTIC_ATTEMPTS = Math.max(1, Integer.getInteger("arcade.buyTokens.optimisticAttempts", 4));
+
+    private static final LongAdder purchaseConflicts = new LongAdder();
+
+    private static final String DELETE_MEMBER = "DELETE FROM hamadayaz.Member WHERE MID = ?";
+    private static final String SELECT_TOTALS = "SELECT totalSpent, tier FROM hamadayaz.Member WHERE MID = ?";
+    private static final String SELECT_TOTALS_FOR_UPDATE = SELECT_TOTALS + " FOR UPDATE";
+    // Compare-and-set: the deltas only apply if the tier is unchanged (DECODE treats two NULLs as equal)
+    // and the member's spend, with this purchase, is still below the next upgrade threshold
+    private static final String ADD_TOTALS =
+            "UPDATE hamadayaz.Member SET totalSpent = totalSpent + ?, totalTickets = totalTickets + ?, tier = ? " +
+            "WHERE MID = ? AND DECODE(tier, ?, 1, 0) = 1 AND totalSpent + ? < ?";
+    private static final String INSERT_PURCHASE =
+            "INSERT INTO hamadayaz.TokenPurchase (PID, MID, tokenNo, purchaseDate, amountSpent) " +
+            "VALUES (seq_token_purchase.nextval, ?, ?, CURRENT_DATE, ?)";
+
+    /**
+     * Result of deleting a member.
+     */
+    public enum DeleteOutcome { DELETED, NOT_FOUND, HAS_TICKETS }
+
+    /**
+     * Result of a token purchase: what was sold, charged and awarded. Money is in cents; savedCents
+     * includes any coupon, discountPercent is the tier's alone.
+     */
+    public record Purchase(String MID, int tokens, long chargedCents, long savedCents, int discountPercent,
+                           int bonusTickets, String tier) {
+        public String charged() {
+            return dollars(chargedCents);
+        }
+
+        public String saved() {
+            return dollars(savedCents);
+        }
+
+        private static String dollars(long cents) {
+            return String.format(Locale.ROOT, "%d.%02d", cents / 100, cents % 100);
+        }
+    }
+
+    public static boolean memberExists(Connection conn, String MID) throws SQLException {
+        return ticketsOf(conn, MID) >= 0;
+    }
+
+    public static boolean memberExists(ArcadeStore store, String MID) throws SQLException {
+        try {
+            return store.members().find(MID).isPresent();
+        } catch (ArcadeStore.StoreException e) {
+            throw e.asSQLException();
+        }
+    }
+
+    public static int ticketsOf(Connection conn, String MID) throws SQLException {
+        int tickets = MemberTable.tickets(MID); // -1 when the table is off or does not hold the member
+        if (tickets >= 0) {
+            return tickets;
+        }
+        PreparedStatement stmt = StatementCache.of(conn).prepare("SELECT totalTickets FROM hamadayaz.Member WHERE MID = ?");
+        stmt.setString(1, MID);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt("totalTickets") : -1;
+        }
+    }
+
+    /**
+     * Method Name: addMember
+     * Purpose: Adds a new member.
+     * Pre-conditions: None.
+     * Post-conditions: The member is inserted and committed, unless the ID was already taken.
+     * Parameters:
+     * - store (in): The store arcade.store selects.
+     * - MID, name, phoneNo, address, tier, totalSpent, totalTickets (in): The member's columns.
+     * Returns: false if a member with this ID already exists.
+     */
+    public static boolean addMember(ArcadeStore store, String MID, String name, String phoneNo, String address,
+                                    String tier, double totalSpent, int totalTickets) throws SQLException {
+        return Metrics.time("addMember", () -> {
+            long spentCents = Math.round(totalSpent * 100);
+            try {
+                if (!store.members().insert(new ArcadeStore.Member(MID, name, phoneNo, address, tier, spentCents, totalTickets))) {
+                    return false;
+                }
+            } catch (ArcadeStore.StoreException e) {
+                throw e.asSQLException();
+            }
+            MemberTable.put(MID, tier, spentCents, totalTickets);
+            return true;
+        });
+    }
+
+    /**
+     * Method Name: updateMember
+     * Purpose: Changes a member's contact details.
+     * Pre-conditions: None.
+     * Post-conditions: The change is committed if the member exists, and the leaderboard shows the new name.
+     * Parameters:
+     * - store (in): The store arcade.store selects.
+     * - MID (in): Member ID.
+     * - name, phoneNo, address (in): The new values.
+     * Returns: false if there is no such member.
+     */
+    public static boolean updateMember(ArcadeStore store, String MID, String name, String phoneNo, String address) throws SQLException {
+        return Metrics.time("updateMember", () -> {
+            try {
+                if (!store.members().updateContact(MID, name, phoneNo, address)) {
+                    return false;
+                }
+            } catch (ArcadeStore.StoreException e) {
+                throw e.asSQLException();
+            }
+            Leaderboard.renamed(MID, name);
+            return true;
+        });
+    }
+
+    /**
+     * Method Name: addGame
+     * Purpose: Adds a new game and gives it an empty board on the leaderboard.
+     * Pre-conditions: None.
+     * Post-conditions: The game is inserted and committed, unless the ID was already taken.
+     * Parameters:
+     * - store (in): The store arcade.store selects.
+     * - GID, name, tokenCost, factor (in): The game's columns.
+     * Returns: false if a game with this ID already exists.
+     */
+    public static boolean addGame(ArcadeStore store, String GID, String name, int tokenCost, double factor) throws SQLException {
+        return Metrics.time("addGame", () -> {
+            try {
+                if (!store.games().insert(new ArcadeStore.Game(GID, name, tokenCost, factor))) {
+                    return false;
+                }
+            } catch (ArcadeStore.StoreException e) {
+                throw e.asSQLException();
+            }
+            Leaderboard.addGame(GID, name);
+            return true;
+        });
+    }
+
+    /**
+     * Method Name: addPrize
+     * Purpose: Adds a prize, or more inventory of a prize that already exists.
+     * Pre-conditions: None.
+     * Post-conditions: The change is committed and the prize catalog reloads on its next lookup. An
+     *                  existing prize keeps its description and ticket cost.
+     * Parameters:
+     * - store (in): The store arcade.store selects.
+     * - prizeId, description, ticketCost (in): The prize's columns, used only for a new prize.
+     * - inventory (in): Units to add.
+     */
+    public static void addPrize(ArcadeStore store, String prizeId, String description, int ticketCost, int inventory) throws SQLException {
+        Metrics.time("addPrize", () -> {
+            try {
+                store.prizes().add(new ArcadeStore.Prize(prizeId, description, ticketCost, inventory));
+            } catch (ArcadeStore.StoreException e) {
+                throw e.asSQLException();
+            }
+            PrizeCatalog.invalidate();
+            return null;
+        });
+    }
+
+    /**
+     * Method Name: deletePrize
+     * Purpose: Deletes a prize after its redemptions.
+     * Pre-conditions: None.
+     * Post-conditions: Both deletes are committed, each on its own, and the prize catalog reloads on its next lookup.
+     * Parameters:
+     * - store (in): The store arcade.store selects.
+     * - prizeId (in): Prize ID.
+     * Returns: false if there is no such prize.
+     */
+    public static boolean deletePrize(ArcadeStore store, String prizeId) throws SQLException {
+        return Metrics.time("deletePrize", () -> {
+            try {
+                store.redemptions().deleteByPrize(prizeId);
+                return store.prizes().delete(prizeId);
+            } catch (ArcadeStore.StoreException e) {
+                throw e.asSQLException();
+            } finally {
+                PrizeCatalog.invalidate();
+            }
+        });
+    }
+
+    /**
+     * Method Name: deleteMember
+     * Purpose: Deletes a member together with their redemptions, coupons, purchases and plays.
+     * Pre-conditions: None; a member with more than DELETE_TICKET_LIMIT tickets is not deleted.
+     * Post-conditions: Everything is deleted and committed, or nothing changes.
+     * Parameters:
+     * - conn (in): Connection to work on.
+     * - ledger (in): The running ticket ledger, or null.
+     * - MID (in): Member ID.
+     */
+    public static DeleteOutcome deleteMember(Connection conn, TicketLedger ledger, String MID) throws SQLException {
+        try (Metrics.Span span = Metrics.start("deleteMember")) {
+            try {
+                if (ledger != null) {
+                    ledger.flush(); // unflushed purchases would otherwise reference a deleted member
+                }
+                int tickets = ticketsOf(conn, MID);
+                if (tickets < 0) {
+                    return DeleteOutcome.NOT_FOUND;
+                }
+                if (tickets > DELETE_TICKET_LIMIT) {
+                    return DeleteOutcome.HAS_TICKETS;
+                }
+
+                Leaderboard.Change change = deleteRelatedRecords(conn, MID);
+                PreparedStatement pstmtDelete = StatementCache.of(conn).prepare(DELETE_MEMBER);
+                pstmtDelete.setString(1, MID);
+                if (pstmtDelete.executeUpdate() > 0) {
+                    conn.commit();
+                    MemberPurge.committed(List.of(MID), change);
+                    return DeleteOutcome.DELETED;
+                }
+                conn.rollback(); // deleted by someone else in the meantime
+                return DeleteOutcome.NOT_FOUND;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } catch (IOException e) {
+                span.failed();
+                throw new SQLException("Could not flush the ticket ledger", e);
+            }
+        }
+    }
+
+    /**
+     * Method Name: deleteRelatedRecords
+     * Purpose: Deletes all records related to the member from dependent tables before the member itself is deleted.
+     * Pre-conditions: Called inside the member's delete transaction.
+     * Post-conditions: All records associated with the member in related tables are deleted; returns the
+     *                  leaderboard change to apply after the commit.
+     * Parameters:
+     * - conn (in): The delete transaction's connection.
+     * - MID (in): Member ID.
+     */
+    static Leaderboard.Change deleteRelatedRecords(Connection conn, String MID) throws SQLException {
+        // The same set-based cascade the bulk purge uses
+        return Metrics.time("deleteRelatedRecords", () -> MemberPurge.deleteRelated(conn, List.of(MID)));
+    }
+
+    /**
+     * Method Name: buyTokens
+     * Purpose: Sells tokens to a member, applying the tier discount, any TOKENS coupon and any tier upgrade
+     *          with its bonus tickets.
+     * Pre-conditions: amountSpent is positive.
+     * Post-conditions: The purchase is committed, or handed to the ledger when it does not change the tier
+     *                  and has no coupon. A coupon takes its percent off the discounted price, rounded half up;
+     *                  it is claimed in the purchase's transaction, so it is used once and only if the
+     *                  purchase goes through. A coupon that cannot be used throws Rejected, changing nothing.
+     *                  Concurrent purchases for the same member are never lost: the totals are added in SQL,
+     *                  and the update only applies if the tier and the spend band the discount and bonus were
+     *                  worked out from are unchanged. Otherwise the member is read again and the purchase
+     *                  recomputed, up to arcade.buyTokens.optimisticAttempts times (default 4); the attempt
+     *                  after that locks the row with SELECT ... FOR UPDATE, so it cannot fail again.
+     * Parameters:
+     * - conn (in): Connection to work on.
+     * - ledger (in): The running ticket ledger, or null.
+     * - MID (in): Member ID.
+     * - amountSpent (in): Dollars paid before the discount.
+     * - coupon (in): TOKENS coupon code to use, or null.
+     * Returns: The purchase, or null if there is no such member.
+     */
+    public static Purchase buyTokens(Connection conn, TicketLedger ledger, String MID, double amountSpent, String coupon)
+            throws SQLException, CouponEngine.Rejected {
+        long amountCents = TierEngine.cents(amountSpent);
+        coupon = CouponEngine.normalize(coupon);
+        int couponPercent = 0;
+        if (coupon != null) {
+            // Turns away unknown and used codes before anything is written, mostly without a round trip
+            CouponEngine.Check check = CouponEngine.check(conn, coupon, MID, CouponEngine.Kind.TOKENS);
+            if (check.outcome() != CouponEngine.Outcome.ACCEPTED) {
+                throw new CouponEngine.Rejected(check.outcome());
+            }
+            couponPercent = check.amount();
+        }
+        try (Metrics.Span span = Metrics.start("buyTokens")) {
+            for (int attempt = 1; ; attempt++) {
+                boolean lock = attempt > OPTIMISTIC_ATTEMPTS;
+                // To assign membership; spend the ledger has accepted but not flushed yet still counts
+                long pendingCents = ledger == null ? 0 : ledger.pendingSpentCents(MID);
+                long currentCents;
+                String currentTier;
+                long tableCents = attempt == 1 ? MemberTable.spentCents(MID) : -1;
+                if (tableCents >= 0) {
+                    // The member table already counts the ledger's purchases; the update below re-checks both values
+                    currentCents = tableCents - pendingCents;
+                    currentTier = MemberTable.tier(MID);
+                } else {
+                    PreparedStatement checkStmt = StatementCache.of(conn).prepare(lock ? SELECT_TOTALS_FOR_UPDATE : SELECT_TOTALS);
+                    checkStmt.setString(1, MID);
+                    try (ResultSet checkRs = checkStmt.executeQuery()) {
+                        if (!checkRs.next()) {
+                            return null;
+                        }
+                        span.rows(1);
+                        currentCents = Math.round(checkRs.getDouble("totalSpent") * 100);
+                        currentTier = checkRs.getString("tier");
+                    }
+                }
+
+                // Discount, tokens and any tier upgrade, in cents, under the loyalty rules in force (see LoyaltyRules)
+                LoyaltyRules.Pricing rules = LoyaltyRules.pricing();
+                TierEngine.Tier tier = TierEngine.Tier.of(currentTier);
+                long chargedCents = rules.chargedCents(tier, amountCents); // Actual money spent after discount
+                chargedCents -= (chargedCents * couponPercent + 50) / 100;
+                int tokensPurchased = rules.tokens(tier, amountCents); // per dollar of the amount spent, not the discounted amount
+                TierEngine.Tier upgraded = rules.upgrade(tier, currentCents + pendingCents + amountCents);
+                int bonusTickets = rules.bonusTickets(tier, upgraded);
+                String newTier = upgraded == tier ? currentTier : upgraded.label;
+
+                // Purchases that do not change the tier are handed to the ledger, which writes them in batches
+                if (ledger != null && upgraded == tier && bonusTickets == 0 && coupon == null) {
+                    try {
+                        ledger.recordPurchase(MID, tokensPurchased, chargedCents);
+                        MemberTable.applied(MID, chargedCents, 0, null);
+                        if (lock) {
+                            conn.rollback(); // release the row lock, nothing was written
+                        }
+                        return new Purchase(MID, tokensPurchased, chargedCents, amountCents - chargedCents, rules.discountPercent(tier), bonusTickets, newTier);
+                    } catch (IOException e) {
+                        System.err.println("Ledger unavailable, writing purchase directly: " + e.getMessage());
+                    }
+                }
+
+                try {
+                    // Add to the member's totals, provided nothing that decided the discount and bonus has changed
+                    PreparedStatement updateStmt = StatementCache.of(conn).prepare(ADD_TOTALS);
+                    updateStmt.setBigDecimal(1, BigDecimal.valueOf(chargedCents, 2));
+                    updateStmt.setInt(2, bonusTickets);
+                    updateStmt.setString(3, newTier);
+                    updateStmt.setString(4, MID);
+                    updateStmt.setString(5, currentTier);
+                    updateStmt.setBigDecimal(6, BigDecimal.valueOf(pendingCents + amountCents, 2));
+                    updateStmt.setBigDecimal(7, BigDecimal.valueOf(rules.nextUpgradeCents(upgraded), 2));
+                    if (updateStmt.executeUpdate() == 0) {
+                        conn.rollback();
+                        purchaseConflicts.increment();
+                        backOff(attempt);
+                        continue; // another purchase got there first, or the member was deleted
+                    }
+
+                    // Record the token purchase transaction
+                    PreparedStatement purchaseStmt = StatementCache.of(conn).prepare(INSERT_PURCHASE);
+                    purchaseStmt.setString(1, MID);
+                    purchaseStmt.setInt(2, tokensPurchased);
+                    purchaseStmt.setBigDecimal(3, BigDecimal.valueOf(chargedCents, 2));
+                    purchaseStmt.executeUpdate();
+
+                    // Use the coupon; a purchase at another till may have used it since the check above
+                    if (coupon != null && CouponEngine.claim(conn, coupon, MID, CouponEngine.Kind.TOKENS) < 0) {
+                        conn.rollback();
+                        CouponEngine.Check check = CouponEngine.check(conn, coupon, MID, CouponEngine.Kind.TOKENS);
+                        throw new CouponEngine.Rejected(check.outcome() == CouponEngine.Outcome.ACCEPTED
+                                ? CouponEngine.Outcome.ALREADY_USED : check.outcome());
+                    }
+
+                    List<SpendAggregates.Bucket> spend = List.of(
+                            new SpendAggregates.Bucket(MID, LocalDate.now(), chargedCents));
+                    SpendAggregates.record(conn, spend);
+                    SpendAggregates.commit(conn, spend);
+                    MemberTable.applied(MID, chargedCents, bonusTickets, newTier);
+                    if (coupon != null) {
+                        CouponEngine.claimed(coupon);
+                    }
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+
+                return new Purchase(MID, tokensPurchased, chargedCents, amountCents - chargedCents, rules.discountPercent(tier), bonusTickets, newTier);
+            }
+        }
+    }
+
+    public static Purchase buyTokens(Connection conn, TicketLedger ledger, String MID, double amountSpent) throws SQLException {
+        try {
+            return buyTokens(conn, ledger, MID, amountSpent, null);
+        } catch (CouponEngine.Rejected e) {
+            throw new AssertionError(e); // there is no coupon to reject
+        }
+    }
+
+    /**
+     * Method Name: purchaseConflicts
+     * Purpose: Reports how often buyTokens had to start over because another purchase changed the member first.
+     * Pre-conditions: None.
+     * Post-conditions: Returns the count since startup.
+     * Parameters: None.
+     */
+    public static long purchaseConflicts() {
+        return purchaseConflicts.sum();
+    }
+
+    // Randomised exponential back-off, so colliding stations do not retry in lockstep
+    private static void backOff(int attempt) {
+        long maxNanos = 50_000L << Math.min(attempt, 8);
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxNanos));
+    }
+
+    /**
+     * Method Name: redeem
+     * Purpose: Redeems one prize for a member.
+     * Pre-conditions: None; stock and ticket balance are checked atomically by RedemptionEngine.
+     * Post-conditions: The redemption, with the coupon if any, is committed or nothing changes; the cached
+     *                  catalog is updated. A coupon that cannot be used throws Rejected, changing nothing.
+     * Parameters:
+     * - conn (in): Connection to work on.
+     * - MID (in): Member ID.
+     * - prizeId (in): Prize to redeem.
+     * - coupon (in): PRIZE coupon code to take tickets off the prize, or null.
+     */
+    public static RedemptionEngine.Outcome redeem(Connection conn, String MID, String prizeId, String coupon)
+            throws SQLException, CouponEngine.Rejected {
+        coupon = CouponEngine.normalize(coupon);
+        try (Metrics.Span span = Metrics.start("redeem")) {
+            if (coupon != null) {
+                CouponEngine.Check check = CouponEngine.check(conn, coupon, MID, CouponEngine.Kind.PRIZE);
+                if (check.outcome() != CouponEngine.Outcome.ACCEPTED) {
+                    span.failed();
+                    throw new CouponEngine.Rejected(check.outcome());
+                }
+            }
+            MemberTable.syncMember(conn, MID); // the engine checks the balance in Member, so it must include every award
+            RedemptionEngine.Outcome outcome = RedemptionEngine.redeem(conn, MID, prizeId, coupon);
+            if (outcome == RedemptionEngine.Outcome.COUPON_REJECTED) {
+                CouponEngine.Check check = CouponEngine.check(conn, coupon, MID, CouponEngine.Kind.PRIZE);
+                span.failed();
+                throw new CouponEngine.Rejected(check.outcome() == CouponEngine.Outcome.ACCEPTED
+                        ? CouponEngine.Outcome.ALREADY_USED : check.outcome()); // used at another counter since
+            }
+            if (outcome == RedemptionEngine.Outcome.ACCEPTED) {
+                if (coupon != null) {
+                    CouponEngine.claimed(coupon);
+                }
+                PrizeCatalog.redeemed(prizeId);
+                MemberTable.refresh(conn, MID);
+            } else if (outcome == RedemptionEngine.Outcome.OUT_OF_STOCK) {
+                PrizeCatalog.soldOut(prizeId);
+            }
+            return outcome;
+        }
+    }
+
+    public static RedemptionEngine.Outcome redeem(Connection conn, String MID, String prizeId) throws SQLException {
+        try {
+            return redeem(conn, MID, prizeId, null);
+        } catch (CouponEngine.Rejected e) {
+            throw new AssertionError(e); // there is no coupon to reject
+        }
+    }
+}
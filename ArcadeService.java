@@ -0,0 +1,372 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: ArcadeService.java serves the member, token, redemption and query operations over
+ * HTTP with JSON responses, so that many kiosks and cashier stations can use one running instance
+ * at the same time instead of each needing its own terminal session.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * Usage: java -Darcade.jdbc.url=... ArcadeService <user> <password>
+ * */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Class Name: ArcadeService
+ * External Packages: com.sun.net.httpserver, java.sql
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Runs the JDK's built-in HTTP server on arcade.service.port (default 8460) of
+ * arcade.service.host (default 127.0.0.1, so only this machine can reach it; there is no
+ * authentication, so set it to an address on the arcade's own network only, never a public one). Each
+ * exchange runs on its own virtual thread when the JVM has them (Java 21 and later) and otherwise on
+ * a pool of arcade.service.threads platform threads (default 64). Each request borrows a connection
+ * from the shared ConnectionPool for as long as it runs, so the pool size caps concurrent database
+ * work. All operations go through ArcadeOperations, the same code the console menus use; adding and
+ * changing members, and queries 1, 3 and 4, use the ArcadeStore arcade.store selects, like the menus.
+ * Parameters are read from the query string and, for POST/PUT/DELETE, from a form-encoded body.
+ * A token purchase must be a finite amount above 0 and at most arcade.service.maxAmount dollars
+ * (default 1000).
+ *
+ *   POST   /members                      MID, name, phoneNo, address, tier, totalSpent, totalTickets
+ *   PUT    /members/{MID}                name, phoneNo, address
+ *   DELETE /members/{MID}
+ *   POST   /members/{MID}/tokens         amount, coupon (optional)
+ *   POST   /members/{MID}/redemptions    prizeId, coupon (optional)
+ *   GET    /queries/1 .. /queries/4      MID for 3 and 4 (4 also takes a comma-separated list)
+ *   GET    /metrics                      Operation timings and JDBC counters (Prometheus text format)
+ *
+ * Constructor: ArcadeService(ConnectionPool pool, ArcadeStore store, TicketLedger ledger, String host, int port)
+ *
+ * Instance Methods:
+ * start(): Starts accepting requests.
+ * close(): Stops the server and its executor.
+ * main(String[] args): Runs the service until the process is stopped.
+ */
+public class ArcadeService implements AutoCloseable {
+
+    private static final int MAX_AMOUNT = Integer.getInteger("arcade.service.maxAmount", 1000);
+
+    private final ConnectionPool pool;
+    private final ArcadeStore store;
+    private final TicketLedger ledger;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * A request that cannot be served, with the HTTP status to answer it with.
+     */
+    private static final class Failure extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        Failure(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private interface Handler {
+        String handle(Connection conn, String method, String[] path, Map<String, String> params) throws Failure, SQLException, IOException;
+    }
+
+    public ArcadeService(ConnectionPool pool, ArcadeStore store, TicketLedger ledger, String host, int port) throws IOException {
+        this.pool = pool;
+        this.store = store;
+        this.ledger = ledger;
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.executor = ConnectionPool.newTaskExecutor(Integer.getInteger("arcade.service.threads", 64));
+        server.setExecutor(executor);
+        server.createContext("/members", exchange -> serve(exchange, this::members));
+        server.createContext("/queries", exchange -> serve(exchange, this::queries));
+        server.createContext("/metrics", this::metrics);
+        Metrics.gauge("arcade_pool_active_connections", "Connections checked out of the pool.", () -> pool.stats().active());
+        Metrics.gauge("arcade_pool_idle_connections", "Open connections waiting in the pool.", () -> pool.stats().idle());
+        Metrics.gauge("arcade_pool_wait_seconds_max", "Longest wait for a pooled connection.", () -> pool.stats().maxWaitNanos() / 1e9);
+        Metrics.gauge("arcade_statement_cache_hits", "Prepared statements reused from the cache.", StatementCache::hits);
+        Metrics.gauge("arcade_statement_cache_misses", "Statements prepared because they were not cached.", StatementCache::misses);
+        Metrics.gauge("arcade_prize_catalog_hit_ratio", "Prize lookups answered from the cached catalog.", PrizeCatalog::hitRatio);
+        Metrics.gauge("arcade_purchase_conflicts", "Token purchases retried because another purchase changed the member first.",
+                ArcadeOperations::purchaseConflicts);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Method Name: main
+     * Purpose: Connects, starts the optional in-memory structures like Project does, and serves requests.
+     * Pre-conditions: The database is reachable with the given credentials.
+     * Post-conditions: Runs until the process is stopped; the ledger is flushed on shutdown.
+     * Parameters:
+     * - args (in): Oracle user name and password.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java ArcadeService <user> <password>");
+            return;
+        }
+        ConnectionPool pool = ConnectionPool.fromSystemProperties(
+                "jdbc:oracle:thin:@aloe.cs.arizona.edu:1521:oracle", args[0], args[1]);
+        TicketLedger ledger = null;
+        if (Boolean.getBoolean("arcade.ledger")) {
+            ledger = new TicketLedger(pool, Paths.get(System.getProperty("arcade.ledger.dir", "ledger")),
+                    !"false".equals(System.getProperty("arcade.ledger.sync")));
+            ledger.recover();
+            ledger.start(Long.getLong("arcade.ledger.flushMs", 1_000L));
+        }
+        Connection conn = pool.borrow();
+        try {
+            if (Boolean.getBoolean("arcade.leaderboard")) {
+                Leaderboard.load(conn);
+            }
+            if (Boolean.getBoolean("arcade.spendAggregates")) {
+                SpendAggregates.load(conn);
+            }
+        } finally {
+            pool.release(conn);
+        }
+        if (MemberTable.ENABLED) {
+            MemberTable.open(pool);
+            MemberTable.startSync(pool);
+        }
+        if (LoyaltyRules.FILE != null) {
+            LoyaltyRules.watch();
+        }
+        if (CouponEngine.ENABLED) {
+            CouponEngine.start(pool);
+        }
+
+        ArcadeStore store = ArcadeStore.open(pool);
+        ArcadeService service = new ArcadeService(pool, store, ledger, System.getProperty("arcade.service.host", "127.0.0.1"),
+                Integer.getInteger("arcade.service.port", 8460));
+        TicketLedger shutdownLedger = ledger;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            service.close();
+            try {
+                store.close();
+            } catch (ArcadeStore.StoreException e) {
+                System.err.println("Store not closed cleanly: " + e.getMessage());
+            }
+            try {
+                if (shutdownLedger != null) {
+                    shutdownLedger.close();
+                }
+            } catch (Exception e) {
+                System.err.println("Ledger not flushed, it will be replayed on the next start: " + e.getMessage());
+            }
+            MemberTable.close(pool);
+            pool.close();
+        }));
+        if (PurchaseHistory.ENABLED) {
+            PurchaseHistory.startRetention(pool);
+        }
+        Metrics.startDumps();
+        service.start();
+        System.out.println("Arcade service listening on " + service.server.getAddress());
+    }
+
+    private void serve(HttpExchange exchange, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            Map<String, String> params = params(exchange);
+            Connection conn;
+            try {
+                conn = pool.borrow();
+            } catch (SQLException e) {
+                throw new Failure(503, e.getMessage()); // pool exhausted or database down
+            }
+            try {
+                body = handler.handle(conn, exchange.getRequestMethod(), path, params);
+            } finally {
+                pool.release(conn);
+            }
+        } catch (Failure f) {
+            status = f.status;
+            body = error(f.getMessage());
+        } catch (SQLException e) {
+            status = 500;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) { // NumberFormatException too: unparsable numbers, unknown enum names
+            status = 400;
+            body = error(String.valueOf(e.getMessage()));
+        } catch (RuntimeException e) {
+            System.err.println(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " failed:");
+            e.printStackTrace();
+            status = 500;
+            body = error("Internal error");
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Served without borrowing a connection, so it still answers when the pool is exhausted
+    private void metrics(HttpExchange exchange) throws IOException {
+        byte[] bytes = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String members(Connection conn, String method, String[] path, Map<String, String> params) throws Failure, SQLException {
+        if (path.length == 1 && method.equals("POST")) {
+            String MID = required(params, "MID");
+            boolean added = ArcadeOperations.addMember(store, MID, required(params, "name"), required(params, "phoneNo"),
+                    required(params, "address"), required(params, "tier"),
+                    Double.parseDouble(params.getOrDefault("totalSpent", "0")),
+                    Integer.parseInt(params.getOrDefault("totalTickets", "0")));
+            if (!added) {
+                throw new Failure(409, "A member with ID " + MID + " already exists.");
+            }
+            return "{\"MID\": " + ResultStreamer.json(MID) + ", \"added\": true}";
+        }
+        if (path.length < 2) {
+            throw new Failure(404, "Unknown resource.");
+        }
+        String MID = path[1];
+        if (path.length == 2 && method.equals("PUT")) {
+            if (!ArcadeOperations.updateMember(store, MID, required(params, "name"), required(params, "phoneNo"), required(params, "address"))) {
+                throw new Failure(404, "No member found with ID: " + MID);
+            }
+            return "{\"MID\": " + ResultStreamer.json(MID) + ", \"updated\": true}";
+        }
+        if (path.length == 2 && method.equals("DELETE")) {
+            switch (ArcadeOperations.deleteMember(conn, ledger, MID)) {
+                case DELETED:
+                    return "{\"MID\": " + ResultStreamer.json(MID) + ", \"deleted\": true}";
+                case HAS_TICKETS:
+                    throw new Failure(409, "Member has more than " + ArcadeOperations.DELETE_TICKET_LIMIT + " tickets; redeem them first.");
+                default:
+                    throw new Failure(404, "No member found with ID: " + MID);
+            }
+        }
+        if (path.length == 3 && path[2].equals("tokens") && method.equals("POST")) {
+            double amount = Double.parseDouble(required(params, "amount"));
+            if (!Double.isFinite(amount) || amount <= 0 || amount > MAX_AMOUNT) {
+                throw new Failure(400, "amount must be a number above 0 and at most " + MAX_AMOUNT + ".");
+            }
+            ArcadeOperations.Purchase p;
+            try {
+                p = ArcadeOperations.buyTokens(conn, ledger, MID, amount, params.get("coupon"));
+            } catch (CouponEngine.Rejected e) {
+                throw new Failure(409, "COUPON_" + e.outcome.name());
+            }
+            if (p == null) {
+                throw new Failure(404, "Member ID not found.");
+            }
+            return String.format(Locale.ROOT, "{\"MID\": %s, \"tokens\": %d, \"charged\": %s, \"saved\": %s, " +
+                            "\"discountPercent\": %d, \"bonusTickets\": %d, \"tier\": %s}",
+                    ResultStreamer.json(MID), p.tokens(), p.charged(), p.saved(), p.discountPercent(), p.bonusTickets(),
+                    p.tier() == null ? "null" : ResultStreamer.json(p.tier()));
+        }
+        if (path.length == 3 && path[2].equals("redemptions") && method.equals("POST")) {
+            String prizeId = required(params, "prizeId");
+            RedemptionEngine.Outcome outcome;
+            try {
+                outcome = ArcadeOperations.redeem(conn, MID, prizeId, params.get("coupon"));
+            } catch (CouponEngine.Rejected e) {
+                throw new Failure(409, "COUPON_" + e.outcome.name());
+            }
+            if (outcome != RedemptionEngine.Outcome.ACCEPTED) {
+                throw new Failure(409, outcome.name());
+            }
+            return "{\"MID\": " + ResultStreamer.json(MID) + ", \"prizeId\": " + ResultStreamer.json(prizeId) + ", \"outcome\": \"ACCEPTED\"}";
+        }
+        throw new Failure(404, "Unknown resource.");
+    }
+
+    private String queries(Connection conn, String method, String[] path, Map<String, String> params) throws Failure, SQLException {
+        if (!method.equals("GET") || path.length != 2) {
+            throw new Failure(404, "Unknown resource.");
+        }
+        switch (path[1]) {
+            case "1":
+                return QueryFormatter.json(Queries.fetchQuery1(store, conn));
+            case "2":
+                return QueryFormatter.json(Queries.fetchQuery2(conn));
+            case "3": {
+                Queries.AffordablePrizes prizes = Queries.fetchQuery3(required(params, "MID"), store, conn);
+                if (!prizes.found()) {
+                    throw new Failure(404, "Could not find member with the given member ID: " + prizes.MID());
+                }
+                return QueryFormatter.json(prizes);
+            }
+            case "4": {
+                String MID = required(params, "MID");
+                if (MID.contains(",")) { // several members: one batched query, members without plays are left out
+                    return QueryFormatter.json(Queries.fetchQuery4Batch(Arrays.asList(MID.split("\\s*,\\s*")), store, conn));
+                }
+                Queries.BestScore best = Queries.fetchQuery4(MID, store, conn);
+                if (best == null) {
+                    throw new Failure(404, "Member has not played any games or does not exist!");
+                }
+                return QueryFormatter.json(best);
+            }
+            default:
+                throw new Failure(404, "Unknown query " + path[1]);
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) throws Failure {
+        String v = params.get(name);
+        if (v == null || v.isEmpty()) {
+            throw new Failure(400, "Missing parameter " + name);
+        }
+        return v;
+    }
+
+    private static String error(String message) {
+        return "{\"error\": " + ResultStreamer.json(message == null ? "" : message) + "}";
+    }
+
+    // Query string parameters, then form-encoded body parameters, which win on conflicts
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        if (!exchange.getRequestMethod().equals("GET")) {
+            try (InputStream in = exchange.getRequestBody()) {
+                parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> into) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            into.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value.trim(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: ArcadeStore.java describes where the arcade's records are kept as a set of
+ * repositories, one per table, so that code written against them runs the same on the Oracle
+ * schema and on the embedded single-node engine that needs no database server.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Class Name: ArcadeStore
+ * External Packages: None.
+ * Containing Package: Default package.
+ * Inheritance Information: Extends AutoCloseable. Implemented by JdbcStore and EmbeddedStore.
+ *
+ * Description: Every repository method is atomic on its own and durable when it returns; there is
+ * no transaction spanning several calls. Money is in whole cents. Deleting a member or game removes
+ * only that row: callers remove the dependent plays, purchases, redemptions and coupons first with
+ * the deleteByMember/deleteByGame methods, in the same order MemberPurge.deleteRelated uses, and a
+ * prize's redemptions with deleteByPrize.
+ *
+ * arcade.store selects the implementation: "jdbc" (default) keeps using the relational tables
+ * through the connection pool, "embedded" keeps everything in memory-mapped files under
+ * arcade.store.dir (default ./store).
+ *
+ * Constructor: None, this is an interface.
+ *
+ * Instance Methods:
+ * members(), games(), plays(), prizes(), purchases(), redemptions(), coupons(): The repositories.
+ * open(ConnectionPool pool): The store arcade.store selects.
+ */
+public interface ArcadeStore extends AutoCloseable {
+
+    record Member(String MID, String name, String phoneNo, String address, String tier, long spentCents, int tickets) {
+    }
+
+    record Game(String GID, String name, int tokenCost, double factor) {
+    }
+
+    record GamePlay(String GID, String MID, int score) {
+    }
+
+    record Prize(String prizeId, String description, int ticketCost, int inventory) {
+    }
+
+    record TokenPurchase(long PID, String MID, int tokens, LocalDate date, long amountCents) {
+    }
+
+    record PrizeRedemption(long xactId, String MID, String prizeId, LocalDate date) {
+    }
+
+    record Coupon(String couponId, String MID) {
+    }
+
+    interface MemberRepository {
+        Optional<Member> find(String MID) throws StoreException;
+
+        boolean insert(Member member) throws StoreException; // false if the MID is taken
+
+        boolean updateContact(String MID, String name, String phoneNo, String address) throws StoreException;
+
+        boolean addTotals(String MID, long spentCents, int tickets, String tier) throws StoreException; // tier null keeps it
+
+        boolean delete(String MID) throws StoreException;
+
+        long count() throws StoreException;
+    }
+
+    interface GameRepository {
+        Optional<Game> find(String GID) throws StoreException;
+
+        boolean insert(Game game) throws StoreException;
+
+        boolean delete(String GID) throws StoreException;
+
+        List<Game> all() throws StoreException;
+    }
+
+    interface GamePlayRepository {
+        void record(GamePlay play) throws StoreException;
+
+        Optional<GamePlay> bestOf(String MID) throws StoreException; // query 4
+
+        Map<String, GamePlay> highScores() throws StoreException; // query 1, by GID
+
+        void deleteByMember(String MID) throws StoreException;
+
+        void deleteByGame(String GID) throws StoreException;
+    }
+
+    interface PrizeRepository {
+        Optional<Prize> find(String prizeId) throws StoreException;
+
+        void add(Prize prize) throws StoreException; // an existing prize gains the inventory
+
+        boolean takeOne(String prizeId) throws StoreException; // false when out of stock
+
+        boolean delete(String prizeId) throws StoreException;
+
+        List<Prize> all() throws StoreException;
+    }
+
+    interface TokenPurchaseRepository {
+        long record(String MID, int tokens, long amountCents) throws StoreException; // returns the PID
+
+        Map<String, Long> spentSince(LocalDate from) throws StoreException; // query 2, cents by MID
+
+        void deleteByMember(String MID) throws StoreException;
+    }
+
+    interface PrizeRedemptionRepository {
+        long record(String MID, String prizeId) throws StoreException; // returns the XactID
+
+        List<PrizeRedemption> forMember(String MID) throws StoreException;
+
+        void deleteByMember(String MID) throws StoreException;
+
+        void deleteByPrize(String prizeId) throws StoreException; // before the prize itself is deleted
+    }
+
+    interface CouponRepository {
+        Optional<Coupon> find(String couponId) throws StoreException;
+
+        boolean insert(Coupon coupon) throws StoreException;
+
+        boolean delete(String couponId) throws StoreException;
+
+        void deleteByMember(String MID) throws StoreException;
+    }
+
+    /**
+     * A repository call that failed in the underlying database or files; the cause says which.
+     */
+    final class StoreException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public StoreException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+        // For callers that report every database failure as an SQLException; keeps the JDBC error codes
+        public SQLException asSQLException() {
+            return getCause() instanceof SQLException e
+                    ? new SQLException(getMessage(), e.getSQLState(), e.getErrorCode(), this)
+                    : new SQLException(getMessage(), this);
+        }
+    }
+
+    MemberRepository members();
+
+    GameRepository games();
+
+    GamePlayRepository plays();
+
+    PrizeRepository prizes();
+
+    TokenPurchaseRepository purchases();
+
+    PrizeRedemptionRepository redemptions();
+
+    CouponRepository coupons();
+
+    @Override
+    void close() throws StoreException;
+
+    /**
+     * Method Name: open
+     * Purpose: Opens the store selected by arcade.store.
+     * Pre-conditions: For "embedded", arcade.store.dir is writable.
+     * Post-conditions: Returns an open store the caller must close; the JDBC store does not close the pool.
+     * Parameters:
+     * - pool (in): Pool the JDBC store borrows its connections from.
+     */
+    static ArcadeStore open(ConnectionPool pool) throws StoreException {
+        String kind = System.getProperty("arcade.store", "jdbc");
+        switch (kind) {
+            case "jdbc":
+                return new JdbcStore(pool);
+            case "embedded":
+                try {
+                    return EmbeddedStore.open(Paths.get(System.getProperty("arcade.store.dir", "store")));
+                } catch (IOException e) {
+                    throw new StoreException("Could not open the embedded store", e);
+                }
+            default:
+                throw new IllegalArgumentException("arcade.store must be jdbc or embedded, not " + kind);
+        }
+    }
+}
@@ -0,0 +1,512 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: Benchmark.java measures the throughput and latency percentiles of the member, token,
+ * redemption and query paths against a local database seeded with realistic volumes, so that a
+ * change that slows a hot path shows up before it reaches the arcade floor.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * Usage: java -cp .:h2.jar -Darcade.jdbc.url="jdbc:h2:./arcade-bench;MODE=Oracle" Benchmark <user> <password> [seed] [benchmark ...]
+ * */
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class Name: Benchmark
+ * External Packages: java.sql, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Each benchmark calls the same code the menus and the service use (ArcadeOperations and
+ * the Queries fetch methods) from arcade.bench.threads threads (default 4), each with its own pooled
+ * connection. Like JMH, every benchmark first runs for arcade.bench.warmupSeconds (default 5) so the
+ * JIT, the statement cache and the database buffer cache are warm, then measures for
+ * arcade.bench.seconds (default 20). Every operation's latency is kept and the report gives
+ * throughput and the 50th, 90th, 99th and 99.9th percentiles.
+ *
+ * With the "seed" argument the schema is created and filled first: arcade.bench.members members
+ * (default 1,000,000), arcade.bench.plays GamePlay rows (default 50,000,000), 100 games and 200 prizes.
+ * Seeding is batched and committed every 10,000 rows. Benchmarks that change data either work on
+ * rows they create themselves (addMember) or roll back (deleteRelatedRecords), so repeated runs
+ * measure the same volumes.
+ *
+ * buyTokensContended is the stress test for concurrent purchases: every thread buys for the same
+ * arcade.bench.hotMembers members (default 8), so most purchases race another one for the same row.
+ * Afterwards the members' totals are checked against what the purchases reported, which fails if
+ * any update was lost or a tier bonus was paid twice.
+ *
+ * The store* benchmarks measure the ArcadeStore that arcade.store selects. They need no database
+ * connection with -Darcade.store=embedded; "seed" then fills the embedded store's members as well.
+ *
+ * tierEngine prices one purchase and tierEngineBatch prices 1,000 purchases by 100 members in one
+ * pass, without touching the database, to show the cost of the TierEngine arithmetic itself.
+ * tierInline prices the same purchases with the if/else branches buyTokens used before the loyalty
+ * rules were configurable, as the baseline for tierEngine; pass -Darcade.loyalty.rules to measure a
+ * rules file with promotions.
+ *
+ * memberTickets is the ticket lookup that starts most customer paths. Run it once as is and once
+ * with -Darcade.memberTable=true to compare the SELECT with the memory-mapped MemberTable; with the
+ * table on, the other benchmarks read and update it as the menus and the service do.
+ *
+ * couponCheck checks coupon codes at the till, one in ten of them valid: it first issues 1,000 bearer
+ * coupons of its own. Run it once as is and once with -Darcade.coupons=true to compare reading every
+ * code from the Coupon table with turning away the invalid ones through CouponEngine's Bloom filter.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * main(String[] args): Optionally seeds, then runs the named benchmarks (all of them by default).
+ */
+public class Benchmark {
+
+    private static final int GAMES = 100;
+    private static final int PRIZES = 200;
+    private static final int SEED_BATCH = 10_000;
+
+    private static final int MEMBERS = Integer.getInteger("arcade.bench.members", 1_000_000);
+    private static final long PLAYS = Long.getLong("arcade.bench.plays", 50_000_000L);
+    private static final int THREADS = Integer.getInteger("arcade.bench.threads", 4);
+    private static final int WARMUP_SECONDS = Integer.getInteger("arcade.bench.warmupSeconds", 5);
+    private static final int SECONDS = Integer.getInteger("arcade.bench.seconds", 20);
+    private static final int HOT_MEMBERS = Integer.getInteger("arcade.bench.hotMembers", 8);
+    private static final int PRICE_BATCH = 1_000;
+
+    /**
+     * One benchmarked operation; it runs on the calling thread's own connection.
+     */
+    private interface Op {
+        void run(Connection conn, ThreadLocalRandom random) throws Exception;
+    }
+
+    /**
+     * Throughput and latency of one benchmark.
+     */
+    public record Result(String name, long ops, long elapsedNanos, long[] sortedLatencyNanos) {
+
+        public double opsPerSecond() {
+            return ops * 1e9 / elapsedNanos;
+        }
+
+        public double percentileMillis(double p) {
+            if (sortedLatencyNanos.length == 0) {
+                return 0.0;
+            }
+            int i = (int) Math.ceil(p / 100.0 * sortedLatencyNanos.length) - 1;
+            return sortedLatencyNanos[Math.max(0, Math.min(i, sortedLatencyNanos.length - 1))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-22s %12.1f %10.3f %10.3f %10.3f %10.3f %10.3f",
+                    name, opsPerSecond(), percentileMillis(50), percentileMillis(90), percentileMillis(99),
+                    percentileMillis(99.9), sortedLatencyNanos.length == 0 ? 0.0 : sortedLatencyNanos[sortedLatencyNanos.length - 1] / 1e6);
+        }
+    }
+
+    // Growable per-thread latency buffer, so recording an operation does not allocate
+    private static final class Latencies {
+        long[] nanos = new long[1 << 16];
+        int size;
+
+        void add(long n) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = n;
+        }
+    }
+
+    private static final AtomicLong newMemberIds = new AtomicLong();
+    private static final String RUN_ID = Long.toString(System.currentTimeMillis(), 36);
+    private static final LongAdder contendedCents = new LongAdder();
+    private static final LongAdder contendedBonus = new LongAdder();
+    private static ArcadeStore store;
+    private static final TierEngine.Tier[] TIERS = TierEngine.Tier.values();
+    private static final String[] TIER_NAMES = { "Standard", "Gold", "Diamond" };
+    private static final ThreadLocal<TierEngine.Batch> priceBatches =
+            ThreadLocal.withInitial(() -> new TierEngine.Batch(PRICE_BATCH / 10, PRICE_BATCH));
+    private static volatile long priced; // keeps the JIT from dropping the pricing benchmarks' work
+    private static List<String> couponCodes = List.of();
+
+    /**
+     * Method Name: main
+     * Purpose: Seeds the benchmark database if asked to and runs the benchmarks.
+     * Pre-conditions: arcade.jdbc.url points at a scratch database, never at the production schema.
+     * Post-conditions: One result line per benchmark is printed.
+     * Parameters:
+     * - args (in): user, password, then optionally "seed" and the names of the benchmarks to run.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java Benchmark <user> <password> [seed] [benchmark ...]");
+            return;
+        }
+        Map<String, Op> benchmarks = new LinkedHashMap<>();
+        benchmarks.put("buyTokens", (conn, r) -> ArcadeOperations.buyTokens(conn, null, member(r), 1 + r.nextInt(40)));
+        benchmarks.put("buyTokensContended", (conn, r) -> {
+            ArcadeOperations.Purchase p = ArcadeOperations.buyTokens(conn, null, "M" + r.nextInt(HOT_MEMBERS), 1 + r.nextInt(40));
+            contendedCents.add(p.chargedCents());
+            contendedBonus.add(p.bonusTickets());
+        });
+        benchmarks.put("memberTickets", (conn, r) -> ArcadeOperations.ticketsOf(conn, member(r)));
+        benchmarks.put("redeemSelectedPrize", (conn, r) -> ArcadeOperations.redeem(conn, member(r), "P" + r.nextInt(PRIZES)));
+        benchmarks.put("addMember", (conn, r) -> ArcadeOperations.addMember(store,
+                "B" + RUN_ID + "-" + newMemberIds.incrementAndGet(), "Bench Member", "5205550100", "1 Arcade Way", "Standard", 0.0, 0));
+        benchmarks.put("deleteRelatedRecords", (conn, r) -> {
+            ArcadeOperations.deleteRelatedRecords(conn, member(r));
+            conn.rollback(); // measure the deletes without shrinking the data set
+        });
+        benchmarks.put("tierInline", (conn, r) -> priced = inlinePrice(TIER_NAMES[r.nextInt(TIER_NAMES.length)],
+                r.nextInt(60_000) / 100.0, (100 + r.nextInt(4_000)) / 100.0));
+        benchmarks.put("tierEngine", (conn, r) -> {
+            LoyaltyRules.Pricing rules = LoyaltyRules.pricing();
+            TierEngine.Tier tier = TierEngine.Tier.of(TIER_NAMES[r.nextInt(TIER_NAMES.length)]);
+            long amountCents = 100 + r.nextInt(4_000);
+            TierEngine.Tier upgraded = rules.upgrade(tier, r.nextInt(60_000) + amountCents);
+            priced = rules.chargedCents(tier, amountCents) + rules.tokens(tier, amountCents) + rules.bonusTickets(tier, upgraded);
+        });
+        benchmarks.put("tierEngineBatch", (conn, r) -> {
+            TierEngine.Batch batch = priceBatches.get();
+            batch.clear();
+            for (int m = 0; m < PRICE_BATCH / 10; m++) {
+                batch.addMember(TIERS[r.nextInt(TIERS.length)], r.nextInt(60_000));
+            }
+            for (int i = 0; i < PRICE_BATCH; i++) {
+                batch.addPurchase(r.nextInt(PRICE_BATCH / 10), 100 + r.nextInt(4_000));
+            }
+            priced = TierEngine.price(batch);
+        });
+        benchmarks.put("couponCheck", (conn, r) -> {
+            String code = r.nextInt(10) == 0
+                    ? couponCodes.get(r.nextInt(couponCodes.size()))
+                    : String.format("X%011d", r.nextLong(100_000_000_000L)); // well-formed but never issued
+            CouponEngine.check(conn, code, member(r), CouponEngine.Kind.TOKENS);
+        });
+        benchmarks.put("storeFindMember", (conn, r) -> store.members().find(member(r)));
+        benchmarks.put("storeAddTotals", (conn, r) -> store.members().addTotals(member(r), 500, 0, null));
+        benchmarks.put("query1", (conn, r) -> Queries.fetchQuery1(conn));
+        benchmarks.put("query2", (conn, r) -> Queries.fetchQuery2(conn));
+        benchmarks.put("query3", (conn, r) -> Queries.fetchQuery3(member(r), conn));
+        benchmarks.put("query4", (conn, r) -> Queries.fetchQuery4(member(r), conn));
+
+        List<String> selected = new ArrayList<>();
+        boolean seed = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("seed")) {
+                seed = true;
+            } else if (benchmarks.containsKey(args[i])) {
+                selected.add(args[i]);
+            } else {
+                System.out.println("Unknown benchmark " + args[i] + "; choose from " + benchmarks.keySet());
+                return;
+            }
+        }
+        if (selected.isEmpty()) {
+            selected.addAll(benchmarks.keySet());
+        }
+
+        try (ConnectionPool pool = ConnectionPool.fromSystemProperties("jdbc:h2:./arcade-bench;MODE=Oracle", args[0], args[1]);
+             ArcadeStore opened = ArcadeStore.open(pool)) {
+            store = opened;
+            boolean embedded = store instanceof EmbeddedStore;
+            if (seed && embedded) {
+                seedStore();
+            }
+            if (seed && !(embedded && selected.stream().allMatch(name -> name.startsWith("store")))) {
+                Connection conn = pool.borrow();
+                try {
+                    seed(conn);
+                } finally {
+                    pool.release(conn);
+                }
+            }
+            if (MemberTable.ENABLED) {
+                MemberTable.open(pool); // after seeding, so the table loads the seeded members
+                MemberTable.startSync(pool);
+            }
+            if (LoyaltyRules.FILE != null) {
+                LoyaltyRules.watch();
+            }
+            if (selected.contains("couponCheck")) {
+                if (CouponEngine.ENABLED) {
+                    CouponEngine.start(pool);
+                }
+                Connection conn = pool.borrow();
+                try {
+                    couponCodes = CouponEngine.issue(conn, CouponEngine.Kind.TOKENS, 10, null, Collections.nCopies(1_000, null));
+                } finally {
+                    pool.release(conn);
+                }
+            }
+            System.out.printf("%d threads, %d s warmup, %d s measured%n", THREADS, WARMUP_SECONDS, SECONDS);
+            System.out.printf("%-22s %12s %10s %10s %10s %10s %10s%n", "benchmark", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+            for (String name : selected) {
+                long[] before = name.equals("buyTokensContended") ? hotTotals(pool) : null;
+                boolean needsConnection = !(embedded && name.startsWith("store")) && !name.startsWith("tier");
+                System.out.println(run(pool, name, benchmarks.get(name), needsConnection));
+                if (before != null) {
+                    checkHotTotals(pool, before);
+                }
+            }
+            MemberTable.close(pool);
+            System.out.println(pool.stats());
+            System.out.println(StatementCache.summary());
+        }
+    }
+
+    // buyTokens' pricing before TierEngine and LoyaltyRules, kept as the tierInline baseline
+    private static long inlinePrice(String currentTier, double currentSpent, double amountSpent) {
+        double discount = 0.0;
+        if ("Diamond".equals(currentTier)) {
+            discount = 0.20;
+        } else if ("Gold".equals(currentTier)) {
+            discount = 0.10;
+        }
+        double discountedAmount = amountSpent * (1 - discount);
+        int tokensPurchased = (int) (amountSpent * 5);
+        double preDiscountSpent = currentSpent + amountSpent;
+        int bonusTickets = 0;
+        if (preDiscountSpent >= 500 && !"Diamond".equals(currentTier) && !"Gold".equals(currentTier)) {
+            bonusTickets = 15000;
+        } else if (preDiscountSpent >= 500 && "Gold".equals(currentTier)) {
+            bonusTickets = 10000;
+        } else if (preDiscountSpent >= 250 && !"Gold".equals(currentTier) && !"Diamond".equals(currentTier)) {
+            bonusTickets = 5000;
+        }
+        return Math.round(discountedAmount * 100) + tokensPurchased + bonusTickets;
+    }
+
+    private static String member(ThreadLocalRandom r) {
+        return "M" + r.nextInt(MEMBERS);
+    }
+
+    // Sum of the hot members' totalSpent in cents and of their totalTickets
+    private static long[] hotTotals(ConnectionPool pool) throws SQLException {
+        Connection conn = pool.borrow();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT totalSpent, totalTickets FROM hamadayaz.Member WHERE MID = ?")) {
+            long[] totals = new long[2];
+            for (int i = 0; i < HOT_MEMBERS; i++) {
+                stmt.setString(1, "M" + i);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        totals[0] += Math.round(rs.getDouble("totalSpent") * 100);
+                        totals[1] += rs.getLong("totalTickets");
+                    }
+                }
+            }
+            return totals;
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    /**
+     * Method Name: checkHotTotals
+     * Purpose: Verifies that buyTokensContended lost no purchase and paid no tier bonus twice.
+     * Pre-conditions: before was taken with hotTotals just before the benchmark; nothing else wrote to those members.
+     * Post-conditions: Prints whether the members' totals grew by exactly what the purchases reported.
+     * Parameters:
+     * - pool (in): Where to borrow a connection.
+     * - before (in): The hot members' totals before the run.
+     */
+    private static void checkHotTotals(ConnectionPool pool, long[] before) throws SQLException {
+        long[] after = hotTotals(pool);
+        long lostCents = contendedCents.sum() - (after[0] - before[0]);
+        long lostTickets = contendedBonus.sum() - (after[1] - before[1]);
+        System.out.printf("  %s: %d purchase conflicts retried, spend off by %d cents, tickets off by %d%n",
+                lostCents == 0 && lostTickets == 0 ? "consistent" : "INCONSISTENT",
+                ArcadeOperations.purchaseConflicts(), lostCents, lostTickets);
+    }
+
+    /**
+     * Method Name: run
+     * Purpose: Runs one benchmark: a warmup phase, then a measured phase on THREADS threads.
+     * Pre-conditions: The database is seeded.
+     * Post-conditions: Returns the measured throughput and latencies.
+     * Parameters:
+     * - pool (in): Where each thread borrows its connection.
+     * - name (in): Benchmark name for the report.
+     * - op (in): The operation to measure.
+     * - needsConnection (in): Whether each thread borrows a connection; op gets null otherwise.
+     */
+    private static Result run(ConnectionPool pool, String name, Op op, boolean needsConnection) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long warmupEnd = System.nanoTime() + WARMUP_SECONDS * 1_000_000_000L;
+            long measureEnd = warmupEnd + SECONDS * 1_000_000_000L;
+            List<Future<Latencies>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    Latencies latencies = new Latencies();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    Connection conn = needsConnection ? pool.borrow() : null;
+                    try {
+                        long now = System.nanoTime();
+                        while (now < measureEnd) {
+                            op.run(conn, random);
+                            long done = System.nanoTime();
+                            if (now >= warmupEnd) {
+                                latencies.add(done - now);
+                            }
+                            now = done;
+                        }
+                    } finally {
+                        pool.release(conn);
+                    }
+                    return latencies;
+                }));
+            }
+            long total = 0;
+            List<Latencies> all = new ArrayList<>();
+            for (Future<Latencies> f : futures) {
+                Latencies l = f.get();
+                all.add(l);
+                total += l.size;
+            }
+            long[] merged = new long[(int) total];
+            int at = 0;
+            for (Latencies l : all) {
+                System.arraycopy(l.nanos, 0, merged, at, l.size);
+                at += l.size;
+            }
+            Arrays.sort(merged);
+            return new Result(name, total, SECONDS * 1_000_000_000L, merged);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Method Name: seed
+     * Purpose: Creates the schema and fills it with MEMBERS members, PLAYS plays, GAMES games and PRIZES prizes.
+     * Pre-conditions: The database is empty; conn has auto-commit off.
+     * Post-conditions: All rows are committed.
+     * Parameters:
+     * - conn (in): Connection to the scratch database.
+     */
+    private static void seed(Connection conn) throws SQLException {
+        long start = System.nanoTime();
+        String[] ddl = {
+                "CREATE SCHEMA hamadayaz",
+                "CREATE TABLE hamadayaz.Member (MID VARCHAR2(20) PRIMARY KEY, name VARCHAR2(50), phoneNo VARCHAR2(20), " +
+                        "address VARCHAR2(100), tier VARCHAR2(20), totalSpent NUMBER(12,2), totalTickets NUMBER)",
+                "CREATE TABLE hamadayaz.Game (GID VARCHAR2(20) PRIMARY KEY, name VARCHAR2(50), tokenCost NUMBER, factor NUMBER)",
+                "CREATE TABLE hamadayaz.GamePlay (GID VARCHAR2(20) REFERENCES hamadayaz.Game, " +
+                        "MID VARCHAR2(20) REFERENCES hamadayaz.Member, score NUMBER)",
+                "CREATE TABLE hamadayaz.Prize (PrizeID VARCHAR2(20) PRIMARY KEY, description VARCHAR2(100), " +
+                        "ticketCost NUMBER, inventoryCount NUMBER)",
+                "CREATE TABLE hamadayaz.TokenPurchase (PID NUMBER PRIMARY KEY, MID VARCHAR2(20) REFERENCES hamadayaz.Member, " +
+                        "tokenNo NUMBER, purchaseDate DATE, amountSpent NUMBER(12,2))",
+                "CREATE TABLE hamadayaz.PrizeRedemption (XactID NUMBER PRIMARY KEY, MID VARCHAR2(20) REFERENCES hamadayaz.Member, " +
+                        "PrizeID VARCHAR2(20) REFERENCES hamadayaz.Prize, xactDate DATE)",
+                "CREATE TABLE hamadayaz.Coupon (couponID VARCHAR2(20) PRIMARY KEY, MID VARCHAR2(20) REFERENCES hamadayaz.Member, " +
+                        "kind VARCHAR2(6) DEFAULT 'TOKENS' NOT NULL, amount NUMBER DEFAULT 0 NOT NULL, issuedAt TIMESTAMP, " +
+                        "expiresOn DATE, redeemedOn DATE)",
+                "CREATE INDEX hamadayaz.TokenPurchase_mid ON hamadayaz.TokenPurchase (MID)",
+                "CREATE INDEX hamadayaz.TokenPurchase_date ON hamadayaz.TokenPurchase (purchaseDate)",
+                "CREATE INDEX hamadayaz.PrizeRedemption_mid ON hamadayaz.PrizeRedemption (MID)",
+                "CREATE INDEX hamadayaz.GamePlay_mid_score ON hamadayaz.GamePlay (MID, score DESC)",
+                "CREATE INDEX hamadayaz.GamePlay_gid_score ON hamadayaz.GamePlay (GID, score DESC)",
+                "CREATE SEQUENCE seq_token_purchase",
+                "CREATE SEQUENCE seq_prize_redemption",
+        };
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : ddl) {
+                stmt.execute(sql);
+            }
+        }
+        conn.commit();
+
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        String[] tiers = { "Standard", "Standard", "Standard", "Gold", "Diamond" };
+        try (PreparedStatement ins = conn.prepareStatement("INSERT INTO hamadayaz.Member VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < MEMBERS; i++) {
+                ins.setString(1, "M" + i);
+                ins.setString(2, "Member " + i);
+                ins.setString(3, String.format("520%07d", i % 10_000_000));
+                ins.setString(4, i + " Speedway Blvd");
+                ins.setString(5, tiers[r.nextInt(tiers.length)]);
+                ins.setDouble(6, r.nextInt(60_000) / 100.0);
+                ins.setInt(7, 1_000_000); // enough for redeemSelectedPrize to keep succeeding
+                addBatch(conn, ins, i);
+            }
+            ins.executeBatch();
+        }
+        try (PreparedStatement ins = conn.prepareStatement("INSERT INTO hamadayaz.Game VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < GAMES; i++) {
+                ins.setString(1, "G" + i);
+                ins.setString(2, "Game " + i);
+                ins.setInt(3, 1 + r.nextInt(4));
+                ins.setDouble(4, 0.01 * (1 + r.nextInt(10)));
+                ins.addBatch();
+            }
+            ins.executeBatch();
+        }
+        try (PreparedStatement ins = conn.prepareStatement("INSERT INTO hamadayaz.Prize VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < PRIZES; i++) {
+                ins.setString(1, "P" + i);
+                ins.setString(2, "Prize " + i);
+                ins.setInt(3, 10 + i * 250);
+                ins.setInt(4, 1_000_000_000);
+                ins.addBatch();
+            }
+            ins.executeBatch();
+        }
+        try (PreparedStatement ins = conn.prepareStatement("INSERT INTO hamadayaz.GamePlay VALUES (?, ?, ?)")) {
+            for (long i = 0; i < PLAYS; i++) {
+                ins.setString(1, "G" + r.nextInt(GAMES));
+                ins.setString(2, "M" + r.nextInt(MEMBERS));
+                ins.setInt(3, r.nextInt(100_000));
+                addBatch(conn, ins, i);
+            }
+            ins.executeBatch();
+        }
+        try (PreparedStatement ins = conn.prepareStatement(
+                "INSERT INTO hamadayaz.TokenPurchase VALUES (seq_token_purchase.nextval, ?, ?, CURRENT_DATE - ?, ?)")) {
+            for (int i = 0; i < MEMBERS; i++) { // one purchase per member spread over the last 90 days
+                int dollars = 5 + r.nextInt(200);
+                ins.setString(1, "M" + i);
+                ins.setInt(2, dollars * 5);
+                ins.setInt(3, r.nextInt(90));
+                ins.setDouble(4, dollars);
+                addBatch(conn, ins, i);
+            }
+            ins.executeBatch();
+        }
+        conn.commit();
+        System.out.printf("Seeded %d members, %d plays in %.1f s%n", MEMBERS, PLAYS, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Method Name: seedStore
+     * Purpose: Fills the embedded store with MEMBERS members like the ones seed() inserts.
+     * Pre-conditions: The store is embedded.
+     * Post-conditions: Members that already exist are left alone, so seeding twice is harmless.
+     * Parameters: None.
+     */
+    private static void seedStore() throws ArcadeStore.StoreException {
+        long start = System.nanoTime();
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        for (int i = 0; i < MEMBERS; i++) {
+            store.members().insert(new ArcadeStore.Member("M" + i, "Member " + i, String.format("520%07d", i % 10_000_000),
+                    i + " Speedway Blvd", "Standard", r.nextInt(60_000), 1_000_000));
+        }
+        System.out.printf("Seeded %d store members in %.1f s%n", MEMBERS, (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void addBatch(Connection conn, PreparedStatement ins, long i) throws SQLException {
+        ins.addBatch();
+        if ((i + 1) % SEED_BATCH == 0) {
+            ins.executeBatch();
+            conn.commit();
+            if ((i + 1) % (SEED_BATCH * 100) == 0) {
+                System.out.println("  seeded " + (i + 1) + " rows");
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: BulkImport.java loads members, games and prizes from CSV files when a new venue is
+ * onboarded. Rows are streamed from the file, validated, and written with JDBC batches in chunks,
+ * with one commit per chunk instead of one per record as the interactive add operations do.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class Name: BulkImport
+ * External Packages: java.io, java.nio.file, java.sql
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Each import kind describes its columns, how to validate a row and the statement that
+ * writes it. Valid rows are added to a batch; every chunkSize rows the batch is executed and
+ * committed. If the database rejects a chunk (for example a duplicate member ID), the chunk is rolled
+ * back and replayed row by row so the good rows still load and only the offending rows are reported.
+ * Prize rows are upserted with MERGE, adding inventory to existing prizes like addOrUpdatePrize does,
+ * rather than selecting each prize first. An optional header line is recognised and skipped.
+ * Once a chunk or replayed row commits, its members go into MemberTable and its games onto the
+ * Leaderboard, as addMember and addGame do for single records.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * importFile(Connection conn, Kind kind, Path csv, int chunkSize): Loads one CSV file and reports the result.
+ * parseLine(String line): Splits one CSV line, honouring double-quoted fields.
+ */
+public class BulkImport {
+
+    private static final int MAX_REPORTED_REJECTIONS = 20;
+
+    /**
+     * The record types that can be imported, with their CSV columns and write statement.
+     */
+    public enum Kind {
+        MEMBERS("MID,name,phoneNo,address,tier,totalSpent,totalTickets",
+                "INSERT INTO hamadayaz.Member (MID, name, phoneNo, address, tier, totalSpent, totalTickets) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)"),
+        GAMES("GID,name,tokenCost,factor",
+                "INSERT INTO hamadayaz.Game (GID, name, tokenCost, factor) VALUES (?, ?, ?, ?)"),
+        PRIZES("prizeID,description,ticketCost,inventoryCount",
+                "MERGE INTO hamadayaz.Prize p " +
+                "USING (SELECT ? AS prizeID, ? AS description, ? AS ticketCost, ? AS inventoryCount FROM dual) s " +
+                "ON (p.prizeID = s.prizeID) " +
+                "WHEN MATCHED THEN UPDATE SET p.inventoryCount = p.inventoryCount + s.inventoryCount " +
+                "WHEN NOT MATCHED THEN INSERT (prizeID, description, ticketCost, inventoryCount) " +
+                "VALUES (s.prizeID, s.description, s.ticketCost, s.inventoryCount)");
+
+        final String[] columns;
+        final String sql;
+
+        Kind(String columns, String sql) {
+            this.columns = columns.split(",");
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Outcome of one import: counts, elapsed time and the first few rejected rows.
+     */
+    public record Report(Kind kind, long accepted, long rejected, long elapsedNanos, List<String> rejections) {
+
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : accepted * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(
+                    "%s import: %d row(s) loaded, %d rejected in %.2fs (%.0f rows/s)",
+                    kind, accepted, rejected, elapsedNanos / 1e9, rowsPerSecond()));
+            for (String r : rejections) {
+                sb.append("\n  rejected ").append(r);
+            }
+            if (rejected > rejections.size()) {
+                sb.append("\n  ... ").append(rejected - rejections.size()).append(" more");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A validated row, kept until its chunk commits so the chunk can be replayed row by row.
+     */
+    private record Row(long lineNo, String[] fields) {
+    }
+
+    /**
+     * Method Name: importFile
+     * Purpose: Streams a CSV file into the table for kind.
+     * Pre-conditions: conn has auto-commit off; the file is UTF-8 with one record per line.
+     * Post-conditions: Every valid row that the database accepted is committed.
+     * Parameters:
+     * - conn (in): Connection to load through.
+     * - kind (in): What the file contains.
+     * - csv (in): Path of the CSV file.
+     * - chunkSize (in): Rows per batch and per commit.
+     */
+    public static Report importFile(Connection conn, Kind kind, Path csv, int chunkSize) throws IOException, SQLException {
+        long start = System.nanoTime();
+        long[] counts = new long[2]; // accepted, rejected
+        List<String> rejections = new ArrayList<>();
+        List<Row> chunk = new ArrayList<>(chunkSize);
+        PreparedStatement pstmt = StatementCache.of(conn).prepare(kind.sql);
+
+        try (BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            long lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank() || (lineNo == 1 && isHeader(kind, line))) {
+                    continue;
+                }
+                String[] fields = parseLine(line);
+                String problem = validate(kind, fields);
+                if (problem != null) {
+                    reject(counts, rejections, lineNo, problem);
+                    continue;
+                }
+                bind(kind, pstmt, fields);
+                pstmt.addBatch();
+                chunk.add(new Row(lineNo, fields));
+                if (chunk.size() >= chunkSize) {
+                    writeChunk(conn, kind, pstmt, chunk, counts, rejections);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(conn, kind, pstmt, chunk, counts, rejections);
+        }
+        return new Report(kind, counts[0], counts[1], System.nanoTime() - start, rejections);
+    }
+
+    private static void writeChunk(Connection conn, Kind kind, PreparedStatement pstmt, List<Row> chunk,
+                                   long[] counts, List<String> rejections) throws SQLException {
+        try {
+            pstmt.executeBatch();
+            conn.commit();
+            counts[0] += chunk.size();
+            for (Row row : chunk) {
+                committed(kind, row.fields());
+            }
+        } catch (BatchUpdateException e) {
+            conn.rollback();
+            pstmt.clearBatch();
+            // Replay the chunk one row at a time to find the rows the database refuses
+            for (Row row : chunk) {
+                try {
+                    bind(kind, pstmt, row.fields());
+                    pstmt.executeUpdate();
+                    conn.commit();
+                    counts[0]++;
+                    committed(kind, row.fields());
+                } catch (SQLException rowError) {
+                    conn.rollback();
+                    reject(counts, rejections, row.lineNo(), rowError.getMessage().trim());
+                }
+            }
+        }
+        chunk.clear();
+    }
+
+    // Keeps the in-memory structures in step with a committed row
+    private static void committed(Kind kind, String[] f) {
+        switch (kind) {
+            case MEMBERS:
+                MemberTable.put(f[0], f[4], Math.round(Double.parseDouble(f[5]) * 100), Integer.parseInt(f[6]));
+                break;
+            case GAMES:
+                Leaderboard.addGame(f[0], f[1]);
+                break;
+            case PRIZES:
+                break; // the caller reloads the PrizeCatalog after the import
+        }
+    }
+
+    private static void bind(Kind kind, PreparedStatement pstmt, String[] f) throws SQLException {
+        switch (kind) {
+            case MEMBERS:
+                pstmt.setString(1, f[0]);
+                pstmt.setString(2, f[1]);
+                pstmt.setString(3, f[2]);
+                pstmt.setString(4, f[3]);
+                pstmt.setString(5, f[4]);
+                pstmt.setDouble(6, Double.parseDouble(f[5]));
+                pstmt.setInt(7, Integer.parseInt(f[6]));
+                break;
+            case GAMES:
+                pstmt.setString(1, f[0]);
+                pstmt.setString(2, f[1]);
+                pstmt.setInt(3, Integer.parseInt(f[2]));
+                pstmt.setDouble(4, Double.parseDouble(f[3]));
+                break;
+            case PRIZES:
+                pstmt.setString(1, f[0]);
+                pstmt.setString(2, f[1]);
+                pstmt.setInt(3, Integer.parseInt(f[2]));
+                pstmt.setInt(4, Integer.parseInt(f[3]));
+                break;
+        }
+    }
+
+    /**
+     * Method Name: validate
+     * Purpose: Checks a parsed row before it is sent to the database.
+     * Pre-conditions: None.
+     * Post-conditions: Returns null for a valid row, otherwise a description of the problem.
+     * Parameters:
+     * - kind (in): The import kind.
+     * - f (in): The row's fields.
+     */
+    private static String validate(Kind kind, String[] f) {
+        if (f.length != kind.columns.length) {
+            return "expected " + kind.columns.length + " fields but found " + f.length;
+        }
+        if (f[0].isEmpty()) {
+            return kind.columns[0] + " is empty";
+        }
+        try {
+            switch (kind) {
+                case MEMBERS:
+                    if (Double.parseDouble(f[5]) < 0 || Integer.parseInt(f[6]) < 0) {
+                        return "totalSpent and totalTickets must not be negative";
+                    }
+                    break;
+                case GAMES:
+                    if (Integer.parseInt(f[2]) < 0 || Double.parseDouble(f[3]) < 0) {
+                        return "tokenCost and factor must not be negative";
+                    }
+                    break;
+                case PRIZES:
+                    if (Integer.parseInt(f[2]) < 0 || Integer.parseInt(f[3]) < 0) {
+                        return "ticketCost and inventoryCount must not be negative";
+                    }
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            return "not a number: " + e.getMessage();
+        }
+        return null;
+    }
+
+    private static boolean isHeader(Kind kind, String line) {
+        String[] f = parseLine(line);
+        return f.length > 0 && f[0].equalsIgnoreCase(kind.columns[0]);
+    }
+
+    private static void reject(long[] counts, List<String> rejections, long lineNo, String problem) {
+        counts[1]++;
+        if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+            rejections.add("line " + lineNo + ": " + problem);
+        }
+    }
+
+    /**
+     * Method Name: parseLine
+     * Purpose: Splits a CSV line into trimmed fields; double quotes protect commas, "" is a literal quote.
+     * Pre-conditions: line is a single physical line.
+     * Post-conditions: Returns the fields.
+     * Parameters:
+     * - line (in): The CSV line.
+     */
+    static String[] parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,326 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: ConnectionPool.java keeps a bounded set of JDBC connections that the menu,
+ * query and service paths check out and return, instead of sharing the one static
+ * connection that Project.main used to open. The JDBC URL is configurable so the same code
+ * runs against the Oracle instance or a local embedded database for load testing.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class Name: ConnectionPool
+ * External Packages: java.sql, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: Implements AutoCloseable.
+ *
+ * Description: A bounded JDBC connection pool. A semaphore caps the number of open connections,
+ * idle connections are kept in a LIFO deque so the most recently used (warmest) one is handed out
+ * first, and a daemon thread closes connections that have sat idle longer than the idle timeout.
+ * Connections that were idle for a while are validated with Connection.isValid before being handed
+ * out. Every connection is opened with auto-commit off, matching how Project manages transactions,
+ * and handed out wrapped by Metrics.instrument so its round trips, commits and rollbacks are counted.
+ *
+ * Constructor: ConnectionPool(url, username, password, maxSize, idleTimeoutMillis, checkoutTimeoutMillis)
+ *
+ * Instance Methods:
+ * borrow(): Checks a connection out of the pool, opening a new one if none are idle.
+ * release(Connection conn): Returns a checked-out connection, rolling back any uncommitted work.
+ * stats(): Returns a snapshot of the pool metrics.
+ * newTaskExecutor(int fallbackThreads): Virtual-thread executor for pooled-connection tasks.
+ * close(): Closes every idle connection and stops the eviction thread.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 5_000; // idle time after which a connection is re-validated
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long checkoutTimeoutMillis;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final ConcurrentHashMap<Connection, PooledConnection> active = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    // metrics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * A physical connection, the instrumented view of it that callers get, and the time it was last
+     * returned to the pool. The pool's own housekeeping uses the physical connection, so its
+     * rollbacks and validations are not counted as application work.
+     */
+    private static final class PooledConnection {
+        final Connection physical;
+        final Connection conn;
+        volatile long lastUsedMillis;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.conn = Metrics.instrument(physical);
+            this.lastUsedMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Snapshot of the pool metrics at one point in time.
+     */
+    public record Stats(int active, int idle, int maxSize, long created, long destroyed, long evicted,
+                        long checkouts, long timeouts, long totalWaitNanos, long maxWaitNanos) {
+
+        public double averageWaitMillis() {
+            return checkouts == 0 ? 0.0 : totalWaitNanos / 1e6 / checkouts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("pool active=%d idle=%d max=%d created=%d destroyed=%d evicted=%d " +
+                            "checkouts=%d timeouts=%d avgWait=%.3fms maxWait=%.3fms",
+                    active, idle, maxSize, created, destroyed, evicted, checkouts, timeouts,
+                    averageWaitMillis(), maxWaitNanos / 1e6);
+        }
+    }
+
+    /**
+     * Method Name: ConnectionPool (constructor)
+     * Purpose: Creates an empty pool; connections are opened lazily on first checkout.
+     * Pre-conditions: A JDBC driver for the URL must be on the classpath.
+     * Post-conditions: The idle-eviction thread is running.
+     * Parameters:
+     * - url (in): JDBC URL to connect to.
+     * - username, password (in): Database credentials.
+     * - maxSize (in): Maximum number of open connections.
+     * - idleTimeoutMillis (in): Idle connections older than this are closed.
+     * - checkoutTimeoutMillis (in): How long borrow() waits for a free connection before failing.
+     */
+    public ConnectionPool(String url, String username, String password, int maxSize,
+                          long idleTimeoutMillis, long checkoutTimeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method Name: fromSystemProperties
+     * Purpose: Builds a pool from the arcade.jdbc.url and arcade.pool.* system properties.
+     * Pre-conditions: None.
+     * Post-conditions: Returns a new pool; defaultUrl is used when arcade.jdbc.url is not set.
+     * Parameters:
+     * - defaultUrl (in): URL used when no override is configured.
+     * - username, password (in): Database credentials.
+     */
+    public static ConnectionPool fromSystemProperties(String defaultUrl, String username, String password) {
+        String url = System.getProperty("arcade.jdbc.url", defaultUrl);
+        int maxSize = Integer.getInteger("arcade.pool.maxSize", 8);
+        long idleTimeout = Long.getLong("arcade.pool.idleTimeoutMs", 300_000L);
+        long checkoutTimeout = Long.getLong("arcade.pool.checkoutTimeoutMs", 30_000L);
+        return new ConnectionPool(url, username, password, maxSize, idleTimeout, checkoutTimeout);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Method Name: borrow
+     * Purpose: Checks a connection out of the pool.
+     * Pre-conditions: The pool has not been closed.
+     * Post-conditions: Returns a valid connection with auto-commit off; the caller must release() it.
+     * Parameters: None.
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + checkoutTimeoutMillis + "ms waiting for a pooled connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        checkouts.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (isHealthy(pc)) {
+                    break;
+                }
+                destroy(pc);
+            }
+            if (pc == null) {
+                pc = open();
+            }
+            active.put(pc.conn, pc);
+            return pc.conn;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Method Name: release
+     * Purpose: Returns a connection obtained from borrow().
+     * Pre-conditions: conn was checked out of this pool.
+     * Post-conditions: Uncommitted work is rolled back and the connection is idle again, or closed if broken.
+     * Parameters:
+     * - conn (in): The connection to return.
+     */
+    public void release(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        PooledConnection pc = active.remove(conn);
+        if (pc == null) {
+            return; // not ours, or released twice
+        }
+        try {
+            if (closed || pc.physical.isClosed()) {
+                destroy(pc);
+                return;
+            }
+            pc.physical.rollback(); // never hand out a connection with someone else's open transaction
+            if (pc.physical.isReadOnly()) {
+                pc.physical.setReadOnly(false);
+            }
+            pc.lastUsedMillis = System.currentTimeMillis();
+            idle.offerFirst(pc);
+        } catch (SQLException e) {
+            destroy(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Method Name: stats
+     * Purpose: Reports active/idle counts, wait times and lifecycle counters.
+     * Pre-conditions: None.
+     * Post-conditions: Returns an immutable snapshot.
+     * Parameters: None.
+     */
+    public Stats stats() {
+        return new Stats(active.size(), idle.size(), maxSize, created.get(), destroyed.get(), evicted.get(),
+                checkouts.get(), timeouts.get(), totalWaitNanos.get(), maxWaitNanos.get());
+    }
+
+    /**
+     * Method Name: close
+     * Purpose: Shuts the pool down.
+     * Pre-conditions: None.
+     * Post-conditions: Idle connections are closed; checked-out ones are closed when released.
+     * Parameters: None.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+    }
+
+    /**
+     * Method Name: newTaskExecutor
+     * Purpose: Creates an executor for tasks that each borrow a connection for their whole run.
+     * Pre-conditions: None.
+     * Post-conditions: Returns a virtual-thread-per-task executor when the JVM has one (Java 21 and
+     *                  later, looked up reflectively so this still compiles on older JDKs), otherwise
+     *                  a fixed pool of platform threads; the pool size is what bounds database work.
+     * Parameters:
+     * - fallbackThreads (in): Number of platform threads when virtual threads are unavailable.
+     */
+    public static ExecutorService newTaskExecutor(int fallbackThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(fallbackThreads);
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, username, password);
+        conn.setAutoCommit(false);
+        created.incrementAndGet();
+        return new PooledConnection(conn);
+    }
+
+    private boolean isHealthy(PooledConnection pc) {
+        try {
+            if (pc.physical.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - pc.lastUsedMillis < VALIDATE_AFTER_IDLE_MILLIS) {
+                return true; // recently used, skip the round trip
+            }
+            return pc.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        Iterator<PooledConnection> it = idle.descendingIterator(); // oldest first
+        while (it.hasNext()) {
+            PooledConnection pc = it.next();
+            if (pc.lastUsedMillis < cutoff && idle.remove(pc)) {
+                evicted.incrementAndGet();
+                destroy(pc);
+            }
+        }
+    }
+
+    private void destroy(PooledConnection pc) {
+        StatementCache.release(pc.conn);
+        try {
+            pc.physical.close();
+        } catch (SQLException ignored) {
+            // connection is already unusable
+        }
+        destroyed.incrementAndGet();
+    }
+}
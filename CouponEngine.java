@@ -0,0 +1,488 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: CouponEngine.java issues coupons in bulk, checks and redeems them at the token counter
+ * and the prize counter, and deletes them once they expire. An in-memory Bloom filter of the
+ * outstanding codes turns away mistyped and made-up codes without a database round trip, and each
+ * coupon is claimed with one conditional UPDATE, so it can only ever be used once.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.security.SecureRandom;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class Name: CouponEngine
+ * External Packages: java.sql, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: A coupon (the Coupon table, extended in extensions.sql) is either
+ *   TOKENS - amount percent off one token purchase, after the tier discount, or
+ *   PRIZE  - amount tickets off one prize redemption,
+ * held by one member (MID) or by whoever presents it (MID null), and valid until expiresOn
+ * (inclusive; null for never). Codes are 12 characters from SecureRandom and are matched ignoring
+ * case.
+ *
+ * Claiming sets redeemedOn with an UPDATE whose WHERE clause repeats every check (kind, holder,
+ * not redeemed, not expired), inside the purchase or redemption transaction. Of two counters
+ * claiming the same coupon at once, the second waits for the first's row lock and then matches no
+ * row. A purchase that fails gives its coupon back by rolling back.
+ *
+ * With -Darcade.coupons=true, start() loads the codes of the outstanding coupons into a Bloom filter
+ * (about 1% false positives). A code the filter has never seen is rejected as UNKNOWN at once, and a
+ * code claimed since is rejected as ALREADY_USED; every other code is read from the table. Codes
+ * issued elsewhere are added every arcade.coupons.refreshMs (default 5000). Once a day the expired
+ * coupons are deleted and the filter is rebuilt. Codes expired or redeemed before a rebuild are
+ * reported as UNKNOWN after it. Without arcade.coupons every check reads the table.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * issue(Connection conn, Kind kind, int amount, LocalDate expiresOn, List<String> holders): Issues coupons.
+ * check(Connection conn, String code, String MID, Kind kind): Whether a coupon can be used, without using it.
+ * claim(Connection conn, String code, String MID, Kind kind): Uses a coupon inside the caller's transaction.
+ * claimed(String code): Records a claim the caller has committed.
+ * expire(Connection conn): Deletes expired coupons.
+ * start(ConnectionPool pool): Loads the filter and starts the refresh and expiry jobs.
+ */
+public class CouponEngine {
+
+    public static final boolean ENABLED = Boolean.getBoolean("arcade.coupons");
+
+    public enum Kind { TOKENS, PRIZE }
+
+    /**
+     * Whether a coupon can be used, and why not.
+     */
+    public enum Outcome { ACCEPTED, UNKNOWN, ALREADY_USED, EXPIRED, WRONG_MEMBER, WRONG_KIND }
+
+    /**
+     * Outcome of a check; amount is the coupon's percent or tickets off when it is ACCEPTED.
+     */
+    public record Check(Outcome outcome, int amount) {
+    }
+
+    /**
+     * A coupon a purchase or redemption could not use.
+     */
+    public static final class Rejected extends Exception {
+        private static final long serialVersionUID = 1L;
+        public final Outcome outcome;
+
+        public Rejected(Outcome outcome) {
+            super("Coupon rejected: " + outcome);
+            this.outcome = outcome;
+        }
+    }
+
+    private static final int CODE_LENGTH = 12;
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray(); // no I, L, O, U
+    private static final int ISSUE_BATCH = 1_000;
+    private static final int EXPIRE_CHUNK = 10_000;
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final String INSERT =
+            "INSERT INTO hamadayaz.Coupon (couponID, MID, kind, amount, issuedAt, expiresOn) " +
+            "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, ?)";
+    private static final String FIND =
+            "SELECT MID, kind, amount, expiresOn, redeemedOn FROM hamadayaz.Coupon WHERE couponID = ?";
+    private static final String CLAIM =
+            "UPDATE hamadayaz.Coupon SET redeemedOn = CURRENT_DATE " +
+            "WHERE couponID = ? AND kind = ? AND redeemedOn IS NULL " +
+            "AND (expiresOn IS NULL OR expiresOn >= TRUNC(CURRENT_DATE)) AND (MID IS NULL OR MID = ?)";
+    private static final String AMOUNT = "SELECT amount FROM hamadayaz.Coupon WHERE couponID = ?";
+    private static final String OUTSTANDING =
+            "SELECT couponID FROM hamadayaz.Coupon " +
+            "WHERE redeemedOn IS NULL AND (expiresOn IS NULL OR expiresOn >= TRUNC(CURRENT_DATE))";
+    private static final String ISSUED_SINCE = "SELECT couponID, issuedAt FROM hamadayaz.Coupon WHERE issuedAt > ?";
+    private static final String DELETE_EXPIRED =
+            "DELETE FROM hamadayaz.Coupon WHERE expiresOn < TRUNC(CURRENT_DATE) AND ROWNUM <= " + EXPIRE_CHUNK;
+
+    private static volatile Bloom filter; // null until start()
+    private static final Set<String> used = ConcurrentHashMap.newKeySet(); // claimed since the filter was built
+    private static final Object rebuildLock = new Object();
+    private static List<String> issuedDuringRebuild; // guarded by rebuildLock
+    private static Timestamp refreshedUpTo = new Timestamp(0);
+    private static ScheduledExecutorService scheduler;
+    private static final LongAdder fastRejects = new LongAdder();
+    private static final LongAdder lookups = new LongAdder();
+    private static final LongAdder claims = new LongAdder();
+
+    /**
+     * Bloom filter over coupon codes: bits set with AtomicLongArray so adds need no lock, read without one.
+     */
+    private static final class Bloom {
+        private static final int HASHES = 7;
+        private final AtomicLongArray bits;
+        private final long mask;
+        final long capacity;
+        final LongAdder added = new LongAdder();
+        private volatile boolean otherLengths; // holds a code not made by newCode(), e.g. one issued before it
+
+        Bloom(long expected) {
+            capacity = Math.max(1_024, expected * 2);
+            long size = Long.highestOneBit(capacity * 10 - 1) << 1; // about 10 bits per code
+            bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, size / 64));
+            mask = (long) bits.length() * 64 - 1;
+        }
+
+        void add(String code) {
+            long h1 = hash(code);
+            long h2 = (h1 >>> 32 | h1 << 32) * 0x9e3779b97f4a7c15L | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = (h1 + i * h2) & mask;
+                int word = (int) (bit >>> 6);
+                long m = 1L << bit;
+                long old;
+                while (((old = bits.get(word)) & m) == 0 && !bits.compareAndSet(word, old, old | m)) {
+                    Thread.onSpinWait();
+                }
+            }
+            if (code.length() != CODE_LENGTH) {
+                otherLengths = true;
+            }
+            added.increment();
+        }
+
+        // Whether the code was never added; a length no added code has rules it out without hashing
+        boolean rejects(String code) {
+            return (code.length() != CODE_LENGTH && !otherLengths) || !mightContain(code);
+        }
+
+        boolean mightContain(String code) {
+            long h1 = hash(code);
+            long h2 = (h1 >>> 32 | h1 << 32) * 0x9e3779b97f4a7c15L | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = (h1 + i * h2) & mask;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long hash(String code) {
+            long h = 0xcbf29ce484222325L; // FNV-1a
+            for (int i = 0; i < code.length(); i++) {
+                h = (h ^ code.charAt(i)) * 0x100000001b3L;
+            }
+            return h ^ (h >>> 31);
+        }
+    }
+
+    // The code as stored, or null for no code
+    public static String normalize(String code) {
+        if (code == null || code.isBlank()) {
+            return null;
+        }
+        return code.trim().toUpperCase(Locale.ROOT);
+    }
+
+    private static String newCode() {
+        char[] code = new char[CODE_LENGTH];
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            code[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(code);
+    }
+
+    // Makes a code usable for checks; during a rebuild it also goes into the filter being built
+    private static void remember(String code) {
+        synchronized (rebuildLock) {
+            Bloom f = filter;
+            if (f != null) {
+                f.add(code);
+            }
+            if (issuedDuringRebuild != null) {
+                issuedDuringRebuild.add(code);
+            }
+        }
+    }
+
+    /**
+     * Method Name: issue
+     * Purpose: Issues one coupon per entry of holders, all in one transaction.
+     * Pre-conditions: amount is 1-100 for TOKENS and positive for PRIZE; non-null holders are members.
+     * Post-conditions: All coupons are committed and usable at once, or none is.
+     * Parameters:
+     * - conn (in): Connection to write with.
+     * - kind, amount (in): Percent off a token purchase or tickets off a prize.
+     * - expiresOn (in): Last day the coupons can be used, or null for never.
+     * - holders (in): The member each coupon is for, or null for a coupon anyone can present.
+     * Returns: The codes, in the order of holders.
+     */
+    public static List<String> issue(Connection conn, Kind kind, int amount, LocalDate expiresOn, List<String> holders) throws SQLException {
+        if (amount <= 0 || (kind == Kind.TOKENS && amount > 100)) {
+            throw new IllegalArgumentException("A " + kind + " coupon cannot be worth " + amount);
+        }
+        List<String> codes = new ArrayList<>(holders.size());
+        try (Metrics.Span span = Metrics.start("issueCoupons")) {
+            PreparedStatement insert = StatementCache.of(conn).prepare(INSERT);
+            for (String MID : holders) {
+                String code = newCode();
+                insert.setString(1, code);
+                insert.setString(2, MID);
+                insert.setString(3, kind.name());
+                insert.setInt(4, amount);
+                insert.setDate(5, expiresOn == null ? null : Date.valueOf(expiresOn));
+                insert.addBatch();
+                codes.add(code);
+                if (codes.size() % ISSUE_BATCH == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            conn.commit();
+            span.rows(codes.size());
+        } catch (SQLException e) {
+            conn.rollback();
+            StatementCache.of(conn).prepare(INSERT).clearBatch();
+            throw e;
+        }
+        for (String code : codes) {
+            remember(code);
+        }
+        return codes;
+    }
+
+    /**
+     * Method Name: check
+     * Purpose: Tells whether a member can use a coupon for a purchase or redemption, without using it.
+     * Pre-conditions: None.
+     * Post-conditions: Returns the outcome and, if ACCEPTED, the coupon's amount. Codes the filter rules out cost no round trip.
+     * Parameters:
+     * - conn (in): Connection to read with.
+     * - code (in): The code as entered.
+     * - MID (in): The member using it.
+     * - kind (in): TOKENS at the token counter, PRIZE at the prize counter.
+     */
+    public static Check check(Connection conn, String code, String MID, Kind kind) throws SQLException {
+        code = normalize(code);
+        Bloom f = filter;
+        if (code == null || (f != null && f.rejects(code))) {
+            fastRejects.increment();
+            return new Check(Outcome.UNKNOWN, 0);
+        }
+        if (used.contains(code)) {
+            fastRejects.increment();
+            return new Check(Outcome.ALREADY_USED, 0);
+        }
+        lookups.increment();
+        PreparedStatement find = StatementCache.of(conn).prepare(FIND);
+        find.setString(1, code);
+        try (ResultSet rs = find.executeQuery()) {
+            if (!rs.next()) {
+                return new Check(Outcome.UNKNOWN, 0);
+            }
+            Date expiresOn = rs.getDate("expiresOn");
+            String holder = rs.getString("MID");
+            if (rs.getDate("redeemedOn") != null) {
+                return new Check(Outcome.ALREADY_USED, 0);
+            }
+            if (expiresOn != null && expiresOn.toLocalDate().isBefore(LocalDate.now())) {
+                return new Check(Outcome.EXPIRED, 0);
+            }
+            if (holder != null && !holder.equals(MID)) {
+                return new Check(Outcome.WRONG_MEMBER, 0);
+            }
+            if (!kind.name().equals(rs.getString("kind"))) {
+                return new Check(Outcome.WRONG_KIND, 0);
+            }
+            return new Check(Outcome.ACCEPTED, rs.getInt("amount"));
+        }
+    }
+
+    /**
+     * Method Name: claim
+     * Purpose: Uses a coupon as part of the caller's transaction.
+     * Pre-conditions: The caller commits or rolls back afterwards, and calls claimed(code) after a commit.
+     * Post-conditions: Returns the coupon's amount, with the coupon marked redeemed but not committed; or -1,
+     *                  changing nothing, if it cannot be used (check() then says why).
+     * Parameters:
+     * - conn (in): The caller's transaction.
+     * - code (in): The code as entered.
+     * - MID (in): The member using it.
+     * - kind (in): TOKENS or PRIZE.
+     */
+    public static int claim(Connection conn, String code, String MID, Kind kind) throws SQLException {
+        code = normalize(code);
+        PreparedStatement claim = StatementCache.of(conn).prepare(CLAIM);
+        claim.setString(1, code);
+        claim.setString(2, kind.name());
+        claim.setString(3, MID);
+        if (claim.executeUpdate() == 0) {
+            return -1;
+        }
+        PreparedStatement amount = StatementCache.of(conn).prepare(AMOUNT);
+        amount.setString(1, code);
+        try (ResultSet rs = amount.executeQuery()) {
+            rs.next();
+            return rs.getInt("amount");
+        }
+    }
+
+    public static void claimed(String code) {
+        claims.increment();
+        if (filter != null) {
+            used.add(normalize(code));
+        }
+    }
+
+    // Adds the codes issued since the last refresh, by this or any other process
+    private static void refresh(Connection conn) throws SQLException {
+        // Look back a minute, so rows committed late by a slow transaction are not missed
+        PreparedStatement stmt = StatementCache.of(conn).prepare(ISSUED_SINCE);
+        stmt.setTimestamp(1, new Timestamp(refreshedUpTo.getTime() - 60_000));
+        Timestamp latest = refreshedUpTo;
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                remember(rs.getString("couponID"));
+                Timestamp issuedAt = rs.getTimestamp("issuedAt");
+                if (issuedAt != null && issuedAt.after(latest)) {
+                    latest = issuedAt;
+                }
+            }
+        }
+        refreshedUpTo = latest;
+        Bloom f = filter;
+        if (f != null && f.added.sum() > f.capacity) {
+            rebuild(conn); // past the size it was built for, false positives climb
+        }
+    }
+
+    /**
+     * Method Name: rebuild
+     * Purpose: Builds a new filter from the outstanding coupons and swaps it in.
+     * Pre-conditions: None.
+     * Post-conditions: Redeemed and expired codes no longer pass the filter; codes issued meanwhile still do.
+     * Parameters:
+     * - conn (in): Connection to read with.
+     */
+    static void rebuild(Connection conn) throws SQLException {
+        synchronized (rebuildLock) {
+            issuedDuringRebuild = new ArrayList<>();
+        }
+        List<String> codes = new ArrayList<>();
+        Timestamp startedAt = new Timestamp(System.currentTimeMillis());
+        try {
+            PreparedStatement stmt = StatementCache.of(conn).prepare(OUTSTANDING);
+            stmt.setFetchSize(ResultStreamer.FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    codes.add(rs.getString("couponID"));
+                }
+            }
+        } catch (SQLException e) {
+            synchronized (rebuildLock) {
+                issuedDuringRebuild = null;
+            }
+            throw e;
+        }
+        Bloom fresh = new Bloom(codes.size());
+        for (String code : codes) {
+            fresh.add(code);
+        }
+        synchronized (rebuildLock) {
+            for (String code : issuedDuringRebuild) {
+                fresh.add(code);
+            }
+            issuedDuringRebuild = null;
+            filter = fresh;
+            used.clear(); // the claimed codes are not in the new filter
+        }
+        if (refreshedUpTo.before(startedAt)) {
+            refreshedUpTo = startedAt;
+        }
+    }
+
+    /**
+     * Method Name: expire
+     * Purpose: Deletes the coupons whose last day has passed, in chunks.
+     * Pre-conditions: None.
+     * Post-conditions: Each chunk is committed on its own; returns how many coupons were deleted.
+     * Parameters:
+     * - conn (in): Connection to write with.
+     */
+    public static int expire(Connection conn) throws SQLException {
+        int deleted = 0;
+        try (Metrics.Span span = Metrics.start("expireCoupons")) {
+            PreparedStatement delete = StatementCache.of(conn).prepare(DELETE_EXPIRED);
+            int n;
+            do {
+                n = delete.executeUpdate();
+                conn.commit();
+                deleted += n;
+            } while (n == EXPIRE_CHUNK);
+            span.rows(deleted);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+        return deleted;
+    }
+
+    /**
+     * Method Name: start
+     * Purpose: Loads the filter, then refreshes it every arcade.coupons.refreshMs and expires coupons daily.
+     * Pre-conditions: ENABLED is true and extensions.sql has been run.
+     * Post-conditions: Checks reject unknown codes without a round trip; calling it again does nothing.
+     * Parameters:
+     * - pool (in): Pool each job borrows a connection from.
+     */
+    public static synchronized void start(ConnectionPool pool) throws SQLException {
+        if (scheduler != null) {
+            return;
+        }
+        Connection conn = pool.borrow();
+        try {
+            rebuild(conn);
+        } finally {
+            pool.release(conn);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "coupons");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Long.getLong("arcade.coupons.refreshMs", 5_000L);
+        scheduler.scheduleWithFixedDelay(() -> run(pool, "refresh", false), period, period, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> run(pool, "expiry", true), 1, TimeUnit.DAYS.toMinutes(1), TimeUnit.MINUTES);
+    }
+
+    private static void run(ConnectionPool pool, String job, boolean expire) {
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            if (expire) {
+                expire(conn);
+                rebuild(conn);
+            } else {
+                refresh(conn);
+            }
+        } catch (SQLException e) {
+            System.err.println("Coupon " + job + " failed, retrying: " + e.getMessage());
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    public static String summary() {
+        Bloom f = filter;
+        return String.format("coupons filter=%s fastRejects=%d lookups=%d claims=%d",
+                f == null ? "off" : f.added.sum() + "/" + f.capacity, fastRejects.sum(), lookups.sum(), claims.sum());
+    }
+}
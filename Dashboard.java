@@ -0,0 +1,150 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: Dashboard.java runs the report queries at the same time, each on its own pooled
+ * connection, and prints them together once all have finished, so a full dashboard takes about as
+ * long as its slowest report instead of the sum of all of them.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class Name: Dashboard
+ * External Packages: java.sql, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: run() submits query 1, query 2, query 3 for every requested member, and one
+ * batched query 4 for all of them as separate tasks (on virtual threads where the JVM has them, see ConnectionPool.newTaskExecutor).
+ * Each task borrows a connection, marks it read-only, runs the Queries fetch method and returns the
+ * connection. The results are gathered into a Result and rendered afterwards by QueryFormatter, like
+ * the single reports. A failing report is listed under errors instead of aborting the others.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * run(ConnectionPool pool, List<String> mids): Runs the reports concurrently and returns their results.
+ * print(Result result): Renders a Result to the console.
+ */
+public class Dashboard {
+
+    /**
+     * Everything one dashboard run produced. Maps are in the order the member IDs were given; a
+     * member with no plays maps to null in best.
+     */
+    public record Result(Queries.HighScores highScores, Queries.Spenders spenders,
+                         Map<String, Queries.AffordablePrizes> prizes, Map<String, Queries.BestScore> best,
+                         List<String> errors, long wallNanos, long queryNanos) {
+    }
+
+    private interface Fetch<T> {
+        T fetch(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Method Name: run
+     * Purpose: Runs query 1, query 2, and query 3 and 4 for each member, all at once.
+     * Pre-conditions: pool is open.
+     * Post-conditions: Every task has finished; its connection is back in the pool.
+     * Parameters:
+     * - pool (in): Where each task borrows its connection.
+     * - mids (in): Members to run queries 3 and 4 for; may be empty.
+     */
+    public static Result run(ConnectionPool pool, List<String> mids) throws InterruptedException {
+        long start = System.nanoTime();
+        AtomicLong queryNanos = new AtomicLong();
+        ExecutorService executor = ConnectionPool.newTaskExecutor(pool.stats().maxSize());
+        try {
+            Future<Queries.HighScores> q1 = submit(executor, pool, queryNanos, Queries::fetchQuery1);
+            Future<Queries.Spenders> q2 = submit(executor, pool, queryNanos, Queries::fetchQuery2);
+            Map<String, Future<Queries.AffordablePrizes>> q3 = new LinkedHashMap<>();
+            for (String MID : mids) {
+                q3.put(MID, submit(executor, pool, queryNanos, conn -> Queries.fetchQuery3(MID, conn)));
+            }
+            // Query 4 for every member is one set-based query, not one task per member
+            Future<Map<String, Queries.BestScore>> q4 = submit(executor, pool, queryNanos, conn -> Queries.fetchQuery4Batch(mids, conn));
+
+            List<String> errors = new ArrayList<>();
+            Queries.HighScores highScores = get(q1, "query 1", errors);
+            Queries.Spenders spenders = get(q2, "query 2", errors);
+            Map<String, Queries.AffordablePrizes> prizes = new LinkedHashMap<>();
+            for (String MID : mids) {
+                Queries.AffordablePrizes p = get(q3.get(MID), "query 3 for " + MID, errors);
+                if (p != null) {
+                    prizes.put(MID, p);
+                }
+            }
+            Map<String, Queries.BestScore> best = new LinkedHashMap<>();
+            Map<String, Queries.BestScore> found = get(q4, "query 4", errors);
+            if (found != null) {
+                for (String MID : mids) {
+                    best.put(MID, found.get(MID)); // null: has not played or does not exist
+                }
+            }
+            return new Result(highScores, spenders, prizes, best, errors, System.nanoTime() - start, queryNanos.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Method Name: print
+     * Purpose: Renders every report of a dashboard run, followed by its timings.
+     * Pre-conditions: result came from run().
+     * Post-conditions: The reports are printed to the console.
+     * Parameters:
+     * - result (in): The dashboard to print.
+     */
+    public static void print(Result result) {
+        try (ResultStreamer.BlockWriter out = ResultStreamer.console()) {
+            if (result.highScores() != null) {
+                QueryFormatter.print(result.highScores(), out);
+            }
+            if (result.spenders() != null) {
+                QueryFormatter.print(result.spenders(), out);
+            }
+            for (Queries.AffordablePrizes p : result.prizes().values()) {
+                out.println("Member " + p.MID() + ":");
+                QueryFormatter.print(p, out);
+            }
+            for (Map.Entry<String, Queries.BestScore> b : result.best().entrySet()) {
+                out.println("Member " + b.getKey() + ":");
+                QueryFormatter.print(b.getValue(), out);
+            }
+            for (String error : result.errors()) {
+                out.println("*** " + error);
+            }
+            out.printf("Dashboard took %.1f ms (%.1f ms of query time run in parallel)%n",
+                    result.wallNanos() / 1e6, result.queryNanos() / 1e6);
+        }
+    }
+
+    private static <T> Future<T> submit(ExecutorService executor, ConnectionPool pool, AtomicLong queryNanos, Fetch<T> fetch) {
+        return executor.submit(() -> {
+            long start = System.nanoTime();
+            Connection conn = pool.borrow();
+            try {
+                conn.setReadOnly(true); // reset by the pool on release
+                return fetch.fetch(conn);
+            } finally {
+                pool.release(conn);
+                queryNanos.addAndGet(System.nanoTime() - start);
+            }
+        });
+    }
+
+    private static <T> T get(Future<T> future, String what, List<String> errors) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            errors.add(what + " failed: " + e.getCause().getMessage());
+            return null;
+        }
+    }
+}
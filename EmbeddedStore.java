@@ -0,0 +1,1294 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: EmbeddedStore.java implements the ArcadeStore repositories without a database server,
+ * in memory-mapped append-only files with in-memory hash indexes, so a single arcade can run, and a
+ * load test can be driven, on one machine with lookups that take microseconds instead of a network
+ * round trip.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * Class Name: EmbeddedStore
+ * External Packages: java.nio
+ * Containing Package: Default package.
+ * Inheritance Information: Implements ArcadeStore.
+ *
+ * Description: Each table is one log file under the store directory. A change is never written in
+ * place: inserting, updating or deleting appends a record (length, CRC32, body) to the end of the
+ * mapped file, and arcade.store.sync (default true) forces it to disk before the call returns. On
+ * open the log is replayed; the first record with a bad length or checksum marks where a crash cut
+ * the last write short, and the file is truncated there.
+ *
+ * Keyed tables (Member, Game, Prize, Coupon) keep an open-addressing index from the 64-bit hash of
+ * the ID, held in primitive arrays, to the offset of the row's latest version, so a lookup is one
+ * probe sequence and one read from the mapping. Plays, purchases and redemptions are only appended;
+ * deleting a member's, game's or prize's rows appends one tombstone, and a row counts only if it
+ * comes after the last tombstone for its member (and game, or prize). Each member's and each game's best play are kept in
+ * memory for reports 1 and 4, together with the offsets of its plays, so deleting a member's plays
+ * only re-examines the games whose best play was theirs (and likewise for a game); the other reports
+ * scan the mapped log sequentially.
+ *
+ * A keyed log is compacted once it is at least arcade.store.compactMB (default 64) and its
+ * superseded versions and tombstones take more space than its live rows: the live records are copied
+ * to a new file, which is forced and then renamed over the old one, so a crash leaves either the old
+ * or the new file whole. A member whose totals change on every purchase therefore costs the space of
+ * one record, not one per purchase. Plays, purchases and redemptions are history and are not
+ * compacted; one log holds at most 2 GB (the limit of one mapping). Each log has a read-write lock:
+ * lookups and reports on a table run side by side, and only a change to it waits for them and runs
+ * alone, so reads of one table never wait on each other or on another table.
+ *
+ * Constructor: None, use open(Path dir).
+ *
+ * Instance Methods:
+ * open(Path dir): Opens, or creates, a store and replays its logs.
+ * members(), games(), plays(), prizes(), purchases(), redemptions(), coupons(): The repositories.
+ * close(): Forces and trims every log.
+ */
+public class EmbeddedStore implements ArcadeStore {
+
+    private static final boolean SYNC = !"false".equals(System.getProperty("arcade.store.sync"));
+    private static final int COMPACT_MIN = Integer.getInteger("arcade.store.compactMB", 64) << 20;
+
+    // Record types, the first byte of every body
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte DELETE_MEMBER = 3;
+    private static final byte DELETE_GAME = 4;
+    private static final byte DELETE_PRIZE = 5;
+
+    /**
+     * One append-only, memory-mapped table file. Records are [int length][int crc32][body].
+     */
+    private static final class Log implements AutoCloseable {
+        private static final int HEADER = 8;
+        private static final int INITIAL_SIZE = 1 << 20;
+
+        private final Path path;
+        // Lookups and scans hold the read lock together; appends, deletes and compaction hold the write lock
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private FileChannel channel;
+        private final ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+        private final CRC32 crc = new CRC32();
+        private MappedByteBuffer map;
+        private int end;
+
+        private interface Visitor {
+            void visit(int at, ByteBuffer body) throws IOException;
+        }
+
+        Log(Path path) throws IOException {
+            this.path = path;
+            Files.deleteIfExists(compacted()); // a compaction the process did not finish
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is larger than one mapping");
+            }
+            if (size > 0) {
+                MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                end = validLength(existing);
+            }
+            if (end < size) {
+                channel.truncate(end); // a torn last record, or space mapped ahead of the writes
+            }
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Integer.MAX_VALUE, Math.max(INITIAL_SIZE, end * 2L)));
+        }
+
+        // Length of the prefix of whole records whose checksums match
+        private int validLength(ByteBuffer buf) {
+            int at = 0;
+            while (at + HEADER <= buf.limit()) {
+                int len = buf.getInt(at);
+                if (len <= 0 || len > buf.limit() - at - HEADER) {
+                    break;
+                }
+                crc.reset();
+                crc.update(buf.slice(at + HEADER, len));
+                if ((int) crc.getValue() != buf.getInt(at + 4)) {
+                    break;
+                }
+                at += HEADER + len;
+            }
+            return at;
+        }
+
+        // The buffer the next record's body is written into; append() writes it out
+        ByteBuffer body(byte type) {
+            scratch.clear();
+            scratch.put(type);
+            return scratch;
+        }
+
+        int append() throws IOException {
+            scratch.flip();
+            int len = scratch.remaining();
+            int at = end;
+            if ((long) at + HEADER + len > Integer.MAX_VALUE) {
+                throw new IOException("Store log is full");
+            }
+            if (at + HEADER + len > map.capacity()) {
+                long grown = Math.min(Integer.MAX_VALUE, Math.max((long) map.capacity() * 2, at + HEADER + len));
+                map.force();
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+            }
+            crc.reset();
+            crc.update(scratch.duplicate());
+            map.put(at + HEADER, scratch, 0, len);
+            map.putInt(at + 4, (int) crc.getValue());
+            map.putInt(at, len);
+            if (SYNC) {
+                map.force(at, HEADER + len);
+            }
+            end = at + HEADER + len;
+            return at;
+        }
+
+        ByteBuffer read(int at) {
+            return map.slice(at + HEADER, map.getInt(at));
+        }
+
+        // Bytes taken by the record at at, header included
+        int size(int at) {
+            return HEADER + map.getInt(at);
+        }
+
+        private Path compacted() {
+            return path.resolveSibling(path.getFileName() + ".compact");
+        }
+
+        // Rewrites the log with only the records at keep (ascending) and returns their new offsets; if it
+        // fails the log is left as it was
+        int[] compact(int[] keep) throws IOException {
+            Path tmp = compacted();
+            int[] moved = new int[keep.length];
+            FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer outMap;
+            long pos = 0;
+            try {
+                for (int i = 0; i < keep.length; i++) {
+                    moved[i] = (int) pos;
+                    ByteBuffer record = map.slice(keep[i], size(keep[i]));
+                    while (record.hasRemaining()) {
+                        pos += out.write(record, pos);
+                    }
+                }
+                out.force(true);
+                outMap = out.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Integer.MAX_VALUE, Math.max(INITIAL_SIZE, pos * 2)));
+                map.force();
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                out.close();
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            if (SYNC) {
+                try (FileChannel dir = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                    dir.force(true); // make the rename itself durable before appending to the new file
+                } catch (IOException e) {
+                    // some platforms cannot open a directory; the rename is still atomic there
+                }
+            }
+            FileChannel old = channel;
+            channel = out;
+            map = outMap;
+            end = (int) pos;
+            try {
+                old.close();
+            } catch (IOException e) {
+                // the old file is already replaced
+            }
+            return moved;
+        }
+
+        void scan(Visitor visitor) throws IOException {
+            for (int at = 0; at < end; at += HEADER + map.getInt(at)) {
+                visitor.visit(at, read(at));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            map.force();
+            channel.truncate(end);
+            channel.close();
+        }
+    }
+
+    /**
+     * Open-addressing hash index from an ID to the offset of its latest record, in two primitive
+     * arrays with linear probing. Equal 64-bit hashes are told apart by comparing the key stored in
+     * the record, so colliding IDs still resolve correctly.
+     */
+    private static final class OffsetIndex {
+        private final Log log;
+        private long[] hashes = new long[64];
+        private int[] offsets = newOffsets(64);
+        private int size;
+        private long liveBytes; // size of the records the index points at
+
+        OffsetIndex(Log log) {
+            this.log = log;
+        }
+
+        private static int[] newOffsets(int n) {
+            int[] a = new int[n];
+            Arrays.fill(a, -1);
+            return a;
+        }
+
+        private static long hash(String key) {
+            long h = 0xcbf29ce484222325L; // FNV-1a
+            for (int i = 0; i < key.length(); i++) {
+                h = (h ^ key.charAt(i)) * 0x100000001b3L;
+            }
+            return h;
+        }
+
+        private int slot(long h) {
+            return (int) (h ^ (h >>> 29)) & (offsets.length - 1);
+        }
+
+        // The slot holding key, or the empty slot where it would go
+        private int find(String key, long h) {
+            int i = slot(h);
+            while (offsets[i] != -1 && !(hashes[i] == h && keyEquals(log.read(offsets[i]), key))) {
+                i = (i + 1) & (offsets.length - 1);
+            }
+            return i;
+        }
+
+        int get(String key) {
+            return offsets[find(key, hash(key))];
+        }
+
+        void put(String key, int at) {
+            long h = hash(key);
+            int i = find(key, h);
+            if (offsets[i] == -1) {
+                if (++size * 2 > offsets.length) {
+                    grow();
+                    i = find(key, h);
+                }
+                hashes[i] = h;
+            } else {
+                liveBytes -= log.size(offsets[i]);
+            }
+            offsets[i] = at;
+            liveBytes += log.size(at);
+        }
+
+        void remove(String key) {
+            int i = find(key, hash(key));
+            if (offsets[i] != -1) {
+                removeAt(i);
+            }
+        }
+
+        // Removes every entry whose record matches, e.g. a deleted member's coupons
+        void removeIf(IntPredicate matches) {
+            for (int i = 0; i < offsets.length; ) {
+                if (offsets[i] != -1 && matches.test(offsets[i])) {
+                    removeAt(i); // shifts a later entry into i, so look at i again
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        // Backward-shift deletion: later entries of the probe run move up, so no tombstones are needed
+        private void removeAt(int i) {
+            int mask = offsets.length - 1;
+            size--;
+            liveBytes -= log.size(offsets[i]);
+            int hole = i;
+            for (int j = (i + 1) & mask; offsets[j] != -1; j = (j + 1) & mask) {
+                int home = slot(hashes[j]);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    hashes[hole] = hashes[j];
+                    offsets[hole] = offsets[j];
+                    hole = j;
+                }
+            }
+            offsets[hole] = -1;
+        }
+
+        private void grow() {
+            long[] oldHashes = hashes;
+            int[] oldOffsets = offsets;
+            hashes = new long[oldHashes.length * 2];
+            offsets = newOffsets(oldOffsets.length * 2);
+            for (int i = 0; i < oldOffsets.length; i++) {
+                if (oldOffsets[i] != -1) {
+                    int j = slot(oldHashes[i]);
+                    while (offsets[j] != -1) {
+                        j = (j + 1) & (offsets.length - 1);
+                    }
+                    hashes[j] = oldHashes[i];
+                    offsets[j] = oldOffsets[i];
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] offsets() {
+            return Arrays.stream(offsets).filter(at -> at != -1).toArray();
+        }
+
+        // Compacts the log once its dead records outweigh the live ones, and repoints every entry; the
+        // write that triggered it has already succeeded, so a failed compaction is only reported
+        void compactIfWasteful() {
+            if (log.end < COMPACT_MIN || log.end - liveBytes <= liveBytes) {
+                return;
+            }
+            int[] from = offsets();
+            Arrays.sort(from);
+            int[] to;
+            try {
+                to = log.compact(from);
+            } catch (IOException e) {
+                System.err.println("Could not compact " + log.path + ", will retry on the next write: " + e.getMessage());
+                return;
+            }
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] != -1) {
+                    offsets[i] = to[Arrays.binarySearch(from, offsets[i])];
+                }
+            }
+        }
+    }
+
+    /**
+     * A growable array of log offsets, in the order they were appended.
+     */
+    private static final class Offsets {
+        private int[] offsets = new int[4];
+        private int size;
+
+        void add(int at) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = at;
+        }
+
+        int get(int i) {
+            return offsets[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void removeIf(IntPredicate matches) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!matches.test(offsets[i])) {
+                    offsets[kept++] = offsets[i];
+                }
+            }
+            size = kept;
+        }
+    }
+
+    // ----- record encoding: strings are a short byte length (-1 for null) and UTF-8 bytes -----
+
+    private static void putString(ByteBuffer buf, String s) {
+        if (s == null) {
+            buf.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int len = buf.getShort();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The key is the first field after the type; ASCII IDs are compared without decoding them
+    private static boolean keyEquals(ByteBuffer body, String key) {
+        int len = body.getShort(1);
+        if (len != key.length()) {
+            return len >= 0 && key.equals(getString(body.position(1)));
+        }
+        for (int i = 0; i < len; i++) {
+            if (body.get(3 + i) != key.charAt(i)) {
+                return key.equals(getString(body.position(1)));
+            }
+        }
+        return true;
+    }
+
+    private static String keyOf(ByteBuffer body) {
+        return getString(body.position(1));
+    }
+
+    private final Log memberLog, gameLog, playLog, prizeLog, purchaseLog, redemptionLog, couponLog;
+    private final OffsetIndex memberIndex, gameIndex, prizeIndex, couponIndex;
+
+    // Offset of the last tombstone of each member/game in the append-only logs
+    private final Map<String, Integer> playsDeletedForMember = new HashMap<>();
+    private final Map<String, Integer> playsDeletedForGame = new HashMap<>();
+    private final Map<String, Integer> purchasesDeletedForMember = new HashMap<>();
+    private final Map<String, Integer> redemptionsDeletedForMember = new HashMap<>();
+    private final Map<String, Integer> redemptionsDeletedForPrize = new HashMap<>();
+
+    // Offset of each member's and each game's best live play, and of all their plays
+    private final Map<String, Integer> bestByMember = new HashMap<>();
+    private final Map<String, Integer> bestByGame = new HashMap<>();
+    private final Map<String, Offsets> playsByMember = new HashMap<>();
+    private final Map<String, Offsets> playsByGame = new HashMap<>();
+    private long nextPID = 1;
+    private long nextXactID = 1;
+
+    private EmbeddedStore(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        memberLog = new Log(dir.resolve("members.log"));
+        gameLog = new Log(dir.resolve("games.log"));
+        playLog = new Log(dir.resolve("plays.log"));
+        prizeLog = new Log(dir.resolve("prizes.log"));
+        purchaseLog = new Log(dir.resolve("purchases.log"));
+        redemptionLog = new Log(dir.resolve("redemptions.log"));
+        couponLog = new Log(dir.resolve("coupons.log"));
+        memberIndex = new OffsetIndex(memberLog);
+        gameIndex = new OffsetIndex(gameLog);
+        prizeIndex = new OffsetIndex(prizeLog);
+        couponIndex = new OffsetIndex(couponLog);
+    }
+
+    /**
+     * Method Name: open
+     * Purpose: Opens the store in dir, creating its files if needed, and rebuilds the indexes from the logs.
+     * Pre-conditions: No other process has the store open.
+     * Post-conditions: Every change that was forced to disk before a crash is visible again.
+     * Parameters:
+     * - dir (in): Directory holding the log files.
+     */
+    public static EmbeddedStore open(Path dir) throws IOException {
+        EmbeddedStore store = new EmbeddedStore(dir);
+        store.replay();
+        return store;
+    }
+
+    private void replay() throws IOException {
+        for (OffsetIndex index : new OffsetIndex[] { memberIndex, gameIndex, prizeIndex }) {
+            index.log.scan((at, body) -> {
+                if (body.get(0) == PUT) {
+                    index.put(keyOf(body), at);
+                } else {
+                    index.remove(keyOf(body));
+                }
+            });
+        }
+        couponLog.scan((at, body) -> {
+            byte type = body.get(0);
+            String key = keyOf(body);
+            if (type == PUT) {
+                couponIndex.put(key, at);
+            } else if (type == DELETE) {
+                couponIndex.remove(key);
+            } else {
+                couponIndex.removeIf(c -> key.equals(couponMember(c)));
+            }
+        });
+        for (OffsetIndex index : new OffsetIndex[] { memberIndex, gameIndex, prizeIndex, couponIndex }) {
+            index.compactIfWasteful();
+        }
+        playLog.scan((at, body) -> {
+            byte type = body.get(0);
+            if (type == DELETE_MEMBER) {
+                playsDeletedForMember.put(keyOf(body), at);
+            } else if (type == DELETE_GAME) {
+                playsDeletedForGame.put(keyOf(body), at);
+            }
+        });
+        indexPlays();
+        purchaseLog.scan((at, body) -> {
+            if (body.get(0) == PUT) {
+                nextPID = Math.max(nextPID, body.getLong(1) + 1);
+            } else {
+                purchasesDeletedForMember.put(keyOf(body), at);
+            }
+        });
+        redemptionLog.scan((at, body) -> {
+            if (body.get(0) == PUT) {
+                nextXactID = Math.max(nextXactID, body.getLong(1) + 1);
+            } else if (body.get(0) == DELETE_PRIZE) {
+                redemptionsDeletedForPrize.put(keyOf(body), at);
+            } else {
+                redemptionsDeletedForMember.put(keyOf(body), at);
+            }
+        });
+    }
+
+    private static boolean liveAfter(Map<String, Integer> tombstones, String key, int at) {
+        Integer deleted = tombstones.get(key);
+        return deleted == null || at > deleted;
+    }
+
+    private static StoreException failed(String what, IOException e) {
+        return new StoreException(what + " failed: " + e.getMessage(), e);
+    }
+
+    // ----- Member: PUT MID, name, phoneNo, address, tier, spentCents, tickets; DELETE MID -----
+
+    private Member member(int at) {
+        ByteBuffer b = memberLog.read(at).position(1);
+        return new Member(getString(b), getString(b), getString(b), getString(b), getString(b), b.getLong(), b.getInt());
+    }
+
+    private void writeMember(Member m) throws IOException {
+        ByteBuffer b = memberLog.body(PUT);
+        putString(b, m.MID());
+        putString(b, m.name());
+        putString(b, m.phoneNo());
+        putString(b, m.address());
+        putString(b, m.tier());
+        b.putLong(m.spentCents());
+        b.putInt(m.tickets());
+        memberIndex.put(m.MID(), memberLog.append());
+        memberIndex.compactIfWasteful();
+    }
+
+    private final MemberRepository members = new MemberRepository() {
+        @Override
+        public Optional<Member> find(String MID) {
+            memberLog.lock.readLock().lock();
+            try {
+                int at = memberIndex.get(MID);
+                return at < 0 ? Optional.empty() : Optional.of(member(at));
+            } finally {
+                memberLog.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean insert(Member m) throws StoreException {
+            memberLog.lock.writeLock().lock();
+            try {
+                if (memberIndex.get(m.MID()) >= 0) {
+                    return false;
+                }
+                try {
+                    writeMember(m);
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Member insert", e);
+                }
+            } finally {
+                memberLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean updateContact(String MID, String name, String phoneNo, String address) throws StoreException {
+            memberLog.lock.writeLock().lock();
+            try {
+                int at = memberIndex.get(MID);
+                if (at < 0) {
+                    return false;
+                }
+                Member m = member(at);
+                try {
+                    writeMember(new Member(MID, name, phoneNo, address, m.tier(), m.spentCents(), m.tickets()));
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Member update", e);
+                }
+            } finally {
+                memberLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean addTotals(String MID, long spentCents, int tickets, String tier) throws StoreException {
+            memberLog.lock.writeLock().lock();
+            try {
+                int at = memberIndex.get(MID);
+                if (at < 0) {
+                    return false;
+                }
+                Member m = member(at);
+                try {
+                    writeMember(new Member(MID, m.name(), m.phoneNo(), m.address(), tier == null ? m.tier() : tier,
+                            m.spentCents() + spentCents, m.tickets() + tickets));
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Member totals", e);
+                }
+            } finally {
+                memberLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean delete(String MID) throws StoreException {
+            memberLog.lock.writeLock().lock();
+            try {
+                if (memberIndex.get(MID) < 0) {
+                    return false;
+                }
+                try {
+                    putString(memberLog.body(DELETE), MID);
+                    memberLog.append();
+                    memberIndex.remove(MID);
+                    memberIndex.compactIfWasteful();
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Member delete", e);
+                }
+            } finally {
+                memberLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public long count() {
+            memberLog.lock.readLock().lock();
+            try {
+                return memberIndex.size();
+            } finally {
+                memberLog.lock.readLock().unlock();
+            }
+        }
+    };
+
+    // ----- Game: PUT GID, name, tokenCost, factor; DELETE GID -----
+
+    private Game game(int at) {
+        ByteBuffer b = gameLog.read(at).position(1);
+        return new Game(getString(b), getString(b), b.getInt(), b.getDouble());
+    }
+
+    private final GameRepository games = new GameRepository() {
+        @Override
+        public Optional<Game> find(String GID) {
+            gameLog.lock.readLock().lock();
+            try {
+                int at = gameIndex.get(GID);
+                return at < 0 ? Optional.empty() : Optional.of(game(at));
+            } finally {
+                gameLog.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean insert(Game g) throws StoreException {
+            gameLog.lock.writeLock().lock();
+            try {
+                if (gameIndex.get(g.GID()) >= 0) {
+                    return false;
+                }
+                try {
+                    ByteBuffer b = gameLog.body(PUT);
+                    putString(b, g.GID());
+                    putString(b, g.name());
+                    b.putInt(g.tokenCost());
+                    b.putDouble(g.factor());
+                    gameIndex.put(g.GID(), gameLog.append());
+                    gameIndex.compactIfWasteful();
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Game insert", e);
+                }
+            } finally {
+                gameLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean delete(String GID) throws StoreException {
+            gameLog.lock.writeLock().lock();
+            try {
+                if (gameIndex.get(GID) < 0) {
+                    return false;
+                }
+                try {
+                    putString(gameLog.body(DELETE), GID);
+                    gameLog.append();
+                    gameIndex.remove(GID);
+                    gameIndex.compactIfWasteful();
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Game delete", e);
+                }
+            } finally {
+                gameLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public List<Game> all() {
+            gameLog.lock.readLock().lock();
+            try {
+                List<Game> all = new ArrayList<>();
+                for (int at : gameIndex.offsets()) {
+                    all.add(game(at));
+                }
+                all.sort(Comparator.comparing(Game::GID));
+                return all;
+            } finally {
+                gameLog.lock.readLock().unlock();
+            }
+        }
+    };
+
+    // ----- GamePlay: PUT GID, MID, score; DELETE_MEMBER MID; DELETE_GAME GID -----
+
+    private GamePlay play(int at) {
+        ByteBuffer b = playLog.read(at).position(1);
+        return new GamePlay(getString(b), getString(b), b.getInt());
+    }
+
+    private boolean playIsLive(int at, GamePlay p) {
+        return liveAfter(playsDeletedForMember, p.MID(), at) && liveAfter(playsDeletedForGame, p.GID(), at);
+    }
+
+    // Keeps at if it beats the current best under key; ties go to the earlier play
+    private void offerBest(Map<String, Integer> best, String key, int at, int score) {
+        Integer current = best.get(key);
+        if (current == null || play(current).score() < score) {
+            best.put(key, at);
+        }
+    }
+
+    private void indexPlay(int at, GamePlay p) {
+        playsByMember.computeIfAbsent(p.MID(), k -> new Offsets()).add(at);
+        playsByGame.computeIfAbsent(p.GID(), k -> new Offsets()).add(at);
+        offerBest(bestByMember, p.MID(), at, p.score());
+        offerBest(bestByGame, p.GID(), at, p.score());
+    }
+
+    private void indexPlays() throws IOException {
+        playLog.scan((at, body) -> {
+            if (body.get(0) == PUT) {
+                GamePlay p = play(at);
+                if (playIsLive(at, p)) {
+                    indexPlay(at, p);
+                }
+            }
+        });
+    }
+
+    private final GamePlayRepository plays = new GamePlayRepository() {
+        @Override
+        public void record(GamePlay p) throws StoreException {
+            playLog.lock.writeLock().lock();
+            try {
+                ByteBuffer b = playLog.body(PUT);
+                putString(b, p.GID());
+                putString(b, p.MID());
+                b.putInt(p.score());
+                indexPlay(playLog.append(), p);
+            } catch (IOException e) {
+                throw failed("Game play insert", e);
+            } finally {
+                playLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public Optional<GamePlay> bestOf(String MID) {
+            playLog.lock.readLock().lock();
+            try {
+                Integer at = bestByMember.get(MID);
+                return at == null ? Optional.empty() : Optional.of(play(at));
+            } finally {
+                playLog.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public Map<String, GamePlay> highScores() {
+            Map<String, GamePlay> best = new TreeMap<>();
+            playLog.lock.readLock().lock();
+            try {
+                bestByGame.forEach((GID, at) -> best.put(GID, play(at)));
+            } finally {
+                playLog.lock.readLock().unlock();
+            }
+            gameLog.lock.readLock().lock(); // like the JDBC join, only games that still exist
+            try {
+                best.keySet().removeIf(GID -> gameIndex.get(GID) < 0);
+            } finally {
+                gameLog.lock.readLock().unlock();
+            }
+            return best;
+        }
+
+        @Override
+        public void deleteByMember(String MID) throws StoreException {
+            deletePlays(DELETE_MEMBER, MID, playsDeletedForMember, playsByMember, bestByMember, playsByGame, bestByGame);
+        }
+
+        @Override
+        public void deleteByGame(String GID) throws StoreException {
+            deletePlays(DELETE_GAME, GID, playsDeletedForGame, playsByGame, bestByGame, playsByMember, bestByMember);
+        }
+
+        // Deletes key's plays; only the other side's keys whose best play was one of them are looked at again
+        private void deletePlays(byte type, String key, Map<String, Integer> tombstones, Map<String, Offsets> own,
+                                 Map<String, Integer> ownBest, Map<String, Offsets> other, Map<String, Integer> otherBest)
+                throws StoreException {
+            playLog.lock.writeLock().lock();
+            try {
+                try {
+                    putString(playLog.body(type), key);
+                    tombstones.put(key, playLog.append());
+                } catch (IOException e) {
+                    throw failed("Game play delete", e);
+                }
+                ownBest.remove(key);
+                Offsets gone = own.remove(key);
+                if (gone == null) {
+                    return;
+                }
+                Set<String> orphaned = new HashSet<>();
+                for (int i = 0; i < gone.size(); i++) {
+                    int at = gone.get(i);
+                    GamePlay p = play(at);
+                    String otherKey = type == DELETE_MEMBER ? p.GID() : p.MID();
+                    Integer best = otherBest.get(otherKey);
+                    if (best != null && best == at) {
+                        orphaned.add(otherKey);
+                    }
+                }
+                for (String otherKey : orphaned) {
+                    otherBest.remove(otherKey);
+                    Offsets left = other.get(otherKey);
+                    left.removeIf(at -> !playIsLive(at, play(at))); // drops this and earlier deletes' plays
+                    if (left.size() == 0) {
+                        other.remove(otherKey);
+                    }
+                    for (int i = 0; i < left.size(); i++) {
+                        offerBest(otherBest, otherKey, left.get(i), play(left.get(i)).score());
+                    }
+                }
+            } finally {
+                playLog.lock.writeLock().unlock();
+            }
+        }
+    };
+
+    // ----- Prize: PUT prizeId, description, ticketCost, inventory; DELETE prizeId -----
+
+    private Prize prize(int at) {
+        ByteBuffer b = prizeLog.read(at).position(1);
+        return new Prize(getString(b), getString(b), b.getInt(), b.getInt());
+    }
+
+    private void writePrize(Prize p) throws IOException {
+        ByteBuffer b = prizeLog.body(PUT);
+        putString(b, p.prizeId());
+        putString(b, p.description());
+        b.putInt(p.ticketCost());
+        b.putInt(p.inventory());
+        prizeIndex.put(p.prizeId(), prizeLog.append());
+        prizeIndex.compactIfWasteful();
+    }
+
+    private final PrizeRepository prizes = new PrizeRepository() {
+        @Override
+        public Optional<Prize> find(String prizeId) {
+            prizeLog.lock.readLock().lock();
+            try {
+                int at = prizeIndex.get(prizeId);
+                return at < 0 ? Optional.empty() : Optional.of(prize(at));
+            } finally {
+                prizeLog.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void add(Prize p) throws StoreException {
+            prizeLog.lock.writeLock().lock();
+            try {
+                int at = prizeIndex.get(p.prizeId());
+                try {
+                    if (at < 0) {
+                        writePrize(p);
+                    } else {
+                        Prize current = prize(at);
+                        writePrize(new Prize(current.prizeId(), current.description(), current.ticketCost(),
+                                current.inventory() + p.inventory()));
+                    }
+                } catch (IOException e) {
+                    throw failed("Prize insert", e);
+                }
+            } finally {
+                prizeLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean takeOne(String prizeId) throws StoreException {
+            prizeLog.lock.writeLock().lock();
+            try {
+                int at = prizeIndex.get(prizeId);
+                if (at < 0) {
+                    return false;
+                }
+                Prize p = prize(at);
+                if (p.inventory() <= 0) {
+                    return false;
+                }
+                try {
+                    writePrize(new Prize(p.prizeId(), p.description(), p.ticketCost(), p.inventory() - 1));
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Prize inventory", e);
+                }
+            } finally {
+                prizeLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean delete(String prizeId) throws StoreException {
+            prizeLog.lock.writeLock().lock();
+            try {
+                if (prizeIndex.get(prizeId) < 0) {
+                    return false;
+                }
+                try {
+                    putString(prizeLog.body(DELETE), prizeId);
+                    prizeLog.append();
+                    prizeIndex.remove(prizeId);
+                    prizeIndex.compactIfWasteful();
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Prize delete", e);
+                }
+            } finally {
+                prizeLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public List<Prize> all() {
+            prizeLog.lock.readLock().lock();
+            try {
+                List<Prize> all = new ArrayList<>();
+                for (int at : prizeIndex.offsets()) {
+                    all.add(prize(at));
+                }
+                all.sort(Comparator.comparingInt(Prize::ticketCost).thenComparing(Prize::prizeId));
+                return all;
+            } finally {
+                prizeLog.lock.readLock().unlock();
+            }
+        }
+    };
+
+    // ----- TokenPurchase: PUT PID, MID, tokens, epochDay, amountCents; DELETE_MEMBER MID -----
+
+    private final TokenPurchaseRepository purchases = new TokenPurchaseRepository() {
+        @Override
+        public long record(String MID, int tokens, long amountCents) throws StoreException {
+            purchaseLog.lock.writeLock().lock();
+            try {
+                long PID = nextPID;
+                ByteBuffer b = purchaseLog.body(PUT);
+                b.putLong(PID);
+                putString(b, MID);
+                b.putInt(tokens);
+                b.putLong(LocalDate.now().toEpochDay());
+                b.putLong(amountCents);
+                purchaseLog.append();
+                nextPID++;
+                return PID;
+            } catch (IOException e) {
+                throw failed("Token purchase insert", e);
+            } finally {
+                purchaseLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public Map<String, Long> spentSince(LocalDate from) throws StoreException {
+            long fromDay = from.toEpochDay();
+            Map<String, Long> cents = new HashMap<>();
+            purchaseLog.lock.readLock().lock();
+            try {
+                purchaseLog.scan((at, body) -> {
+                    if (body.get(0) == PUT) {
+                        ByteBuffer b = body.position(9);
+                        String MID = getString(b);
+                        b.getInt();
+                        if (b.getLong() >= fromDay && liveAfter(purchasesDeletedForMember, MID, at)) {
+                            cents.merge(MID, b.getLong(), Long::sum);
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                throw failed("Spend report", e);
+            } finally {
+                purchaseLog.lock.readLock().unlock();
+            }
+            return cents;
+        }
+
+        @Override
+        public void deleteByMember(String MID) throws StoreException {
+            purchaseLog.lock.writeLock().lock();
+            try {
+                putString(purchaseLog.body(DELETE_MEMBER), MID);
+                purchasesDeletedForMember.put(MID, purchaseLog.append());
+            } catch (IOException e) {
+                throw failed("Token purchase delete", e);
+            } finally {
+                purchaseLog.lock.writeLock().unlock();
+            }
+        }
+    };
+
+    // ----- PrizeRedemption: PUT xactId, MID, prizeId, epochDay; DELETE_MEMBER MID; DELETE_PRIZE prizeId -----
+
+    private final PrizeRedemptionRepository redemptions = new PrizeRedemptionRepository() {
+        @Override
+        public long record(String MID, String prizeId) throws StoreException {
+            redemptionLog.lock.writeLock().lock();
+            try {
+                long xactId = nextXactID;
+                ByteBuffer b = redemptionLog.body(PUT);
+                b.putLong(xactId);
+                putString(b, MID);
+                putString(b, prizeId);
+                b.putLong(LocalDate.now().toEpochDay());
+                redemptionLog.append();
+                nextXactID++;
+                return xactId;
+            } catch (IOException e) {
+                throw failed("Redemption insert", e);
+            } finally {
+                redemptionLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public List<PrizeRedemption> forMember(String MID) throws StoreException {
+            List<PrizeRedemption> list = new ArrayList<>();
+            redemptionLog.lock.readLock().lock();
+            try {
+                redemptionLog.scan((at, body) -> {
+                    if (body.get(0) == PUT) {
+                        ByteBuffer b = body.position(1);
+                        long xactId = b.getLong();
+                        if (keyEqualsAt(b, MID) && liveAfter(redemptionsDeletedForMember, MID, at)) {
+                            getString(b);
+                            String prizeId = getString(b);
+                            if (liveAfter(redemptionsDeletedForPrize, prizeId, at)) {
+                                list.add(new PrizeRedemption(xactId, MID, prizeId, LocalDate.ofEpochDay(b.getLong())));
+                            }
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                throw failed("Redemption list", e);
+            } finally {
+                redemptionLog.lock.readLock().unlock();
+            }
+            return list;
+        }
+
+        @Override
+        public void deleteByMember(String MID) throws StoreException {
+            redemptionLog.lock.writeLock().lock();
+            try {
+                putString(redemptionLog.body(DELETE_MEMBER), MID);
+                redemptionsDeletedForMember.put(MID, redemptionLog.append());
+            } catch (IOException e) {
+                throw failed("Redemption delete", e);
+            } finally {
+                redemptionLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public void deleteByPrize(String prizeId) throws StoreException {
+            redemptionLog.lock.writeLock().lock();
+            try {
+                putString(redemptionLog.body(DELETE_PRIZE), prizeId);
+                redemptionsDeletedForPrize.put(prizeId, redemptionLog.append());
+            } catch (IOException e) {
+                throw failed("Redemption delete", e);
+            } finally {
+                redemptionLog.lock.writeLock().unlock();
+            }
+        }
+    };
+
+    // Whether the string at the buffer's position is key, leaving the position unchanged
+    private static boolean keyEqualsAt(ByteBuffer b, String key) {
+        return key.equals(getString(b.duplicate()));
+    }
+
+    // ----- Coupon: PUT couponId, MID; DELETE couponId; DELETE_MEMBER MID -----
+
+    private String couponMember(int at) {
+        ByteBuffer b = couponLog.read(at).position(1);
+        getString(b);
+        return getString(b);
+    }
+
+    private final CouponRepository coupons = new CouponRepository() {
+        @Override
+        public Optional<Coupon> find(String couponId) {
+            couponLog.lock.readLock().lock();
+            try {
+                int at = couponIndex.get(couponId);
+                return at < 0 ? Optional.empty() : Optional.of(new Coupon(couponId, couponMember(at)));
+            } finally {
+                couponLog.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean insert(Coupon c) throws StoreException {
+            couponLog.lock.writeLock().lock();
+            try {
+                if (couponIndex.get(c.couponId()) >= 0) {
+                    return false;
+                }
+                try {
+                    ByteBuffer b = couponLog.body(PUT);
+                    putString(b, c.couponId());
+                    putString(b, c.MID());
+                    couponIndex.put(c.couponId(), couponLog.append());
+                    couponIndex.compactIfWasteful();
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Coupon insert", e);
+                }
+            } finally {
+                couponLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean delete(String couponId) throws StoreException {
+            couponLog.lock.writeLock().lock();
+            try {
+                if (couponIndex.get(couponId) < 0) {
+                    return false;
+                }
+                try {
+                    putString(couponLog.body(DELETE), couponId);
+                    couponLog.append();
+                    couponIndex.remove(couponId);
+                    couponIndex.compactIfWasteful();
+                    return true;
+                } catch (IOException e) {
+                    throw failed("Coupon delete", e);
+                }
+            } finally {
+                couponLog.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public void deleteByMember(String MID) throws StoreException {
+            couponLog.lock.writeLock().lock();
+            try {
+                putString(couponLog.body(DELETE_MEMBER), MID);
+                couponLog.append();
+                couponIndex.removeIf(at -> MID.equals(couponMember(at)));
+                couponIndex.compactIfWasteful();
+            } catch (IOException e) {
+                throw failed("Coupon delete", e);
+            } finally {
+                couponLog.lock.writeLock().unlock();
+            }
+        }
+    };
+
+    @Override
+    public MemberRepository members() {
+        return members;
+    }
+
+    @Override
+    public GameRepository games() {
+        return games;
+    }
+
+    @Override
+    public GamePlayRepository plays() {
+        return plays;
+    }
+
+    @Override
+    public PrizeRepository prizes() {
+        return prizes;
+    }
+
+    @Override
+    public TokenPurchaseRepository purchases() {
+        return purchases;
+    }
+
+    @Override
+    public PrizeRedemptionRepository redemptions() {
+        return redemptions;
+    }
+
+    @Override
+    public CouponRepository coupons() {
+        return coupons;
+    }
+
+    /**
+     * Method Name: close
+     * Purpose: Forces every log to disk and trims the space mapped ahead of the writes.
+     * Pre-conditions: No repository call is running.
+     * Post-conditions: The files are closed; the store must be opened again to be used.
+     * Parameters: None.
+     */
+    @Override
+    public void close() throws StoreException {
+        IOException first = null;
+        for (Log log : new Log[] { memberLog, gameLog, playLog, prizeLog, purchaseLog, redemptionLog, couponLog }) {
+            log.lock.writeLock().lock();
+            try {
+                log.close();
+            } catch (IOException e) {
+                first = first == null ? e : first;
+            } finally {
+                log.lock.writeLock().unlock();
+            }
+        }
+        if (first != null) {
+            throw failed("Closing the store", first);
+        }
+    }
+}
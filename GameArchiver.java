@@ -0,0 +1,389 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: GameArchiver.java retires games without one huge delete. The game is hidden at once,
+ * and a background thread then moves its GamePlay rows into GamePlayArchive a bounded chunk at a
+ * time, so a cabinet with millions of plays never needs one giant transaction, and foreground
+ * traffic is not blocked while its history is cleared.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class Name: GameArchiver
+ * External Packages: java.sql, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: Implements AutoCloseable.
+ *
+ * Description: Enabled with -Darcade.gameArchive=true (create GameRetirement and GamePlayArchive
+ * with extensions.sql first). retire() inserts the game into GameRetirement and drops it from the
+ * leaderboard in one short transaction. From then on the game is invisible: the reports and the
+ * play ingestion read games through GAMES, which leaves out games whose retirement has not finished
+ * while archiving is enabled. Once it finishes the Game row is gone, so a game later added again
+ * under the same GID is visible; retiring it again replaces the finished GameRetirement row.
+ *
+ * The archiver thread then repeats, one transaction per chunk of arcade.archive.chunkSize plays
+ * (default 5000): read the next chunk's ROWIDs, delete those rows, insert the ones actually deleted
+ * into GamePlayArchive, and add the count to GameRetirement.rowsArchived. Because the move and the
+ * progress are committed together, a crash loses at most the chunk in flight, and start() resumes
+ * every job that has no finishedOn yet. It pauses arcade.archive.pauseMs (default 50) between chunks
+ * to leave the database to the foreground. When no plays are left the Game row is deleted and the
+ * job is marked finished. A failing job is retried after RETRY_MILLIS.
+ *
+ * Constructor: GameArchiver(ConnectionPool pool, int chunkSize, long pauseMillis)
+ *
+ * Instance Methods:
+ * start(): Resumes unfinished jobs and starts the archiver thread.
+ * retire(Connection conn, String GID): Hides a game and queues its plays for archiving.
+ * jobs(Connection conn): Progress of every retirement.
+ * close(): Stops after the chunk in flight; unfinished jobs resume on the next start.
+ */
+public class GameArchiver implements AutoCloseable {
+
+    public static final boolean ENABLED = Boolean.getBoolean("arcade.gameArchive");
+
+    /**
+     * The games that are not being retired, for use wherever SQL reads hamadayaz.Game.
+     */
+    public static final String GAMES = ENABLED
+            ? "(SELECT * FROM hamadayaz.Game WHERE GID NOT IN " +
+              "(SELECT GID FROM hamadayaz.GameRetirement WHERE finishedOn IS NULL))"
+            : "hamadayaz.Game";
+
+    private static final long RETRY_MILLIS = 30_000;
+
+    private static final String LOCK_GAME = "SELECT name FROM hamadayaz.Game WHERE GID = ? FOR UPDATE";
+    private static final String INSERT_JOB =
+            "INSERT INTO hamadayaz.GameRetirement (GID, name, retiredOn, rowsArchived) VALUES (?, ?, CURRENT_DATE, 0)";
+    private static final String JOB_EXISTS = "SELECT 1 FROM hamadayaz.GameRetirement WHERE GID = ? AND finishedOn IS NULL";
+    private static final String DELETE_FINISHED_JOB = "DELETE FROM hamadayaz.GameRetirement WHERE GID = ? AND finishedOn IS NOT NULL";
+    private static final String UNFINISHED = "SELECT GID FROM hamadayaz.GameRetirement WHERE finishedOn IS NULL ORDER BY retiredOn, GID";
+    private static final String NEXT_CHUNK =
+            "SELECT ROWID AS rid, MID, score FROM hamadayaz.GamePlay WHERE GID = ? ORDER BY ROWID FETCH FIRST ? ROWS ONLY";
+    private static final String DELETE_PLAY = "DELETE FROM hamadayaz.GamePlay WHERE ROWID = ?";
+    private static final String ARCHIVE_PLAY =
+            "INSERT INTO hamadayaz.GamePlayArchive (GID, MID, score, archivedOn) VALUES (?, ?, ?, CURRENT_DATE)";
+    private static final String ADD_PROGRESS = "UPDATE hamadayaz.GameRetirement SET rowsArchived = rowsArchived + ? WHERE GID = ?";
+    private static final String DELETE_GAME = "DELETE FROM hamadayaz.Game WHERE GID = ?";
+    private static final String FINISH_JOB = "UPDATE hamadayaz.GameRetirement SET finishedOn = CURRENT_DATE WHERE GID = ?";
+    private static final String JOBS =
+            "SELECT r.GID, r.name, r.rowsArchived, r.finishedOn, " +
+            "       (SELECT COUNT(*) FROM hamadayaz.GamePlay gp WHERE gp.GID = r.GID) AS remaining " +
+            "FROM hamadayaz.GameRetirement r ORDER BY r.retiredOn, r.GID";
+
+    /**
+     * Outcome of retire().
+     */
+    public enum Retirement {
+        RETIRED,
+        NOT_FOUND,
+        ALREADY_RETIRING
+    }
+
+    /**
+     * Progress of one retired game.
+     */
+    public record Job(String GID, String name, long rowsArchived, long remaining, boolean finished) {
+
+        @Override
+        public String toString() {
+            return String.format("%-10s %-30s archived=%d remaining=%d %s", GID, name, rowsArchived, remaining,
+                    finished ? "finished" : "in progress");
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int chunkSize;
+    private final long pauseMillis;
+    private final DelayQueue<Pending> queue = new DelayQueue<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final Thread worker;
+    private volatile boolean closing;
+
+    private final AtomicLong archived = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+
+    // A game waiting for the archiver, possibly not before a retry delay has passed
+    private static final class Pending implements Delayed {
+        final String GID;
+        final long dueNanos;
+
+        Pending(String GID, long delayMillis) {
+            this.GID = GID;
+            this.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((Pending) other).dueNanos);
+        }
+    }
+
+    /**
+     * Method Name: GameArchiver (constructor)
+     * Purpose: Creates an archiver; nothing runs until start().
+     * Pre-conditions: GameRetirement and GamePlayArchive exist.
+     * Post-conditions: None.
+     * Parameters:
+     * - pool (in): Pool the archiver thread borrows its connection from.
+     * - chunkSize (in): Plays moved per transaction.
+     * - pauseMillis (in): Pause between chunks.
+     */
+    public GameArchiver(ConnectionPool pool, int chunkSize, long pauseMillis) {
+        this.pool = pool;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pauseMillis = pauseMillis;
+        this.worker = new Thread(this::run, "game-archiver");
+        worker.setDaemon(true);
+    }
+
+    public static GameArchiver fromSystemProperties(ConnectionPool pool) {
+        return new GameArchiver(pool, Integer.getInteger("arcade.archive.chunkSize", 5_000),
+                Long.getLong("arcade.archive.pauseMs", 50L));
+    }
+
+    /**
+     * Method Name: start
+     * Purpose: Queues every unfinished retirement and starts the archiver thread.
+     * Pre-conditions: Called once.
+     * Post-conditions: Jobs interrupted by a crash or shutdown continue where their last chunk ended.
+     * Parameters: None.
+     */
+    public void start() throws SQLException {
+        Connection conn = pool.borrow();
+        try (ResultSet rs = StatementCache.of(conn).prepare(UNFINISHED).executeQuery()) {
+            while (rs.next()) {
+                enqueue(rs.getString("GID"), 0);
+            }
+        } finally {
+            pool.release(conn);
+        }
+        worker.start();
+    }
+
+    /**
+     * Method Name: retire
+     * Purpose: Hides a game right away and hands its plays to the archiver.
+     * Pre-conditions: conn has auto-commit off and no uncommitted work.
+     * Post-conditions: On RETIRED the game is committed to GameRetirement, gone from the leaderboard and
+     *                  refused by play ingestion; its plays and the Game row are removed in the background.
+     * Parameters:
+     * - conn (in): Connection to work on.
+     * - GID (in): Game ID.
+     */
+    public Retirement retire(Connection conn, String GID) throws SQLException {
+        try (Metrics.Span span = Metrics.start("retireGame")) {
+            try {
+                PreparedStatement lock = StatementCache.of(conn).prepare(LOCK_GAME);
+                lock.setString(1, GID);
+                String name;
+                try (ResultSet rs = lock.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return Retirement.NOT_FOUND;
+                    }
+                    name = rs.getString("name");
+                    span.rows(1);
+                }
+                PreparedStatement exists = StatementCache.of(conn).prepare(JOB_EXISTS);
+                exists.setString(1, GID);
+                try (ResultSet rs = exists.executeQuery()) {
+                    if (rs.next()) {
+                        conn.rollback();
+                        enqueue(GID, 0); // in case its job had stopped
+                        return Retirement.ALREADY_RETIRING;
+                    }
+                }
+                PreparedStatement earlier = StatementCache.of(conn).prepare(DELETE_FINISHED_JOB);
+                earlier.setString(1, GID); // a game deleted before and added again under the same GID
+                earlier.executeUpdate();
+                PreparedStatement insert = StatementCache.of(conn).prepare(INSERT_JOB);
+                insert.setString(1, GID);
+                insert.setString(2, name);
+                insert.executeUpdate();
+                Leaderboard.Change change = Leaderboard.removeGame(conn, GID);
+                conn.commit();
+                Leaderboard.committed(change);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        GamePlayIngestor.forgetGame(GID);
+        enqueue(GID, 0);
+        return Retirement.RETIRED;
+    }
+
+    /**
+     * Method Name: jobs
+     * Purpose: Reports how far each retirement has got.
+     * Pre-conditions: None.
+     * Post-conditions: Returns one Job per retired game, oldest first.
+     * Parameters:
+     * - conn (in): Connection to read with.
+     */
+    public static List<Job> jobs(Connection conn) throws SQLException {
+        List<Job> jobs = new ArrayList<>();
+        try (ResultSet rs = StatementCache.of(conn).prepare(JOBS).executeQuery()) {
+            while (rs.next()) {
+                jobs.add(new Job(rs.getString("GID"), rs.getString("name"), rs.getLong("rowsArchived"),
+                        rs.getLong("remaining"), rs.getDate("finishedOn") != null));
+            }
+        }
+        return jobs;
+    }
+
+    public String summary() {
+        return String.format("archiver archived=%d chunks=%d gamesFinished=%d pending=%d",
+                archived.get(), chunks.get(), finished.get(), queued.size());
+    }
+
+    /**
+     * Method Name: close
+     * Purpose: Stops the archiver thread.
+     * Pre-conditions: None.
+     * Post-conditions: The chunk in flight is committed or rolled back; unfinished jobs stay in GameRetirement.
+     *                  If the calling thread is interrupted while waiting, it returns with its interrupt
+     *                  flag set and the worker stops on its own.
+     * Parameters: None.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(String GID, long delayMillis) {
+        if (queued.add(GID)) {
+            queue.add(new Pending(GID, delayMillis));
+        }
+    }
+
+    private void run() {
+        while (!closing) {
+            String GID;
+            try {
+                GID = queue.take().GID;
+            } catch (InterruptedException e) {
+                return;
+            }
+            queued.remove(GID);
+            try {
+                archive(GID);
+            } catch (SQLException e) {
+                System.err.println("Archiving game " + GID + " failed, retrying in " + RETRY_MILLIS / 1000 + "s: " + e.getMessage());
+                enqueue(GID, RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                enqueue(GID, 0); // not finished; start() picks it up from GameRetirement next time
+                return;
+            }
+        }
+    }
+
+    // Moves one game's plays chunk by chunk, then deletes the game
+    private void archive(String GID) throws SQLException, InterruptedException {
+        Connection conn = pool.borrow();
+        try {
+            while (!closing) {
+                if (moveChunk(conn, GID) == 0) {
+                    finish(conn, GID);
+                    return;
+                }
+                Thread.sleep(pauseMillis);
+            }
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    private int moveChunk(Connection conn, String GID) throws SQLException {
+        try (Metrics.Span span = Metrics.start("archiveChunk")) {
+            try {
+                List<RowId> rowIds = new ArrayList<>(chunkSize);
+                List<String> mids = new ArrayList<>(chunkSize);
+                List<Integer> scores = new ArrayList<>(chunkSize);
+                PreparedStatement next = StatementCache.of(conn).prepare(NEXT_CHUNK);
+                next.setString(1, GID);
+                next.setInt(2, chunkSize);
+                next.setFetchSize(Math.min(chunkSize, ResultStreamer.FETCH_SIZE));
+                try (ResultSet rs = next.executeQuery()) {
+                    while (rs.next()) {
+                        rowIds.add(rs.getRowId("rid"));
+                        mids.add(rs.getString("MID"));
+                        scores.add(rs.getInt("score"));
+                    }
+                }
+                span.rows(rowIds.size());
+                if (rowIds.isEmpty()) {
+                    conn.rollback();
+                    return 0;
+                }
+
+                // Delete first and archive only what was deleted, so no play is ever in both tables
+                PreparedStatement delete = StatementCache.of(conn).prepare(DELETE_PLAY);
+                for (RowId rowId : rowIds) {
+                    delete.setRowId(1, rowId);
+                    delete.addBatch();
+                }
+                int[] deleted = delete.executeBatch();
+                PreparedStatement insert = StatementCache.of(conn).prepare(ARCHIVE_PLAY);
+                int moved = 0;
+                for (int i = 0; i < rowIds.size(); i++) {
+                    if (deleted[i] == 0) {
+                        continue; // gone already
+                    }
+                    insert.setString(1, GID);
+                    insert.setString(2, mids.get(i));
+                    insert.setInt(3, scores.get(i));
+                    insert.addBatch();
+                    moved++;
+                }
+                insert.executeBatch();
+                PreparedStatement progress = StatementCache.of(conn).prepare(ADD_PROGRESS);
+                progress.setInt(1, moved);
+                progress.setString(2, GID);
+                progress.executeUpdate();
+                conn.commit();
+                archived.addAndGet(moved);
+                chunks.incrementAndGet();
+                return rowIds.size();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void finish(Connection conn, String GID) throws SQLException {
+        try {
+            PreparedStatement delete = StatementCache.of(conn).prepare(DELETE_GAME);
+            delete.setString(1, GID);
+            delete.executeUpdate(); // fails while a late play still references the game; the retry moves it
+            PreparedStatement done = StatementCache.of(conn).prepare(FINISH_JOB);
+            done.setString(1, GID);
+            done.executeUpdate();
+            conn.commit();
+            finished.incrementAndGet();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+}
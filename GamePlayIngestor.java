@@ -0,0 +1,399 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: GamePlayIngestor.java records game plays reported by the cabinets. Plays are queued
+ * in a bounded buffer and written by background writers in batches: each batch inserts the GamePlay
+ * rows and awards the tickets earned (score times the game's factor) in one transaction, then
+ * updates the leaderboard. When the buffer is full new plays are refused, which tells the cabinets
+ * to back off.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class Name: GamePlayIngestor
+ * External Packages: java.sql, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: Implements AutoCloseable.
+ *
+ * Description: submit() is non-blocking (or waits up to a timeout) and only touches the queue.
+ * Each writer thread takes up to batchSize plays at a time, looks up tokenCost and factor from a
+ * cached copy of the Game table, inserts the plays with one JDBC batch and adds the earned tickets
+ * per member with a second batch (or hands them to the MemberTable or TicketLedger when one is running). If the
+ * database refuses a batch, it is retried one play at a time so a single bad play (unknown member,
+ * deleted game) does not drop the others.
+ *
+ * The schema has no token balance per member (tokens are bought as physical tokens and only
+ * recorded in TokenPurchase), so the tokens each play consumes are counted in the stats instead
+ * of being deducted from a balance.
+ *
+ * Constructor: GamePlayIngestor(ConnectionPool pool, TicketLedger ledger, int capacity, int batchSize, int writers)
+ *
+ * Instance Methods:
+ * submit(String GID, String MID, int score): Queues a play, returns false when the queue is full.
+ * submit(String GID, String MID, int score, long timeoutMillis): Same, waiting up to the timeout for space.
+ * write(Connection conn, List<PlayEvent> batch, TicketLedger ledger): Writes a batch of plays in one transaction.
+ * stats(): Throughput and latency counters.
+ * close(): Stops accepting plays and waits for the queue to drain.
+ */
+public class GamePlayIngestor implements AutoCloseable {
+
+    private static final String INSERT_PLAY = "INSERT INTO hamadayaz.GamePlay (GID, MID, score) VALUES (?, ?, ?)";
+    private static final String AWARD_TICKETS = "UPDATE hamadayaz.Member SET totalTickets = totalTickets + ? WHERE MID = ?";
+    private static final String LOAD_GAME = "SELECT tokenCost, factor FROM " + GameArchiver.GAMES + " WHERE GID = ?"; // retired games take no plays
+
+    /**
+     * One play reported by a cabinet.
+     */
+    public record PlayEvent(String GID, String MID, int score, long submittedNanos) {
+    }
+
+    private record GameInfo(int tokenCost, double factor) {
+    }
+
+    /**
+     * Snapshot of the ingestion counters.
+     */
+    public record Stats(long accepted, long refused, long written, long failed, long batches, long tokensUsed,
+                        long ticketsAwarded, int queued, long totalLatencyNanos, long maxLatencyNanos) {
+
+        public double averageLatencyMillis() {
+            return written == 0 ? 0.0 : totalLatencyNanos / 1e6 / written;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ingest accepted=%d refused=%d written=%d failed=%d batches=%d queued=%d " +
+                            "tokensUsed=%d ticketsAwarded=%d avgLatency=%.2fms maxLatency=%.2fms",
+                    accepted, refused, written, failed, batches, queued, tokensUsed, ticketsAwarded,
+                    averageLatencyMillis(), maxLatencyNanos / 1e6);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, GameInfo> games = new ConcurrentHashMap<>();
+
+    private final ConnectionPool pool;
+    private final TicketLedger ledger;
+    private final BlockingQueue<PlayEvent> queue;
+    private final int batchSize;
+    private final List<Thread> writers = new ArrayList<>();
+    private volatile boolean closing;
+
+    // process-wide counters, shared by the writers and by plays written directly with write()
+    private static final AtomicLong accepted = new AtomicLong();
+    private static final AtomicLong refused = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong tokensUsed = new AtomicLong();
+    private static final AtomicLong ticketsAwarded = new AtomicLong();
+    private static final AtomicLong totalLatencyNanos = new AtomicLong();
+    private static final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Method Name: GamePlayIngestor (constructor)
+     * Purpose: Creates the queue and starts the writer threads.
+     * Pre-conditions: pool has at least writers connections available.
+     * Post-conditions: Plays can be submitted.
+     * Parameters:
+     * - pool (in): Pool the writers borrow connections from.
+     * - ledger (in): Ledger for ticket awards, or null to update Member directly.
+     * - capacity (in): Maximum number of queued plays.
+     * - batchSize (in): Maximum plays per transaction.
+     * - writerCount (in): Number of writer threads.
+     */
+    public GamePlayIngestor(ConnectionPool pool, TicketLedger ledger, int capacity, int batchSize, int writerCount) {
+        this.pool = pool;
+        this.ledger = ledger;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        for (int i = 0; i < writerCount; i++) {
+            Thread t = new Thread(this::drain, "ingest-writer-" + i);
+            t.setDaemon(true);
+            t.start();
+            writers.add(t);
+        }
+    }
+
+    /**
+     * Method Name: submit
+     * Purpose: Queues a play without waiting.
+     * Pre-conditions: The ingestor is not closed.
+     * Post-conditions: Returns false (and the play is not recorded) when the queue is full.
+     * Parameters:
+     * - GID, MID (in): Game and member IDs.
+     * - score (in): The score achieved.
+     */
+    public boolean submit(String GID, String MID, int score) {
+        return count(!closing && queue.offer(new PlayEvent(GID, MID, score, System.nanoTime())));
+    }
+
+    /**
+     * Method Name: submit
+     * Purpose: Queues a play, waiting up to timeoutMillis for room.
+     * Pre-conditions: The ingestor is not closed.
+     * Post-conditions: Returns false when no room became available in time.
+     * Parameters:
+     * - GID, MID (in): Game and member IDs.
+     * - score (in): The score achieved.
+     * - timeoutMillis (in): Longest time to wait.
+     */
+    public boolean submit(String GID, String MID, int score, long timeoutMillis) throws InterruptedException {
+        return count(!closing && queue.offer(new PlayEvent(GID, MID, score, System.nanoTime()),
+                timeoutMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private boolean count(boolean ok) {
+        (ok ? accepted : refused).incrementAndGet();
+        return ok;
+    }
+
+    public Stats stats() {
+        return new Stats(accepted.get(), refused.get(), written.get(), failed.get(), batches.get(), tokensUsed.get(),
+                ticketsAwarded.get(), queue.size(), totalLatencyNanos.get(), maxLatencyNanos.get());
+    }
+
+    private void drain() {
+        List<PlayEvent> batch = new ArrayList<>(batchSize);
+        while (!closing || !queue.isEmpty()) {
+            try {
+                PlayEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+
+                Connection conn = pool.borrow();
+                try {
+                    write(conn, batch, ledger);
+                } finally {
+                    pool.release(conn);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (SQLException e) {
+                failed.addAndGet(batch.size());
+                System.err.println("Game play batch lost: " + e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Method Name: write
+     * Purpose: Inserts a batch of plays and awards their tickets in one transaction.
+     * Pre-conditions: conn has auto-commit off.
+     * Post-conditions: Plays that the database accepted are committed; refused ones are counted as failed.
+     * Parameters:
+     * - conn (in): Connection to write through.
+     * - batch (in): Plays to write.
+     * - ledger (in): Ledger for ticket awards, or null.
+     */
+    static void write(Connection conn, List<PlayEvent> batch, TicketLedger ledger) throws SQLException {
+        try (Metrics.Span span = Metrics.start("ingestBatch")) {
+            batches.incrementAndGet();
+            boolean deferTickets = ledger != null || MemberTable.isLoaded();
+            Map<String, Long> tickets;
+            try {
+                tickets = writeAll(conn, batch, deferTickets);
+                conn.commit();
+            } catch (SQLException e) {
+                rollback(conn);
+                if (batch.size() == 1) {
+                    throw e;
+                }
+                span.rows(isolate(conn, batch, ledger, deferTickets));
+                return;
+            }
+            // Outside the try: the plays are committed, so nothing that fails from here on may write them again
+            finished(conn, batch, tickets, ledger);
+            span.rows(batch.size());
+        }
+    }
+
+    // Writes the plays of a refused batch one at a time, so only the plays the database refuses are lost. Returns how many were written.
+    private static int isolate(Connection conn, List<PlayEvent> batch, TicketLedger ledger, boolean deferTickets) throws SQLException {
+        int written = 0;
+        for (PlayEvent play : batch) {
+            List<PlayEvent> single = List.of(play);
+            Map<String, Long> tickets;
+            try {
+                tickets = writeAll(conn, single, deferTickets);
+                conn.commit();
+            } catch (SQLException rowError) {
+                rollback(conn);
+                failed.incrementAndGet();
+                continue;
+            }
+            finished(conn, single, tickets, ledger);
+            written++;
+        }
+        return written;
+    }
+
+    // Inserts the plays and, unless the member table or a ledger will take them, awards the tickets. Returns tickets per member.
+    private static Map<String, Long> writeAll(Connection conn, List<PlayEvent> batch, boolean deferTickets) throws SQLException {
+        // Every game is looked up before the first addBatch, so an unknown game leaves nothing queued
+        List<GameInfo> infos = new ArrayList<>(batch.size());
+        for (PlayEvent play : batch) {
+            infos.add(game(conn, play.GID()));
+        }
+        PreparedStatement insert = StatementCache.of(conn).prepare(INSERT_PLAY);
+        Map<String, Long> tickets = new HashMap<>();
+        long tokens = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            PlayEvent play = batch.get(i);
+            GameInfo game = infos.get(i);
+            insert.setString(1, play.GID());
+            insert.setString(2, play.MID());
+            insert.setInt(3, play.score());
+            insert.addBatch();
+            tokens += game.tokenCost();
+            tickets.merge(play.MID(), (long) (play.score() * game.factor()), Long::sum);
+        }
+        insert.executeBatch();
+        if (!deferTickets) {
+            awardTickets(conn, tickets);
+        }
+        tokensUsed.addAndGet(tokens);
+        return tickets;
+    }
+
+    private static void awardTickets(Connection conn, Map<String, Long> tickets) throws SQLException {
+        PreparedStatement award = StatementCache.of(conn).prepare(AWARD_TICKETS);
+        for (Map.Entry<String, Long> e : tickets.entrySet()) {
+            award.setLong(1, e.getValue());
+            award.setString(2, e.getKey());
+            award.addBatch();
+        }
+        award.executeBatch();
+    }
+
+    // Runs after the plays are committed, so a rolled back batch never reaches the ledger or leaderboard.
+    // It never throws: the plays cannot be taken back, so a failure here is reported and the rest carries on.
+    private static void finished(Connection conn, List<PlayEvent> batch, Map<String, Long> tickets, TicketLedger ledger) {
+        if (MemberTable.isLoaded()) {
+            Map<String, Long> missed = new HashMap<>();
+            for (Map.Entry<String, Long> e : tickets.entrySet()) {
+                if (!MemberTable.award(e.getKey(), (int) (long) e.getValue())) {
+                    missed.put(e.getKey(), e.getValue()); // not held by the table, e.g. added by another process
+                }
+            }
+            if (!missed.isEmpty()) {
+                awardAfterCommit(conn, missed);
+            }
+        } else if (ledger != null) {
+            try {
+                for (Map.Entry<String, Long> e : tickets.entrySet()) {
+                    ledger.recordTickets(e.getKey(), e.getValue());
+                }
+            } catch (IOException e) {
+                System.err.println("Ledger unavailable, awarding tickets directly: " + e.getMessage());
+                awardAfterCommit(conn, tickets); // at worst a partially logged batch is awarded twice
+            }
+        }
+        ticketsAwarded.addAndGet(tickets.values().stream().mapToLong(Long::longValue).sum());
+
+        try {
+            for (PlayEvent play : batch) {
+                Leaderboard.record(conn, play.GID(), play.MID(), play.score());
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            rollbackAfterCommit(conn);
+            System.err.println("Leaderboard update failed, rebuild it to catch up: " + e.getMessage());
+        }
+
+        long now = System.nanoTime();
+        written.addAndGet(batch.size());
+        for (PlayEvent play : batch) {
+            long latency = now - play.submittedNanos();
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    // Awards the tickets of plays already committed; if that fails the plays stand and the tickets are reported as lost
+    private static void awardAfterCommit(Connection conn, Map<String, Long> tickets) {
+        try {
+            awardTickets(conn, tickets);
+            conn.commit();
+        } catch (SQLException e) {
+            rollbackAfterCommit(conn);
+            System.err.println("Tickets for committed plays not awarded " + tickets + ": " + e.getMessage());
+        }
+    }
+
+    private static void rollbackAfterCommit(Connection conn) {
+        try {
+            StatementCache.of(conn).prepare(AWARD_TICKETS).clearBatch();
+            conn.rollback();
+        } catch (SQLException e) {
+            System.err.println("Rollback failed: " + e.getMessage());
+        }
+    }
+
+    // Rolls back a failed write and empties the cached statements' batches, so no play rides along into the next write
+    private static void rollback(Connection conn) throws SQLException {
+        conn.rollback();
+        StatementCache.of(conn).prepare(INSERT_PLAY).clearBatch();
+        StatementCache.of(conn).prepare(AWARD_TICKETS).clearBatch();
+    }
+
+    private static GameInfo game(Connection conn, String GID) throws SQLException {
+        GameInfo game = games.get(GID);
+        if (game != null) {
+            return game;
+        }
+        PreparedStatement stmt = StatementCache.of(conn).prepare(LOAD_GAME);
+        stmt.setString(1, GID);
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("No game found with ID: " + GID);
+            }
+            game = new GameInfo(rs.getInt("tokenCost"), rs.getDouble("factor"));
+        }
+        games.put(GID, game);
+        return game;
+    }
+
+    /**
+     * Method Name: forgetGame
+     * Purpose: Drops a game from the tokenCost/factor cache after it is deleted.
+     * Pre-conditions: None.
+     * Post-conditions: Later plays for GID are looked up again (and refused if the game is gone).
+     * Parameters:
+     * - GID (in): Game ID.
+     */
+    static void forgetGame(String GID) {
+        games.remove(GID);
+    }
+
+    /**
+     * Method Name: close
+     * Purpose: Stops accepting plays and waits for the writers to empty the queue.
+     * Pre-conditions: None.
+     * Post-conditions: All accepted plays have been written or counted as failed, unless the calling thread
+     *                  was interrupted; it then returns at once with its interrupt flag set.
+     * Parameters: None.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        try {
+            for (Thread t : writers) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // the writers are daemons and keep draining
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: JdbcStore.java implements the ArcadeStore repositories on the relational tables,
+ * with the same SQL the menus and reports already run against the Oracle schema.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Class Name: JdbcStore
+ * External Packages: java.sql
+ * Containing Package: Default package.
+ * Inheritance Information: Implements ArcadeStore.
+ *
+ * Description: Each repository call borrows a pooled connection, runs its statements from the
+ * StatementCache, commits and returns the connection, so every call is one short transaction. A
+ * failure is rolled back by the pool and thrown as a StoreException wrapping the SQLException.
+ * Only the tables are written: the in-memory Leaderboard, SpendAggregates and PrizeCatalog are kept
+ * in step by ArcadeOperations, not by the store.
+ *
+ * Constructor: JdbcStore(ConnectionPool pool)
+ *
+ * Instance Methods:
+ * members(), games(), plays(), prizes(), purchases(), redemptions(), coupons(): The repositories.
+ * close(): Does nothing; the pool belongs to the caller.
+ */
+public class JdbcStore implements ArcadeStore {
+
+    private static final String FIND_MEMBER =
+            "SELECT MID, name, phoneNo, address, tier, totalSpent, totalTickets FROM hamadayaz.Member WHERE MID = ?";
+    private static final String INSERT_MEMBER =
+            "INSERT INTO hamadayaz.Member (MID, name, phoneNo, address, tier, totalSpent, totalTickets) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_CONTACT = "UPDATE hamadayaz.Member SET name = ?, phoneNo = ?, address = ? WHERE MID = ?";
+    private static final String ADD_TOTALS =
+            "UPDATE hamadayaz.Member SET totalSpent = totalSpent + ?, totalTickets = totalTickets + ?, tier = COALESCE(?, tier) " +
+            "WHERE MID = ?";
+    private static final String DELETE_MEMBER = "DELETE FROM hamadayaz.Member WHERE MID = ?";
+    private static final String COUNT_MEMBERS = "SELECT COUNT(*) FROM hamadayaz.Member";
+
+    private static final String FIND_GAME = "SELECT GID, name, tokenCost, factor FROM hamadayaz.Game WHERE GID = ?";
+    private static final String INSERT_GAME = "INSERT INTO hamadayaz.Game (GID, name, tokenCost, factor) VALUES (?, ?, ?, ?)";
+    private static final String DELETE_GAME = "DELETE FROM hamadayaz.Game WHERE GID = ?";
+    private static final String ALL_GAMES = "SELECT GID, name, tokenCost, factor FROM " + GameArchiver.GAMES + " g ORDER BY GID";
+
+    private static final String INSERT_PLAY = "INSERT INTO hamadayaz.GamePlay (GID, MID, score) VALUES (?, ?, ?)";
+    private static final String BEST_OF =
+            "SELECT GID, MID, score FROM hamadayaz.GamePlay WHERE MID = ? ORDER BY score DESC FETCH FIRST 1 ROWS ONLY";
+    private static final String HIGH_SCORES =
+            "SELECT GID, MID, score FROM (" +
+            "  SELECT gp.GID, gp.MID, gp.score, ROW_NUMBER() OVER (PARTITION BY gp.GID ORDER BY gp.score DESC) AS rn " +
+            "  FROM hamadayaz.GamePlay gp JOIN " + GameArchiver.GAMES + " g ON g.GID = gp.GID) " +
+            "WHERE rn = 1";
+    private static final String DELETE_PLAYS_OF_MEMBER = "DELETE FROM hamadayaz.GamePlay WHERE MID = ?";
+    private static final String DELETE_PLAYS_OF_GAME = "DELETE FROM hamadayaz.GamePlay WHERE GID = ?";
+
+    private static final String FIND_PRIZE = "SELECT PrizeID, description, ticketCost, inventoryCount FROM hamadayaz.Prize WHERE PrizeID = ?";
+    private static final String ADD_PRIZE =
+            "MERGE INTO hamadayaz.Prize p " +
+            "USING (SELECT ? AS prizeID, ? AS description, ? AS ticketCost, ? AS inventoryCount FROM dual) s " +
+            "ON (p.prizeID = s.prizeID) " +
+            "WHEN MATCHED THEN UPDATE SET p.inventoryCount = p.inventoryCount + s.inventoryCount " +
+            "WHEN NOT MATCHED THEN INSERT (prizeID, description, ticketCost, inventoryCount) " +
+            "VALUES (s.prizeID, s.description, s.ticketCost, s.inventoryCount)";
+    private static final String TAKE_PRIZE =
+            "UPDATE hamadayaz.Prize SET inventoryCount = inventoryCount - 1 WHERE PrizeID = ? AND inventoryCount > 0";
+    private static final String DELETE_PRIZE = "DELETE FROM hamadayaz.Prize WHERE PrizeID = ?";
+    private static final String ALL_PRIZES =
+            "SELECT PrizeID, description, ticketCost, inventoryCount FROM hamadayaz.Prize ORDER BY ticketCost, PrizeID";
+
+    private static final String NEXT_PID = "SELECT seq_token_purchase.nextval FROM dual";
+    private static final String INSERT_PURCHASE =
+            "INSERT INTO hamadayaz.TokenPurchase (PID, MID, tokenNo, purchaseDate, amountSpent) VALUES (?, ?, ?, CURRENT_DATE, ?)";
+    private static final String SPENT_SINCE =
+            "SELECT MID, SUM(amountSpent) AS amount FROM hamadayaz.TokenPurchase WHERE purchaseDate >= ? GROUP BY MID";
+    private static final String DELETE_PURCHASES = "DELETE FROM hamadayaz.TokenPurchase WHERE MID = ?";
+
+    private static final String NEXT_XACT = "SELECT seq_prize_redemption.nextval FROM dual";
+    private static final String INSERT_REDEMPTION =
+            "INSERT INTO hamadayaz.PrizeRedemption (XactID, MID, PrizeID, xactDate) VALUES (?, ?, ?, CURRENT_DATE)";
+    private static final String REDEMPTIONS_OF =
+            "SELECT XactID, MID, PrizeID, xactDate FROM hamadayaz.PrizeRedemption WHERE MID = ? ORDER BY XactID";
+    private static final String DELETE_REDEMPTIONS = "DELETE FROM hamadayaz.PrizeRedemption WHERE MID = ?";
+    private static final String DELETE_PRIZE_REDEMPTIONS = "DELETE FROM hamadayaz.PrizeRedemption WHERE PrizeID = ?";
+
+    private static final String FIND_COUPON = "SELECT couponID, MID FROM hamadayaz.Coupon WHERE couponID = ?";
+    private static final String INSERT_COUPON = "INSERT INTO hamadayaz.Coupon (couponID, MID) VALUES (?, ?)";
+    private static final String DELETE_COUPON = "DELETE FROM hamadayaz.Coupon WHERE couponID = ?";
+    private static final String DELETE_COUPONS_OF = "DELETE FROM hamadayaz.Coupon WHERE MID = ?";
+
+    private final ConnectionPool pool;
+
+    /**
+     * The statements of one repository call, run on a borrowed connection before it commits.
+     */
+    private interface Work<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    public JdbcStore(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    // Borrow, run, commit, release; release rolls back whatever a failed call left behind
+    private <T> T inTransaction(String what, Work<T> work) throws StoreException {
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            T result = work.run(conn);
+            conn.commit();
+            return result;
+        } catch (SQLException e) {
+            throw new StoreException(what + " failed: " + e.getMessage(), e);
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    private static PreparedStatement prepare(Connection conn, String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = StatementCache.of(conn).prepare(sql);
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] == null) {
+                stmt.setNull(i + 1, Types.VARCHAR); // the only nullable parameters are text columns
+            } else {
+                stmt.setObject(i + 1, params[i]);
+            }
+        }
+        return stmt;
+    }
+
+    private static int update(Connection conn, String sql, Object... params) throws SQLException {
+        return prepare(conn, sql, params).executeUpdate();
+    }
+
+    private static long single(Connection conn, String sql) throws SQLException {
+        try (ResultSet rs = prepare(conn, sql).executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // Inserts one row; false instead of an exception when the key is taken
+    private static boolean insert(Connection conn, String sql, Object... params) throws SQLException {
+        try {
+            return update(conn, sql, params) == 1;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            return false;
+        }
+    }
+
+    private static double dollars(long cents) {
+        return cents / 100.0;
+    }
+
+    private static GamePlay play(ResultSet rs) throws SQLException {
+        return new GamePlay(rs.getString("GID"), rs.getString("MID"), rs.getInt("score"));
+    }
+
+    private final MemberRepository members = new MemberRepository() {
+        @Override
+        public Optional<Member> find(String MID) throws StoreException {
+            return inTransaction("Member lookup", conn -> {
+                try (ResultSet rs = prepare(conn, FIND_MEMBER, MID).executeQuery()) {
+                    return rs.next()
+                            ? Optional.of(new Member(rs.getString("MID"), rs.getString("name"), rs.getString("phoneNo"),
+                                    rs.getString("address"), rs.getString("tier"), Math.round(rs.getDouble("totalSpent") * 100),
+                                    rs.getInt("totalTickets")))
+                            : Optional.empty();
+                }
+            });
+        }
+
+        @Override
+        public boolean insert(Member m) throws StoreException {
+            return inTransaction("Member insert", conn -> JdbcStore.insert(conn, INSERT_MEMBER, m.MID(), m.name(),
+                    m.phoneNo(), m.address(), m.tier(), dollars(m.spentCents()), m.tickets()));
+        }
+
+        @Override
+        public boolean updateContact(String MID, String name, String phoneNo, String address) throws StoreException {
+            return inTransaction("Member update", conn -> update(conn, UPDATE_CONTACT, name, phoneNo, address, MID) > 0);
+        }
+
+        @Override
+        public boolean addTotals(String MID, long spentCents, int tickets, String tier) throws StoreException {
+            return inTransaction("Member totals", conn -> update(conn, ADD_TOTALS, dollars(spentCents), tickets, tier, MID) > 0);
+        }
+
+        @Override
+        public boolean delete(String MID) throws StoreException {
+            return inTransaction("Member delete", conn -> update(conn, DELETE_MEMBER, MID) > 0);
+        }
+
+        @Override
+        public long count() throws StoreException {
+            return inTransaction("Member count", conn -> single(conn, COUNT_MEMBERS));
+        }
+    };
+
+    private final GameRepository games = new GameRepository() {
+        @Override
+        public Optional<Game> find(String GID) throws StoreException {
+            return inTransaction("Game lookup", conn -> {
+                try (ResultSet rs = prepare(conn, FIND_GAME, GID).executeQuery()) {
+                    return rs.next()
+                            ? Optional.of(new Game(rs.getString("GID"), rs.getString("name"), rs.getInt("tokenCost"), rs.getDouble("factor")))
+                            : Optional.empty();
+                }
+            });
+        }
+
+        @Override
+        public boolean insert(Game g) throws StoreException {
+            return inTransaction("Game insert", conn -> JdbcStore.insert(conn, INSERT_GAME, g.GID(), g.name(), g.tokenCost(), g.factor()));
+        }
+
+        @Override
+        public boolean delete(String GID) throws StoreException {
+            return inTransaction("Game delete", conn -> update(conn, DELETE_GAME, GID) > 0);
+        }
+
+        @Override
+        public List<Game> all() throws StoreException {
+            return inTransaction("Game list", conn -> {
+                List<Game> all = new ArrayList<>();
+                try (ResultSet rs = prepare(conn, ALL_GAMES).executeQuery()) {
+                    while (rs.next()) {
+                        all.add(new Game(rs.getString("GID"), rs.getString("name"), rs.getInt("tokenCost"), rs.getDouble("factor")));
+                    }
+                }
+                return all;
+            });
+        }
+    };
+
+    private final GamePlayRepository plays = new GamePlayRepository() {
+        @Override
+        public void record(GamePlay p) throws StoreException {
+            inTransaction("Game play insert", conn -> update(conn, INSERT_PLAY, p.GID(), p.MID(), p.score()));
+        }
+
+        @Override
+        public Optional<GamePlay> bestOf(String MID) throws StoreException {
+            return inTransaction("Best score lookup", conn -> {
+                try (ResultSet rs = prepare(conn, BEST_OF, MID).executeQuery()) {
+                    return rs.next() ? Optional.of(play(rs)) : Optional.empty();
+                }
+            });
+        }
+
+        @Override
+        public Map<String, GamePlay> highScores() throws StoreException {
+            return inTransaction("High scores", conn -> {
+                Map<String, GamePlay> best = new TreeMap<>();
+                try (ResultSet rs = prepare(conn, HIGH_SCORES).executeQuery()) {
+                    while (rs.next()) {
+                        best.put(rs.getString("GID"), play(rs));
+                    }
+                }
+                return best;
+            });
+        }
+
+        @Override
+        public void deleteByMember(String MID) throws StoreException {
+            inTransaction("Game play delete", conn -> update(conn, DELETE_PLAYS_OF_MEMBER, MID));
+        }
+
+        @Override
+        public void deleteByGame(String GID) throws StoreException {
+            inTransaction("Game play delete", conn -> update(conn, DELETE_PLAYS_OF_GAME, GID));
+        }
+    };
+
+    private final PrizeRepository prizes = new PrizeRepository() {
+        @Override
+        public Optional<Prize> find(String prizeId) throws StoreException {
+            return inTransaction("Prize lookup", conn -> {
+                try (ResultSet rs = prepare(conn, FIND_PRIZE, prizeId).executeQuery()) {
+                    return rs.next() ? Optional.of(prize(rs)) : Optional.empty();
+                }
+            });
+        }
+
+        @Override
+        public void add(Prize p) throws StoreException {
+            inTransaction("Prize insert", conn -> update(conn, ADD_PRIZE, p.prizeId(), p.description(), p.ticketCost(), p.inventory()));
+        }
+
+        @Override
+        public boolean takeOne(String prizeId) throws StoreException {
+            return inTransaction("Prize inventory", conn -> update(conn, TAKE_PRIZE, prizeId) > 0);
+        }
+
+        @Override
+        public boolean delete(String prizeId) throws StoreException {
+            return inTransaction("Prize delete", conn -> update(conn, DELETE_PRIZE, prizeId) > 0);
+        }
+
+        @Override
+        public List<Prize> all() throws StoreException {
+            return inTransaction("Prize list", conn -> {
+                List<Prize> all = new ArrayList<>();
+                try (ResultSet rs = prepare(conn, ALL_PRIZES).executeQuery()) {
+                    while (rs.next()) {
+                        all.add(prize(rs));
+                    }
+                }
+                return all;
+            });
+        }
+
+        private Prize prize(ResultSet rs) throws SQLException {
+            return new Prize(rs.getString("PrizeID"), rs.getString("description"), rs.getInt("ticketCost"), rs.getInt("inventoryCount"));
+        }
+    };
+
+    private final TokenPurchaseRepository purchases = new TokenPurchaseRepository() {
+        @Override
+        public long record(String MID, int tokens, long amountCents) throws StoreException {
+            return inTransaction("Token purchase insert", conn -> {
+                long PID = single(conn, NEXT_PID);
+                update(conn, INSERT_PURCHASE, PID, MID, tokens, dollars(amountCents));
+                return PID;
+            });
+        }
+
+        @Override
+        public Map<String, Long> spentSince(LocalDate from) throws StoreException {
+            return inTransaction("Spend report", conn -> {
+                Map<String, Long> cents = new HashMap<>();
+                try (ResultSet rs = prepare(conn, SPENT_SINCE, java.sql.Date.valueOf(from)).executeQuery()) {
+                    while (rs.next()) {
+                        cents.put(rs.getString("MID"), Math.round(rs.getDouble("amount") * 100));
+                    }
+                }
+                return cents;
+            });
+        }
+
+        @Override
+        public void deleteByMember(String MID) throws StoreException {
+            inTransaction("Token purchase delete", conn -> update(conn, DELETE_PURCHASES, MID));
+        }
+    };
+
+    private final PrizeRedemptionRepository redemptions = new PrizeRedemptionRepository() {
+        @Override
+        public long record(String MID, String prizeId) throws StoreException {
+            return inTransaction("Redemption insert", conn -> {
+                long xactId = single(conn, NEXT_XACT);
+                update(conn, INSERT_REDEMPTION, xactId, MID, prizeId);
+                return xactId;
+            });
+        }
+
+        @Override
+        public List<PrizeRedemption> forMember(String MID) throws StoreException {
+            return inTransaction("Redemption list", conn -> {
+                List<PrizeRedemption> list = new ArrayList<>();
+                try (ResultSet rs = prepare(conn, REDEMPTIONS_OF, MID).executeQuery()) {
+                    while (rs.next()) {
+                        list.add(new PrizeRedemption(rs.getLong("XactID"), rs.getString("MID"), rs.getString("PrizeID"),
+                                rs.getDate("xactDate").toLocalDate()));
+                    }
+                }
+                return list;
+            });
+        }
+
+        @Override
+        public void deleteByMember(String MID) throws StoreException {
+            inTransaction("Redemption delete", conn -> update(conn, DELETE_REDEMPTIONS, MID));
+        }
+
+        @Override
+        public void deleteByPrize(String prizeId) throws StoreException {
+            inTransaction("Redemption delete", conn -> update(conn, DELETE_PRIZE_REDEMPTIONS, prizeId));
+        }
+    };
+
+    private final CouponRepository coupons = new CouponRepository() {
+        @Override
+        public Optional<Coupon> find(String couponId) throws StoreException {
+            return inTransaction("Coupon lookup", conn -> {
+                try (ResultSet rs = prepare(conn, FIND_COUPON, couponId).executeQuery()) {
+                    return rs.next() ? Optional.of(new Coupon(rs.getString("couponID"), rs.getString("MID"))) : Optional.empty();
+                }
+            });
+        }
+
+        @Override
+        public boolean insert(Coupon c) throws StoreException {
+            return inTransaction("Coupon insert", conn -> JdbcStore.insert(conn, INSERT_COUPON, c.couponId(), c.MID()));
+        }
+
+        @Override
+        public boolean delete(String couponId) throws StoreException {
+            return inTransaction("Coupon delete", conn -> update(conn, DELETE_COUPON, couponId) > 0);
+        }
+
+        @Override
+        public void deleteByMember(String MID) throws StoreException {
+            inTransaction("Coupon delete", conn -> update(conn, DELETE_COUPONS_OF, MID));
+        }
+    };
+
+    @Override
+    public MemberRepository members() {
+        return members;
+    }
+
+    @Override
+    public GameRepository games() {
+        return games;
+    }
+
+    @Override
+    public GamePlayRepository plays() {
+        return plays;
+    }
+
+    @Override
+    public PrizeRepository prizes() {
+        return prizes;
+    }
+
+    @Override
+    public TokenPurchaseRepository purchases() {
+        return purchases;
+    }
+
+    @Override
+    public PrizeRedemptionRepository redemptions() {
+        return redemptions;
+    }
+
+    @Override
+    public CouponRepository coupons() {
+        return coupons;
+    }
+
+    @Override
+    public void close() {
+        // the pool belongs to the caller
+    }
+}
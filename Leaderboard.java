@@ -0,0 +1,537 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: Leaderboard.java keeps the top scores of every game, and each member's best score,
+ * in memory and in two summary tables (see extensions.sql). Query 1 and query 4 are answered from
+ * memory instead of grouping and re-joining the whole GamePlay table on every call.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Class Name: Leaderboard
+ * External Packages: java.sql, java.util
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Every game has a bounded min-heap of its best TOP_K scores; a new score only enters
+ * when it beats the smallest one. After each change the heap is copied into a sorted snapshot, so
+ * readers never lock and reading a game's high score is constant time. Changes are written through
+ * to GameHighScore and MemberBestScore in the caller's transaction. load() reads the summary tables
+ * at startup; rebuild() recomputes them from GamePlay for a cold start, after manual edits, or after
+ * running without the leaderboard enabled (nothing is maintained while it is not loaded).
+ * removeGame and removeMembers write their summary rows in the caller's transaction and return a
+ * Change, which committed() applies to memory once that transaction has committed; a rollback leaves
+ * the boards as they were.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * load(Connection conn) / rebuild(Connection conn): Fill the in-memory boards.
+ * isLoaded(): Whether queries can be served from memory.
+ * record(Connection conn, String GID, String MID, int score): Applies a new GamePlay row.
+ * addGame / renamed / removeGame / removeMember(s): Keep the boards in step with admin operations.
+ * committed(Change change): Applies a removal to memory after its transaction commits.
+ * highScores(): The query 1 rows.
+ * bestFor(String MID): The query 4 answer for one member.
+ */
+public class Leaderboard {
+
+    public static final int TOP_K = Integer.getInteger("arcade.leaderboard.topK", 10);
+
+    /**
+     * One score on a board. The member's name is looked up when it is read, so a rename shows at once.
+     */
+    public record Entry(String MID, int score) {
+        public String memberName() {
+            return nameOf(MID);
+        }
+    }
+
+    /**
+     * One row of the high score report: a game and its top entry, or a null entry if it was never played.
+     */
+    public record HighScore(String GID, String gameName, Entry top) {
+    }
+
+    /**
+     * A member's best score and the game it was on; the name is looked up when it is read, like Entry's.
+     */
+    public record Best(String GID, String gameName, String MID, int score) {
+        public String memberName() {
+            return nameOf(MID);
+        }
+    }
+
+    private static final class Board {
+        final String GID;
+        volatile String name;
+        final PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparingInt(Entry::score));
+        volatile Entry[] sorted = new Entry[0]; // best first, replaced on every change
+
+        Board(String GID, String name) {
+            this.GID = GID;
+            this.name = name;
+        }
+
+        // Returns true if the board changed. Caller holds the board's lock.
+        boolean offer(Entry e) {
+            if (heap.size() < TOP_K) {
+                heap.add(e);
+            } else if (e.score() > heap.peek().score()) {
+                heap.poll();
+                heap.add(e);
+            } else {
+                return false;
+            }
+            publish();
+            return true;
+        }
+
+        void publish() {
+            Entry[] copy = heap.toArray(new Entry[0]);
+            Arrays.sort(copy, Comparator.comparingInt(Entry::score).reversed());
+            sorted = copy;
+        }
+    }
+
+    /**
+     * Board changes written in a caller's transaction and not yet applied to memory.
+     */
+    public static final class Change {
+        private final Set<String> games = new HashSet<>(); // boards to drop
+        private final Set<String> members = new HashSet<>(); // best scores and names to drop
+        private final Map<String, Entry[]> reloaded = new HashMap<>(); // GID -> top entries read from GamePlay
+        private final Map<String, Best> bests = new HashMap<>(); // MID -> next best score, or null for none
+
+        public void add(Change other) {
+            games.addAll(other.games);
+            members.addAll(other.members);
+            reloaded.putAll(other.reloaded);
+            bests.putAll(other.bests);
+        }
+    }
+
+    private static final ConcurrentSkipListMap<String, Board> boards = new ConcurrentSkipListMap<>();
+    private static final ConcurrentHashMap<String, Best> best = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> memberNames = new ConcurrentHashMap<>(); // everyone on a board or with a best
+    private static volatile boolean loaded;
+
+    private static final String LOAD_GAMES = "SELECT GID, name FROM " + GameArchiver.GAMES;
+    private static final String LOAD_BOARDS =
+            "SELECT hs.GID, hs.MID, m.name, hs.score FROM hamadayaz.GameHighScore hs " +
+            "JOIN hamadayaz.Member m ON hs.MID = m.MID";
+    private static final String LOAD_BEST =
+            "SELECT b.MID, b.GID, m.name, b.score FROM hamadayaz.MemberBestScore b " +
+            "JOIN hamadayaz.Member m ON b.MID = m.MID";
+    private static final String REBUILD_BOARDS =
+            "INSERT INTO hamadayaz.GameHighScore (GID, MID, score) " +
+            "SELECT GID, MID, score FROM (" +
+            "  SELECT gp.GID, gp.MID, gp.score, ROW_NUMBER() OVER (PARTITION BY gp.GID ORDER BY gp.score DESC) AS rn " +
+            "  FROM hamadayaz.GamePlay gp JOIN " + GameArchiver.GAMES + " g ON gp.GID = g.GID) WHERE rn <= ?";
+    private static final String REBUILD_BEST =
+            "INSERT INTO hamadayaz.MemberBestScore (MID, GID, score) " +
+            "SELECT MID, GID, score FROM (" +
+            "  SELECT gp.MID, gp.GID, gp.score, ROW_NUMBER() OVER (PARTITION BY gp.MID ORDER BY gp.score DESC) AS rn " +
+            "  FROM hamadayaz.GamePlay gp JOIN " + GameArchiver.GAMES + " g ON gp.GID = g.GID) WHERE rn = 1";
+    private static final String RELOAD_GAME =
+            "SELECT gp.MID, m.name, gp.score FROM hamadayaz.GamePlay gp JOIN hamadayaz.Member m ON gp.MID = m.MID " +
+            "WHERE gp.GID = ? ORDER BY gp.score DESC FETCH FIRST ? ROWS ONLY";
+    private static final String DELETE_GAME_BOARD = "DELETE FROM hamadayaz.GameHighScore WHERE GID = ?";
+    private static final String INSERT_BOARD_ENTRY = "INSERT INTO hamadayaz.GameHighScore (GID, MID, score) VALUES (?, ?, ?)";
+    // Each member's best play on a live game, as QUERY4_SQL finds it; %s is replaced by the IN list markers
+    private static final String BEST_IN =
+            "SELECT MID, GID, GameName, MemberName, score FROM (" +
+            "  SELECT gp.MID, gp.GID, g.name AS GameName, m.name AS MemberName, gp.score, " +
+            "         ROW_NUMBER() OVER (PARTITION BY gp.MID ORDER BY gp.score DESC, gp.GID) AS rn " +
+            "  FROM hamadayaz.GamePlay gp JOIN " + GameArchiver.GAMES + " g ON gp.GID = g.GID " +
+            "  JOIN hamadayaz.Member m ON gp.MID = m.MID WHERE gp.MID IN (%s)) WHERE rn = 1";
+    private static final int IN_LIST_MAX = 1000;
+    private static final String DELETE_BEST_IN = "DELETE FROM hamadayaz.MemberBestScore WHERE MID IN (%s)";
+    private static final String INSERT_BEST = "INSERT INTO hamadayaz.MemberBestScore (MID, GID, score) VALUES (?, ?, ?)";
+    private static final String UPSERT_BEST =
+            "MERGE INTO hamadayaz.MemberBestScore b " +
+            "USING (SELECT ? AS MID, ? AS GID, ? AS score FROM dual) s ON (b.MID = s.MID) " +
+            "WHEN MATCHED THEN UPDATE SET b.GID = s.GID, b.score = s.score WHERE s.score > b.score " +
+            "WHEN NOT MATCHED THEN INSERT (MID, GID, score) VALUES (s.MID, s.GID, s.score)";
+    private static final String MEMBER_NAME = "SELECT name FROM hamadayaz.Member WHERE MID = ?";
+
+    /**
+     * Method Name: isLoaded
+     * Purpose: Tells the query code whether it can answer from memory.
+     * Pre-conditions: None.
+     * Post-conditions: None.
+     * Parameters: None.
+     */
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Method Name: load
+     * Purpose: Reads the summary tables into memory.
+     * Pre-conditions: The extensions.sql tables exist and are in step with GamePlay.
+     * Post-conditions: highScores() and bestFor() are served from memory.
+     * Parameters:
+     * - conn (in): Connection to read through.
+     */
+    public static synchronized void load(Connection conn) throws SQLException {
+        loaded = false;
+        boards.clear();
+        best.clear();
+        memberNames.clear();
+
+        try (ResultSet rs = ResultStreamer.query(conn, LOAD_GAMES).executeQuery()) {
+            while (rs.next()) {
+                boards.put(rs.getString(1), new Board(rs.getString(1), rs.getString(2)));
+            }
+        }
+        try (ResultSet rs = ResultStreamer.query(conn, LOAD_BOARDS).executeQuery()) {
+            while (rs.next()) {
+                Board board = boards.get(rs.getString(1));
+                if (board != null) {
+                    memberNames.put(rs.getString(2), rs.getString(3));
+                    board.heap.add(new Entry(rs.getString(2), rs.getInt(4)));
+                }
+            }
+        }
+        for (Board board : boards.values()) {
+            board.publish();
+        }
+        try (ResultSet rs = ResultStreamer.query(conn, LOAD_BEST).executeQuery()) {
+            while (rs.next()) {
+                Board board = boards.get(rs.getString(2));
+                memberNames.put(rs.getString(1), rs.getString(3));
+                best.put(rs.getString(1), new Best(rs.getString(2), board == null ? rs.getString(2) : board.name,
+                        rs.getString(1), rs.getInt(4)));
+            }
+        }
+        loaded = true;
+    }
+
+    /**
+     * Method Name: rebuild
+     * Purpose: Recomputes both summary tables from GamePlay, then loads them.
+     * Pre-conditions: conn has auto-commit off.
+     * Post-conditions: The summary tables are committed and the boards are loaded.
+     * Parameters:
+     * - conn (in): Connection to rebuild through.
+     */
+    public static synchronized void rebuild(Connection conn) throws SQLException {
+        try {
+            StatementCache.of(conn).prepare("DELETE FROM hamadayaz.GameHighScore").executeUpdate();
+            StatementCache.of(conn).prepare("DELETE FROM hamadayaz.MemberBestScore").executeUpdate();
+            PreparedStatement boardsStmt = StatementCache.of(conn).prepare(REBUILD_BOARDS);
+            boardsStmt.setInt(1, TOP_K);
+            boardsStmt.executeUpdate();
+            StatementCache.of(conn).prepare(REBUILD_BEST).executeUpdate();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+        load(conn);
+    }
+
+    /**
+     * Method Name: record
+     * Purpose: Applies a newly recorded GamePlay row to the boards and summary tables.
+     * Pre-conditions: The GamePlay row is written in the same transaction; the caller commits.
+     * Post-conditions: The summary tables are updated in the caller's transaction if the score placed.
+     *                  A play on a game with no board (one not loaded, added or rebuilt here) is left
+     *                  out, as rebuild leaves out plays of games that are not in GameArchiver.GAMES.
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - GID, MID (in): Game and member IDs.
+     * - score (in): The score.
+     */
+    public static void record(Connection conn, String GID, String MID, int score) throws SQLException {
+        if (!loaded) {
+            return;
+        }
+        Board board = boards.get(GID);
+        if (board == null) {
+            return;
+        }
+        cacheName(conn, MID);
+        Entry entry = new Entry(MID, score);
+        synchronized (board) { // the board lock also keeps this game's summary rows written in order
+            if (board.offer(entry)) {
+                writeBoard(conn, GID, board.sorted);
+            }
+        }
+
+        Best candidate = new Best(GID, board.name, MID, score);
+        Best merged = best.merge(MID, candidate, (old, neu) -> neu.score() > old.score() ? neu : old);
+        if (merged == candidate) {
+            PreparedStatement upsert = StatementCache.of(conn).prepare(UPSERT_BEST);
+            upsert.setString(1, MID);
+            upsert.setString(2, GID);
+            upsert.setInt(3, score);
+            upsert.executeUpdate(); // only replaces a lower score, so concurrent writers cannot regress it
+        }
+    }
+
+    /**
+     * Method Name: addGame
+     * Purpose: Registers a new, not yet played game so it appears in the high score report.
+     * Pre-conditions: None.
+     * Post-conditions: The game has an empty board.
+     * Parameters:
+     * - GID (in): Game ID.
+     * - name (in): Game name.
+     */
+    public static void addGame(String GID, String name) {
+        if (loaded) {
+            boards.computeIfAbsent(GID, gid -> new Board(gid, name)).name = name;
+        }
+    }
+
+    /**
+     * Method Name: renamed
+     * Purpose: Shows a member's new name on the boards and in their best score.
+     * Pre-conditions: The rename has committed.
+     * Post-conditions: Every entry of the member reads the new name.
+     * Parameters:
+     * - MID (in): Member ID.
+     * - name (in): The new name.
+     */
+    public static void renamed(String MID, String name) {
+        if (loaded) {
+            memberNames.put(MID, name);
+        }
+    }
+
+    /**
+     * Method Name: removeGame
+     * Purpose: Drops a deleted game's board and summary rows.
+     * Pre-conditions: Called in the transaction that deletes or retires the game, after its plays are
+     *                 deleted or it is out of GameArchiver.GAMES; the caller commits.
+     * Post-conditions: The summary rows are updated in the caller's transaction: the game's board is
+     *                  gone and members whose best was on it get their next best from GamePlay. Pass the
+     *                  result to committed() after the commit.
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - GID (in): Game ID.
+     */
+    public static Change removeGame(Connection conn, String GID) throws SQLException {
+        Change change = new Change();
+        if (!loaded) {
+            return change;
+        }
+        PreparedStatement del = StatementCache.of(conn).prepare(DELETE_GAME_BOARD);
+        del.setString(1, GID);
+        del.executeUpdate();
+        change.games.add(GID);
+        List<String> affected = new ArrayList<>();
+        best.forEach((mid, b) -> {
+            if (b.GID().equals(GID)) {
+                affected.add(mid);
+            }
+        });
+        for (int from = 0; from < affected.size(); from += IN_LIST_MAX) {
+            refreshBest(conn, affected.subList(from, Math.min(affected.size(), from + IN_LIST_MAX)), change);
+        }
+        return change;
+    }
+
+    /**
+     * Method Name: removeMember
+     * Purpose: Removes a deleted member's scores from every board.
+     * Pre-conditions: The member's GamePlay rows are already deleted in the caller's transaction.
+     * Post-conditions: Boards the member was on are reloaded from GamePlay; pass the result to committed().
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - MID (in): Member ID.
+     */
+    public static Change removeMember(Connection conn, String MID) throws SQLException {
+        return removeMembers(conn, List.of(MID));
+    }
+
+    /**
+     * Method Name: removeMembers
+     * Purpose: Removes deleted members' scores from every board, reloading each affected board once.
+     * Pre-conditions: The members' GamePlay rows are already deleted in the caller's transaction;
+     *                 at most 1000 members.
+     * Post-conditions: Boards any of them were on are reloaded from GamePlay and rewritten in the caller's
+     *                  transaction; pass the result to committed() after the commit.
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - mids (in): Member IDs.
+     */
+    public static Change removeMembers(Connection conn, List<String> mids) throws SQLException {
+        Change change = new Change();
+        if (!loaded || mids.isEmpty()) {
+            return change;
+        }
+        MemberPurge.prepareIn(conn, DELETE_BEST_IN, mids).executeUpdate();
+        change.members.addAll(mids);
+        for (Board board : boards.values()) {
+            for (Entry e : board.sorted) {
+                if (change.members.contains(e.MID())) {
+                    change.reloaded.put(board.GID, reloadGame(conn, board));
+                    break;
+                }
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Method Name: committed
+     * Purpose: Applies a removal to the in-memory boards once the transaction that wrote it has committed.
+     * Pre-conditions: change came from removeGame or removeMember(s) in a transaction that committed.
+     * Post-conditions: Memory matches the summary tables; scores recorded meanwhile are kept.
+     * Parameters:
+     * - change (in): The committed removal.
+     */
+    public static void committed(Change change) {
+        if (!loaded) {
+            return;
+        }
+        for (String GID : change.games) {
+            boards.remove(GID);
+        }
+        for (String MID : change.members) {
+            best.remove(MID);
+            memberNames.remove(MID);
+        }
+        change.reloaded.forEach((GID, entries) -> {
+            Board board = boards.get(GID);
+            if (board == null) {
+                return;
+            }
+            synchronized (board) {
+                Set<Entry> merged = new LinkedHashSet<>(Arrays.asList(entries));
+                for (Entry e : board.sorted) { // plays recorded since the reload
+                    if (!change.members.contains(e.MID())) {
+                        merged.add(e);
+                    }
+                }
+                board.heap.clear();
+                for (Entry e : merged) {
+                    board.offer(e);
+                }
+                board.publish();
+            }
+        });
+        // A best recorded since on a live game is kept if it is higher
+        change.bests.forEach((MID, next) -> best.compute(MID, (k, old) ->
+                old == null || change.games.contains(old.GID()) || (next != null && next.score() > old.score()) ? next : old));
+    }
+
+
+    /**
+     * Method Name: highScores
+     * Purpose: Returns every game with its top score, in GID order, as query 1 reports them.
+     * Pre-conditions: isLoaded() is true.
+     * Post-conditions: None.
+     * Parameters: None.
+     */
+    public static List<HighScore> highScores() {
+        List<HighScore> rows = new ArrayList<>(boards.size());
+        for (Board board : boards.values()) {
+            Entry[] top = board.sorted;
+            if (top.length == 0) {
+                rows.add(new HighScore(board.GID, board.name, null));
+                continue;
+            }
+            for (Entry e : top) { // ties for first place are all listed, as in the SQL version
+                if (e.score() != top[0].score()) {
+                    break;
+                }
+                rows.add(new HighScore(board.GID, board.name, e));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Method Name: bestFor
+     * Purpose: Returns the game a member has their highest score on.
+     * Pre-conditions: isLoaded() is true.
+     * Post-conditions: Returns null if the member has never played.
+     * Parameters:
+     * - MID (in): Member ID.
+     */
+    public static Best bestFor(String MID) {
+        return best.get(MID);
+    }
+
+    // Reads a board's top entries from GamePlay and rewrites its summary rows; memory is left to committed()
+    private static Entry[] reloadGame(Connection conn, Board board) throws SQLException {
+        PreparedStatement stmt = StatementCache.of(conn).prepare(RELOAD_GAME);
+        stmt.setString(1, board.GID);
+        stmt.setInt(2, TOP_K);
+        List<Entry> entries = new ArrayList<>(TOP_K);
+        synchronized (board) { // keeps this game's summary rows written in order
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    memberNames.putIfAbsent(rs.getString(1), rs.getString(2));
+                    entries.add(new Entry(rs.getString(1), rs.getInt(3)));
+                }
+            }
+            Entry[] top = entries.toArray(new Entry[0]);
+            writeBoard(conn, board.GID, top);
+            return top;
+        }
+    }
+
+    // Finds each member's next best play in GamePlay, the way query 4 does, and rewrites their summary rows
+    private static void refreshBest(Connection conn, List<String> mids, Change change) throws SQLException {
+        MemberPurge.prepareIn(conn, DELETE_BEST_IN, mids).executeUpdate();
+        for (String MID : mids) {
+            change.bests.put(MID, null);
+        }
+        PreparedStatement ins = StatementCache.of(conn).prepare(INSERT_BEST);
+        try (ResultSet rs = MemberPurge.prepareIn(conn, BEST_IN, mids).executeQuery()) {
+            while (rs.next()) {
+                String MID = rs.getString("MID");
+                memberNames.putIfAbsent(MID, rs.getString("MemberName"));
+                Best next = new Best(rs.getString("GID"), rs.getString("GameName"), MID, rs.getInt("score"));
+                change.bests.put(MID, next);
+                ins.setString(1, MID);
+                ins.setString(2, next.GID());
+                ins.setInt(3, next.score());
+                ins.addBatch();
+            }
+        }
+        ins.executeBatch();
+    }
+
+    private static void writeBoard(Connection conn, String GID, Entry[] entries) throws SQLException {
+        PreparedStatement del = StatementCache.of(conn).prepare(DELETE_GAME_BOARD);
+        del.setString(1, GID);
+        del.executeUpdate();
+        PreparedStatement ins = StatementCache.of(conn).prepare(INSERT_BOARD_ENTRY);
+        for (Entry e : entries) {
+            ins.setString(1, GID);
+            ins.setString(2, e.MID());
+            ins.setInt(3, e.score());
+            ins.addBatch();
+        }
+        ins.executeBatch();
+    }
+
+    // Makes sure a member about to enter a board has a name to read; a rename that lands meanwhile wins
+    private static void cacheName(Connection conn, String MID) throws SQLException {
+        if (memberNames.containsKey(MID)) {
+            return;
+        }
+        PreparedStatement stmt = StatementCache.of(conn).prepare(MEMBER_NAME);
+        stmt.setString(1, MID);
+        try (ResultSet rs = stmt.executeQuery()) {
+            memberNames.putIfAbsent(MID, rs.next() ? rs.getString(1) : MID);
+        }
+    }
+
+    private static String nameOf(String MID) {
+        return memberNames.getOrDefault(MID, MID);
+    }
+}
@@ -0,0 +1,128 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: LoadGenerator.java replays synthetic game plays against GamePlayIngestor to measure
+ * how many plays per second the ingestion pipeline sustains and how long each play takes to commit.
+ * It picks random existing games and members, so it must run against a database that has some. It
+ * writes plays and awards tickets, so like Benchmark it defaults to the scratch H2 database and only
+ * touches another database named explicitly with arcade.jdbc.url.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * Usage: java -cp .:h2.jar [-Darcade.jdbc.url=...] LoadGenerator <user> <password> [playsPerSecond] [seconds] [cabinets]
+ * */
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class Name: LoadGenerator
+ * External Packages: java.sql, java.util
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Starts one thread per simulated cabinet. Together they submit plays at the requested
+ * rate for the requested time; plays refused by a full queue are counted as backpressure. Stats are
+ * printed every second and once more after the queue has drained.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * main(String[] args): Runs the load test.
+ */
+public class LoadGenerator {
+
+    private static final int SAMPLE_SIZE = 10_000; // members and games drawn from
+
+    /**
+     * Method Name: main
+     * Purpose: Runs a timed load test against the ingestion pipeline.
+     * Pre-conditions: The database has at least one game and one member.
+     * Post-conditions: Synthetic GamePlay rows are committed; stats are printed.
+     * Parameters:
+     * - args (in): user, password, plays per second (default 1000), seconds (default 30), cabinets (default 16).
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java LoadGenerator <user> <password> [playsPerSecond] [seconds] [cabinets]");
+            return;
+        }
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        int cabinets = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+
+        // Never the production database by default: the plays and tickets written here are synthetic
+        try (ConnectionPool pool = ConnectionPool.fromSystemProperties("jdbc:h2:./arcade-bench;MODE=Oracle", args[0], args[1])) {
+            List<String> games = new ArrayList<>();
+            List<String> members = new ArrayList<>();
+            Connection conn = pool.borrow();
+            try {
+                sample(conn, "SELECT GID FROM " + GameArchiver.GAMES, games);
+                sample(conn, "SELECT MID FROM hamadayaz.Member", members);
+            } finally {
+                pool.release(conn);
+            }
+            if (games.isEmpty() || members.isEmpty()) {
+                System.out.println("Need at least one game and one member to generate plays.");
+                return;
+            }
+
+            GamePlayIngestor ingestor = new GamePlayIngestor(pool, null,
+                    Integer.getInteger("arcade.ingest.capacity", 10_000),
+                    Integer.getInteger("arcade.ingest.batchSize", 500),
+                    Integer.getInteger("arcade.ingest.writers", 4));
+
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            long perCabinetIntervalNanos = 1_000_000_000L * cabinets / Math.max(1, rate);
+            List<Thread> threads = new ArrayList<>();
+            for (int c = 0; c < cabinets; c++) {
+                Thread t = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long next = System.nanoTime();
+                    while (next < end) {
+                        ingestor.submit(games.get(random.nextInt(games.size())),
+                                members.get(random.nextInt(members.size())),
+                                random.nextInt(100_000));
+                        next += perCabinetIntervalNanos;
+                        long sleep = next - System.nanoTime();
+                        if (sleep > 0) {
+                            try {
+                                Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                }, "cabinet-" + c);
+                t.start();
+                threads.add(t);
+            }
+
+            while (System.nanoTime() < end) {
+                Thread.sleep(1_000);
+                System.out.println(ingestor.stats());
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            ingestor.close();
+            GamePlayIngestor.Stats stats = ingestor.stats();
+            System.out.println("final " + stats);
+            System.out.printf("throughput %.0f plays/s over %d s%n", (double) stats.written() / seconds, seconds);
+            System.out.println(pool.stats());
+        }
+    }
+
+    private static void sample(Connection conn, String sql, List<String> into) throws SQLException {
+        PreparedStatement stmt = ResultStreamer.query(conn, sql);
+        stmt.setMaxRows(SAMPLE_SIZE);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                into.add(rs.getString(1));
+            }
+        }
+        stmt.setMaxRows(0); // the statement is cached, do not leave the limit on it
+    }
+}
@@ -0,0 +1,394 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: LoyaltyRules.java loads the tier discounts, upgrade thresholds, bonus tickets and
+ * time-boxed promotions from a rules file and compiles them into an immutable lookup table, so a
+ * promotion can be changed while the arcade is running and a purchase only indexes a few arrays.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class Name: LoyaltyRules
+ * External Packages: java.nio.file, java.time
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: The rules file (arcade.loyalty.rules, see loyalty.properties) is a properties file:
+ *
+ *   tokensPerDollar = 5
+ *   discount.<tier> = percent off, e.g. discount.Gold = 10
+ *   upgrade.<from>.<to> = spend in dollars, bonus tickets, e.g. upgrade.Gold.Diamond = 500, 10000
+ *   promo.<name>.from / .to = first and last day (yyyy-mm-dd) the promotion runs
+ *   promo.<name>.tiers = the tiers it applies to (default all)
+ *   promo.<name>.discount / .extraTokensPerDollar / .bonusTickets = what it adds to each purchase
+ *
+ * Tiers are those of TierEngine.Tier (Standard, Gold, Diamond). Promotions running at the same time
+ * add up, with the discount capped at 100%. Compiling splits the calendar at every promotion's start
+ * and end, and gives each period a Pricing: per-tier arrays of the discount, tokens per dollar and
+ * bonus, and a tier-by-tier array of upgrade thresholds and bonuses. A purchase looks up the period
+ * with a binary search and reads the arrays; nothing is parsed, compared by name or allocated.
+ *
+ * Swapping rules replaces one volatile reference, so purchases never wait for a reload and each one
+ * prices with a single, complete set of rules. With arcade.loyalty.rules set, the file is checked every
+ * arcade.loyalty.reloadMs (default 5000) and reloaded when it changes; a file that does not compile
+ * is reported and the rules in use are kept. Without it, the built-in rules are the ones buyTokens
+ * has always applied.
+ *
+ * Constructor: None; rules are built by compile(Properties) and DEFAULTS.
+ *
+ * Instance Methods:
+ * pricing(): The rules in force now.
+ * current() / swap(LoyaltyRules rules): The rules in use; replace them.
+ * load(Path file) / compile(Properties rules): Build rules from a file or properties.
+ * watch(): Loads arcade.loyalty.rules and reloads it whenever it changes.
+ */
+public final class LoyaltyRules {
+
+    private static final TierEngine.Tier[] TIERS = TierEngine.Tier.values();
+    private static final int N = TIERS.length;
+
+    public static final String FILE = System.getProperty("arcade.loyalty.rules");
+    public static final LoyaltyRules DEFAULTS = compile(defaults()); // after TIERS and N, which compile uses
+    private static volatile LoyaltyRules current = DEFAULTS;
+    private static ScheduledExecutorService watcher;
+
+    private final long[] periodStarts; // epoch millis; periodStarts[0] is Long.MIN_VALUE
+    private final Pricing[] periods;
+    private final String description;
+
+    private LoyaltyRules(long[] periodStarts, Pricing[] periods, String description) {
+        this.periodStarts = periodStarts;
+        this.periods = periods;
+        this.description = description;
+    }
+
+    /**
+     * Class Name: Pricing
+     * Description: The rules in force for one period, in arrays indexed by tier ordinal (upgrades by
+     * from * tiers + to). Money is in cents.
+     */
+    public static final class Pricing {
+        private final int[] discountBasisPoints;
+        private final int[] tokensPerDollar;
+        private final int[] promoBonus;
+        private final long[] upgradeAtCents;
+        private final int[] upgradeBonus;
+        private final long[] nextUpgradeCents;
+
+        private Pricing(int[] discountBasisPoints, int[] tokensPerDollar, int[] promoBonus,
+                        long[] upgradeAtCents, int[] upgradeBonus) {
+            this.discountBasisPoints = discountBasisPoints;
+            this.tokensPerDollar = tokensPerDollar;
+            this.promoBonus = promoBonus;
+            this.upgradeAtCents = upgradeAtCents;
+            this.upgradeBonus = upgradeBonus;
+            this.nextUpgradeCents = new long[N];
+            for (int from = 0; from < N; from++) {
+                long next = TierEngine.NEVER;
+                for (int to = from + 1; to < N; to++) {
+                    next = Math.min(next, upgradeAtCents[from * N + to]);
+                }
+                nextUpgradeCents[from] = next;
+            }
+        }
+
+        public int discountPercent(TierEngine.Tier tier) {
+            return discountBasisPoints[tier.ordinal()] / 100;
+        }
+
+        // Rounds half up to the cent, so the charge and the saving add up to the price
+        public long chargedCents(TierEngine.Tier tier, long amountCents) {
+            return (amountCents * (10_000 - discountBasisPoints[tier.ordinal()]) + 5_000) / 10_000;
+        }
+
+        public int tokens(TierEngine.Tier tier, long amountCents) {
+            return (int) (amountCents * tokensPerDollar[tier.ordinal()] / 100);
+        }
+
+        // The highest tier whose threshold the spend reaches, or tier itself; never a lower tier
+        public TierEngine.Tier upgrade(TierEngine.Tier tier, long spentCents) {
+            int from = tier.ordinal();
+            for (int to = N - 1; to > from; to--) {
+                if (spentCents >= upgradeAtCents[from * N + to]) {
+                    return TIERS[to];
+                }
+            }
+            return tier;
+        }
+
+        // Upgrade bonus plus the bonus of any promotion
+        public int bonusTickets(TierEngine.Tier from, TierEngine.Tier to) {
+            int bonus = promoBonus[from.ordinal()];
+            return to == from ? bonus : bonus + upgradeBonus[from.ordinal() * N + to.ordinal()];
+        }
+
+        // Spend below this keeps a member of the tier where they are
+        public long nextUpgradeCents(TierEngine.Tier tier) {
+            return nextUpgradeCents[tier.ordinal()];
+        }
+    }
+
+    /**
+     * Method Name: pricing
+     * Purpose: The pricing in force now under the rules in use.
+     * Pre-conditions: None.
+     * Post-conditions: Returns an immutable Pricing; price a whole purchase with the one it returns.
+     * Parameters: None.
+     */
+    public static Pricing pricing() {
+        LoyaltyRules rules = current;
+        return rules.periods.length == 1 ? rules.periods[0] : rules.at(System.currentTimeMillis()); // no promotions, no clock
+    }
+
+    public Pricing at(long epochMillis) {
+        int i = Arrays.binarySearch(periodStarts, epochMillis);
+        return periods[i >= 0 ? i : -i - 2];
+    }
+
+    public static LoyaltyRules current() {
+        return current;
+    }
+
+    public static void swap(LoyaltyRules rules) {
+        current = Objects.requireNonNull(rules);
+    }
+
+    /**
+     * Method Name: load
+     * Purpose: Reads and compiles a rules file.
+     * Pre-conditions: None.
+     * Post-conditions: Returns the compiled rules; the rules in use are not changed.
+     * Parameters:
+     * - file (in): The rules file.
+     */
+    public static LoyaltyRules load(Path file) throws IOException {
+        Properties rules = new Properties();
+        try (Reader in = Files.newBufferedReader(file)) {
+            rules.load(in);
+        }
+        return compile(rules);
+    }
+
+    /**
+     * Method Name: compile
+     * Purpose: Builds the lookup table for a set of rules.
+     * Pre-conditions: None.
+     * Post-conditions: Returns the compiled rules, or throws IllegalArgumentException naming the bad entry.
+     * Parameters:
+     * - rules (in): The rules, in the format of loyalty.properties.
+     */
+    public static LoyaltyRules compile(Properties rules) {
+        int[] discount = new int[N];
+        int[] tokensPerDollar = new int[N];
+        long[] upgradeAt = new long[N * N];
+        int[] upgradeBonus = new int[N * N];
+        Arrays.fill(upgradeAt, TierEngine.NEVER);
+        Arrays.fill(tokensPerDollar, nonNegative("tokensPerDollar", rules.getProperty("tokensPerDollar", "5")));
+        Map<String, Map<String, String>> promos = new TreeMap<>();
+
+        for (String key : rules.stringPropertyNames()) {
+            String value = rules.getProperty(key).trim();
+            String[] parts = key.split("\\.");
+            if (key.equals("tokensPerDollar")) {
+                continue;
+            } else if (parts[0].equals("discount") && parts.length == 2) {
+                discount[tier(key, parts[1]).ordinal()] = basisPoints(key, value);
+            } else if (parts[0].equals("upgrade") && parts.length == 3) {
+                int from = tier(key, parts[1]).ordinal();
+                int to = tier(key, parts[2]).ordinal();
+                String[] spendAndBonus = value.split(",");
+                if (to <= from || spendAndBonus.length != 2) {
+                    throw new IllegalArgumentException(key + " must name a higher tier and be \"spend, bonus tickets\"");
+                }
+                upgradeAt[from * N + to] = cents(key, spendAndBonus[0].trim());
+                upgradeBonus[from * N + to] = nonNegative(key, spendAndBonus[1]);
+            } else if (parts[0].equals("promo") && parts.length == 3) {
+                promos.computeIfAbsent(parts[1], name -> new HashMap<>()).put(parts[2], value);
+            } else {
+                throw new IllegalArgumentException("Unknown loyalty rule " + key);
+            }
+        }
+
+        // Split the calendar where promotions start and end
+        List<Promo> compiled = new ArrayList<>();
+        TreeSet<Long> starts = new TreeSet<>(List.of(Long.MIN_VALUE));
+        ZoneId zone = ZoneId.systemDefault();
+        for (Map.Entry<String, Map<String, String>> e : promos.entrySet()) {
+            Promo promo = promo(e.getKey(), e.getValue(), zone);
+            compiled.add(promo);
+            starts.add(promo.fromMillis);
+            starts.add(promo.untilMillis);
+        }
+        long[] periodStarts = starts.stream().mapToLong(Long::longValue).toArray();
+        Pricing[] periods = new Pricing[periodStarts.length];
+        for (int p = 0; p < periodStarts.length; p++) {
+            int[] periodDiscount = discount.clone();
+            int[] periodTokens = tokensPerDollar.clone();
+            int[] periodBonus = new int[N];
+            for (Promo promo : compiled) {
+                if (promo.fromMillis <= periodStarts[p] && periodStarts[p] < promo.untilMillis) {
+                    for (int t = 0; t < N; t++) {
+                        if (promo.tiers[t]) {
+                            periodDiscount[t] = Math.min(10_000, periodDiscount[t] + promo.discount);
+                            periodTokens[t] += promo.extraTokens;
+                            periodBonus[t] += promo.bonus;
+                        }
+                    }
+                }
+            }
+            periods[p] = new Pricing(periodDiscount, periodTokens, periodBonus, upgradeAt, upgradeBonus);
+        }
+        return new LoyaltyRules(periodStarts, periods, rules.size() + " rules, " + compiled.size() + " promotions");
+    }
+
+    private record Promo(long fromMillis, long untilMillis, boolean[] tiers, int discount, int extraTokens, int bonus) {
+    }
+
+    private static Promo promo(String name, Map<String, String> fields, ZoneId zone) {
+        String key = "promo." + name;
+        for (String field : fields.keySet()) {
+            if (!Set.of("from", "to", "tiers", "discount", "extraTokensPerDollar", "bonusTickets").contains(field)) {
+                throw new IllegalArgumentException("Unknown loyalty rule " + key + "." + field);
+            }
+        }
+        if (!fields.containsKey("from") || !fields.containsKey("to")) {
+            throw new IllegalArgumentException(key + " needs a from and a to date");
+        }
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.parse(fields.get("from"));
+            to = LocalDate.parse(fields.get("to"));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(key + " dates must be yyyy-mm-dd");
+        }
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException(key + " ends before it starts");
+        }
+        boolean[] tiers = new boolean[N];
+        if (fields.containsKey("tiers")) {
+            for (String tier : fields.get("tiers").split(",")) {
+                tiers[tier(key + ".tiers", tier.trim()).ordinal()] = true;
+            }
+        } else {
+            Arrays.fill(tiers, true);
+        }
+        return new Promo(from.atStartOfDay(zone).toInstant().toEpochMilli(),
+                to.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(), tiers,
+                fields.containsKey("discount") ? basisPoints(key + ".discount", fields.get("discount")) : 0,
+                fields.containsKey("extraTokensPerDollar") ? nonNegative(key + ".extraTokensPerDollar", fields.get("extraTokensPerDollar")) : 0,
+                fields.containsKey("bonusTickets") ? nonNegative(key + ".bonusTickets", fields.get("bonusTickets")) : 0);
+    }
+
+    private static TierEngine.Tier tier(String key, String name) {
+        for (TierEngine.Tier tier : TIERS) {
+            if (tier.name().equalsIgnoreCase(name)) {
+                return tier;
+            }
+        }
+        throw new IllegalArgumentException(key + ": unknown tier " + name);
+    }
+
+    private static int basisPoints(String key, String percent) {
+        try {
+            int bp = new BigDecimal(percent.trim()).movePointRight(2).intValueExact();
+            if (bp < 0 || bp > 10_000) {
+                throw new ArithmeticException();
+            }
+            return bp;
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a percentage from 0 to 100 with at most 2 decimals");
+        }
+    }
+
+    private static long cents(String key, String dollars) {
+        try {
+            long cents = new BigDecimal(dollars).movePointRight(2).longValueExact();
+            if (cents < 0) {
+                throw new ArithmeticException();
+            }
+            return cents;
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be an amount in dollars and cents");
+        }
+    }
+
+    private static int nonNegative(String key, String number) {
+        try {
+            int n = Integer.parseInt(number.trim());
+            if (n < 0) {
+                throw new NumberFormatException();
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a whole number, 0 or more");
+        }
+    }
+
+    // The rules buyTokens has always applied
+    private static Properties defaults() {
+        Properties rules = new Properties();
+        rules.setProperty("tokensPerDollar", "5");
+        rules.setProperty("discount.Gold", "10");
+        rules.setProperty("discount.Diamond", "20");
+        rules.setProperty("upgrade.Standard.Gold", "250, 5000");
+        rules.setProperty("upgrade.Standard.Diamond", "500, 15000");
+        rules.setProperty("upgrade.Gold.Diamond", "500, 10000");
+        return rules;
+    }
+
+    /**
+     * Method Name: watch
+     * Purpose: Loads the arcade.loyalty.rules file and reloads it every time it changes.
+     * Pre-conditions: FILE is set.
+     * Post-conditions: The file's rules are in use; throws if they do not compile at startup. Later bad edits are reported and skipped.
+     * Parameters: None.
+     */
+    public static synchronized void watch() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        Path file = Paths.get(FILE);
+        swap(load(file));
+        System.out.println("Loyalty rules loaded from " + file + ": " + current.description);
+        long[] loaded = { Files.getLastModifiedTime(file).toMillis() };
+        long period = Long.getLong("arcade.loyalty.reloadMs", 5_000L);
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "loyalty-rules");
+            t.setDaemon(true);
+            return t;
+        });
+        watcher.scheduleWithFixedDelay(() -> {
+            try {
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                if (modified != loaded[0]) {
+                    loaded[0] = modified;
+                    swap(load(file));
+                    System.err.println("Loyalty rules reloaded: " + current.description);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Loyalty rules not reloaded, keeping the previous ones: " + e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,275 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: MemberPurge.java deletes many members at once. Each batch of members is removed with
+ * one set-based DELETE per dependent table in a short transaction of its own, instead of deleting
+ * one member at a time, so purging thousands of dormant accounts does not hold row locks for minutes.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Class Name: MemberPurge
+ * External Packages: java.sql
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: purge() splits the member IDs into batches of arcade.purge.batchSize (default 500,
+ * at most 1000, Oracle's IN list limit). Each batch is one transaction:
+ *   1. SELECT ... FOR UPDATE locks the batch's Member rows and reads their ticket balances, so no
+ *      purchase or redemption can change them before they are deleted.
+ *   2. The ticket policy decides who goes: SKIP leaves members with more than
+ *      ArcadeOperations.DELETE_TICKET_LIMIT tickets alone, like the single delete does;
+ *      FORCE_SETTLE forfeits any balance, so no one has to redeem prizes first.
+ *   3. Each purged member and the tickets they forfeited go into MemberPurgeLog (see extensions.sql).
+ *   4. One DELETE ... WHERE MID IN (...) per dependent table, then one for Member, then commit; only
+ *      then are the members dropped from the in-memory leaderboard, spend buckets and member table.
+ * The statements are prepared once per IN list size class (1, 8, 64, 512 and 1000 IDs, with short
+ * lists padded by repeating the last ID) so they come from the StatementCache instead of being
+ * parsed for every batch. deleteRelated() is the same cascade for callers that already hold a
+ * transaction; ArcadeOperations.deleteRelatedRecords uses it for single deletes.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * purge(Connection conn, TicketLedger ledger, Collection<String> mids, TicketPolicy policy): Purges members in batches.
+ * dormantMembers(Connection conn, int months): Members with no purchase or redemption in that many months.
+ * deleteRelated(Connection conn, List<String> mids): Deletes the members' dependent rows in the caller's transaction.
+ * committed(List<String> mids, Leaderboard.Change change): Updates memory after that transaction commits.
+ */
+public class MemberPurge {
+
+    private static final int IN_LIST_MAX = 1000;
+    public static final int BATCH_SIZE = Math.max(1, Math.min(IN_LIST_MAX, Integer.getInteger("arcade.purge.batchSize", 500)));
+
+    private static final String LOCK_MEMBERS =
+            "SELECT MID, totalTickets FROM hamadayaz.Member WHERE MID IN (%s) FOR UPDATE";
+    private static final String[] DELETE_RELATED = {
+            "DELETE FROM hamadayaz.PrizeRedemption WHERE MID IN (%s)",
+            "DELETE FROM hamadayaz.Coupon WHERE MID IN (%s)",
+            "DELETE FROM hamadayaz.TokenPurchase WHERE MID IN (%s)",
+            "DELETE FROM hamadayaz.Gameplay WHERE MID IN (%s)",
+    };
+    private static final String DELETE_MEMBERS = "DELETE FROM hamadayaz.Member WHERE MID IN (%s)";
+    private static final String LOG_PURGE =
+            "INSERT INTO hamadayaz.MemberPurgeLog (MID, ticketsSettled, purgedOn) VALUES (?, ?, CURRENT_DATE)";
+    private static final String DORMANT =
+            "SELECT m.MID FROM hamadayaz.Member m " +
+            "WHERE NOT EXISTS (SELECT 1 FROM hamadayaz.TokenPurchase tp " +
+            "                  WHERE tp.MID = m.MID AND tp.purchaseDate >= ADD_MONTHS(CURRENT_DATE, -?)) " +
+            "AND NOT EXISTS (SELECT 1 FROM hamadayaz.PrizeRedemption pr " +
+            "                WHERE pr.MID = m.MID AND pr.xactDate >= ADD_MONTHS(CURRENT_DATE, -?)) ";
+    // With purchase history on, months past the retention period survive only as monthly roll-ups; a
+    // rolled-up month that overlaps the window counts as activity, so no one active in it is purged
+    private static final String DORMANT_ROLLED_UP =
+            "AND NOT EXISTS (SELECT 1 FROM hamadayaz.MemberMonthlySpend s " +
+            "                WHERE s.MID = m.MID AND s.month >= TRUNC(ADD_MONTHS(CURRENT_DATE, -?), 'MM')) " +
+            "AND NOT EXISTS (SELECT 1 FROM hamadayaz.MemberMonthlyRedemption r " +
+            "                WHERE r.MID = m.MID AND r.month >= TRUNC(ADD_MONTHS(CURRENT_DATE, -?), 'MM')) ";
+
+    /**
+     * What to do with members who still have more than ArcadeOperations.DELETE_TICKET_LIMIT tickets.
+     */
+    public enum TicketPolicy {
+        SKIP,
+        FORCE_SETTLE
+    }
+
+    /**
+     * Outcome of one purge.
+     */
+    public record Report(int requested, int purged, int notFound, int skipped, long ticketsSettled,
+                         int transactions, long nanos) {
+
+        @Override
+        public String toString() {
+            return String.format("purge requested=%d purged=%d notFound=%d skipped=%d ticketsSettled=%d " +
+                    "transactions=%d took=%.1fms", requested, purged, notFound, skipped, ticketsSettled, transactions, nanos / 1e6);
+        }
+    }
+
+    /**
+     * Method Name: purge
+     * Purpose: Deletes the given members and everything that references them, one batch per transaction.
+     * Pre-conditions: conn has auto-commit off and no uncommitted work; MemberPurgeLog exists.
+     * Post-conditions: Every batch is committed on its own. If a batch fails it is rolled back and the
+     *                  exception is thrown; earlier batches stay purged, so a purge can simply be rerun.
+     * Parameters:
+     * - conn (in): Connection to work on.
+     * - ledger (in): The running ticket ledger, or null.
+     * - mids (in): Members to purge; duplicates and unknown IDs are ignored.
+     * - policy (in): Whether members holding tickets are skipped or have their tickets forfeited.
+     */
+    public static Report purge(Connection conn, TicketLedger ledger, Collection<String> mids, TicketPolicy policy) throws SQLException {
+        long start = System.nanoTime();
+        if (ledger != null) {
+            try {
+                ledger.flush(); // unflushed purchases would otherwise reference purged members
+            } catch (IOException e) {
+                throw new SQLException("Could not flush the ticket ledger", e);
+            }
+        }
+        MemberTable.sync(conn); // the ticket counts below are read from Member and must include every award
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(mids));
+        int[] counts = new int[3]; // purged, notFound, skipped
+        long settled = 0;
+        int transactions = 0;
+        for (int from = 0; from < distinct.size(); from += BATCH_SIZE) {
+            List<String> batch = distinct.subList(from, Math.min(distinct.size(), from + BATCH_SIZE));
+            settled += purgeBatch(conn, batch, policy, counts);
+            transactions++;
+        }
+        return new Report(distinct.size(), counts[0], counts[1], counts[2], settled, transactions, System.nanoTime() - start);
+    }
+
+    // One transaction: lock, decide, log, delete, commit. Returns the tickets forfeited.
+    private static long purgeBatch(Connection conn, List<String> batch, TicketPolicy policy, int[] counts) throws SQLException {
+        try (Metrics.Span span = Metrics.start("purgeBatch")) {
+            try {
+                Map<String, Integer> tickets = new HashMap<>();
+                try (ResultSet rs = prepareIn(conn, LOCK_MEMBERS, batch).executeQuery()) {
+                    while (rs.next()) {
+                        tickets.put(rs.getString("MID"), rs.getInt("totalTickets"));
+                    }
+                }
+                span.rows(tickets.size());
+
+                List<String> doomed = new ArrayList<>(tickets.size());
+                for (String MID : batch) {
+                    Integer n = tickets.get(MID);
+                    if (n == null) {
+                        counts[1]++;
+                    } else if (policy == TicketPolicy.SKIP && n > ArcadeOperations.DELETE_TICKET_LIMIT) {
+                        counts[2]++;
+                    } else {
+                        doomed.add(MID);
+                    }
+                }
+                if (doomed.isEmpty()) {
+                    conn.rollback(); // nothing to delete, just release the locks
+                    return 0;
+                }
+
+                long settled = 0;
+                PreparedStatement log = StatementCache.of(conn).prepare(LOG_PURGE);
+                for (String MID : doomed) {
+                    int n = Math.max(0, tickets.get(MID));
+                    log.setString(1, MID);
+                    log.setInt(2, n);
+                    log.addBatch();
+                    settled += n;
+                }
+                log.executeBatch();
+
+                Leaderboard.Change change = deleteRelated(conn, doomed);
+                prepareIn(conn, DELETE_MEMBERS, doomed).executeUpdate();
+                conn.commit();
+                committed(doomed, change);
+                counts[0] += doomed.size();
+                return settled;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Method Name: dormantMembers
+     * Purpose: Finds members who have neither bought tokens nor redeemed a prize for the given number of months.
+     * Pre-conditions: None.
+     * Post-conditions: Returns their IDs in order; nothing is changed. With arcade.history on, activity in
+     *                  months already rolled up into MemberMonthlySpend and MemberMonthlyRedemption counts too.
+     * Parameters:
+     * - conn (in): Connection to work on.
+     * - months (in): How far back to look for activity.
+     */
+    public static List<String> dormantMembers(Connection conn, int months) throws SQLException {
+        PreparedStatement stmt = StatementCache.of(conn).prepare(PurchaseHistory.ENABLED
+                ? DORMANT + DORMANT_ROLLED_UP + "ORDER BY m.MID" : DORMANT + "ORDER BY m.MID");
+        stmt.setInt(1, months);
+        stmt.setInt(2, months);
+        if (PurchaseHistory.ENABLED) {
+            stmt.setInt(3, months);
+            stmt.setInt(4, months);
+        }
+        stmt.setFetchSize(ResultStreamer.FETCH_SIZE);
+        List<String> mids = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                mids.add(rs.getString("MID"));
+            }
+        }
+        return mids;
+    }
+
+    /**
+     * Method Name: deleteRelated
+     * Purpose: Deletes the redemptions, coupons, purchases, plays, scores, spend buckets and monthly totals of the given members.
+     * Pre-conditions: Called inside the caller's delete transaction.
+     * Post-conditions: The rows are deleted but not committed; the Member rows are left to the caller.
+     *                  Returns the leaderboard change to pass to Leaderboard.committed() after the commit.
+     * Parameters:
+     * - conn (in): The delete transaction's connection.
+     * - mids (in): Members whose dependent rows go.
+     */
+    static Leaderboard.Change deleteRelated(Connection conn, List<String> mids) throws SQLException {
+        Leaderboard.Change change = new Leaderboard.Change();
+        for (int from = 0; from < mids.size(); from += IN_LIST_MAX) {
+            List<String> chunk = mids.subList(from, Math.min(mids.size(), from + IN_LIST_MAX));
+            for (String sql : DELETE_RELATED) {
+                prepareIn(conn, sql, chunk).executeUpdate();
+            }
+            change.add(Leaderboard.removeMembers(conn, chunk));
+            SpendAggregates.removeMembers(conn, chunk);
+            PurchaseHistory.removeMembers(conn, chunk);
+        }
+        return change;
+    }
+
+    /**
+     * Method Name: committed
+     * Purpose: Drops deleted members from the in-memory leaderboard, spend buckets and member table.
+     * Pre-conditions: The transaction that ran deleteRelated and deleted their Member rows has committed.
+     * Post-conditions: Memory matches the committed tables.
+     * Parameters:
+     * - mids (in): The deleted members.
+     * - change (in): What deleteRelated returned.
+     */
+    static void committed(List<String> mids, Leaderboard.Change change) {
+        Leaderboard.committed(change);
+        SpendAggregates.removed(mids);
+        for (String MID : mids) {
+            MemberTable.remove(MID);
+        }
+    }
+
+    /**
+     * Method Name: prepareIn
+     * Purpose: Returns the cached statement for sqlFormat with an IN list of the size class that fits mids, bound to them.
+     * Pre-conditions: sqlFormat has one %s for the IN list and no other parameters; 1 <= mids.size() <= 1000.
+     * Post-conditions: Parameters past mids.size() repeat the last ID, which leaves the IN list's meaning unchanged.
+     * Parameters:
+     * - conn (in): Connection whose statement cache is used.
+     * - sqlFormat (in): SQL with %s where the placeholders go.
+     * - mids (in): IDs to bind.
+     */
+    static PreparedStatement prepareIn(Connection conn, String sqlFormat, List<String> mids) throws SQLException {
+        int size = 1;
+        while (size < mids.size()) {
+            size *= 8;
+        }
+        size = Math.min(size, IN_LIST_MAX);
+        PreparedStatement stmt = StatementCache.of(conn).prepare(
+                String.format(sqlFormat, String.join(", ", Collections.nCopies(size, "?"))));
+        for (int i = 0; i < size; i++) {
+            stmt.setString(i + 1, mids.get(Math.min(i, mids.size() - 1)));
+        }
+        return stmt;
+    }
+}
@@ -0,0 +1,932 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: MemberTable.java keeps every member's tier, total spent and ticket balance in a
+ * fixed-width table in a memory-mapped file, outside the Java heap. The ticket and totals lookups
+ * that start almost every customer operation are answered from it without a database round trip or
+ * any garbage for the collector, and ticket awards from game plays are written to it and synced
+ * back to the Member table in batches.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class Name: MemberTable
+ * External Packages: java.nio, java.sql
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Enabled with -Darcade.memberTable=true; the file is arcade.memberTable.file (default
+ * ./members.tbl). After a 256-byte header (capacity, sync round, tier names) every member has a
+ * 128-byte slot: the MID (at most 20 ASCII characters) and two copies of its values, each with a
+ * sequence number and a checksum:
+ *
+ *   seq, spentCents, tickets, pendingTickets, inflightTickets, tier code, inflight round, checksum
+ *
+ * A change writes the copy that is not current, with the next sequence number, so a crash in the
+ * middle of a write leaves a copy with a bad checksum and the previous values in the other copy.
+ * Readers take no lock: they use the valid copy with the higher sequence number and read again if
+ * it changed under them. arcade.memberTable.sync (default true) forces every write to disk.
+ *
+ * The Member table stays the record of truth. Changes committed to it elsewhere (purchases,
+ * redemptions, new and deleted members) are mirrored with applied/put/refresh/remove. Ticket awards
+ * from game plays go only to this table, as pendingTickets, and a background job pushes them to
+ * Member every arcade.memberTable.syncMs (default 1000) with one batched totalTickets + ? update.
+ * Each push is a numbered round, exactly once even across a crash:
+ *   1. The header's round number is raised and each dirty member's pending tickets are marked as
+ *      in flight in that round.
+ *   2. The deltas and the round number (MemberTableSync in extensions.sql) are committed together.
+ *   3. The in-flight tickets are taken off pending.
+ * On open, a member still in flight is settled by comparing its round with the committed one, the
+ * remaining pending tickets are pushed, and the values are reloaded from Member. One file belongs to
+ * one process; arcade.memberTable.name tells their rounds apart when several run.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * open(ConnectionPool pool) / close(ConnectionPool pool): Load and recover the table; push and unmap it.
+ * isLoaded(), contains(String MID), tickets(String MID), spentCents(String MID), tier(String MID): Lookups.
+ * award(String MID, int tickets): Adds tickets here only, to be synced back.
+ * applied(...), put(...), refresh(...), remove(String MID): Mirror changes committed to Member.
+ * sync(Connection conn) / syncMember(Connection conn, String MID): Push pending tickets now.
+ * startSync(ConnectionPool pool): Runs sync in the background.
+ */
+public class MemberTable {
+
+    public static final boolean ENABLED = Boolean.getBoolean("arcade.memberTable");
+    private static final boolean SYNC_WRITES = !"false".equals(System.getProperty("arcade.memberTable.sync"));
+    private static final String NAME = System.getProperty("arcade.memberTable.name", "default");
+
+    // File layout
+    private static final int MAGIC = 0x41524d54;
+    private static final int HEADER = 256;
+    private static final int H_MAGIC = 0, H_CAPACITY = 4, H_ROUND = 8, H_TIER_COUNT = 16, H_TIER_NAMES = 32;
+    private static final int TIER_NAMES = 7, TIER_NAME_BYTES = 32; // code 0 is a NULL tier
+    private static final int SLOT = 128;
+    private static final int K_STATE = 0, K_LENGTH = 1, K_MID = 2, MID_MAX = 20;
+    private static final int COPY_A = 32, COPY_B = 80, COPY_BYTES = 48;
+    private static final int SEQ = 0, SPENT = 8, TICKETS = 16, PENDING = 20, INFLIGHT = 24, TIER = 28, ROUND = 32, CHECK = 40;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private static final String LOAD = "SELECT MID, tier, totalSpent, totalTickets FROM hamadayaz.Member";
+    private static final String LOAD_ONE = "SELECT tier, totalSpent, totalTickets FROM hamadayaz.Member WHERE MID = ?";
+    private static final String PUSH = "UPDATE hamadayaz.Member SET totalTickets = totalTickets + ? WHERE MID = ?";
+    private static final String READ_ROUND = "SELECT syncRound FROM hamadayaz.MemberTableSync WHERE name = ?";
+    private static final String WRITE_ROUND =
+            "MERGE INTO hamadayaz.MemberTableSync s USING (SELECT ? AS name, ? AS syncRound FROM dual) n ON (s.name = n.name) " +
+            "WHEN MATCHED THEN UPDATE SET s.syncRound = n.syncRound WHEN NOT MATCHED THEN INSERT (name, syncRound) VALUES (n.name, n.syncRound)";
+
+    private static FileChannel channel;
+    private static volatile MappedByteBuffer map;
+    private static int capacity;
+    private static int used; // slots handed out so far; freed ones go on the free list
+    private static int[] freeSlots = new int[16];
+    private static int freeCount;
+
+    // MID -> slot, open addressing over primitive arrays; guarded by structure
+    private static long[] hashes;
+    private static int[] index;
+    private static int size;
+    private static final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+
+    private static final Object[] stripes = new Object[64]; // serialise writers of the same slot
+    private static final Object syncLock = new Object();
+    private static final Object dirtyLock = new Object();
+    private static BitSet dirty = new BitSet(); // slots with pending tickets
+    private static final String[] tierNames = new String[TIER_NAMES + 1];
+    private static volatile int tierCount = 1;
+    private static volatile boolean loaded;
+    private static ScheduledExecutorService syncer;
+    private static long rounds;
+    private static long ticketsPushed;
+
+    static {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Method Name: open
+     * Purpose: Opens the member table, settles any sync a crash interrupted, pushes pending tickets and reloads from Member.
+     * Pre-conditions: MemberTableSync exists (see extensions.sql); no other process uses the file.
+     * Post-conditions: The table mirrors Member plus its own unsynced awards, and isLoaded() is true.
+     * Parameters:
+     * - pool (in): Where to borrow a connection for the recovery and the load.
+     */
+    public static synchronized void open(ConnectionPool pool) throws IOException, SQLException {
+        Path file = Paths.get(System.getProperty("arcade.memberTable.file", "members.tbl"));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean existing = channel.size() >= HEADER;
+        if (existing) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            existing = header.getInt(H_MAGIC) == MAGIC;
+        }
+        capacity = existing ? channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).getInt(H_CAPACITY) : INITIAL_CAPACITY;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+        hashes = new long[Integer.highestOneBit(Math.max(16, capacity)) * 2];
+        index = new int[hashes.length];
+        java.util.Arrays.fill(index, -1);
+        if (!existing) {
+            map.putInt(H_CAPACITY, capacity);
+            map.putLong(H_ROUND, 0);
+            map.putInt(H_TIER_COUNT, 1);
+            map.putInt(H_MAGIC, MAGIC);
+        }
+
+        Connection conn = pool.borrow();
+        try {
+            long committed = committedRound(conn);
+            map.putLong(H_ROUND, Math.max(map.getLong(H_ROUND), committed)); // never reuse a committed round
+            if (existing) {
+                recover(committed);
+            }
+            loaded = true;
+            sync(conn);
+            reload(conn);
+        } finally {
+            pool.release(conn);
+        }
+        map.force();
+    }
+
+    // Rebuilds the index and tier names from the file and settles rounds a crash cut short
+    private static void recover(long committed) {
+        tierCount = Math.max(1, map.getInt(H_TIER_COUNT));
+        for (int code = 1; code < tierCount; code++) {
+            tierNames[code] = readName(H_TIER_NAMES + (code - 1) * TIER_NAME_BYTES);
+        }
+        used = capacity;
+        int highest = -1;
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = base(slot);
+            if (map.get(base + K_STATE) != 1 || current(base) < 0) {
+                continue;
+            }
+            highest = slot;
+            indexPut(readName(base + K_LENGTH), slot);
+            int c = current(base);
+            int inflight = map.getInt(c + INFLIGHT);
+            int pending = map.getInt(c + PENDING);
+            if (inflight != 0) {
+                if (map.getLong(c + ROUND) <= committed) {
+                    pending -= inflight; // that round reached Member before the crash
+                }
+                write(base, map.getLong(c + SPENT), map.getInt(c + TICKETS), pending, 0, map.get(c + TIER), 0);
+            }
+            if (pending != 0) {
+                markDirty(slot);
+            }
+        }
+        used = highest + 1;
+        for (int slot = highest - 1; slot >= 0; slot--) {
+            if (map.get(base(slot) + K_STATE) != 1) {
+                pushFree(slot);
+            }
+        }
+    }
+
+    // Makes the table match Member, keeping the awards that are still pending
+    private static void reload(Connection conn) throws SQLException {
+        BitSet seen = new BitSet();
+        PreparedStatement stmt = StatementCache.of(conn).prepare(LOAD);
+        stmt.setFetchSize(ResultStreamer.FETCH_SIZE);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String MID = rs.getString("MID");
+                int slot = put(MID, rs.getString("tier"), Math.round(rs.getDouble("totalSpent") * 100), rs.getInt("totalTickets"));
+                if (slot >= 0) {
+                    seen.set(slot);
+                }
+            }
+        }
+        for (int slot = 0; slot < used; slot++) {
+            int base = base(slot);
+            if (map.get(base + K_STATE) == 1 && !seen.get(slot)) {
+                remove(readName(base + K_LENGTH)); // deleted while the table was closed
+            }
+        }
+    }
+
+    // ----- slot access -----
+
+    private static int base(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    private static Object stripe(int slot) {
+        return stripes[slot & (stripes.length - 1)];
+    }
+
+    private static long checksum(long seq, long spent, int tickets, int pending, int inflight, byte tier, long round) {
+        long h = 0x6a09e667f3bcc909L;
+        h = (h ^ seq) * 0x9e3779b97f4a7c15L;
+        h = (h ^ spent) * 0x9e3779b97f4a7c15L;
+        h = (h ^ (((long) tickets << 32) | (pending & 0xffffffffL))) * 0x9e3779b97f4a7c15L;
+        h = (h ^ (((long) inflight << 32) | (tier & 0xff))) * 0x9e3779b97f4a7c15L;
+        h = (h ^ round) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static boolean valid(MappedByteBuffer m, int c) {
+        return m.getLong(c + CHECK) == checksum(m.getLong(c + SEQ), m.getLong(c + SPENT), m.getInt(c + TICKETS),
+                m.getInt(c + PENDING), m.getInt(c + INFLIGHT), m.get(c + TIER), m.getLong(c + ROUND));
+    }
+
+    // Offset of the slot's current copy, or -1 if neither copy is valid
+    private static int current(int base) {
+        MappedByteBuffer m = map;
+        boolean a = valid(m, base + COPY_A);
+        boolean b = valid(m, base + COPY_B);
+        if (a && b) {
+            return m.getLong(base + COPY_A + SEQ) > m.getLong(base + COPY_B + SEQ) ? base + COPY_A : base + COPY_B;
+        }
+        return a ? base + COPY_A : b ? base + COPY_B : -1;
+    }
+
+    // Writes the copy that is not current; the caller holds the slot's stripe
+    private static void write(int base, long spent, int tickets, int pending, int inflight, byte tier, long round) {
+        int c = current(base);
+        long seq = c < 0 ? 1 : map.getLong(c + SEQ) + 1;
+        int target = c == base + COPY_A ? base + COPY_B : base + COPY_A;
+        map.putLong(target + SPENT, spent);
+        map.putInt(target + TICKETS, tickets);
+        map.putInt(target + PENDING, pending);
+        map.putInt(target + INFLIGHT, inflight);
+        map.put(target + TIER, tier);
+        map.putLong(target + ROUND, round);
+        map.putLong(target + SEQ, seq);
+        map.putLong(target + CHECK, checksum(seq, spent, tickets, pending, inflight, tier, round));
+        if (SYNC_WRITES) {
+            map.force(target, COPY_BYTES);
+        }
+    }
+
+    // Reads one field of the current copy, again if a writer replaced the copy meanwhile
+    private static long read(int base, int field) {
+        while (true) {
+            int c = current(base);
+            if (c < 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long seq = map.getLong(c + SEQ);
+            long value = field == SPENT ? map.getLong(c + field) : field == TIER ? map.get(c + field) : map.getInt(c + field);
+            if (valid(map, c) && map.getLong(c + SEQ) == seq) {
+                return value;
+            }
+        }
+    }
+
+    private static String readName(int at) {
+        byte[] bytes = new byte[map.get(at)];
+        map.get(at + 1, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    // ----- MID index -----
+
+    private static long hash(String MID) {
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < MID.length(); i++) {
+            h = (h ^ MID.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static int home(long h) {
+        return (int) (h ^ (h >>> 29)) & (index.length - 1);
+    }
+
+    private static boolean keyEquals(int slot, String MID) {
+        int base = base(slot);
+        if (map.get(base + K_LENGTH) != MID.length()) {
+            return false;
+        }
+        for (int i = 0; i < MID.length(); i++) {
+            if (map.get(base + K_MID + i) != MID.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The index position holding MID, or the empty position where it would go
+    private static int position(String MID, long h) {
+        int i = home(h);
+        while (index[i] != -1 && !(hashes[i] == h && keyEquals(index[i], MID))) {
+            i = (i + 1) & (index.length - 1);
+        }
+        return i;
+    }
+
+    private static int slotOf(String MID) {
+        return index[position(MID, hash(MID))];
+    }
+
+    private static void indexPut(String MID, int slot) {
+        long h = hash(MID);
+        int i = position(MID, h);
+        if (index[i] == -1) {
+            size++;
+        }
+        hashes[i] = h;
+        index[i] = slot;
+        if (size * 2 > index.length) {
+            long[] oldHashes = hashes;
+            int[] oldIndex = index;
+            hashes = new long[oldHashes.length * 2];
+            index = new int[oldIndex.length * 2];
+            java.util.Arrays.fill(index, -1);
+            for (int j = 0; j < oldIndex.length; j++) {
+                if (oldIndex[j] != -1) {
+                    int k = home(oldHashes[j]);
+                    while (index[k] != -1) {
+                        k = (k + 1) & (index.length - 1);
+                    }
+                    hashes[k] = oldHashes[j];
+                    index[k] = oldIndex[j];
+                }
+            }
+        }
+    }
+
+    private static void indexRemove(String MID) {
+        int i = position(MID, hash(MID));
+        if (index[i] == -1) {
+            return;
+        }
+        size--;
+        int mask = index.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; index[j] != -1; j = (j + 1) & mask) { // backward-shift deletion
+            if (((j - home(hashes[j])) & mask) >= ((j - hole) & mask)) {
+                hashes[hole] = hashes[j];
+                index[hole] = index[j];
+                hole = j;
+            }
+        }
+        index[hole] = -1;
+    }
+
+    private static void pushFree(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = java.util.Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    // A free slot, growing the file when every slot is taken; the caller holds the write lock
+    private static int allocate() throws IOException {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (used == capacity) {
+            long bytes = HEADER + (long) capacity * 2 * SLOT;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IOException("Member table is full");
+            }
+            map.force();
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            capacity *= 2;
+            map.putInt(H_CAPACITY, capacity);
+        }
+        return used++;
+    }
+
+    // The code of a tier name, adding it to the header the first time; -1 when there is no room
+    private static byte tierCode(String tier) {
+        if (tier == null) {
+            return 0;
+        }
+        for (int code = 1; code < tierCount; code++) {
+            if (tier.equals(tierNames[code])) {
+                return (byte) code;
+            }
+        }
+        synchronized (tierNames) {
+            for (int code = 1; code < tierCount; code++) {
+                if (tier.equals(tierNames[code])) {
+                    return (byte) code;
+                }
+            }
+            byte[] bytes = tier.getBytes(StandardCharsets.US_ASCII);
+            if (tierCount > TIER_NAMES || bytes.length >= TIER_NAME_BYTES) {
+                return -1;
+            }
+            int at = H_TIER_NAMES + (tierCount - 1) * TIER_NAME_BYTES;
+            map.put(at, (byte) bytes.length);
+            map.put(at + 1, bytes);
+            tierNames[tierCount] = tier;
+            map.putInt(H_TIER_COUNT, ++tierCount);
+            return (byte) (tierCount - 1);
+        }
+    }
+
+    private static void markDirty(int slot) {
+        synchronized (dirtyLock) {
+            dirty.set(slot);
+        }
+    }
+
+    private static boolean fits(String MID) {
+        if (MID == null || MID.isEmpty() || MID.length() > MID_MAX) {
+            return false;
+        }
+        for (int i = 0; i < MID.length(); i++) {
+            if (MID.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ----- lookups: no allocation, no locks beyond the shared read lock -----
+
+    public static boolean contains(String MID) {
+        return tickets(MID) >= 0;
+    }
+
+    /**
+     * Method Name: tickets
+     * Purpose: A member's ticket balance, including awards not yet synced to Member.
+     * Pre-conditions: None.
+     * Post-conditions: Returns -1 if the member is not in the table (the caller then asks the database).
+     * Parameters:
+     * - MID (in): Member ID.
+     */
+    public static int tickets(String MID) {
+        if (!loaded) {
+            return -1;
+        }
+        structure.readLock().lock();
+        try {
+            int slot = slotOf(MID);
+            return slot < 0 ? -1 : (int) read(base(slot), TICKETS);
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    public static long spentCents(String MID) {
+        if (!loaded) {
+            return -1;
+        }
+        structure.readLock().lock();
+        try {
+            int slot = slotOf(MID);
+            return slot < 0 ? -1 : read(base(slot), SPENT);
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    public static String tier(String MID) {
+        if (!loaded) {
+            return null;
+        }
+        structure.readLock().lock();
+        try {
+            int slot = slotOf(MID);
+            return slot < 0 ? null : tierNames[(int) read(base(slot), TIER) & 0xff];
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    public static int pendingTickets(String MID) {
+        if (!loaded) {
+            return 0;
+        }
+        structure.readLock().lock();
+        try {
+            int slot = slotOf(MID);
+            return slot < 0 ? 0 : (int) read(base(slot), PENDING);
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    // ----- updates -----
+
+    /**
+     * Method Name: award
+     * Purpose: Adds tickets to a member in this table only; the sync job adds them to Member later.
+     * Pre-conditions: None.
+     * Post-conditions: Returns false, changing nothing, if the member is not in the table.
+     * Parameters:
+     * - MID (in): Member ID.
+     * - tickets (in): Tickets won.
+     */
+    public static boolean award(String MID, int tickets) {
+        if (!loaded) {
+            return false;
+        }
+        structure.readLock().lock();
+        try {
+            int slot = slotOf(MID);
+            if (slot < 0) {
+                return false;
+            }
+            int base = base(slot);
+            synchronized (stripe(slot)) {
+                int c = current(base);
+                write(base, map.getLong(c + SPENT), map.getInt(c + TICKETS) + tickets, map.getInt(c + PENDING) + tickets,
+                        map.getInt(c + INFLIGHT), map.get(c + TIER), map.getLong(c + ROUND));
+            }
+            markDirty(slot);
+            return true;
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method Name: applied
+     * Purpose: Mirrors a change to a member's totals that has already been committed to Member.
+     * Pre-conditions: The change is committed.
+     * Post-conditions: The member's values move by the same amounts; a tier of null leaves the tier alone.
+     * Parameters:
+     * - MID (in): Member ID.
+     * - spentCents, tickets (in): Amounts added to totalSpent and totalTickets.
+     * - tier (in): The new tier, or null.
+     */
+    public static void applied(String MID, long spentCents, int tickets, String tier) {
+        if (!loaded) {
+            return;
+        }
+        byte code = tier == null ? 0 : tierCode(tier);
+        structure.readLock().lock();
+        try {
+            int slot = slotOf(MID);
+            if (slot < 0) {
+                return;
+            }
+            if (code < 0) {
+                structure.readLock().unlock(); // a tier this table cannot name: let lookups go to the database
+                try {
+                    remove(MID);
+                } finally {
+                    structure.readLock().lock();
+                }
+                return;
+            }
+            int base = base(slot);
+            synchronized (stripe(slot)) {
+                int c = current(base);
+                write(base, map.getLong(c + SPENT) + spentCents, map.getInt(c + TICKETS) + tickets, map.getInt(c + PENDING),
+                        map.getInt(c + INFLIGHT), tier == null ? map.get(c + TIER) : code, map.getLong(c + ROUND));
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method Name: put
+     * Purpose: Adds a member, or sets a member's values to what Member holds, keeping awards still pending.
+     * Pre-conditions: The values are committed in Member.
+     * Post-conditions: Returns the member's slot, or -1 if the MID or tier cannot be stored (lookups then use the database).
+     * Parameters:
+     * - MID (in): Member ID.
+     * - tier, spentCents, tickets (in): The member's values in Member.
+     */
+    public static int put(String MID, String tier, long spentCents, int tickets) {
+        if (!loaded) {
+            return -1;
+        }
+        byte code = tierCode(tier);
+        if (!fits(MID) || code < 0) {
+            remove(MID);
+            return -1;
+        }
+        structure.writeLock().lock();
+        try {
+            int slot = slotOf(MID);
+            int base;
+            if (slot < 0) {
+                slot = allocate();
+                base = base(slot);
+                map.put(base + K_STATE, (byte) 0);
+                map.putLong(base + COPY_A + CHECK, 0); // invalidate what a previous owner left
+                map.putLong(base + COPY_B + CHECK, 0);
+                map.put(base + K_LENGTH, (byte) MID.length());
+                for (int i = 0; i < MID.length(); i++) {
+                    map.put(base + K_MID + i, (byte) MID.charAt(i));
+                }
+                write(base, spentCents, tickets, 0, 0, code, 0);
+                map.put(base + K_STATE, (byte) 1);
+                if (SYNC_WRITES) {
+                    map.force(base, SLOT);
+                }
+                indexPut(MID, slot);
+                return slot;
+            }
+            base = base(slot);
+            synchronized (stripe(slot)) {
+                int c = current(base);
+                int pending = map.getInt(c + PENDING); // awards not in Member yet still count
+                write(base, spentCents, tickets + pending, pending, map.getInt(c + INFLIGHT), code, map.getLong(c + ROUND));
+            }
+            return slot;
+        } catch (IOException e) {
+            System.err.println("Member table full, " + MID + " is served from the database: " + e.getMessage());
+            return -1;
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method Name: refresh
+     * Purpose: Re-reads one member from Member, e.g. after a redemption changed their tickets.
+     * Pre-conditions: The member's pending awards were synced first (syncMember), so none are in flight.
+     * Post-conditions: The member's values match Member plus their pending awards, or the member is removed.
+     * Parameters:
+     * - conn (in): Connection to read with.
+     * - MID (in): Member ID.
+     */
+    public static void refresh(Connection conn, String MID) throws SQLException {
+        if (!loaded) {
+            return;
+        }
+        synchronized (syncLock) { // never while a round is in flight, or its tickets would count twice
+            PreparedStatement stmt = StatementCache.of(conn).prepare(LOAD_ONE);
+            stmt.setString(1, MID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    put(MID, rs.getString("tier"), Math.round(rs.getDouble("totalSpent") * 100), rs.getInt("totalTickets"));
+                } else {
+                    remove(MID);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method Name: remove
+     * Purpose: Drops a deleted member, and any awards still pending for them.
+     * Pre-conditions: The member's deletion is committed, or they cannot be stored here.
+     * Post-conditions: Lookups of the member fall back to the database.
+     * Parameters:
+     * - MID (in): Member ID.
+     */
+    public static void remove(String MID) {
+        if (!loaded || MID == null) {
+            return;
+        }
+        structure.writeLock().lock();
+        try {
+            int slot = slotOf(MID);
+            if (slot < 0) {
+                return;
+            }
+            indexRemove(MID);
+            map.put(base(slot) + K_STATE, (byte) 0);
+            if (SYNC_WRITES) {
+                map.force(base(slot), 1);
+            }
+            pushFree(slot);
+            synchronized (dirtyLock) {
+                dirty.clear(slot);
+            }
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    // ----- sync back -----
+
+    /**
+     * Method Name: sync
+     * Purpose: Pushes every member's pending ticket awards to Member in one round.
+     * Pre-conditions: conn has auto-commit off and no uncommitted work.
+     * Post-conditions: The awards are committed to Member exactly once, or, if the round fails, stay pending.
+     * Parameters:
+     * - conn (in): Connection to write with.
+     */
+    public static int sync(Connection conn) throws SQLException {
+        if (!loaded) {
+            return 0;
+        }
+        synchronized (syncLock) {
+            BitSet slots;
+            synchronized (dirtyLock) {
+                slots = dirty;
+                dirty = new BitSet();
+            }
+            return round(conn, slots);
+        }
+    }
+
+    /**
+     * Method Name: syncMember
+     * Purpose: Pushes one member's pending awards, before an operation that checks their balance in Member.
+     * Pre-conditions: conn has auto-commit off and no uncommitted work.
+     * Post-conditions: Member holds the member's full balance; nothing happens if none was pending.
+     * Parameters:
+     * - conn (in): Connection to write with.
+     * - MID (in): Member ID.
+     */
+    public static void syncMember(Connection conn, String MID) throws SQLException {
+        if (pendingTickets(MID) == 0) {
+            return;
+        }
+        synchronized (syncLock) {
+            BitSet slots = new BitSet();
+            structure.readLock().lock();
+            try {
+                int slot = slotOf(MID);
+                if (slot < 0) {
+                    return;
+                }
+                slots.set(slot);
+            } finally {
+                structure.readLock().unlock();
+            }
+            round(conn, slots);
+        }
+    }
+
+    // Steps 1-3 of a round for the given slots; the caller holds syncLock
+    private static int round(Connection conn, BitSet slots) throws SQLException {
+        long round = map.getLong(H_ROUND) + 1;
+        List<String> mids = new ArrayList<>();
+        List<Integer> taken = new ArrayList<>();
+        structure.readLock().lock();
+        try {
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                int base = base(slot);
+                if (slot >= used || map.get(base + K_STATE) != 1) {
+                    continue;
+                }
+                synchronized (stripe(slot)) {
+                    int c = current(base);
+                    int pending = map.getInt(c + PENDING);
+                    if (pending == 0) {
+                        continue;
+                    }
+                    write(base, map.getLong(c + SPENT), map.getInt(c + TICKETS), pending, pending, map.get(c + TIER), round);
+                }
+                mids.add(readName(base + K_LENGTH));
+                taken.add(slot);
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+        if (mids.isEmpty()) {
+            return 0;
+        }
+        map.putLong(H_ROUND, round); // open() also takes the committed round, so a crash before this is safe
+        if (SYNC_WRITES) {
+            map.force(0, HEADER);
+        }
+
+        boolean committed = false;
+        long pushed = 0;
+        PreparedStatement push = StatementCache.of(conn).prepare(PUSH);
+        try (Metrics.Span span = Metrics.start("memberTableSync")) {
+            for (int i = 0; i < mids.size(); i++) {
+                int inflight = (int) read(base(taken.get(i)), INFLIGHT);
+                push.setInt(1, inflight);
+                push.setString(2, mids.get(i));
+                push.addBatch();
+                pushed += inflight;
+            }
+            push.executeBatch();
+            PreparedStatement mark = StatementCache.of(conn).prepare(WRITE_ROUND);
+            mark.setString(1, NAME);
+            mark.setLong(2, round);
+            mark.executeUpdate();
+            conn.commit();
+            committed = true;
+            span.rows(mids.size());
+        } catch (SQLException e) {
+            conn.rollback();
+            push.clearBatch(); // the statement is cached; a failed batch must not ride along next round
+            throw e;
+        } finally {
+            structure.readLock().lock();
+            try {
+                for (int i = 0; i < taken.size(); i++) {
+                    int slot = taken.get(i);
+                    int base = base(slot);
+                    if (map.get(base + K_STATE) != 1 || !keyEquals(slot, mids.get(i))) {
+                        continue; // removed during the round
+                    }
+                    synchronized (stripe(slot)) {
+                        int c = current(base);
+                        int pending = map.getInt(c + PENDING) - (committed ? map.getInt(c + INFLIGHT) : 0);
+                        write(base, map.getLong(c + SPENT), map.getInt(c + TICKETS), pending, 0, map.get(c + TIER), 0);
+                        if (pending != 0) {
+                            markDirty(slot);
+                        }
+                    }
+                }
+            } finally {
+                structure.readLock().unlock();
+            }
+        }
+        rounds++;
+        ticketsPushed += pushed;
+        return mids.size();
+    }
+
+    private static long committedRound(Connection conn) throws SQLException {
+        PreparedStatement stmt = StatementCache.of(conn).prepare(READ_ROUND);
+        stmt.setString(1, NAME);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong("syncRound") : 0;
+        }
+    }
+
+    /**
+     * Method Name: startSync
+     * Purpose: Runs sync every arcade.memberTable.syncMs on a daemon thread.
+     * Pre-conditions: The table is open.
+     * Post-conditions: Failed rounds leave their awards pending and are retried on the next run.
+     * Parameters:
+     * - pool (in): Where each run borrows its connection.
+     */
+    public static synchronized void startSync(ConnectionPool pool) {
+        if (syncer != null) {
+            return;
+        }
+        long period = Long.getLong("arcade.memberTable.syncMs", 1_000L);
+        syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "member-table-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(() -> {
+            Connection conn = null;
+            try {
+                conn = pool.borrow();
+                sync(conn);
+            } catch (SQLException e) {
+                System.err.println("Member table sync failed, retrying: " + e.getMessage());
+            } finally {
+                pool.release(conn);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method Name: close
+     * Purpose: Stops the sync job, pushes what is still pending and forces the file.
+     * Pre-conditions: None.
+     * Post-conditions: The table is unloaded; awards that could not be pushed stay in the file for the next open.
+     * Parameters:
+     * - pool (in): Where to borrow a connection for the last round.
+     */
+    public static synchronized void close(ConnectionPool pool) {
+        if (!loaded) {
+            return;
+        }
+        if (syncer != null) {
+            syncer.shutdownNow();
+            syncer = null;
+        }
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            sync(conn);
+        } catch (SQLException e) {
+            System.err.println("Member table not synced, it will be on the next start: " + e.getMessage());
+        } finally {
+            pool.release(conn);
+        }
+        loaded = false;
+        map.force();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // everything was forced above
+        }
+    }
+
+    public static String summary() {
+        return String.format("member table members=%d capacity=%d syncRounds=%d ticketsSynced=%d", size, capacity, rounds, ticketsPushed);
+    }
+}
@@ -0,0 +1,503 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: Metrics.java is an in-process registry of operation timings and JDBC counters. It
+ * records how long each member, token, redemption and query operation takes, how many database round
+ * trips and rows it needed, and how many commits, rollbacks and SQLExceptions happened, so that
+ * slow paths can be found from a running system instead of guessed at.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Class Name: Metrics
+ * External Packages: java.sql, java.lang.reflect, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: An operation is timed by opening a Span around it:
+ *
+ *   try (Metrics.Span span = Metrics.start("buyTokens")) { ... }
+ *
+ * or, when the span has nothing to add because every row the operation touches is DML, by handing
+ * the operation to time().
+ *
+ * Closing the span records its latency in the operation's Timer. Latencies go into a log-linear
+ * histogram in the style of HdrHistogram: exact below 64ns, then 32 buckets per power of two, so
+ * every percentile is within about 3% of the true value. Recording is a few atomic increments and
+ * never allocates.
+ *
+ * Connections handed out by ConnectionPool are wrapped by instrument(), which counts every statement
+ * execution, batch, commit and rollback as a round trip of the innermost open span on the calling
+ * thread, adds the update counts to the span's rows, and counts SQLExceptions. A span that saw an
+ * SQLException is recorded as an error. Nested spans (deleteRelatedRecords inside deleteMember)
+ * also add their round trips and rows to the enclosing span. Setting arcade.metrics.jdbc=false
+ * hands out the driver's connections unwrapped; the timings are kept but the counters stay at zero.
+ *
+ * scrape() returns everything in the Prometheus text format; ArcadeService serves it on /metrics.
+ * startDumps() writes it every arcade.metrics.dumpSeconds (0, the default, turns dumps off) to
+ * arcade.metrics.dumpFile, or prints the summary to stderr when no file is configured.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * start(String operation): Opens a span that times one operation.
+ * time(String operation, Work work): Runs work inside a span and returns its result.
+ * instrument(Connection conn): Wraps a connection so its round trips are counted.
+ * gauge(String name, String help, DoubleSupplier value): Adds a value that is read on every scrape.
+ * scrape(): Returns all metrics in the Prometheus text format.
+ * summary(): Returns one line per operation for the console.
+ * startDumps(): Starts the periodic dump thread if one is configured.
+ */
+public class Metrics {
+
+    private static final boolean INSTRUMENT_JDBC = !"false".equals(System.getProperty("arcade.metrics.jdbc"));
+
+    private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private static final ThreadLocal<Span> current = new ThreadLocal<>();
+
+    private static final LongAdder commits = new LongAdder();
+    private static final LongAdder rollbacks = new LongAdder();
+    private static final LongAdder sqlExceptions = new LongAdder();
+    private static final LongAdder roundTrips = new LongAdder(); // including those outside any span
+
+    private static ScheduledExecutorService dumper;
+
+    // Statement and connection methods that each cost one trip to the database
+    private static final Set<String> ROUND_TRIP_METHODS = Set.of("execute", "executeQuery", "executeUpdate",
+            "executeLargeUpdate", "executeBatch", "executeLargeBatch", "commit", "rollback");
+
+    private record Gauge(String help, DoubleSupplier value) {
+    }
+
+    /**
+     * Log-linear latency histogram: exact below 64ns, then 32 buckets per further power of two.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKETS = 64;
+        private static final int HALF = SUB_BUCKETS / 2;
+        private static final int BUCKETS = SUB_BUCKETS + (63 - 6) * HALF;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            long v = Math.max(0, value);
+            counts.incrementAndGet(index(v));
+            count.increment();
+            sum.add(v);
+            if (v > max.get()) {
+                max.accumulateAndGet(v, Math::max);
+            }
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        /**
+         * Highest value that falls in the same bucket as the value at percentile p (0-100).
+         */
+        public long valueAtPercentile(double p) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(highestInBucket(i), max());
+                }
+            }
+            return max();
+        }
+
+        private static int index(long v) {
+            if (v < SUB_BUCKETS) {
+                return (int) v;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(v) - 5; // keep the top 6 bits
+            return SUB_BUCKETS + (shift - 1) * HALF + (int) (v >>> shift) - HALF;
+        }
+
+        private static long highestInBucket(int i) {
+            if (i < SUB_BUCKETS) {
+                return i;
+            }
+            int shift = (i - SUB_BUCKETS) / HALF + 1;
+            long top = (i - SUB_BUCKETS) % HALF + HALF;
+            return ((top + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Everything recorded for one operation name.
+     */
+    public static final class Timer {
+        private final String name;
+        private final Histogram latency = new Histogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder roundTrips = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Histogram latency() {
+            return latency;
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public long roundTrips() {
+            return roundTrips.sum();
+        }
+
+        public long rows() {
+            return rows.sum();
+        }
+    }
+
+    /**
+     * One running operation; close it to record it.
+     */
+    public static final class Span implements AutoCloseable {
+        private final Timer timer;
+        private final Span parent;
+        private final long startNanos = System.nanoTime();
+        private long roundTrips;
+        private long rows;
+        private boolean failed;
+
+        private Span(Timer timer, Span parent) {
+            this.timer = timer;
+            this.parent = parent;
+        }
+
+        /**
+         * Adds rows read by the operation; rows changed by DML are counted automatically.
+         */
+        public void rows(long n) {
+            rows += n;
+        }
+
+        /**
+         * Records the operation as failed even though no SQLException went through its connection.
+         */
+        public void failed() {
+            failed = true;
+        }
+
+        @Override
+        public void close() {
+            timer.latency.record(System.nanoTime() - startNanos);
+            timer.roundTrips.add(roundTrips);
+            timer.rows.add(rows);
+            if (failed) {
+                timer.errors.increment();
+            }
+            if (parent != null) {
+                parent.roundTrips += roundTrips;
+                parent.rows += rows;
+                parent.failed |= failed;
+                current.set(parent);
+            } else {
+                current.remove();
+            }
+        }
+    }
+
+    /**
+     * Method Name: start
+     * Purpose: Starts timing an operation on the calling thread.
+     * Pre-conditions: The span is closed on the same thread, normally by try-with-resources.
+     * Post-conditions: Round trips on this thread are counted against the span until it is closed.
+     * Parameters:
+     * - operation (in): Operation name, e.g. "buyTokens".
+     */
+    public static Span start(String operation) {
+        Span span = new Span(timers.computeIfAbsent(operation, Timer::new), current.get());
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * An operation run by time().
+     */
+    public interface Work<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * Method Name: time
+     * Purpose: Runs an operation inside its own span, for operations that add nothing to the span themselves.
+     * Pre-conditions: None.
+     * Post-conditions: The operation is recorded whether it returns or throws.
+     * Parameters:
+     * - operation (in): Operation name, e.g. "addMember".
+     * - work (in): The operation.
+     */
+    public static <T, E extends Exception> T time(String operation, Work<T, E> work) throws E {
+        Span span = start(operation);
+        try {
+            return work.run();
+        } finally {
+            span.close();
+        }
+    }
+
+    public static Timer timer(String operation) {
+        return timers.computeIfAbsent(operation, Timer::new);
+    }
+
+    public static long commits() {
+        return commits.sum();
+    }
+
+    public static long rollbacks() {
+        return rollbacks.sum();
+    }
+
+    public static long sqlExceptions() {
+        return sqlExceptions.sum();
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * Method Name: instrument
+     * Purpose: Wraps a connection so the statements it prepares are counted as round trips.
+     * Pre-conditions: None.
+     * Post-conditions: Returns a counting proxy, or conn itself when arcade.metrics.jdbc=false.
+     * Parameters:
+     * - conn (in): A physical connection.
+     */
+    public static Connection instrument(Connection conn) {
+        if (!INSTRUMENT_JDBC) {
+            return conn;
+        }
+        return (Connection) Proxy.newProxyInstance(Metrics.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new Counting(conn));
+    }
+
+    // Forwards every call and counts round trips; statements it returns are wrapped the same way
+    private static final class Counting implements InvocationHandler {
+        private final Object target;
+
+        Counting(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                switch (name) { // pooled connections and cached statements are map keys: compare the proxies
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        break;
+                }
+            }
+            boolean roundTrip = ROUND_TRIP_METHODS.contains(name);
+            Span span = roundTrip ? current.get() : null;
+            if (roundTrip) {
+                roundTrips.increment();
+                if (span != null) {
+                    span.roundTrips++;
+                }
+                if (name.equals("commit")) {
+                    commits.increment();
+                } else if (name.equals("rollback")) {
+                    rollbacks.increment();
+                }
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) {
+                    sqlExceptions.increment();
+                    Span failing = current.get();
+                    if (failing != null) {
+                        failing.failed = true;
+                    }
+                }
+                throw e.getCause();
+            }
+            if (span != null) {
+                if (result instanceof Integer && name.equals("executeUpdate")) {
+                    span.rows += Math.max(0, (Integer) result);
+                } else if (result instanceof int[] && name.equals("executeBatch")) {
+                    for (int n : (int[]) result) {
+                        span.rows += Math.max(0, n); // SUCCESS_NO_INFO is negative
+                    }
+                }
+            }
+            Class<?> type = method.getReturnType();
+            if (result instanceof Statement && type.isInterface() && Statement.class.isAssignableFrom(type)) {
+                return Proxy.newProxyInstance(Metrics.class.getClassLoader(), new Class<?>[] { type }, new Counting(result));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Method Name: scrape
+     * Purpose: Renders every timer, counter and gauge in the Prometheus text exposition format.
+     * Pre-conditions: None.
+     * Post-conditions: Returns the text; recording continues while it is built.
+     * Parameters: None.
+     */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder();
+        List<Timer> sorted = new ArrayList<>(timers.values());
+        sorted.sort(Comparator.comparing(Timer::name));
+
+        sb.append("# HELP arcade_operation_seconds Latency of each operation.\n");
+        sb.append("# TYPE arcade_operation_seconds summary\n");
+        for (Timer t : sorted) {
+            for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+                sb.append(String.format(Locale.ROOT, "arcade_operation_seconds{operation=\"%s\",quantile=\"%s\"} %.9f\n",
+                        t.name, q, t.latency.valueAtPercentile(q * 100) / 1e9));
+            }
+            sb.append(String.format(Locale.ROOT, "arcade_operation_seconds_sum{operation=\"%s\"} %.9f\n", t.name, t.latency.sum() / 1e9));
+            sb.append(String.format(Locale.ROOT, "arcade_operation_seconds_count{operation=\"%s\"} %d\n", t.name, t.latency.count()));
+        }
+        counterPerOperation(sb, sorted, "arcade_operation_max_seconds", "gauge", "Slowest run of each operation.",
+                t -> String.format(Locale.ROOT, "%.9f", t.latency.max() / 1e9));
+        counterPerOperation(sb, sorted, "arcade_operation_errors_total", "counter", "Runs that hit an SQLException.",
+                t -> String.valueOf(t.errors()));
+        counterPerOperation(sb, sorted, "arcade_operation_round_trips_total", "counter", "JDBC round trips made by each operation.",
+                t -> String.valueOf(t.roundTrips()));
+        counterPerOperation(sb, sorted, "arcade_operation_rows_total", "counter", "Rows read or changed by each operation.",
+                t -> String.valueOf(t.rows()));
+
+        counter(sb, "arcade_commits_total", "Transactions committed.", commits.sum());
+        counter(sb, "arcade_rollbacks_total", "Transactions rolled back.", rollbacks.sum());
+        counter(sb, "arcade_sql_exceptions_total", "SQLExceptions thrown by the driver.", sqlExceptions.sum());
+        counter(sb, "arcade_round_trips_total", "JDBC round trips, inside or outside an operation.", roundTrips.sum());
+        for (Map.Entry<String, Gauge> g : gauges.entrySet()) {
+            sb.append("# HELP ").append(g.getKey()).append(' ').append(g.getValue().help()).append('\n');
+            sb.append("# TYPE ").append(g.getKey()).append(" gauge\n");
+            sb.append(g.getKey()).append(' ').append(String.format(Locale.ROOT, "%.6f", g.getValue().value().getAsDouble())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private interface Field {
+        String of(Timer t);
+    }
+
+    private static void counterPerOperation(StringBuilder sb, List<Timer> timers, String name, String type, String help, Field field) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (Timer t : timers) {
+            sb.append(name).append("{operation=\"").append(t.name).append("\"} ").append(field.of(t)).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Method Name: summary
+     * Purpose: Describes each operation in one line, in the style of the other summaries printed on exit.
+     * Pre-conditions: None.
+     * Post-conditions: Returns the summary text.
+     * Parameters: None.
+     */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder(String.format("metrics commits=%d rollbacks=%d sqlExceptions=%d roundTrips=%d",
+                commits.sum(), rollbacks.sum(), sqlExceptions.sum(), roundTrips.sum()));
+        List<Timer> sorted = new ArrayList<>(timers.values());
+        sorted.sort(Comparator.comparing(Timer::name));
+        for (Timer t : sorted) {
+            long n = t.latency.count();
+            sb.append(String.format("%n  %-22s count=%d errors=%d p50=%.3fms p99=%.3fms max=%.3fms trips/op=%.1f rows/op=%.1f",
+                    t.name, n, t.errors(), t.latency.valueAtPercentile(50) / 1e6, t.latency.valueAtPercentile(99) / 1e6,
+                    t.latency.max() / 1e6, n == 0 ? 0.0 : (double) t.roundTrips() / n, n == 0 ? 0.0 : (double) t.rows() / n));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Method Name: startDumps
+     * Purpose: Writes the metrics every arcade.metrics.dumpSeconds seconds.
+     * Pre-conditions: None.
+     * Post-conditions: A daemon thread writes scrape() to arcade.metrics.dumpFile (replacing it
+     *                  atomically, so a collector never reads half a file) or prints summary() to
+     *                  stderr; nothing starts when dumps are off or already running.
+     * Parameters: None.
+     */
+    public static synchronized void startDumps() {
+        long seconds = Long.getLong("arcade.metrics.dumpSeconds", 0L);
+        if (seconds <= 0 || dumper != null) {
+            return;
+        }
+        String file = System.getProperty("arcade.metrics.dumpFile");
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            if (file == null) {
+                System.err.println(summary());
+                return;
+            }
+            try {
+                Path target = Paths.get(file);
+                Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+                Files.writeString(tmp, scrape());
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,209 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: PrizeCatalog.java keeps the Prize table in memory sorted by ticket cost, so that
+ * "which prizes can this member afford" is a binary search instead of a query on every lookup.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class Name: PrizeCatalog
+ * External Packages: java.sql, java.util
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: The catalog is an immutable snapshot: the prizes in ticket cost order and a parallel
+ * array of their costs. The prizes a member can afford are the prefix ending at the first cost above
+ * their ticket count. Each prize's inventory is an atomic counter, decremented when a redemption is
+ * accepted, so the list shown to members does not need a reload after every redemption; the
+ * authoritative check stays in RedemptionEngine. Admin changes call invalidate() after they commit,
+ * and a snapshot older than arcade.prizeCatalog.maxAgeMs (default 60000) is reloaded, which picks up
+ * changes made by other kiosks.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * affordable(Connection conn, int tickets): Prizes costing at most the given number of tickets.
+ * redeemed(String prizeId) / soldOut(String prizeId): Keep cached inventory in step with redemptions.
+ * invalidate(): Drops the snapshot so the next lookup reloads it.
+ * hitRatio() / ageMillis() / summary(): Cache metrics.
+ */
+public class PrizeCatalog {
+
+    private static final long MAX_AGE_NANOS = Long.getLong("arcade.prizeCatalog.maxAgeMs", 60_000L) * 1_000_000L;
+
+    private static final String LOAD =
+            "SELECT PrizeID, description, ticketCost, inventoryCount FROM hamadayaz.Prize ORDER BY ticketCost, PrizeID";
+
+    /**
+     * One prize of the catalog. Everything but the inventory is fixed for the life of a snapshot.
+     */
+    public static final class Prize {
+        public final String prizeId;
+        public final String description;
+        public final int ticketCost;
+        private final AtomicInteger inventory;
+
+        Prize(String prizeId, String description, int ticketCost, int inventory) {
+            this.prizeId = prizeId;
+            this.description = description;
+            this.ticketCost = ticketCost;
+            this.inventory = new AtomicInteger(inventory);
+        }
+
+        public int inventory() {
+            return inventory.get();
+        }
+    }
+
+    private static final class Snapshot {
+        final Prize[] prizes;      // ticket cost order
+        final int[] costs;         // prizes[i].ticketCost, for the binary search
+        final Map<String, Prize> byId;
+        final long loadedNanos = System.nanoTime();
+
+        Snapshot(List<Prize> list) {
+            prizes = list.toArray(new Prize[0]);
+            costs = new int[prizes.length];
+            byId = new HashMap<>();
+            for (int i = 0; i < prizes.length; i++) {
+                costs[i] = prizes[i].ticketCost;
+                byId.put(prizes[i].prizeId, prizes[i]);
+            }
+        }
+
+        // Index of the first prize costing more than tickets, i.e. the length of the affordable prefix
+        int affordableCount(int tickets) {
+            int lo = 0;
+            int hi = costs.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (costs[mid] <= tickets) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private static volatile Snapshot snapshot;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Method Name: affordable
+     * Purpose: Returns the prizes a member with the given number of tickets can afford.
+     * Pre-conditions: None.
+     * Post-conditions: The catalog is loaded if it was missing or too old.
+     * Parameters:
+     * - conn (in): Connection used if the catalog has to be loaded.
+     * - tickets (in): The member's ticket count.
+     */
+    public static List<Prize> affordable(Connection conn, int tickets) throws SQLException {
+        Snapshot s = current(conn);
+        return Collections.unmodifiableList(Arrays.asList(s.prizes).subList(0, s.affordableCount(tickets)));
+    }
+
+    /**
+     * Method Name: redeemed
+     * Purpose: Takes one unit off a prize's cached inventory after a redemption commits.
+     * Pre-conditions: RedemptionEngine accepted the redemption.
+     * Post-conditions: The cached count is decremented, never below zero.
+     * Parameters:
+     * - prizeId (in): The redeemed prize.
+     */
+    public static void redeemed(String prizeId) {
+        Snapshot s = snapshot;
+        Prize p = s == null ? null : s.byId.get(prizeId);
+        if (p != null) {
+            p.inventory.getAndUpdate(n -> Math.max(0, n - 1));
+        }
+    }
+
+    /**
+     * Method Name: soldOut
+     * Purpose: Records that the database refused a redemption for lack of stock.
+     * Pre-conditions: RedemptionEngine returned OUT_OF_STOCK.
+     * Post-conditions: The prize is no longer offered until the next reload.
+     * Parameters:
+     * - prizeId (in): The prize.
+     */
+    public static void soldOut(String prizeId) {
+        Snapshot s = snapshot;
+        Prize p = s == null ? null : s.byId.get(prizeId);
+        if (p != null) {
+            p.inventory.set(0);
+        }
+    }
+
+    /**
+     * Method Name: invalidate
+     * Purpose: Drops the snapshot after the Prize table changed.
+     * Pre-conditions: Called after the change has committed.
+     * Post-conditions: The next lookup reloads the catalog.
+     * Parameters: None.
+     */
+    public static void invalidate() {
+        snapshot = null;
+        invalidations.incrementAndGet();
+    }
+
+    public static double hitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Returns how old the current snapshot is in milliseconds, or -1 if none is loaded.
+     */
+    public static long ageMillis() {
+        Snapshot s = snapshot;
+        return s == null ? -1 : (System.nanoTime() - s.loadedNanos) / 1_000_000L;
+    }
+
+    public static String summary() {
+        Snapshot s = snapshot;
+        return String.format("prize catalog: %d prizes, %d hits, %d loads, hit ratio %.2f, %d invalidations, age %d ms",
+                s == null ? 0 : s.prizes.length, hits.get(), misses.get(), hitRatio(), invalidations.get(), ageMillis());
+    }
+
+    private static Snapshot current(Connection conn) throws SQLException {
+        Snapshot s = snapshot;
+        if (s != null && System.nanoTime() - s.loadedNanos < MAX_AGE_NANOS) {
+            hits.incrementAndGet();
+            return s;
+        }
+        synchronized (PrizeCatalog.class) {
+            s = snapshot;
+            if (s != null && System.nanoTime() - s.loadedNanos < MAX_AGE_NANOS) {
+                hits.incrementAndGet(); // another thread loaded it while we waited
+                return s;
+            }
+            misses.incrementAndGet();
+            long generation = invalidations.get();
+            List<Prize> list = new ArrayList<>();
+            try (ResultSet rs = ResultStreamer.query(conn, LOAD).executeQuery()) {
+                while (rs.next()) {
+                    list.add(new Prize(rs.getString("PrizeID"), rs.getString("description"),
+                            rs.getInt("ticketCost"), rs.getInt("inventoryCount")));
+                }
+            }
+            s = new Snapshot(list);
+            if (invalidations.get() == generation) { // otherwise the rows may predate a committed change
+                snapshot = s;
+            }
+            return s;
+        }
+    }
+}
@@ -12,12 +12,24 @@
  * connectivity, SQL operations and error handling.
  *
  * Language: Java, version 16
- * Compilation: run javac Queries.java first, then run compiled file with command line, example:java Project
+ * Compilation: run javac *.java, then run compiled file with command line, example:java Project
  * */
 
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.Scanner;
+import java.util.SortedMap;
 
 /**
  * Class Name: Project
@@ -43,30 +55,41 @@ import java.util.Scanner;
  * deleteMember(Scanner scanner): Removes a member from the database and handles related records.
  * manageTicketRedemption(Scanner scanner, String MID, int totalTickets): Manages the redemption of prizes for members based on their accumulated tickets.
  * listAndRedeemPrizes(Scanner scanner, String MID, int totalTickets): Lists available prizes and manages prize redemption processes.
- * redeemSelectedPrize(String MID, String prizeId): Executes the redemption of a selected prize for a member.
+ * redeemSelectedPrize(String MID, String prizeId, String coupon): Executes the redemption of a selected prize for a member.
  * updateMemberTicketCount(String MID): Updates the ticket count for a member post-redemption.
  * proceedToDeleteMember(String MID): Finalizes the deletion of a member, ensuring all related records are also removed.
- * deleteRelatedRecords(String MID): Deletes all records related to a member from dependent tables.
  * addGame(Scanner scanner): Adds a new game to the database.
+ * recordGamePlay(Scanner scanner): Records a play of a game and awards its tickets.
  * deleteGame(Scanner scanner): Removes a game from the database along with any associated gameplay records.
+ * showArchiveProgress(): Lists retired games and how many of their plays have been archived.
+ * rollUpHistory(): Rolls up and drops the purchase and redemption months past the retention period.
+ * issueCoupons(Scanner scanner): Issues token or prize coupons to members, or bearer coupons to hand out.
  * redeemPrizes(Scanner scanner): Handles the redemption of prizes by members.
  * buyTokens(Scanner scanner): Manages the purchase of tokens by members, updating their spent total and adjusting membership tiers if necessary.
  * addOrUpdatePrize(Scanner scanner): Adds a new prize or updates an existing one in the prize catalog.
  * deletePrize(Scanner scanner): Removes a prize from the system, including all related redemption records.
+ * bulkImport(Scanner scanner): Loads members, games or prizes from a CSV file in batched chunks.
+ * purgeMembers(Scanner scanner): Deletes many members (listed or dormant) in batched set-based transactions.
+ * showSpendByMonth(Scanner scanner): Prints a member's token spend per month, including rolled-up months.
  * runQueries(Scanner scanner): Provides a menu-driven interface for running various predefined queries about games, members, and prizes.
  */
 
 
 public class Project {
 
-    private static final String oracleURL = "jdbc:oracle:thin:@aloe.cs.arizona.edu:1521:oracle"; // connection
-    private static Connection dbconn;
+    private static final String oracleURL = "jdbc:oracle:thin:@aloe.cs.arizona.edu:1521:oracle"; // default connection, override with -Darcade.jdbc.url
+    private static ConnectionPool pool;
+    private static Connection dbconn; // connection checked out for the console session
+    private static ArcadeStore store; // where members, games and prizes are added and changed; see arcade.store
+    private static TicketLedger ledger; // write-behind ledger, null unless -Darcade.ledger=true
+    private static GameArchiver archiver; // background GamePlay archival, null unless -Darcade.gameArchive=true
 
     /**
      * Method Name: main
      * Purpose: Serves as the entry point for the application. It handles initial user authentication,
      *          connects to the database, and navigates through the main menu.
-     * Pre-conditions: Requires valid database credentials and network access to the database server.
+     * Pre-conditions: Requires valid database credentials and access to the database at oracleURL, or at the
+     *                URL given by the arcade.jdbc.url system property.
      * Post-conditions: Depending on user choices, various functionalities of the application are executed.
      * Parameters:
      * - args (in): Command-line arguments. not in use.
@@ -78,10 +101,47 @@ public class Project {
             System.out.print("Enter your Oracle password: ");
             String password = scanner.nextLine();
 
-            Class.forName("oracle.jdbc.OracleDriver");
-            dbconn = DriverManager.getConnection(oracleURL, username, password);
-            dbconn.setAutoCommit(false);
+            pool = ConnectionPool.fromSystemProperties(oracleURL, username, password);
+            if (pool.getUrl().startsWith("jdbc:oracle:")) {
+                Class.forName("oracle.jdbc.OracleDriver");
+            }
+            dbconn = pool.borrow(); // opened with auto-commit off
+            store = ArcadeStore.open(pool);
+
+            if (Boolean.getBoolean("arcade.ledger")) {
+                ledger = new TicketLedger(pool, Paths.get(System.getProperty("arcade.ledger.dir", "ledger")),
+                        !"false".equals(System.getProperty("arcade.ledger.sync")));
+                int replayed = ledger.recover();
+                if (replayed > 0) {
+                    System.out.println("Replayed " + replayed + " unflushed ledger entries.");
+                }
+                ledger.start(Long.getLong("arcade.ledger.flushMs", 1_000L));
+            }
+            if (Boolean.getBoolean("arcade.leaderboard")) {
+                Leaderboard.load(dbconn);
+            }
+            if (Boolean.getBoolean("arcade.spendAggregates")) {
+                SpendAggregates.load(dbconn);
+            }
+            if (GameArchiver.ENABLED) {
+                archiver = GameArchiver.fromSystemProperties(pool);
+                archiver.start(); // resumes retirements a previous run did not finish
+            }
+            if (PurchaseHistory.ENABLED) {
+                PurchaseHistory.startRetention(pool);
+            }
+            if (MemberTable.ENABLED) {
+                MemberTable.open(pool);
+                MemberTable.startSync(pool);
+            }
+            if (LoyaltyRules.FILE != null) {
+                LoyaltyRules.watch();
+            }
+            if (CouponEngine.ENABLED) {
+                CouponEngine.start(pool);
+            }
 
+            Metrics.startDumps();
             System.out.println("Connected to the database successfully.");
 
             boolean exitProgram = false;
@@ -112,7 +172,25 @@ public class Project {
                 }
             }
 
-            dbconn.close();
+            if (archiver != null) {
+                archiver.close();
+                System.out.println(archiver.summary());
+            }
+            if (ledger != null) {
+                ledger.close();
+                System.out.println(ledger.summary());
+            }
+            if (MemberTable.isLoaded()) {
+                MemberTable.close(pool);
+                System.out.println(MemberTable.summary());
+            }
+            store.close();
+            pool.release(dbconn);
+            System.out.println(pool.stats());
+            System.out.println(StatementCache.summary());
+            System.out.println(PrizeCatalog.summary());
+            System.out.println(Metrics.summary());
+            pool.close();
             System.out.println("Exiting program.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -137,9 +215,16 @@ public class Project {
             System.out.println("Game Operations:");
             System.out.println("4. Add Game");
             System.out.println("5. Delete Game");
+            System.out.println("9. Record Game Play");
             System.out.println("Prize Operations:");
             System.out.println("6. Add Prize");
             System.out.println("7. Delete Prize");
+            System.out.println("Bulk Operations:");
+            System.out.println("8. Import Members/Games/Prizes from CSV");
+            System.out.println("10. Purge Members");
+            System.out.println("11. Game Archive Progress");
+            System.out.println("12. Roll Up Old Purchase History");
+            System.out.println("13. Issue Coupons");
 
             System.out.print("Choose an option: ");
             int choice = Integer.parseInt(scanner.nextLine());
@@ -169,6 +254,24 @@ public class Project {
                 case 7:
                     deletePrize(scanner);
                     break;
+                case 8:
+                    bulkImport(scanner);
+                    break;
+                case 9:
+                    recordGamePlay(scanner);
+                    break;
+                case 10:
+                    purgeMembers(scanner);
+                    break;
+                case 11:
+                    showArchiveProgress();
+                    break;
+                case 12:
+                    rollUpHistory();
+                    break;
+                case 13:
+                    issueCoupons(scanner);
+                    break;
                 default:
                     System.out.println("Invalid choice. Please select a valid option.");
             }
@@ -230,14 +333,9 @@ public class Project {
         String mid = scanner.nextLine();
 
         // Check if member already exists
-        String checkSql = "SELECT MID FROM hamadayaz.Member WHERE MID = ?";
-        try (PreparedStatement checkStmt = dbconn.prepareStatement(checkSql)) {
-            checkStmt.setString(1, mid);
-            ResultSet rs = checkStmt.executeQuery();
-            if (rs.next()) {
-                System.out.println("A member with ID " + mid + " already exists.");
-                return;  // Exit the method if the member exists
-            }
+        if (ArcadeOperations.memberExists(store, mid)) {
+            System.out.println("A member with ID " + mid + " already exists.");
+            return;  // Exit the method if the member exists
         }
 
         // Continue with adding the member
@@ -256,19 +354,10 @@ public class Project {
         scanner.nextLine();
 
         // insert member
-        String sql = "INSERT INTO hamadayaz.Member (MID, name, phoneNo, address, tier, totalSpent, totalTickets) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement pstmt = dbconn.prepareStatement(sql)) {
-            pstmt.setString(1, mid);
-            pstmt.setString(2, name);
-            pstmt.setString(3, phoneNo);
-            pstmt.setString(4, address);
-            pstmt.setString(5, tier);
-            pstmt.setDouble(6, totalSpent);
-            pstmt.setInt(7, totalTickets);
-            int count = pstmt.executeUpdate();
-            dbconn.commit();
-            System.out.println(count + " member(s) added.");
+        if (ArcadeOperations.addMember(store, mid, name, phoneNo, address, tier, totalSpent, totalTickets)) {
+            System.out.println("1 member(s) added.");
+        } else {
+            System.out.println("A member with ID " + mid + " already exists.");
         }
     }
 
@@ -285,14 +374,9 @@ public class Project {
         String MID = scanner.nextLine();
 
         // Check if member exists
-        String existCheckSql = "SELECT MID FROM hamadayaz.Member WHERE MID = ?";
-        try (PreparedStatement existCheckStmt = dbconn.prepareStatement(existCheckSql)) {
-            existCheckStmt.setString(1, MID);
-            ResultSet existRs = existCheckStmt.executeQuery();
-            if (!existRs.next()) {
-                System.out.println("No member found with ID: " + MID);
-                return;  // Exit the method if no member is found
-            }
+        if (!ArcadeOperations.memberExists(store, MID)) {
+            System.out.println("No member found with ID: " + MID);
+            return;  // Exit the method if no member is found
         }
 
         // Proceed with update
@@ -304,19 +388,10 @@ public class Project {
         String address = scanner.nextLine();
 
         // update record
-        String sql = "UPDATE hamadayaz.Member SET name = ?, phoneNo = ?, address = ? WHERE MID = ?";
-        try (PreparedStatement pstmt = dbconn.prepareStatement(sql)) {
-            pstmt.setString(1, name);
-            pstmt.setString(2, phoneNo);
-            pstmt.setString(3, address);
-            pstmt.setString(4, MID);
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows > 0) {
-                dbconn.commit();
-                System.out.println("Member updated successfully.");
-            } else {
-                System.out.println("Update failed. No member found with ID: " + MID);
-            }
+        if (ArcadeOperations.updateMember(store, MID, name, phoneNo, address)) {
+            System.out.println("Member updated successfully.");
+        } else {
+            System.out.println("Update failed. No member found with ID: " + MID);
         }
     }
 
@@ -332,28 +407,23 @@ public class Project {
         System.out.print("Enter Member ID to delete: ");
         String MID = scanner.nextLine();
 
-        try { // select tickets
-            String sqlCheckTickets = "SELECT totalTickets FROM hamadayaz.Member WHERE MID = ?";
-            PreparedStatement pstmt = dbconn.prepareStatement(sqlCheckTickets);
-            pstmt.setString(1, MID);
-            ResultSet rs = pstmt.executeQuery();
-
-            // handle possibilities
-            if (rs.next()) {
-                int totalTickets = rs.getInt("totalTickets");
-                if (totalTickets > 10) {
-                    manageTicketRedemption(scanner, MID, totalTickets); // redeem prizes
-                } else {
-                    System.out.println("Member has fewer than 10 tickets, they can be deleted directly.");
-                    proceedToDeleteMember(MID); // delete member
-                }
+        int totalTickets = ArcadeOperations.ticketsOf(dbconn, MID);
+        // handle possibilities
+        if (totalTickets < 0) {
+            System.out.println("No member found with ID: " + MID);
+        } else if (totalTickets > ArcadeOperations.DELETE_TICKET_LIMIT) {
+            System.out.print("Member has " + totalTickets + " tickets. Type 'settle' to forfeit them and delete now, " +
+                    "or press enter to redeem prizes first: ");
+            if ("settle".equalsIgnoreCase(scanner.nextLine().trim())) {
+                MemberPurge.Report report = MemberPurge.purge(dbconn, ledger, List.of(MID), MemberPurge.TicketPolicy.FORCE_SETTLE);
+                System.out.println(report.purged() == 1 ? "Member deleted, " + report.ticketsSettled() + " tickets settled."
+                        : "Failed to delete member. No member found with ID: " + MID);
             } else {
-                System.out.println("No member found with ID: " + MID);
+                manageTicketRedemption(scanner, MID, totalTickets); // redeem prizes
             }
-        } catch (SQLException e) {
-            System.out.println("Transaction failed: " + e.getMessage());
-            dbconn.rollback();
-            throw e;
+        } else {
+            System.out.println("Member has fewer than 10 tickets, they can be deleted directly.");
+            proceedToDeleteMember(MID); // delete member
         }
     }
 
@@ -368,7 +438,7 @@ public class Project {
      * - totalTickets (in): The total number of tickets the member has.
      */
     private static void manageTicketRedemption(Scanner scanner, String MID, int totalTickets) throws SQLException {
-        while (totalTickets > 10) {
+        while (totalTickets > ArcadeOperations.DELETE_TICKET_LIMIT) {
             System.out.println("\nMember has " + totalTickets + " tickets available for redemption:");
             if (listAndRedeemPrizes(scanner, MID, totalTickets)) {
                 System.out.println("No prizes were redeemed. Exiting redemption process.");
@@ -390,18 +460,12 @@ public class Project {
      * - totalTickets (in): The current ticket count of the member.
      */
     private static boolean listAndRedeemPrizes(Scanner scanner, String MID, int totalTickets) throws SQLException {
-        String sql = "SELECT PrizeID, description, ticketCost FROM hamadayaz.Prize WHERE ticketCost <= ? AND inventoryCount > 0 ORDER BY ticketCost";
-        PreparedStatement pstmt = dbconn.prepareStatement(sql);
-        pstmt.setInt(1, totalTickets);
-        ResultSet rs = pstmt.executeQuery();
-
         boolean hasPrizes = false;
-        while (rs.next()) {
-            hasPrizes = true;
-            String prizeID = rs.getString("PrizeID");
-            String description = rs.getString("description");
-            int ticketCost = rs.getInt("ticketCost");
-            System.out.println("PrizeID: " + prizeID + ", Description: " + description + ", Ticket Cost: " + ticketCost);
+        for (PrizeCatalog.Prize prize : PrizeCatalog.affordable(dbconn, totalTickets)) {
+            if (prize.inventory() > 0) {
+                hasPrizes = true;
+                System.out.println("PrizeID: " + prize.prizeId + ", Description: " + prize.description + ", Ticket Cost: " + prize.ticketCost);
+            }
         }
         // handling
         if (!hasPrizes) {
@@ -414,60 +478,41 @@ public class Project {
         if ("skip".equalsIgnoreCase(prizeId)) {
             return true;
         }
+        System.out.print("Coupon code (press enter for none): ");
+        String coupon = scanner.nextLine().trim();
 
-        return !redeemSelectedPrize(MID, prizeId);
+        return !redeemSelectedPrize(MID, prizeId, coupon.isEmpty() ? null : coupon);
     }
 
     /**
      * Method Name: redeemSelectedPrize
      * Purpose: Processes the redemption of a selected prize for a member.
-     * Pre-conditions: The selected prize must be available and within the member's ticket budget.
-     * Post-conditions: Prize inventory and member's tickets are updated.
+     * Pre-conditions: None; availability and the member's ticket balance are checked atomically by RedemptionEngine.
+     * Post-conditions: Prize inventory and member's tickets are updated and committed, or nothing changes.
      * Parameters:
      * - MID (in): Member ID.
      * - prizeId (in): Prize ID of the selected prize.
+     * - coupon (in): PRIZE coupon code, or null.
      */
-    private static boolean redeemSelectedPrize(String MID, String prizeId) throws SQLException {
-        String sql = "SELECT ticketCost, inventoryCount FROM hamadayaz.Prize WHERE PrizeID = ? AND inventoryCount > 0";
-        PreparedStatement pstmt = dbconn.prepareStatement(sql);
-        pstmt.setString(1, prizeId);
-        ResultSet rs = pstmt.executeQuery();
-
-        if (rs.next()) {
-            int ticketCost = rs.getInt("ticketCost");
-            int inventoryCount = rs.getInt("inventoryCount");
-
-            if (inventoryCount > 0) {
-                // Update Prize Inventory
-                sql = "UPDATE hamadayaz.Prize SET inventoryCount = inventoryCount - 1 WHERE PrizeID = ?";
-                pstmt = dbconn.prepareStatement(sql);
-                pstmt.setString(1, prizeId);
-                pstmt.executeUpdate();
-
-                // Update Member Tickets
-                sql = "UPDATE hamadayaz.Member SET totalTickets = totalTickets - ? WHERE MID = ?";
-                pstmt = dbconn.prepareStatement(sql);
-                pstmt.setInt(1, ticketCost);
-                pstmt.setString(2, MID);
-                pstmt.executeUpdate();
-
-                // Record the transaction
-                sql = "INSERT INTO hamadayaz.PrizeRedemption (XactID, MID, PrizeID, xactDate) VALUES (seq_prize_redemption.nextval, ?, ?, CURRENT_DATE)";
-                pstmt = dbconn.prepareStatement(sql);
-                pstmt.setString(1, MID);
-                pstmt.setString(2, prizeId);
-                pstmt.executeUpdate();
-
-                dbconn.commit();
+    private static boolean redeemSelectedPrize(String MID, String prizeId, String coupon) throws SQLException {
+        // Inventory, ticket balance, coupon and the redemption record are checked and written in one conditional call
+        RedemptionEngine.Outcome outcome;
+        try {
+            outcome = ArcadeOperations.redeem(dbconn, MID, prizeId, coupon);
+        } catch (CouponEngine.Rejected e) {
+            System.out.println("Coupon not accepted: " + couponReason(e.outcome));
+            return false;
+        }
+        switch (outcome) {
+            case ACCEPTED:
                 System.out.println("Prize redeemed successfully.");
                 return true;
-            } else {
-                System.out.println("Selected prize cannot be redeemed due to insufficient inventory.");
+            case OUT_OF_STOCK:
+                System.out.println("Selected prize not found or inventory is zero.");
+                return false;
+            default:
+                System.out.println("Selected prize cannot be redeemed, not enough tickets.");
                 return false;
-            }
-        } else {
-            System.out.println("Selected prize not found or inventory is zero.");
-            return false;
         }
     }
 
@@ -480,14 +525,7 @@ public class Project {
      * - MID (in): Member ID.
      */
     private static int updateMemberTicketCount(String MID) throws SQLException {
-        String sql = "SELECT totalTickets FROM hamadayaz.Member WHERE MID = ?";
-        PreparedStatement pstmt = dbconn.prepareStatement(sql);
-        pstmt.setString(1, MID);
-        ResultSet rs = pstmt.executeQuery();
-        if (rs.next()) {
-            return rs.getInt("totalTickets");
-        }
-        return 0;  // Default if no data found
+        return Math.max(0, ArcadeOperations.ticketsOf(dbconn, MID));  // 0 if no data found
     }
 
     /**
@@ -500,49 +538,22 @@ public class Project {
      */
     private static void proceedToDeleteMember(String MID) throws SQLException {
         try {
-            // Delete related records from all dependent tables
-            deleteRelatedRecords(MID);
-
-            // Finally, delete the member
-            String sqlDeleteMember = "DELETE FROM hamadayaz.Member WHERE MID = ?";
-            try (PreparedStatement pstmtDelete = dbconn.prepareStatement(sqlDeleteMember)) {
-                pstmtDelete.setString(1, MID);
-                int affectedRows = pstmtDelete.executeUpdate();
-                if (affectedRows > 0) {
+            switch (ArcadeOperations.deleteMember(dbconn, ledger, MID)) {
+                case DELETED:
                     System.out.println("Member deleted successfully.");
-                    dbconn.commit(); // Commit all changes if everything is successful
-                } else {
+                    break;
+                case HAS_TICKETS:
+                    System.out.println("Member still has more than " + ArcadeOperations.DELETE_TICKET_LIMIT + " tickets and was not deleted.");
+                    break;
+                default:
                     System.out.println("Failed to delete member. No member found with ID: " + MID);
-                    dbconn.rollback(); // Rollback if the member does not exist
-                }
             }
         } catch (SQLException e) {
             System.out.println("Error during deletion: " + e.getMessage());
-            dbconn.rollback(); // Rollback on any error during the deletion process
             throw e;
         }
     }
 
-    /**
-     * Method Name: deleteRelatedRecords
-     * Purpose: Deletes all records related to the member from dependent tables before the member itself is deleted.
-     * Pre-conditions: Member ID must exist.
-     * Post-conditions: All records associated with the member in related tables are deleted.
-     * Parameters:
-     * - MID (in): Member ID.
-     */
-    private static void deleteRelatedRecords(String MID) throws SQLException {
-        // List of related tables
-        String[] relatedTables = new String[] { "PrizeRedemption", "Coupon", "TokenPurchase", "Gameplay" };
-        for (String table : relatedTables) {
-            String sqlDelete = "DELETE FROM hamadayaz." + table + " WHERE MID = ?";
-            try (PreparedStatement pstmt = dbconn.prepareStatement(sqlDelete)) {
-                pstmt.setString(1, MID);
-                pstmt.executeUpdate(); // Execute the delete command for each table
-            }
-        }
-    }
-
     /**
      * Method Name: addGame
      * Purpose: Adds a new game to the database.
@@ -563,18 +574,14 @@ public class Project {
         scanner.nextLine();
 
         // Insert record
-        String sql = "INSERT INTO hamadayaz.Game (GID, name, tokenCost, factor) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement pstmt = dbconn.prepareStatement(sql)) {
-            pstmt.setString(1, gid);
-            pstmt.setString(2, name);
-            pstmt.setInt(3, tokenCost);
-            pstmt.setDouble(4, factor);
-            int count = pstmt.executeUpdate();
-            dbconn.commit();  // Commit the transaction
-            System.out.println(count + " game(s) added.");
+        try {
+            if (ArcadeOperations.addGame(store, gid, name, tokenCost, factor)) {
+                System.out.println("1 game(s) added.");
+            } else {
+                System.out.println("A game with ID " + gid + " already exists.");
+            }
         } catch (SQLException e) {
             System.err.println("Error adding game: " + e.getMessage());
-            dbconn.rollback();  // Rollback on error
             throw e;
         }
     }
@@ -583,7 +590,8 @@ public class Project {
      * Method Name: deleteGame
      * Purpose: Deletes a game from the database after ensuring all related gameplay records are also deleted.
      * Pre-conditions: Game ID must exist in the database.
-     * Post-conditions: Game and all related gameplay records are removed.
+     * Post-conditions: Game and all related gameplay records are removed. With -Darcade.gameArchive=true the
+     *                  game is hidden at once and GameArchiver moves its records to GamePlayArchive in the background.
      * Parameters:
      * - scanner (in): Scanner object for capturing the game ID from user input.
      */
@@ -591,27 +599,41 @@ public class Project {
         System.out.print("Enter Game ID to delete: ");
         String gid = scanner.nextLine();
 
+        if (archiver != null) { // hide the game now, move its plays in the background
+            switch (archiver.retire(dbconn, gid)) {
+                case RETIRED:
+                    System.out.println("Game retired; its gameplay records are being archived in the background.");
+                    break;
+                case ALREADY_RETIRING:
+                    System.out.println("Game " + gid + " is already being archived.");
+                    break;
+                default:
+                    System.out.println("No game found with ID: " + gid);
+            }
+            return;
+        }
         try {
             // Start by deleting gameplay records for the game
             String sqlDeleteGameplay = "DELETE FROM hamadayaz.GamePlay WHERE GID = ?";
-            try (PreparedStatement pstmtGameplay = dbconn.prepareStatement(sqlDeleteGameplay)) {
-                pstmtGameplay.setString(1, gid);
-                pstmtGameplay.executeUpdate();  // Execute
-            }
+            PreparedStatement pstmtGameplay = StatementCache.of(dbconn).prepare(sqlDeleteGameplay);
+            pstmtGameplay.setString(1, gid);
+            pstmtGameplay.executeUpdate();  // Execute
 
             // delete the game itself
             String sqlDeleteGame = "DELETE FROM hamadayaz.Game WHERE GID = ?";
-            try (PreparedStatement pstmtGame = dbconn.prepareStatement(sqlDeleteGame)) {
-                pstmtGame.setString(1, gid);
-                int gameAffectedRows = pstmtGame.executeUpdate();
-
-                if (gameAffectedRows > 0) {
-                    dbconn.commit();  // Commit the transaction if game deletion is successful
-                    System.out.println("Game records deleted successfully.");
-                } else {
-                    System.out.println("No game found with ID: " + gid);
-                    dbconn.rollback();  // Rollback if the game does not exist or other issues
-                }
+            PreparedStatement pstmtGame = StatementCache.of(dbconn).prepare(sqlDeleteGame);
+            pstmtGame.setString(1, gid);
+            int gameAffectedRows = pstmtGame.executeUpdate();
+
+            if (gameAffectedRows > 0) {
+                Leaderboard.Change change = Leaderboard.removeGame(dbconn, gid);
+                dbconn.commit();  // Commit the transaction if game deletion is successful
+                Leaderboard.committed(change);  // Then drop it from the in-memory boards
+                GamePlayIngestor.forgetGame(gid);
+                System.out.println("Game records deleted successfully.");
+            } else {
+                System.out.println("No game found with ID: " + gid);
+                dbconn.rollback();  // Rollback if the game does not exist or other issues
             }
         } catch (SQLException e) {
             System.err.println("Error deleting game: " + e.getMessage());
@@ -620,6 +642,136 @@ public class Project {
         }
     }
 
+    /**
+     * Method Name: showArchiveProgress
+     * Purpose: Shows how far the background archival of each retired game has got.
+     * Pre-conditions: GameRetirement exists (see extensions.sql).
+     * Post-conditions: One line per retired game is printed.
+     * Parameters: None.
+     */
+    private static void showArchiveProgress() throws SQLException {
+        List<GameArchiver.Job> jobs = GameArchiver.jobs(dbconn);
+        if (jobs.isEmpty()) {
+            System.out.println("No games have been retired.");
+        }
+        for (GameArchiver.Job job : jobs) {
+            System.out.println(job);
+        }
+        if (archiver != null) {
+            System.out.println(archiver.summary());
+        }
+    }
+
+    /**
+     * Method Name: rollUpHistory
+     * Purpose: Runs the purchase history retention now instead of waiting for the daily run.
+     * Pre-conditions: The tables are partitioned and the roll-up tables exist (see extensions.sql).
+     * Post-conditions: Months past the retention period are rolled up and dropped; the outcome is printed.
+     * Parameters: None.
+     */
+    private static void rollUpHistory() throws SQLException {
+        System.out.println("Keeping " + PurchaseHistory.RETENTION_MONTHS + " months of detail, from " +
+                PurchaseHistory.cutoff() + ".");
+        System.out.println(PurchaseHistory.enforceRetention(dbconn));
+    }
+
+    /**
+     * Method Name: issueCoupons
+     * Purpose: Issues a run of coupons, one per member listed or a number of bearer coupons.
+     * Pre-conditions: The Coupon table has the columns added in extensions.sql.
+     * Post-conditions: The coupons are committed together; their codes are printed, or written to a file
+     *                  when there are more than 20.
+     * Parameters:
+     * - scanner (in): Scanner object for capturing the kind, amount, expiry and holders.
+     */
+    private static void issueCoupons(Scanner scanner) throws SQLException {
+        System.out.print("Coupon kind: 1. Percent off tokens  2. Tickets off a prize: ");
+        CouponEngine.Kind kind = "2".equals(scanner.nextLine().trim()) ? CouponEngine.Kind.PRIZE : CouponEngine.Kind.TOKENS;
+        System.out.print(kind == CouponEngine.Kind.TOKENS ? "Percent off (1-100): " : "Tickets off: ");
+        int amount = Integer.parseInt(scanner.nextLine().trim());
+        System.out.print("Valid for how many days (press enter for no expiry)? ");
+        String days = scanner.nextLine().trim();
+        LocalDate expiresOn = days.isEmpty() ? null : LocalDate.now().plusDays(Integer.parseInt(days));
+        System.out.print("Enter member IDs separated by commas, or a number of bearer coupons: ");
+        String input = scanner.nextLine().trim();
+        List<String> holders;
+        if (input.matches("\\d+")) {
+            holders = Collections.nCopies(Integer.parseInt(input), null);
+        } else {
+            holders = Arrays.asList(input.split("\\s*,\\s*"));
+        }
+
+        List<String> codes;
+        try {
+            codes = CouponEngine.issue(dbconn, kind, amount, expiresOn, holders);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        } catch (SQLException e) {
+            System.out.println("No coupons were issued: " + e.getMessage());
+            return;
+        }
+        if (codes.size() <= 20) {
+            for (int i = 0; i < codes.size(); i++) {
+                System.out.println(codes.get(i) + (holders.get(i) == null ? "" : "  " + holders.get(i)));
+            }
+            return;
+        }
+        Path file = Paths.get("coupons-" + System.currentTimeMillis() + ".txt");
+        List<String> lines = new ArrayList<>(codes.size());
+        for (int i = 0; i < codes.size(); i++) {
+            lines.add(holders.get(i) == null ? codes.get(i) : codes.get(i) + "," + holders.get(i));
+        }
+        try {
+            Files.write(file, lines);
+            System.out.println(codes.size() + " coupons issued, codes written to " + file.toAbsolutePath());
+        } catch (IOException e) {
+            System.out.println(codes.size() + " coupons issued, but the codes could not be written: " + e.getMessage());
+            lines.forEach(System.out::println);
+        }
+    }
+
+    // What to tell a customer whose coupon was turned away
+    private static String couponReason(CouponEngine.Outcome outcome) {
+        switch (outcome) {
+            case ALREADY_USED:
+                return "it has already been used.";
+            case EXPIRED:
+                return "it has expired.";
+            case WRONG_MEMBER:
+                return "it was issued to another member.";
+            case WRONG_KIND:
+                return "it cannot be used for this.";
+            default:
+                return "no such coupon.";
+        }
+    }
+
+    /**
+     * Method Name: recordGamePlay
+     * Purpose: Records one play by hand, through the same path the cabinets' ingestion pipeline uses.
+     * Pre-conditions: The game and member must exist.
+     * Post-conditions: The GamePlay row is added, tickets (score times the game's factor) are awarded and
+     *                  the leaderboard is updated.
+     * Parameters:
+     * - scanner (in): Scanner object for capturing the play from user input.
+     */
+    private static void recordGamePlay(Scanner scanner) throws SQLException {
+        System.out.print("Enter Game ID: ");
+        String gid = scanner.nextLine();
+        System.out.print("Enter Member ID: ");
+        String mid = scanner.nextLine();
+        System.out.print("Enter Score: ");
+        int score = Integer.parseInt(scanner.nextLine());
+
+        try {
+            GamePlayIngestor.write(dbconn, List.of(new GamePlayIngestor.PlayEvent(gid, mid, score, System.nanoTime())), ledger);
+            System.out.println("Game play recorded.");
+        } catch (SQLException e) {
+            System.out.println("Could not record game play: " + e.getMessage());
+        }
+    }
+
     /**
      * Method Name: redeemPrizes
      * Purpose: Facilitates the redemption of prizes for a member based on their available tickets.
@@ -633,12 +785,8 @@ public class Project {
         String MID = scanner.nextLine();
         try {
             // Fetch the total number of tickets the member has
-            String sql = "SELECT totalTickets FROM hamadayaz.Member WHERE MID = ?";
-            PreparedStatement pstmt = dbconn.prepareStatement(sql);
-            pstmt.setString(1, MID);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                int totalTickets = rs.getInt("totalTickets");
+            int totalTickets = ArcadeOperations.ticketsOf(dbconn, MID);
+            if (totalTickets >= 0) {
                 if (totalTickets > 0) {
                     System.out.println("\nYou have " + totalTickets + " tickets. Redeeming prizes...");
                     if (listAndRedeemPrizes(scanner, MID, totalTickets)) {
@@ -669,11 +817,7 @@ public class Project {
         String MID = scanner.nextLine();
 
         // Check if member exists in the database
-        String memberCheckSql = "SELECT * FROM hamadayaz.Member WHERE MID = ?";
-        PreparedStatement checkStmt = dbconn.prepareStatement(memberCheckSql);
-        checkStmt.setString(1, MID);
-        ResultSet checkRs = checkStmt.executeQuery();
-        if (!checkRs.next()) {
+        if (!ArcadeOperations.memberExists(dbconn, MID)) {
             System.out.println("Member ID not found.");
             return; // Exit if member does not exist
         }
@@ -681,65 +825,22 @@ public class Project {
         System.out.print("Enter amount to spend on tokens ($): ");
         double amountSpent = scanner.nextDouble();
         scanner.nextLine();
+        System.out.print("Coupon code (press enter for none): ");
+        String coupon = scanner.nextLine().trim();
 
-        // Retrieve member details
-        double currentSpent = checkRs.getDouble("totalSpent");
-        int currentTickets = checkRs.getInt("totalTickets");
-        String currentTier = checkRs.getString("tier");
-
-        // Calculate discount based on tier
-        double discount = 0.0;
-        if ("Diamond".equals(currentTier)) {
-            discount = 0.20; // 20% discount for Diamond members
-        } else if ("Gold".equals(currentTier)) {
-            discount = 0.10; // 10% discount for Gold members
-        }
-
-        double discountedAmount = amountSpent * (1 - discount); // Actual money spent after discount
-        double amountSaved = amountSpent - discountedAmount; // Amount saved due to discount
-        int tokensPurchased = (int) (amountSpent * 5); // 5 tokens per dollar of the amount spent, not the discounted amount
-
-        // Update total spent to include only the discounted amount
-        double newTotalSpent = currentSpent + discountedAmount;
-        // To assign membership
-        double preDiscountSpent = currentSpent + amountSpent;
-
-        // Calculate bonus tickets for tier upgrades
-        int bonusTickets = 0;
-        String newTier = currentTier;
-        if (preDiscountSpent >= 500 && !"Diamond".equals(currentTier) && !"Gold".equals(currentTier)) {
-            newTier = "Diamond";
-            bonusTickets = 15000; // Bonus for upgrading to Diamond
-        }
-        else if (preDiscountSpent >= 500 && "Gold".equals(currentTier)) {
-            newTier = "Diamond";
-            bonusTickets = 10000; // Bonus for upgrading to Diamond
-        }
-        else if (preDiscountSpent >= 250 && !"Gold".equals(currentTier) && !"Diamond".equals(currentTier)) {
-            newTier = "Gold";
-            bonusTickets = 5000; // Bonus for upgrading to Gold
-        }
-
-        // Update member records with new totals, tickets, and tier
-        String updateSql = "UPDATE hamadayaz.Member SET totalSpent = ?, totalTickets = ?, tier = ? WHERE MID = ?";
-        PreparedStatement updateStmt = dbconn.prepareStatement(updateSql);
-        updateStmt.setDouble(1, newTotalSpent);
-        updateStmt.setInt(2, currentTickets + bonusTickets);
-        updateStmt.setString(3, newTier);
-        updateStmt.setString(4, MID);
-        updateStmt.executeUpdate();
-
-        // Record the token purchase transaction
-        String purchaseSql = "INSERT INTO hamadayaz.TokenPurchase (PID, MID, tokenNo, purchaseDate, amountSpent) VALUES (seq_token_purchase.nextval, ?, ?, CURRENT_DATE, ?)";
-        PreparedStatement purchaseStmt = dbconn.prepareStatement(purchaseSql);
-        purchaseStmt.setString(1, MID);
-        purchaseStmt.setInt(2, tokensPurchased);
-        purchaseStmt.setDouble(3, discountedAmount);
-        purchaseStmt.executeUpdate();
-
-        dbconn.commit();
-
-        System.out.println(tokensPurchased + " tokens purchased successfully. Total spent: $" + discountedAmount + " (You saved: $" + amountSaved + " with a " + (int)(discount * 100) + "% discount), Tickets awarded: " + bonusTickets + ", Tier: " + newTier);
+        ArcadeOperations.Purchase p;
+        try {
+            p = ArcadeOperations.buyTokens(dbconn, ledger, MID, amountSpent, coupon.isEmpty() ? null : coupon);
+        } catch (CouponEngine.Rejected e) {
+            System.out.println("Coupon not accepted: " + couponReason(e.outcome) + " No tokens were purchased.");
+            return;
+        }
+        if (p == null) {
+            System.out.println("Member ID not found.");
+            return;
+        }
+        System.out.printf("%d tokens purchased successfully. Total spent: $%s (You saved: $%s with a %d%% discount), Tickets awarded: %d, Tier: %s%n",
+                p.tokens(), p.charged(), p.saved(), p.discountPercent(), p.bonusTickets(), p.tier());
     }
 
     /**
@@ -755,23 +856,21 @@ public class Project {
         System.out.print("Enter Prize ID: ");
         String prizeID = scanner.nextLine();
 
-        String sqlSelect = "SELECT * FROM hamadayaz.Prize WHERE prizeID = ?";
-        PreparedStatement selectStmt = dbconn.prepareStatement(sqlSelect);
-        selectStmt.setString(1, prizeID);
-        ResultSet rs = selectStmt.executeQuery();
+        Optional<ArcadeStore.Prize> existing;
+        try {
+            existing = store.prizes().find(prizeID);
+        } catch (ArcadeStore.StoreException e) {
+            throw e.asSQLException();
+        }
 
         // if prize already exists then update inventory
-        if (rs.next()) {
+        if (existing.isPresent()) {
             System.out.print("Prize already exists. Enter additional inventory to add: ");
             int additionalInventory = scanner.nextInt();
             scanner.nextLine();
 
-            int newInventory = rs.getInt("inventoryCount") + additionalInventory;
-            String sqlUpdate = "UPDATE hamadayaz.Prize SET inventoryCount = ? WHERE prizeID = ?";
-            PreparedStatement updateStmt = dbconn.prepareStatement(sqlUpdate);
-            updateStmt.setInt(1, newInventory);
-            updateStmt.setString(2, prizeID);
-            updateStmt.executeUpdate();
+            ArcadeStore.Prize prize = existing.get();
+            ArcadeOperations.addPrize(store, prizeID, prize.description(), prize.ticketCost(), additionalInventory);
             System.out.println("Updated inventory for prize ID: " + prizeID);
         } else {
             System.out.print("Enter Description: ");
@@ -783,16 +882,9 @@ public class Project {
             scanner.nextLine();
 
             // insert prize
-            String sqlInsert = "INSERT INTO hamadayaz.Prize (prizeID, description, ticketCost, inventoryCount) VALUES (?, ?, ?, ?)";
-            PreparedStatement insertStmt = dbconn.prepareStatement(sqlInsert);
-            insertStmt.setString(1, prizeID);
-            insertStmt.setString(2, description);
-            insertStmt.setInt(3, ticketCost);
-            insertStmt.setInt(4, inventoryCount);
-            insertStmt.executeUpdate();
+            ArcadeOperations.addPrize(store, prizeID, description, ticketCost, inventoryCount);
             System.out.println("New prize added.");
         }
-        dbconn.commit();
     }
 
     /**
@@ -808,25 +900,102 @@ public class Project {
         System.out.print("Enter Prize ID to delete: ");
         String prizeID = scanner.nextLine();
 
-        // Delete Prize Redemption records first
-        String deleteRedemptionsSql = "DELETE FROM hamadayaz.PrizeRedemption WHERE PrizeID = ?";
-        PreparedStatement deleteRedemptionsStmt = dbconn.prepareStatement(deleteRedemptionsSql);
-        deleteRedemptionsStmt.setString(1, prizeID);
-        deleteRedemptionsStmt.executeUpdate();
-
-        // Now delete the prize
-        String deletePrizeSql = "DELETE FROM hamadayaz.Prize WHERE prizeID = ?";
-        PreparedStatement deletePrizeStmt = dbconn.prepareStatement(deletePrizeSql);
-        deletePrizeStmt.setString(1, prizeID);
-        int prizeRowsAffected = deletePrizeStmt.executeUpdate();
-
-        if (prizeRowsAffected > 0) {
+        // Prize Redemption records go first, then the prize
+        if (ArcadeOperations.deletePrize(store, prizeID)) {
             System.out.println("Prize deleted successfully.");
         } else {
             System.out.println("No prize found with ID: " + prizeID);
         }
+    }
 
-        dbconn.commit();
+    /**
+     * Method Name: purgeMembers
+     * Purpose: Deletes a list of members, or every dormant member, through MemberPurge.
+     * Pre-conditions: MemberPurgeLog exists (see extensions.sql).
+     * Post-conditions: The members are purged in batches, each committed on its own; a summary is printed.
+     * Parameters:
+     * - scanner (in): Scanner object for reading the members and the ticket policy.
+     */
+    private static void purgeMembers(Scanner scanner) throws SQLException {
+        System.out.print("Enter member IDs separated by commas, or 'dormant' for members with no purchases or redemptions lately: ");
+        String input = scanner.nextLine().trim();
+        List<String> mids;
+        if ("dormant".equalsIgnoreCase(input)) {
+            System.out.print("Inactive for how many months? ");
+            int months = Integer.parseInt(scanner.nextLine().trim());
+            mids = MemberPurge.dormantMembers(dbconn, months);
+            System.out.print(mids.size() + " dormant members found. Purge them? (y/n): ");
+            if (!"y".equalsIgnoreCase(scanner.nextLine().trim())) {
+                return;
+            }
+        } else {
+            mids = Arrays.asList(input.split("\\s*,\\s*"));
+        }
+        System.out.print("Forfeit the tickets of members with more than " + ArcadeOperations.DELETE_TICKET_LIMIT +
+                " tickets (y), or skip them (n)? ");
+        MemberPurge.TicketPolicy policy = "y".equalsIgnoreCase(scanner.nextLine().trim())
+                ? MemberPurge.TicketPolicy.FORCE_SETTLE : MemberPurge.TicketPolicy.SKIP;
+        try {
+            System.out.println(MemberPurge.purge(dbconn, ledger, mids, policy));
+        } catch (SQLException e) {
+            System.out.println("Purge stopped, batches before the failing one were committed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method Name: bulkImport
+     * Purpose: Loads members, games or prizes from a CSV file in batched, chunked transactions.
+     * Pre-conditions: The file exists and has the columns listed in the prompt.
+     * Post-conditions: Valid rows are committed; throughput and rejected rows are reported.
+     * Parameters:
+     * - scanner (in): Scanner object for capturing the import type and file path.
+     */
+    private static void bulkImport(Scanner scanner) throws SQLException {
+        System.out.println("1. Members (" + String.join(",", BulkImport.Kind.MEMBERS.columns) + ")");
+        System.out.println("2. Games (" + String.join(",", BulkImport.Kind.GAMES.columns) + ")");
+        System.out.println("3. Prizes (" + String.join(",", BulkImport.Kind.PRIZES.columns) + ")");
+        System.out.print("Choose what to import: ");
+        int choice = Integer.parseInt(scanner.nextLine());
+        if (choice < 1 || choice > 3) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        BulkImport.Kind kind = BulkImport.Kind.values()[choice - 1];
+        System.out.print("Enter CSV file path: ");
+        String path = scanner.nextLine();
+
+        try {
+            BulkImport.Report report = BulkImport.importFile(dbconn, kind, Paths.get(path),
+                    Integer.getInteger("arcade.import.chunkSize", 1000));
+            if (kind == BulkImport.Kind.PRIZES) {
+                PrizeCatalog.invalidate();
+            }
+            System.out.println(report);
+        } catch (IOException e) {
+            System.out.println("Could not read " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method Name: showSpendByMonth
+     * Purpose: Prints a member's token spend per month over the last so many months.
+     * Pre-conditions: With arcade.history on, the roll-up tables exist (see extensions.sql).
+     * Post-conditions: One line per month with purchases is printed; months past the retention period
+     *                  come from their roll-ups.
+     * Parameters:
+     * - scanner (in): Scanner object for reading the member and the number of months.
+     */
+    private static void showSpendByMonth(Scanner scanner) throws SQLException {
+        System.out.print("Enter Member ID: ");
+        String MID = scanner.nextLine().trim();
+        System.out.print("How many months back? ");
+        int months = Math.max(1, Integer.parseInt(scanner.nextLine().trim()));
+        YearMonth to = YearMonth.now();
+        SortedMap<YearMonth, Long> spend = PurchaseHistory.spendByMonth(dbconn, MID, to.minusMonths(months - 1), to);
+        if (spend.isEmpty()) {
+            System.out.println("No token purchases by " + MID + " in that period.");
+        }
+        spend.forEach((month, cents) -> System.out.printf("%s  $%d.%02d%n", month, cents / 100, cents % 100));
     }
 
     /**
@@ -845,6 +1014,13 @@ public class Project {
             System.out.println("2. Members who spent $100 on tokens this month");
             System.out.println("3. Prizes a member can redeem");
             System.out.println("4. Highest game score by a member");
+            System.out.println("5. Page through games and high scores");
+            System.out.println("6. Page through members who spent $100 this month");
+            System.out.println("7. Export report 1 or 2 to a CSV/JSON file");
+            System.out.println("8. Rebuild the high score leaderboard from GamePlay");
+            System.out.println("9. Backfill monthly spend aggregates from TokenPurchase");
+            System.out.println("10. Run the dashboard (all reports at once)");
+            System.out.println("11. A member's token spend by month");
             System.out.print("Enter your choice: ");
             int choice = Integer.parseInt(scanner.nextLine());
 
@@ -853,7 +1029,7 @@ public class Project {
                     System.out.println("Returning to main menu...");
                     return;  // Exits the current method.
                 case 1:
-                    Queries.query1(dbconn);
+                    Queries.query1(store, dbconn);
                     break;
                 case 2:
                     Queries.query2(dbconn);
@@ -861,12 +1037,68 @@ public class Project {
                 case 3:
                     System.out.print("Enter Member ID: ");
                     String MID = scanner.nextLine();
-                    Queries.query3(MID, dbconn);
+                    Queries.query3(MID, store, dbconn);
                     break;
                 case 4:
-                    System.out.print("Enter Member ID: ");
+                    System.out.print("Enter Member ID (or several, comma separated): ");
                     String memberID = scanner.nextLine();
-                    Queries.query4(memberID, dbconn);
+                    if (memberID.contains(",")) {
+                        Queries.query4Batch(Arrays.asList(memberID.split("\\s*,\\s*")), store, dbconn);
+                    } else {
+                        Queries.query4(memberID, store, dbconn);
+                    }
+                    break;
+                case 5:
+                    Queries.browseQuery1(dbconn, scanner);
+                    break;
+                case 6:
+                    Queries.browseQuery2(dbconn, scanner);
+                    break;
+                case 7:
+                    System.out.print("Report to export (1 or 2): ");
+                    int report = Integer.parseInt(scanner.nextLine());
+                    System.out.print("Format (csv or json): ");
+                    ResultStreamer.Format format = ResultStreamer.Format.valueOf(scanner.nextLine().trim().toUpperCase());
+                    System.out.print("Output file: ");
+                    Queries.exportReport(report, dbconn, Paths.get(scanner.nextLine()), format);
+                    break;
+                case 8:
+                    try {
+                        Leaderboard.rebuild(dbconn);
+                        System.out.println("Leaderboard rebuilt; reports 1 and 4 are now served from memory.");
+                    } catch (SQLException e) {
+                        System.out.println("Rebuild failed: " + e.getMessage());
+                    }
+                    break;
+                case 9:
+                    try {
+                        SpendAggregates.backfill(dbconn);
+                        System.out.println("Spend aggregates rebuilt; report 2 is now served from daily buckets.");
+                    } catch (SQLException e) {
+                        System.out.println("Backfill failed: " + e.getMessage());
+                    }
+                    break;
+                case 10:
+                    System.out.print("Member IDs for reports 3 and 4 (comma separated, blank for none): ");
+                    List<String> mids = new ArrayList<>();
+                    for (String mid : scanner.nextLine().split(",")) {
+                        if (!mid.isBlank()) {
+                            mids.add(mid.trim());
+                        }
+                    }
+                    try {
+                        Dashboard.print(Dashboard.run(pool, mids));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        System.out.println("Dashboard interrupted.");
+                    }
+                    break;
+                case 11:
+                    try {
+                        showSpendByMonth(scanner);
+                    } catch (SQLException e) {
+                        System.out.println("Report failed: " + e.getMessage());
+                    }
                     break;
                 default:
                     System.out.println("Invalid choice. Please select a valid option.");
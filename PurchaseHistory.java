@@ -0,0 +1,288 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: PurchaseHistory.java keeps the TokenPurchase and PrizeRedemption tables from growing
+ * forever. Both are partitioned by month (see extensions.sql); months older than the retention period
+ * are rolled up into per-member monthly totals and their partitions dropped, so the hot tables, and
+ * the date-range reports that read them, stay the same size as the years go by.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class Name: PurchaseHistory
+ * External Packages: java.sql, java.time
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Enabled with -Darcade.history=true after the partitioning and roll-up statements in
+ * extensions.sql have been run. The tables are interval partitioned by month on purchaseDate and
+ * xactDate, so a report with a date predicate (query 2's last month, spendByMonth's range) reads only
+ * the partitions in its range. The current month and the arcade.history.retentionMonths - 1 before it
+ * (default 13 in total, never fewer than 2 so query 2 always has its detail rows) are kept in full.
+ *
+ * enforceRetention() handles every older month, oldest first:
+ *   1. MERGE the month's purchases into MemberMonthlySpend and its redemptions into
+ *      MemberMonthlyRedemption, replacing any earlier roll-up of that month, and commit.
+ *   2. Drop the month's partition (DROP PARTITION FOR, which needs no partition names). Rows in the
+ *      table's first, non-interval partition cannot be dropped by month and are deleted instead.
+ * A crash between the two steps is harmless: the next run rolls the month up again with the same
+ * result and then drops it. startRetention() runs it once a day in the background.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * enforceRetention(Connection conn): Rolls up and drops the months past the retention period.
+ * spendByMonth(Connection conn, String MID, YearMonth from, YearMonth to): A member's spend per month, from either layer.
+ * removeMembers(Connection conn, List<String> mids): Drops deleted members' monthly totals.
+ * startRetention(ConnectionPool pool): Runs enforceRetention daily on a daemon thread.
+ */
+public class PurchaseHistory {
+
+    public static final boolean ENABLED = Boolean.getBoolean("arcade.history");
+    public static final int RETENTION_MONTHS = Math.max(2, Integer.getInteger("arcade.history.retentionMonths", 13));
+
+    private static final int ORA_LAST_RANGE_PARTITION = 14758; // the first partition of an interval table cannot be dropped
+
+    /**
+     * One partitioned history table and how its months are rolled up.
+     */
+    private record Table(String name, String dateColumn, String rollUp) {
+    }
+
+    private static final Table PURCHASES = new Table("TokenPurchase", "purchaseDate",
+            "MERGE INTO hamadayaz.MemberMonthlySpend s " +
+            "USING (SELECT MID, COUNT(*) AS purchases, SUM(tokenNo) AS tokens, SUM(amountSpent) AS amount " +
+            "       FROM hamadayaz.TokenPurchase WHERE purchaseDate >= ? AND purchaseDate < ? GROUP BY MID) m " +
+            "ON (s.MID = m.MID AND s.month = ?) " +
+            "WHEN MATCHED THEN UPDATE SET s.purchases = m.purchases, s.tokens = m.tokens, s.amount = m.amount " +
+            "WHEN NOT MATCHED THEN INSERT (MID, month, purchases, tokens, amount) " +
+            "VALUES (m.MID, ?, m.purchases, m.tokens, m.amount)");
+    private static final Table REDEMPTIONS = new Table("PrizeRedemption", "xactDate",
+            "MERGE INTO hamadayaz.MemberMonthlyRedemption s " +
+            "USING (SELECT MID, PrizeID, COUNT(*) AS redemptions " +
+            "       FROM hamadayaz.PrizeRedemption WHERE xactDate >= ? AND xactDate < ? GROUP BY MID, PrizeID) m " +
+            "ON (s.MID = m.MID AND s.PrizeID = m.PrizeID AND s.month = ?) " +
+            "WHEN MATCHED THEN UPDATE SET s.redemptions = m.redemptions " +
+            "WHEN NOT MATCHED THEN INSERT (MID, PrizeID, month, redemptions) VALUES (m.MID, m.PrizeID, ?, m.redemptions)");
+
+    private static final String ROLLED_UP_SPEND =
+            "SELECT month, amount FROM hamadayaz.MemberMonthlySpend WHERE MID = ? AND month >= ? AND month < ?";
+    private static final String DETAIL_SPEND =
+            "SELECT TRUNC(purchaseDate, 'MM') AS month, SUM(amountSpent) AS amount FROM hamadayaz.TokenPurchase " +
+            "WHERE MID = ? AND purchaseDate >= ? AND purchaseDate < ? GROUP BY TRUNC(purchaseDate, 'MM')";
+    private static final String[] DELETE_MEMBERS = {
+            "DELETE FROM hamadayaz.MemberMonthlySpend WHERE MID IN (%s)",
+            "DELETE FROM hamadayaz.MemberMonthlyRedemption WHERE MID IN (%s)",
+    };
+
+    private static ScheduledExecutorService scheduler;
+
+    /**
+     * What one retention run did.
+     */
+    public record Report(int monthsRolledUp, long rowsRolledUp, int partitionsDropped, long rowsDeleted, long nanos) {
+
+        @Override
+        public String toString() {
+            return String.format("history monthsRolledUp=%d rowsRolledUp=%d partitionsDropped=%d rowsDeleted=%d took=%.1fms",
+                    monthsRolledUp, rowsRolledUp, partitionsDropped, rowsDeleted, nanos / 1e6);
+        }
+    }
+
+    /**
+     * Method Name: cutoff
+     * Purpose: First day of the oldest month that is kept in full.
+     * Pre-conditions: None.
+     * Post-conditions: Rows dated before it are rolled up and dropped by enforceRetention.
+     * Parameters: None.
+     */
+    public static LocalDate cutoff() {
+        return YearMonth.now().minusMonths(RETENTION_MONTHS - 1).atDay(1);
+    }
+
+    /**
+     * Method Name: enforceRetention
+     * Purpose: Rolls up every month older than the retention period and drops its partitions.
+     * Pre-conditions: conn has auto-commit off and no uncommitted work; the tables are partitioned by month.
+     * Post-conditions: No purchase or redemption older than cutoff() remains; their totals are in the
+     *                  monthly roll-up tables.
+     * Parameters:
+     * - conn (in): Connection to work on.
+     */
+    public static Report enforceRetention(Connection conn) throws SQLException {
+        long start = System.nanoTime();
+        long[] totals = Metrics.time("historyRetention", () -> {
+            long[] t = new long[4]; // months, rows rolled up, partitions dropped, rows deleted
+            for (Table table : new Table[] { PURCHASES, REDEMPTIONS }) {
+                enforce(conn, table, cutoff(), t);
+            }
+            return t;
+        });
+        return new Report((int) totals[0], totals[1], (int) totals[2], totals[3], System.nanoTime() - start);
+    }
+
+    private static void enforce(Connection conn, Table table, LocalDate cutoff, long[] totals) throws SQLException {
+        LocalDate oldest;
+        PreparedStatement min = StatementCache.of(conn).prepare(
+                "SELECT MIN(" + table.dateColumn() + ") FROM hamadayaz." + table.name() + " WHERE " + table.dateColumn() + " < ?");
+        min.setDate(1, java.sql.Date.valueOf(cutoff));
+        try (ResultSet rs = min.executeQuery()) {
+            java.sql.Date d = rs.next() ? rs.getDate(1) : null;
+            if (d == null) {
+                return; // nothing past retention
+            }
+            oldest = d.toLocalDate().withDayOfMonth(1);
+        }
+        for (LocalDate month = oldest; month.isBefore(cutoff); month = month.plusMonths(1)) {
+            long rows = rollUp(conn, table, month);
+            totals[0]++;
+            totals[1] += rows;
+            if (rows > 0) {
+                drop(conn, table, month, totals);
+            }
+        }
+    }
+
+    // Step 1: replace the month's totals; committed before anything is dropped
+    private static long rollUp(Connection conn, Table table, LocalDate month) throws SQLException {
+        try {
+            PreparedStatement merge = StatementCache.of(conn).prepare(table.rollUp());
+            java.sql.Date first = java.sql.Date.valueOf(month);
+            merge.setDate(1, first);
+            merge.setDate(2, java.sql.Date.valueOf(month.plusMonths(1)));
+            merge.setDate(3, first);
+            merge.setDate(4, first);
+            long rows = merge.executeUpdate();
+            conn.commit();
+            return rows;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+
+    // Step 2: drop the month's partition, or delete its rows if they sit in the first range partition
+    private static void drop(Connection conn, Table table, LocalDate month, long[] totals) throws SQLException {
+        try (Statement ddl = conn.createStatement()) { // DDL takes no bind variables; the date is ours, not user input
+            ddl.execute("ALTER TABLE hamadayaz." + table.name() + " DROP PARTITION FOR (DATE '" + month +
+                    "') UPDATE GLOBAL INDEXES");
+            totals[2]++;
+        } catch (SQLException e) {
+            if (e.getErrorCode() != ORA_LAST_RANGE_PARTITION) {
+                throw e;
+            }
+            try (PreparedStatement delete = conn.prepareStatement("DELETE FROM hamadayaz." + table.name() +
+                    " WHERE " + table.dateColumn() + " >= ? AND " + table.dateColumn() + " < ?")) {
+                delete.setDate(1, java.sql.Date.valueOf(month));
+                delete.setDate(2, java.sql.Date.valueOf(month.plusMonths(1)));
+                totals[3] += delete.executeUpdate();
+                conn.commit();
+            } catch (SQLException deleteError) {
+                conn.rollback();
+                throw deleteError;
+            }
+        }
+    }
+
+    /**
+     * Method Name: spendByMonth
+     * Purpose: Totals a member's token spend per month over a range that may reach past the retention period.
+     * Pre-conditions: from is not after to.
+     * Post-conditions: Returns cents per month in order; months without purchases are left out. Months
+     *                  before cutoff() come from MemberMonthlySpend, later ones from the pruned TokenPurchase partitions.
+     *                  With history off every month comes from TokenPurchase.
+     * Parameters:
+     * - conn (in): Connection to read with.
+     * - MID (in): Member ID.
+     * - from, to (in): First and last month, inclusive.
+     */
+    public static SortedMap<YearMonth, Long> spendByMonth(Connection conn, String MID, YearMonth from, YearMonth to) throws SQLException {
+        SortedMap<YearMonth, Long> cents = new TreeMap<>();
+        java.sql.Date start = java.sql.Date.valueOf(from.atDay(1));
+        java.sql.Date end = java.sql.Date.valueOf(to.plusMonths(1).atDay(1));
+        java.sql.Date cutoff = java.sql.Date.valueOf(cutoff());
+
+        if (ENABLED && start.before(cutoff)) {
+            PreparedStatement rolled = StatementCache.of(conn).prepare(ROLLED_UP_SPEND);
+            rolled.setString(1, MID);
+            rolled.setDate(2, start);
+            rolled.setDate(3, end.before(cutoff) ? end : cutoff);
+            try (ResultSet rs = rolled.executeQuery()) {
+                while (rs.next()) {
+                    cents.put(YearMonth.from(rs.getDate("month").toLocalDate()), Math.round(rs.getDouble("amount") * 100));
+                }
+            }
+        }
+        PreparedStatement detail = StatementCache.of(conn).prepare(DETAIL_SPEND);
+        detail.setString(1, MID);
+        detail.setDate(2, start);
+        detail.setDate(3, end);
+        try (ResultSet rs = detail.executeQuery()) {
+            while (rs.next()) { // a month not dropped yet is still in detail, which wins over its roll-up
+                cents.put(YearMonth.from(rs.getDate("month").toLocalDate()), Math.round(rs.getDouble("amount") * 100));
+            }
+        }
+        return cents;
+    }
+
+    /**
+     * Method Name: removeMembers
+     * Purpose: Drops deleted members' monthly totals.
+     * Pre-conditions: Called in the members' delete transaction; at most 1000 members.
+     * Post-conditions: Their roll-up rows are deleted in the caller's transaction; nothing happens when history is off.
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - mids (in): Member IDs.
+     */
+    public static void removeMembers(Connection conn, List<String> mids) throws SQLException {
+        if (!ENABLED || mids.isEmpty()) {
+            return;
+        }
+        for (String sql : DELETE_MEMBERS) {
+            MemberPurge.prepareIn(conn, sql, mids).executeUpdate();
+        }
+    }
+
+    /**
+     * Method Name: startRetention
+     * Purpose: Runs enforceRetention a minute after startup and then once a day.
+     * Pre-conditions: ENABLED is true.
+     * Post-conditions: A daemon thread is running; calling it again does nothing.
+     * Parameters:
+     * - pool (in): Pool the thread borrows a connection from for each run.
+     */
+    public static synchronized void startRetention(ConnectionPool pool) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "history-retention");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            Connection conn = null;
+            try {
+                conn = pool.borrow();
+                Report report = enforceRetention(conn);
+                if (report.monthsRolledUp() > 0) {
+                    System.err.println(report);
+                }
+            } catch (SQLException e) {
+                System.err.println("Purchase history retention failed, retrying tomorrow: " + e.getMessage());
+            } finally {
+                pool.release(conn);
+            }
+        }, 1, TimeUnit.DAYS.toMinutes(1), TimeUnit.MINUTES);
+    }
+}
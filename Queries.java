@@ -7,53 +7,225 @@
    Requirements: A valid Oracle connection is required with permissions to select on the required tables
 */
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.*;
 
 public class Queries {
 
+	// Query to get the games and the highest scores on each of them
+	static final String QUERY1_SQL = "SELECT g.name AS GameName, gp.score AS HighScore, m.name AS MemberName " +
+			"FROM " + GameArchiver.GAMES + " g " +
+			"LEFT JOIN (" +
+			"    SELECT gp.GID, MAX(gp.score) AS score " +
+			"    FROM hamadayaz.GamePlay gp " +
+			"    GROUP BY gp.GID" +
+			") max_scores ON g.GID = max_scores.GID " +
+			"LEFT JOIN hamadayaz.GamePlay gp ON g.GID = gp.GID AND gp.score = max_scores.score " +
+			"LEFT JOIN hamadayaz.Member m ON gp.MID = m.MID " +
+			"ORDER BY g.GID";
+
+	// The same report one page of games at a time, keyed on GID (see ResultStreamer.page)
+	private static final String QUERY1_PAGE_SQL = "SELECT g.GID, g.name AS GameName, gp.score AS HighScore, m.name AS MemberName " +
+			"FROM (SELECT GID, name FROM " + GameArchiver.GAMES + " WHERE (? IS NULL OR GID > ?) ORDER BY GID FETCH FIRST ? ROWS ONLY) g " +
+			"LEFT JOIN (" +
+			"    SELECT gp.GID, MAX(gp.score) AS score " +
+			"    FROM hamadayaz.GamePlay gp " +
+			"    GROUP BY gp.GID" +
+			") max_scores ON g.GID = max_scores.GID " +
+			"LEFT JOIN hamadayaz.GamePlay gp ON g.GID = gp.GID AND gp.score = max_scores.score " +
+			"LEFT JOIN hamadayaz.Member m ON gp.MID = m.MID " +
+			"ORDER BY g.GID";
+	private static final String QUERY1_COUNT_SQL = "SELECT COUNT(*) FROM " + GameArchiver.GAMES;
+
+	// The query to get member names and tiers based on how much they spent in the past month
+	static final String QUERY2_SQL = "SELECT m.name, m.tier, SUM(tp.amountSpent) AS TotalSpent " +
+			"FROM hamadayaz.Member m " +
+			"JOIN hamadayaz.TokenPurchase tp ON m.MID = tp.MID " +
+			"WHERE tp.purchaseDate >= ADD_MONTHS(CURRENT_DATE, -1) " +
+			"GROUP BY m.name, m.tier " +
+			"HAVING SUM(tp.amountSpent) >= 100";
+
+	// Paged version, grouped per member so that MID can be the page key
+	private static final String QUERY2_PAGE_SQL = "SELECT m.MID, m.name, m.tier, SUM(tp.amountSpent) AS TotalSpent " +
+			"FROM hamadayaz.Member m " +
+			"JOIN hamadayaz.TokenPurchase tp ON m.MID = tp.MID " +
+			"WHERE tp.purchaseDate >= ADD_MONTHS(CURRENT_DATE, -1) AND (? IS NULL OR m.MID > ?) " +
+			"GROUP BY m.MID, m.name, m.tier " +
+			"HAVING SUM(tp.amountSpent) >= 100 " +
+			"ORDER BY m.MID FETCH FIRST ? ROWS ONLY";
+	// The game a member has their highest score on, with the member's name: one top-1 lookup on GamePlay(MID, score)
+	private static final String QUERY4_SQL = "SELECT m.name AS MemberName, g.name AS GameName, gp.score " +
+			"FROM hamadayaz.GamePlay gp " +
+			"JOIN " + GameArchiver.GAMES + " g ON gp.GID = g.GID " +
+			"JOIN hamadayaz.Member m ON gp.MID = m.MID " +
+			"WHERE gp.MID = ? ORDER BY gp.score DESC, gp.GID FETCH FIRST 1 ROWS ONLY";
+
+	// The same for a list of members at once; %s is replaced by the IN list markers
+	private static final String QUERY4_BATCH_SQL = "SELECT b.MID, m.name AS MemberName, b.GameName, b.score " +
+			"FROM (SELECT gp.MID, g.name AS GameName, gp.score, " +
+			"             ROW_NUMBER() OVER (PARTITION BY gp.MID ORDER BY gp.score DESC, gp.GID) AS rn " +
+			"      FROM hamadayaz.GamePlay gp JOIN " + GameArchiver.GAMES + " g ON gp.GID = g.GID " +
+			"      WHERE gp.MID IN (%s)) b " +
+			"JOIN hamadayaz.Member m ON b.MID = m.MID " +
+			"WHERE b.rn = 1";
+
+	// Oracle allows at most 1000 expressions in an IN list
+	private static final int IN_LIST_SIZE = 1000;
+
+	private static final String QUERY2_COUNT_SQL = "SELECT COUNT(*) FROM (" +
+			"SELECT tp.MID FROM hamadayaz.TokenPurchase tp " +
+			"WHERE tp.purchaseDate >= ADD_MONTHS(CURRENT_DATE, -1) " +
+			"GROUP BY tp.MID HAVING SUM(tp.amountSpent) >= 100)";
+
+	/* The results of queries 1 to 4. They are immutable and hold no JDBC objects, so they can be kept,
+	 * shared between threads, and rendered by QueryFormatter as text or JSON. The two list reports keep
+	 * their columns in parallel arrays instead of one object per row.
+	 */
+
+	// The high score report: one entry per game (more if members tie for it), in GID order
+	public static final class HighScores {
+		public static final int NO_SCORE = Integer.MIN_VALUE; // score of a game nobody has played yet
+
+		private final String[] gameNames;
+		private final String[] memberNames;
+		private final int[] scores;
+
+		HighScores(List<String> gameNames, List<String> memberNames, int[] scores, int size) {
+			this.gameNames = gameNames.toArray(new String[0]);
+			this.memberNames = memberNames.toArray(new String[0]);
+			this.scores = Arrays.copyOf(scores, size);
+		}
+
+		public int size() { return scores.length; }
+		public String gameName(int i) { return gameNames[i]; }
+		public String memberName(int i) { return memberNames[i]; }
+		public int score(int i) { return scores[i]; }
+		public boolean played(int i) { return scores[i] != NO_SCORE; }
+	}
+
+	// The members (grouped by name and tier) who spent $100 or more in the past month
+	public static final class Spenders {
+		private final String[] names;
+		private final String[] tiers;
+		private final long[] cents;
+
+		Spenders(List<String> names, List<String> tiers, long[] cents, int size) {
+			this.names = names.toArray(new String[0]);
+			this.tiers = tiers.toArray(new String[0]);
+			this.cents = Arrays.copyOf(cents, size);
+		}
+
+		public int size() { return cents.length; }
+		public String name(int i) { return names[i]; }
+		public String tier(int i) { return tiers[i]; }
+		public long totalSpentCents(int i) { return cents[i]; }
+	}
+
+	// The prizes a member can afford; found is false if there is no such member
+	public record AffordablePrizes(String MID, boolean found, int tickets, List<String> descriptions) {
+		public AffordablePrizes {
+			descriptions = List.copyOf(descriptions);
+		}
+	}
+
+	// A member's highest score and the game it was on
+	public record BestScore(String MID, String memberName, String gameName, int score) {
+	}
+
 	/* Name: query1
 	 *  Purpose: Executes the first query, which gets all the games in the arcade and those who have the highest score on each
 	 *  Preconditions: A valid Oracle connection is created and the tables are set up as expected
 	 *  Postconditions: The query is executed successfully
-	 *  Parameters: dbconn - The connection to Oracle.
+	 *  Parameters: store - The store arcade.store selects
+	 *              dbconn - The connection to Oracle.
 	 */
 
-	public static void query1(Connection dbconn) {
-		try (Statement stmt = dbconn.createStatement()) {
-			String query = "SELECT g.name AS GameName, gp.score AS HighScore, m.name AS MemberName " +
-					"FROM hamadayaz.Game g " +
-					"LEFT JOIN (" +
-					"    SELECT gp.GID, MAX(gp.score) AS score " +
-					"    FROM hamadayaz.GamePlay gp " +
-					"    GROUP BY gp.GID" +
-					") max_scores ON g.GID = max_scores.GID " +
-					"LEFT JOIN hamadayaz.GamePlay gp ON g.GID = gp.GID AND gp.score = max_scores.score " +
-					"LEFT JOIN hamadayaz.Member m ON gp.MID = m.MID " +
-					"ORDER BY g.GID"; // Query to get the games and the highest scores on each of them
-			ResultSet ans = stmt.executeQuery(query); // Get the results of our query
-
-			// Print out the labels of what we are going to print out to the user
-			System.out.println("High Scores:\n");
-			System.out.printf("%-30s %-30s %-30s\n", "Game Name", "Member Name", "Score");
-			System.out.println("-".repeat(90));
-			while (ans.next()) {
-				// Keep printing the game name, the member who had the high score (if there is one), and what the score is
-				// as long as there is still tuples in our result
-				String gameName = ans.getString("GameName");
-				String memberName = ans.getString("MemberName");
-				int score = ans.getInt("HighScore");
-				if (ans.wasNull()) {
-					System.out.printf("%-30s %-30s %-30s\n", gameName, "No high score", "N/A");
-				} else {
-					System.out.printf("%-30s %-30s %-30d\n", gameName, memberName, score);
-				}
-			}
-			System.out.println();
+	public static void query1(ArcadeStore store, Connection dbconn) {
+		try (ResultStreamer.BlockWriter out = ResultStreamer.console()) {
+			QueryFormatter.print(fetchQuery1(store, dbconn), out);
 		} catch (SQLException e) { // Handle SQL Exceptions if they ever occur
 			handleSQLException(e);
 		}
 	}
 
+	/* Name: fetchQuery1
+	 *  Purpose: Gets every game and its high score, from the in-memory leaderboard when it is loaded
+	 *  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	 *  Postconditions: Returns one entry per game (more if several members share the high score)
+	 *  Parameters: dbconn - The connection to Oracle
+	 */
+
+	public static HighScores fetchQuery1(Connection dbconn) throws SQLException {
+		try (Metrics.Span span = Metrics.start("query1")) {
+			List<String> games = new ArrayList<>();
+			List<String> members = new ArrayList<>();
+			int[] scores = new int[64];
+			int n = 0;
+			if (Leaderboard.isLoaded()) { // answered without touching GamePlay
+				for (Leaderboard.HighScore row : Leaderboard.highScores()) {
+					if (n == scores.length) {
+						scores = Arrays.copyOf(scores, n * 2);
+					}
+					games.add(row.gameName());
+					members.add(row.top() == null ? null : row.top().memberName());
+					scores[n++] = row.top() == null ? HighScores.NO_SCORE : row.top().score();
+				}
+				span.rows(n);
+				return new HighScores(games, members, scores, n);
+			}
+			PreparedStatement stmt = ResultStreamer.query(dbconn, QUERY1_SQL);
+			try (ResultSet ans = stmt.executeQuery()) { // Get the results of our query
+				while (ans.next()) {
+					// Keep the game name, the member who had the high score (if there is one), and what the score is
+					if (n == scores.length) {
+						scores = Arrays.copyOf(scores, n * 2);
+					}
+					games.add(ans.getString("GameName"));
+					members.add(ans.getString("MemberName"));
+					int score = ans.getInt("HighScore");
+					scores[n++] = ans.wasNull() ? HighScores.NO_SCORE : score;
+				}
+			}
+			span.rows(n);
+			return new HighScores(games, members, scores, n);
+		}
+	}
+
+	/* Name: fetchQuery1
+	 *  Purpose: Gets every game and its high score from the store arcade.store selects
+	 *  Preconditions: store is open
+	 *  Postconditions: Returns one entry per game. The JDBC store is answered by the joined query (or the
+	 *                  leaderboard) above; the embedded one from the best play it keeps per game
+	 *  Parameters: store - The arcade store
+	 *              dbconn - The connection to Oracle, used when the store is the JDBC one
+	 */
+
+	public static HighScores fetchQuery1(ArcadeStore store, Connection dbconn) throws SQLException {
+		if (store instanceof JdbcStore) {
+			return fetchQuery1(dbconn); // one joined query instead of a member lookup per game
+		}
+		try (Metrics.Span span = Metrics.start("query1")) {
+			List<ArcadeStore.Game> all = store.games().all();
+			Map<String, ArcadeStore.GamePlay> best = store.plays().highScores();
+			List<String> games = new ArrayList<>();
+			List<String> members = new ArrayList<>();
+			int[] scores = new int[all.size()];
+			int n = 0;
+			for (ArcadeStore.Game game : all) {
+				ArcadeStore.GamePlay top = best.get(game.GID());
+				games.add(game.name());
+				members.add(top == null ? null : store.members().find(top.MID()).map(ArcadeStore.Member::name).orElse(null));
+				scores[n++] = top == null ? HighScores.NO_SCORE : top.score();
+			}
+			span.rows(n);
+			return new HighScores(games, members, scores, n);
+		} catch (ArcadeStore.StoreException e) {
+			throw e.asSQLException();
+		}
+	}
+
 	/* Name: query2
 	 *  Purpose: Executes the second query, which gets all members and their membership information if they have spent at least $100 in the past month
 	 *  Preconditions: A valid Oracle connection is created and the tables are set up as expected
@@ -62,30 +234,155 @@ public class Queries {
 	 */
 
 	public static void query2(Connection dbconn) {
-		try {
-			String query = "SELECT m.name, m.tier, SUM(tp.amountSpent) AS TotalSpent " +
-					"FROM hamadayaz.Member m " +
-					"JOIN hamadayaz.TokenPurchase tp ON m.MID = tp.MID " +
-					"WHERE tp.purchaseDate >= ADD_MONTHS(CURRENT_DATE, -1) " +
-					"GROUP BY m.name, m.tier " +
-					"HAVING SUM(tp.amountSpent) >= 100"; // The query to get member names and tiers based on how much they spent in the past month
-			PreparedStatement stmt = dbconn.prepareStatement(query);
-			ResultSet ans = stmt.executeQuery();
-
-			System.out.println("-------- List of members who spent $100 or more on tokens in the past month --------\n");
-			System.out.printf("%-30s %-30s %-30s\n", "Name", "Membership Tier", "Total Spent");
-			System.out.println("-".repeat(90));
-			while (ans.next()) {
-				// Print out the names, tiers, and amount spent as long as there is a result in our relation
-				String name = ans.getString("name");
-				String tier = ans.getString("tier");
-				double totalSpent = ans.getDouble("TotalSpent");
-				System.out.printf("%-30s %-30s $%-28.2f\n", name, tier, totalSpent);
-			}
+		try (ResultStreamer.BlockWriter out = ResultStreamer.console()) {
+			QueryFormatter.print(fetchQuery2(dbconn), out);
 		} catch (SQLException e) { // Catch any SQL errors that may have occured along the way
 			handleSQLException(e);
 		}
-		System.out.println();
+	}
+
+	/* Name: fetchQuery2
+	 *  Purpose: Gets the members who spent $100 or more in the past month, from the daily spend buckets when they are loaded
+	 *  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	 *  Postconditions: Returns one entry per name and tier
+	 *  Parameters: dbconn - The connection to Oracle
+	 */
+
+	public static Spenders fetchQuery2(Connection dbconn) throws SQLException {
+		try (Metrics.Span span = Metrics.start("query2")) {
+			if (SpendAggregates.isLoaded()) {
+				Spenders spenders = fetchQuery2FromAggregates(dbconn);
+				span.rows(spenders.size());
+				return spenders;
+			}
+			List<String> names = new ArrayList<>();
+			List<String> tiers = new ArrayList<>();
+			long[] cents = new long[64];
+			int n = 0;
+			PreparedStatement stmt = ResultStreamer.query(dbconn, QUERY2_SQL);
+			try (ResultSet ans = stmt.executeQuery()) {
+				while (ans.next()) {
+					// Keep the names, tiers, and amount spent as long as there is a result in our relation
+					if (n == cents.length) {
+						cents = Arrays.copyOf(cents, n * 2);
+					}
+					names.add(ans.getString("name"));
+					tiers.add(ans.getString("tier"));
+					cents[n++] = Math.round(ans.getDouble("TotalSpent") * 100);
+				}
+			}
+			span.rows(n);
+			return new Spenders(names, tiers, cents, n);
+		}
+	}
+
+	/* Name: fetchQuery2FromAggregates
+	 *  Purpose: Builds the query 2 result from the in-memory monthly spend windows, reading only the
+	 *           names and tiers of members who spent this month instead of summing TokenPurchase
+	 *  Preconditions: SpendAggregates.isLoaded() is true
+	 *  Postconditions: Returns the same rows as QUERY2_SQL: the $100 threshold applies to each
+	 *                  name and tier group's total, not to each member
+	 *  Parameters: dbconn - The connection to Oracle
+	 */
+
+	private static Spenders fetchQuery2FromAggregates(Connection dbconn) throws SQLException {
+		// Every member with a purchase this month, since members below $100 can still add up to it together
+		Map<String, Long> spenders = SpendAggregates.membersSpendingAtLeast(dbconn, 1);
+		// Grouped by name and tier like QUERY2_SQL, so two members sharing both are reported together
+		Map<String, Long> byNameAndTier = new TreeMap<>();
+		List<String> mids = new ArrayList<>(spenders.keySet());
+		for (int from = 0; from < mids.size(); from += IN_LIST_SIZE) {
+			List<String> chunk = mids.subList(from, Math.min(mids.size(), from + IN_LIST_SIZE));
+			String sql = "SELECT MID, name, tier FROM hamadayaz.Member WHERE MID IN (" +
+					String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+			PreparedStatement stmt = dbconn.prepareStatement(sql); // the IN list varies, do not cache it
+			try (stmt) {
+				for (int i = 0; i < chunk.size(); i++) {
+					stmt.setString(i + 1, chunk.get(i));
+				}
+				try (ResultSet ans = stmt.executeQuery()) {
+					while (ans.next()) {
+						byNameAndTier.merge(ans.getString("name") + "\0" + ans.getString("tier"),
+								spenders.get(ans.getString("MID")), Long::sum);
+					}
+				}
+			}
+		}
+		byNameAndTier.values().removeIf(total -> total < 100_00); // HAVING SUM(tp.amountSpent) >= 100
+		List<String> names = new ArrayList<>(byNameAndTier.size());
+		List<String> tiers = new ArrayList<>(byNameAndTier.size());
+		long[] cents = new long[byNameAndTier.size()];
+		int n = 0;
+		for (Map.Entry<String, Long> row : byNameAndTier.entrySet()) {
+			String[] nameAndTier = row.getKey().split("\0", -1);
+			names.add(nameAndTier[0]);
+			tiers.add(nameAndTier[1]);
+			cents[n++] = row.getValue();
+		}
+		return new Spenders(names, tiers, cents, n);
+	}
+
+	/* Name: browseQuery1
+	 *  Purpose: Shows the games and high scores report one page of games at a time
+	 *  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	 *  Postconditions: Pages are shown until the report ends or the user stops
+	 *  Parameters: dbconn - The connection to Oracle
+		       scanner - Used to ask for the next page
+	 */
+
+	public static void browseQuery1(Connection dbconn, Scanner scanner) {
+		String header = String.format("%-30s %-30s %-30s\n%s", "Game Name", "Member Name", "Score", "-".repeat(90));
+		try {
+			ResultStreamer.page(dbconn, scanner, QUERY1_COUNT_SQL, QUERY1_PAGE_SQL, header, (ans, out) -> {
+				int score = ans.getInt("HighScore");
+				if (ans.wasNull()) {
+					out.row("%-30s %-30s %-30s\n", ans.getString("GameName"), "No high score", "N/A");
+				} else {
+					out.row("%-30s %-30s %-30d\n", ans.getString("GameName"), ans.getString("MemberName"), score);
+				}
+			});
+		} catch (SQLException e) {
+			handleSQLException(e);
+		}
+	}
+
+	/* Name: browseQuery2
+	 *  Purpose: Shows the members who spent $100 or more in the past month one page at a time
+	 *  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	 *  Postconditions: Pages are shown until the report ends or the user stops
+	 *  Parameters: dbconn - The connection to Oracle
+		       scanner - Used to ask for the next page
+	 */
+
+	public static void browseQuery2(Connection dbconn, Scanner scanner) {
+		String header = String.format("%-30s %-30s %-30s\n%s", "Name", "Membership Tier", "Total Spent", "-".repeat(90));
+		try {
+			ResultStreamer.page(dbconn, scanner, QUERY2_COUNT_SQL, QUERY2_PAGE_SQL, header, (ans, out) ->
+					out.row("%-30s %-30s $%-28.2f\n", ans.getString("name"), ans.getString("tier"), ans.getDouble("TotalSpent")));
+		} catch (SQLException e) {
+			handleSQLException(e);
+		}
+	}
+
+	/* Name: exportReport
+	 *  Purpose: Writes the full result of query 1 or query 2 to a CSV or JSON file without buffering it in memory
+	 *  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	 *  Postconditions: The file contains every row of the report
+	 *  Parameters: queryNo - 1 for high scores, 2 for top spenders
+		       dbconn - The connection to Oracle
+		       file - Where to write the report
+		       format - CSV or JSON
+	 */
+
+	public static void exportReport(int queryNo, Connection dbconn, Path file, ResultStreamer.Format format) {
+		try {
+			long rows = ResultStreamer.export(dbconn, queryNo == 1 ? QUERY1_SQL : QUERY2_SQL, file, format);
+			System.out.println(rows + " row(s) written to " + file);
+		} catch (IOException e) {
+			System.out.println("Could not write " + file + ": " + e.getMessage());
+		} catch (SQLException e) {
+			handleSQLException(e);
+		}
 	}
 
 	/* Name: query3
@@ -93,86 +390,252 @@ public class Queries {
 	*  Preconditions: A valid Oracle connection is created and the tables are set up as expected
         *  Postconditions: The query is executed successfully
         *  Parameters: MID - A string that is the member's ID
+		       store - The store arcade.store selects
 		       dbconn - The connection to Oracle
 	*/
 
-	public static void query3(String MID, Connection dbconn) {
-		try {
-			String ticketsQuery = "SELECT totalTickets FROM hamadayaz.Member WHERE MID = ?"; // Initial query that gets us the number of tickets the member has
-			PreparedStatement stmt1 = dbconn.prepareStatement(ticketsQuery);
-			stmt1.setString(1, MID);
-			ResultSet ans1 = stmt1.executeQuery();
-
-			if (ans1.next()) {
-				int ticketNo = ans1.getInt("totalTickets"); // Grab the number of tickets they have as an integer
-				String prizesQuery = "SELECT description FROM hamadayaz.Prize WHERE ticketCost <= ?"; // Get the prizes that the member can get with the amount of tickets they have
-				PreparedStatement finalStmt = dbconn.prepareStatement(prizesQuery);
-				finalStmt.setInt(1, ticketNo);
-				ResultSet finalResult = finalStmt.executeQuery();
-
-				// Print out what prizes they can get
-				if (finalResult.next()) {
-					System.out.println("-------- Items this member can purchase with their tickets --------\n");
-					do {
-						String val = finalResult.getString("description");
-						System.out.println(val);
-					} while (finalResult.next());
-				} else {
-					System.out.println("The member does not have enough tickets to purchase any prizes."); // If there is no result, then the member cannot get any prizes with the amount of tickets they have
-				}
-			} else {
-				System.out.println("Could not find member with the given member ID: " + MID); // If the initial query does not have a result, then the member could not be found
-			}
-			System.out.println();
+	public static void query3(String MID, ArcadeStore store, Connection dbconn) {
+		try (ResultStreamer.BlockWriter out = ResultStreamer.console()) {
+			QueryFormatter.print(fetchQuery3(MID, store, dbconn), out);
 		} catch (SQLException e) { // Handle any SQL exceptions that might have happened along the way
 			handleSQLException(e);
 		}
 	}
 
+	/* Name: fetchQuery3
+	*  Purpose: Gets the member's ticket count and the prizes it can buy, from the cached prize catalog
+	*  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	*  Postconditions: Returns the prizes, or a result with found == false if there is no such member
+	*  Parameters: MID - A string that is the member's ID
+		       dbconn - The connection to Oracle
+	*/
+
+	public static AffordablePrizes fetchQuery3(String MID, Connection dbconn) throws SQLException {
+		try (Metrics.Span span = Metrics.start("query3")) {
+			int ticketNo = ArcadeOperations.ticketsOf(dbconn, MID); // The number of tickets the member has, from the member table when it is loaded
+			if (ticketNo < 0) {
+				return new AffordablePrizes(MID, false, 0, List.of()); // The member could not be found
+			}
+			// Get the prizes that the member can get with the amount of tickets they have, from the cached catalog
+			List<String> descriptions = new ArrayList<>();
+			for (PrizeCatalog.Prize prize : PrizeCatalog.affordable(dbconn, ticketNo)) {
+				descriptions.add(prize.description);
+			}
+			span.rows(descriptions.size());
+			return new AffordablePrizes(MID, true, ticketNo, descriptions);
+		}
+	}
+
+	/* Name: fetchQuery3
+	*  Purpose: Gets the member's ticket count and the prizes it can buy, from the store arcade.store selects
+	*  Preconditions: store is open
+	*  Postconditions: Returns the prizes, or a result with found == false if there is no such member. The JDBC
+	*                  store is answered from the member table and the cached catalog above
+	*  Parameters: MID - A string that is the member's ID
+		       store - The arcade store
+		       dbconn - The connection to Oracle, used when the store is the JDBC one
+	*/
+
+	public static AffordablePrizes fetchQuery3(String MID, ArcadeStore store, Connection dbconn) throws SQLException {
+		if (store instanceof JdbcStore) {
+			return fetchQuery3(MID, dbconn);
+		}
+		try (Metrics.Span span = Metrics.start("query3")) {
+			Optional<ArcadeStore.Member> member = store.members().find(MID);
+			if (member.isEmpty()) {
+				return new AffordablePrizes(MID, false, 0, List.of());
+			}
+			int ticketNo = member.get().tickets();
+			List<String> descriptions = new ArrayList<>();
+			for (ArcadeStore.Prize prize : store.prizes().all()) { // in ticket cost order
+				if (prize.ticketCost() > ticketNo) {
+					break;
+				}
+				descriptions.add(prize.description());
+			}
+			span.rows(descriptions.size());
+			return new AffordablePrizes(MID, true, ticketNo, descriptions);
+		} catch (ArcadeStore.StoreException e) {
+			throw e.asSQLException();
+		}
+	}
 
 	/* Name: query4
 	*  Purpose: Executes the fourth query, which gets the game the given member has the highest score in
 	*  Preconditions: A valid Oracle connection is created and the tables are set up as expected
         *  Postconditions: The query is executed successfully
         *  Parameters: MID - A string that is the member's ID
+		       store - The store arcade.store selects
 		       dbconn - The connection to Oracle
 	*/
 
-	public static void query4(String MID, Connection dbconn) {
-		try {
-			String query = "SELECT g.Name AS GameName, gp.score FROM hamadayaz.GamePlay gp " +
-					"JOIN hamadayaz.Game g ON gp.GID = g.GID " +
-					"WHERE gp.MID = ? ORDER BY gp.score DESC"; // Get the name of the game they have the highest score in
-			PreparedStatement stmt = dbconn.prepareStatement(query);
+	public static void query4(String MID, ArcadeStore store, Connection dbconn) {
+		try (ResultStreamer.BlockWriter out = ResultStreamer.console()) {
+			QueryFormatter.print(fetchQuery4(MID, store, dbconn), out);
+		} catch (SQLException e) { // Handle any SQL Exception
+			handleSQLException(e);
+		}
+	}
+
+	/* Name: query4Batch
+	*  Purpose: Prints the game each of the given members has the highest score in, using one batched query
+	*  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	*  Postconditions: One answer is printed per member
+	*  Parameters: mids - The member IDs
+		       store - The store arcade.store selects
+		       dbconn - The connection to Oracle
+	*/
+
+	public static void query4Batch(List<String> mids, ArcadeStore store, Connection dbconn) {
+		try (ResultStreamer.BlockWriter out = ResultStreamer.console()) {
+			Map<String, BestScore> best = fetchQuery4Batch(mids, store, dbconn);
+			for (String MID : new LinkedHashSet<>(mids)) {
+				out.println("Member " + MID + ":");
+				QueryFormatter.print(best.get(MID), out);
+			}
+		} catch (SQLException e) {
+			handleSQLException(e);
+		}
+	}
+
+	/* Name: fetchQuery4
+	*  Purpose: Gets the game the given member has the highest score in, from the leaderboard when it is loaded
+	*  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	*  Postconditions: Returns the best score, or null if the member has not played or does not exist
+	*  Parameters: MID - A string that is the member's ID
+		       dbconn - The connection to Oracle
+	*/
+
+	public static BestScore fetchQuery4(String MID, Connection dbconn) throws SQLException {
+		try (Metrics.Span span = Metrics.start("query4")) {
+			if (Leaderboard.isLoaded()) { // answered from the member's best score kept by the leaderboard
+				Leaderboard.Best best = Leaderboard.bestFor(MID);
+				return best == null ? null : new BestScore(MID, best.memberName(), best.gameName(), best.score());
+			}
+			PreparedStatement stmt = StatementCache.of(dbconn).prepare(QUERY4_SQL);
 			stmt.setString(1, MID);
-			ResultSet ans = stmt.executeQuery();
-
-			if (ans.next()) {
-				String gameName = ans.getString("GameName");
-				int maxScore = ans.getInt("score");
-
-				String memberQuery = "SELECT name FROM hamadayaz.Member WHERE MID = ?"; // Query to get the name of the member to print out
-				PreparedStatement memStmt = dbconn.prepareStatement(memberQuery);
-				memStmt.setString(1, MID);
-				ResultSet memName = memStmt.executeQuery();
-				if (memName.next()) {
-					String memberName = memName.getString("name");
-					System.out.println("Member " + memberName + " has the highest score on " + gameName + " with a score of " + maxScore);
+			try (ResultSet ans = stmt.executeQuery()) {
+				// No row means that the member either does not exist or has not played any games
+				if (!ans.next()) {
+					return null;
+				}
+				span.rows(1);
+				return new BestScore(MID, ans.getString("MemberName"), ans.getString("GameName"), ans.getInt("score"));
+			}
+		}
+	}
+
+	/* Name: fetchQuery4
+	*  Purpose: Gets the game the given member has the highest score in, from the store arcade.store selects
+	*  Preconditions: store is open
+	*  Postconditions: Returns the best score, or null if the member has not played or does not exist. The JDBC
+	*                  store is answered by the query (or the leaderboard) above
+	*  Parameters: MID - A string that is the member's ID
+		       store - The arcade store
+		       dbconn - The connection to Oracle, used when the store is the JDBC one
+	*/
+
+	public static BestScore fetchQuery4(String MID, ArcadeStore store, Connection dbconn) throws SQLException {
+		if (store instanceof JdbcStore) {
+			return fetchQuery4(MID, dbconn);
+		}
+		try (Metrics.Span span = Metrics.start("query4")) {
+			Optional<ArcadeStore.GamePlay> best = store.plays().bestOf(MID);
+			Optional<ArcadeStore.Member> member = best.isEmpty() ? Optional.empty() : store.members().find(MID);
+			Optional<ArcadeStore.Game> game = member.isEmpty() ? Optional.empty() : store.games().find(best.get().GID());
+			if (game.isEmpty()) { // like the join: no plays, no such member, or the game is gone
+				return null;
+			}
+			span.rows(1);
+			return new BestScore(MID, member.get().name(), game.get().name(), best.get().score());
+		} catch (ArcadeStore.StoreException e) {
+			throw e.asSQLException();
+		}
+	}
+
+	/* Name: fetchQuery4Batch
+	*  Purpose: Gets the highest score of every given member, one set-based query per IN_LIST_SIZE members
+	*  Preconditions: A valid Oracle connection is created and the tables are set up as expected
+	*  Postconditions: Returns the best score of each member that has played, keyed and ordered like mids;
+	*                  members who have not played or do not exist are left out
+	*  Parameters: mids - The member IDs
+		       dbconn - The connection to Oracle
+	*/
+
+	public static Map<String, BestScore> fetchQuery4Batch(Collection<String> mids, Connection dbconn) throws SQLException {
+		try (Metrics.Span span = Metrics.start("query4Batch")) {
+			List<String> distinct = new ArrayList<>(new LinkedHashSet<>(mids));
+			Map<String, BestScore> found = new HashMap<>();
+			if (Leaderboard.isLoaded()) {
+				for (String MID : distinct) {
+					Leaderboard.Best best = Leaderboard.bestFor(MID);
+					if (best != null) {
+						found.put(MID, new BestScore(MID, best.memberName(), best.gameName(), best.score()));
+					}
 				}
 			} else {
-				System.out.println("Member has not played any games or does not exist!"); // Getting no result on the first query means that the member either does not exist or has not played any games
+				for (int from = 0; from < distinct.size(); from += IN_LIST_SIZE) {
+					List<String> chunk = distinct.subList(from, Math.min(distinct.size(), from + IN_LIST_SIZE));
+					// Full chunks reuse one cached statement; only the last, shorter chunk gets its own
+					String sql = String.format(QUERY4_BATCH_SQL, String.join(", ", Collections.nCopies(chunk.size(), "?")));
+					PreparedStatement stmt = chunk.size() == IN_LIST_SIZE ? StatementCache.of(dbconn).prepare(sql) : dbconn.prepareStatement(sql);
+					try {
+						for (int i = 0; i < chunk.size(); i++) {
+							stmt.setString(i + 1, chunk.get(i));
+						}
+						stmt.setFetchSize(ResultStreamer.FETCH_SIZE);
+						try (ResultSet ans = stmt.executeQuery()) {
+							while (ans.next()) {
+								String MID = ans.getString("MID");
+								found.put(MID, new BestScore(MID, ans.getString("MemberName"), ans.getString("GameName"), ans.getInt("score")));
+							}
+						}
+					} finally {
+						if (chunk.size() != IN_LIST_SIZE) {
+							stmt.close();
+						}
+					}
+				}
 			}
+			Map<String, BestScore> ordered = new LinkedHashMap<>();
+			for (String MID : distinct) {
+				if (found.containsKey(MID)) {
+					ordered.put(MID, found.get(MID));
+				}
+			}
+			span.rows(ordered.size());
+			return ordered;
+		}
+	}
 
-			System.out.println();
-		} catch (SQLException e) { // Handle any SQL Exception
-			handleSQLException(e);
+	/* Name: fetchQuery4Batch
+	*  Purpose: Gets the highest score of every given member from the store arcade.store selects
+	*  Preconditions: store is open
+	*  Postconditions: Returns the best score of each member that has played, keyed and ordered like mids. The
+	*                  JDBC store is answered by the batched query above; the embedded one member by member
+	*  Parameters: mids - The member IDs
+		       store - The arcade store
+		       dbconn - The connection to Oracle, used when the store is the JDBC one
+	*/
+
+	public static Map<String, BestScore> fetchQuery4Batch(Collection<String> mids, ArcadeStore store, Connection dbconn) throws SQLException {
+		if (store instanceof JdbcStore) {
+			return fetchQuery4Batch(mids, dbconn);
+		}
+		Map<String, BestScore> ordered = new LinkedHashMap<>();
+		for (String MID : new LinkedHashSet<>(mids)) {
+			BestScore best = fetchQuery4(MID, store, dbconn);
+			if (best != null) {
+				ordered.put(MID, best);
+			}
 		}
+		return ordered;
 	}
 
 	/* Name: handleSQLException
 	 *  Purpose: Prints out error messages in case of an SQL exception when executing queries
 	 *  Preconditions: An SQL exception has been thrown when using one of the queries
-	 *  Postconditions: Messages are printed to stderr and the application is exited
+	 *  Postconditions: Messages are printed to stderr; the failed report is skipped and the program keeps running
 	 *  Parameters: e - The SQLException to be handled
 	 */
 	private static void handleSQLException(SQLException e) {
@@ -181,6 +644,5 @@ public class Queries {
 		System.err.println("\tMessage:   " + e.getMessage());
 		System.err.println("\tSQLState:  " + e.getSQLState());
 		System.err.println("\tErrorCode: " + e.getErrorCode());
-		System.exit(-1);
 	}
 }
@@ -0,0 +1,218 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: QueryFormatter.java renders the results returned by the Queries fetch methods, as the
+ * console reports or as JSON for ArcadeService. Keeping rendering here means the same result can be
+ * printed, served or measured without running the query again.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Class Name: QueryFormatter
+ * External Packages: None.
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: One print method per result type writes the console report, exactly as the menu
+ * options have always shown it. One json method per result type returns a JSON document with the
+ * same fields.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * print(..., BlockWriter out): Writes a console report.
+ * json(...): Returns a JSON document.
+ */
+public class QueryFormatter {
+
+    /**
+     * Method Name: print
+     * Purpose: Writes the query 1 report: each game's high score and who holds it.
+     * Pre-conditions: result came from Queries.fetchQuery1.
+     * Post-conditions: One row per game is written to out, "No high score" for a game nobody has played.
+     * Parameters:
+     * - result (in): The high scores.
+     * - out (in): Where the report is written; the caller flushes it.
+     */
+    public static void print(Queries.HighScores result, ResultStreamer.BlockWriter out) {
+        // Print out the labels of what we are going to print out to the user
+        out.println("High Scores:\n");
+        out.printf("%-30s %-30s %-30s\n", "Game Name", "Member Name", "Score");
+        out.println("-".repeat(90));
+        for (int i = 0; i < result.size(); i++) {
+            if (!result.played(i)) {
+                out.row("%-30s %-30s %-30s\n", result.gameName(i), "No high score", "N/A");
+            } else {
+                out.row("%-30s %-30s %-30d\n", result.gameName(i), result.memberName(i), result.score(i));
+            }
+        }
+        out.println();
+    }
+
+    /**
+     * Method Name: print
+     * Purpose: Writes the query 2 report: the members who spent $100 or more on tokens in the past month.
+     * Pre-conditions: result came from Queries.fetchQuery2.
+     * Post-conditions: One row per name and tier is written to out.
+     * Parameters:
+     * - result (in): The spenders.
+     * - out (in): Where the report is written; the caller flushes it.
+     */
+    public static void print(Queries.Spenders result, ResultStreamer.BlockWriter out) {
+        out.println("-------- List of members who spent $100 or more on tokens in the past month --------\n");
+        out.printf("%-30s %-30s %-30s\n", "Name", "Membership Tier", "Total Spent");
+        out.println("-".repeat(90));
+        for (int i = 0; i < result.size(); i++) {
+            out.row("%-30s %-30s $%-28.2f\n", result.name(i), result.tier(i), result.totalSpentCents(i) / 100.0);
+        }
+        out.println();
+    }
+
+    /**
+     * Method Name: print
+     * Purpose: Writes the query 3 report: the prizes a member can afford with their tickets.
+     * Pre-conditions: result came from Queries.fetchQuery3.
+     * Post-conditions: The prize descriptions, or why there are none, are written to out.
+     * Parameters:
+     * - result (in): The member's affordable prizes.
+     * - out (in): Where the report is written; the caller flushes it.
+     */
+    public static void print(Queries.AffordablePrizes result, ResultStreamer.BlockWriter out) {
+        if (!result.found()) {
+            out.println("Could not find member with the given member ID: " + result.MID());
+        } else if (!result.descriptions().isEmpty()) {
+            out.println("-------- Items this member can purchase with their tickets --------\n");
+            for (String description : result.descriptions()) {
+                out.row("%s\n", description);
+            }
+        } else {
+            out.println("The member does not have enough tickets to purchase any prizes.");
+        }
+        out.println();
+    }
+
+    /**
+     * Method Name: print
+     * Purpose: Writes the query 4 report: a member's highest score and the game it was on.
+     * Pre-conditions: best came from Queries.fetchQuery4, or is null.
+     * Post-conditions: One line is written to out.
+     * Parameters:
+     * - best (in): The member's best score, or null when they have no plays or do not exist.
+     * - out (in): Where the report is written; the caller flushes it.
+     */
+    public static void print(Queries.BestScore best, ResultStreamer.BlockWriter out) {
+        if (best != null) {
+            out.println("Member " + best.memberName() + " has the highest score on " + best.gameName() + " with a score of " + best.score());
+        } else {
+            out.println("Member has not played any games or does not exist!");
+        }
+        out.println();
+    }
+
+    /**
+     * Method Name: json
+     * Purpose: Renders the query 1 result as JSON.
+     * Pre-conditions: result came from Queries.fetchQuery1.
+     * Post-conditions: None.
+     * Parameters:
+     * - result (in): The high scores.
+     * Returns: An array of {GameName, MemberName, HighScore}; the last two are null for a game nobody has played.
+     */
+    public static String json(Queries.HighScores result) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < result.size(); i++) {
+            sb.append(i == 0 ? "\n  " : ",\n  ")
+                    .append("{\"GameName\": ").append(string(result.gameName(i)))
+                    .append(", \"MemberName\": ").append(result.played(i) ? string(result.memberName(i)) : "null")
+                    .append(", \"HighScore\": ").append(result.played(i) ? String.valueOf(result.score(i)) : "null")
+                    .append('}');
+        }
+        return sb.append(result.size() == 0 ? "]\n" : "\n]\n").toString();
+    }
+
+    /**
+     * Method Name: json
+     * Purpose: Renders the query 2 result as JSON.
+     * Pre-conditions: result came from Queries.fetchQuery2.
+     * Post-conditions: None.
+     * Parameters:
+     * - result (in): The spenders.
+     * Returns: An array of {name, tier, TotalSpent}, TotalSpent in dollars.
+     */
+    public static String json(Queries.Spenders result) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < result.size(); i++) {
+            sb.append(i == 0 ? "\n  " : ",\n  ")
+                    .append("{\"name\": ").append(string(result.name(i)))
+                    .append(", \"tier\": ").append(string(result.tier(i)))
+                    .append(", \"TotalSpent\": ").append(String.format(Locale.ROOT, "%.2f", result.totalSpentCents(i) / 100.0))
+                    .append('}');
+        }
+        return sb.append(result.size() == 0 ? "]\n" : "\n]\n").toString();
+    }
+
+    /**
+     * Method Name: json
+     * Purpose: Renders the query 3 result as JSON.
+     * Pre-conditions: result came from Queries.fetchQuery3.
+     * Post-conditions: None.
+     * Parameters:
+     * - result (in): The member's affordable prizes.
+     * Returns: An object with MID, found, tickets and the prize descriptions.
+     */
+    public static String json(Queries.AffordablePrizes result) {
+        StringBuilder sb = new StringBuilder("{\"MID\": ").append(string(result.MID()))
+                .append(", \"found\": ").append(result.found())
+                .append(", \"tickets\": ").append(result.tickets())
+                .append(", \"prizes\": [");
+        for (int i = 0; i < result.descriptions().size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(string(result.descriptions().get(i)));
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Method Name: json
+     * Purpose: Renders one member's query 4 result as JSON.
+     * Pre-conditions: best came from Queries.fetchQuery4, or is null.
+     * Post-conditions: None.
+     * Parameters:
+     * - best (in): The member's best score, or null when they have no plays or do not exist.
+     * Returns: An object with MID, MemberName, GameName and score, or null.
+     */
+    public static String json(Queries.BestScore best) {
+        if (best == null) {
+            return "null";
+        }
+        return "{\"MID\": " + string(best.MID()) + ", \"MemberName\": " + string(best.memberName()) +
+                ", \"GameName\": " + string(best.gameName()) + ", \"score\": " + best.score() + "}";
+    }
+
+    /**
+     * Method Name: json
+     * Purpose: Renders the query 4 results of several members as JSON.
+     * Pre-conditions: best came from Queries.fetchQuery4Batch.
+     * Post-conditions: None.
+     * Parameters:
+     * - best (in): Each member ID's best score, null for members with no plays or no record.
+     * Returns: An object keyed by member ID, with json(BestScore) as each value.
+     */
+    public static String json(Map<String, Queries.BestScore> best) {
+        StringBuilder sb = new StringBuilder("{");
+        String sep = "\n  ";
+        for (Map.Entry<String, Queries.BestScore> e : best.entrySet()) {
+            sb.append(sep).append(string(e.getKey())).append(": ").append(json(e.getValue()));
+            sep = ",\n  ";
+        }
+        return sb.append(best.isEmpty() ? "}\n" : "\n}\n").toString();
+    }
+
+    private static String string(String v) {
+        return v == null ? "null" : ResultStreamer.json(v);
+    }
+}
@@ -0,0 +1,197 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: RedemptionEngine.java redeems a prize for a member as one conditional operation:
+ * the prize inventory is only decremented while it is above zero, the member's tickets are only
+ * deducted while the balance covers the prize, and the PrizeRedemption row is only written when
+ * both succeeded. Nothing is read up front, so two counters redeeming the same prize at the same
+ * time can never oversell it or overdraw a member. A PRIZE coupon presented with the redemption is
+ * claimed in the same transaction, so it is used exactly when the prize is.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+
+/**
+ * Class Name: RedemptionEngine
+ * External Packages: java.sql
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: On Oracle the whole redemption, including the commit, is one anonymous PL/SQL block
+ * and therefore one round trip. The conditional UPDATE on Prize locks the prize row, so concurrent
+ * redemptions of the same prize queue behind each other and each re-checks inventoryCount > 0 after
+ * the lock is granted. A coupon is claimed first, by the same conditional UPDATE as
+ * CouponEngine.claim, and its tickets come off the prize's cost (never below zero); if the prize
+ * or the tickets then fall through, rolling back returns the coupon too. Other databases (the
+ * embedded one used for load testing) run the same conditional statements from JDBC instead.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * redeem(Connection conn, String MID, String prizeId, String coupon): Redeems one unit of a prize and reports the outcome.
+ */
+public class RedemptionEngine {
+
+    /**
+     * Result of one redemption attempt.
+     */
+    public enum Outcome {
+        ACCEPTED,
+        OUT_OF_STOCK,          // prize does not exist or inventoryCount is 0
+        INSUFFICIENT_TICKETS,  // member does not exist or cannot cover ticketCost
+        COUPON_REJECTED        // the coupon presented cannot be used by this member for a prize
+    }
+
+    private static final String REDEEM_BLOCK =
+            "DECLARE " +
+            "  v_mid    hamadayaz.Member.MID%TYPE := ?; " +
+            "  v_prize  hamadayaz.Prize.PrizeID%TYPE := ?; " +
+            "  v_code   hamadayaz.Coupon.couponID%TYPE := ?; " +
+            "  v_cost   hamadayaz.Prize.ticketCost%TYPE; " +
+            "  v_off    NUMBER := 0; " +
+            "  v_status NUMBER := 0; " +
+            "BEGIN " +
+            "  SAVEPOINT redeem_start; " +
+            "  IF v_code IS NOT NULL THEN " +
+            "    UPDATE hamadayaz.Coupon SET redeemedOn = CURRENT_DATE " +
+            "     WHERE couponID = v_code AND kind = 'PRIZE' AND redeemedOn IS NULL " +
+            "       AND (expiresOn IS NULL OR expiresOn >= TRUNC(CURRENT_DATE)) AND (MID IS NULL OR MID = v_mid) " +
+            "     RETURNING amount INTO v_off; " +
+            "    IF SQL%ROWCOUNT = 0 THEN " +
+            "      v_status := 3; " +
+            "    END IF; " +
+            "  END IF; " +
+            "  IF v_status = 0 THEN " +
+            "    UPDATE hamadayaz.Prize SET inventoryCount = inventoryCount - 1 " +
+            "     WHERE PrizeID = v_prize AND inventoryCount > 0 " +
+            "     RETURNING ticketCost INTO v_cost; " +
+            "    IF SQL%ROWCOUNT = 0 THEN " +
+            "      ROLLBACK TO redeem_start; " +
+            "      v_status := 1; " +
+            "    ELSE " +
+            "      v_cost := GREATEST(v_cost - v_off, 0); " +
+            "      UPDATE hamadayaz.Member SET totalTickets = totalTickets - v_cost " +
+            "       WHERE MID = v_mid AND totalTickets >= v_cost; " +
+            "      IF SQL%ROWCOUNT = 0 THEN " +
+            "        ROLLBACK TO redeem_start; " +
+            "        v_status := 2; " +
+            "      ELSE " +
+            "        INSERT INTO hamadayaz.PrizeRedemption (XactID, MID, PrizeID, xactDate) " +
+            "        VALUES (seq_prize_redemption.nextval, v_mid, v_prize, CURRENT_DATE); " +
+            "        COMMIT; " +
+            "      END IF; " +
+            "    END IF; " +
+            "  END IF; " +
+            "  ? := v_status; " +
+            "END;";
+
+    // Portable equivalents of the statements inside REDEEM_BLOCK
+    private static final String TAKE_INVENTORY =
+            "UPDATE hamadayaz.Prize SET inventoryCount = inventoryCount - 1 WHERE PrizeID = ? AND inventoryCount > 0";
+    private static final String TAKE_TICKETS =
+            "UPDATE hamadayaz.Member SET totalTickets = totalTickets - " +
+            "GREATEST((SELECT ticketCost FROM hamadayaz.Prize WHERE PrizeID = ?) - ?, 0) " +
+            "WHERE MID = ? AND totalTickets >= GREATEST((SELECT ticketCost FROM hamadayaz.Prize WHERE PrizeID = ?) - ?, 0)";
+    private static final String RECORD_REDEMPTION =
+            "INSERT INTO hamadayaz.PrizeRedemption (XactID, MID, PrizeID, xactDate) " +
+            "VALUES (seq_prize_redemption.nextval, ?, ?, CURRENT_DATE)";
+
+    /**
+     * Method Name: redeem
+     * Purpose: Redeems one unit of a prize for a member without reading the prize or member first.
+     * Pre-conditions: conn has auto-commit off and no other uncommitted work that should not be committed.
+     * Post-conditions: On ACCEPTED the inventory, ticket, coupon and redemption changes are committed;
+     *                  otherwise nothing is changed.
+     * Parameters:
+     * - conn (in): Connection to run on.
+     * - MID (in): Member ID.
+     * - prizeId (in): Prize ID to redeem.
+     * - coupon (in): PRIZE coupon code to use, or null.
+     */
+    public static Outcome redeem(Connection conn, String MID, String prizeId, String coupon) throws SQLException {
+        coupon = CouponEngine.normalize(coupon);
+        if (isOracle(conn)) {
+            return redeemInOneCall(conn, MID, prizeId, coupon);
+        }
+        return redeemPortable(conn, MID, prizeId, coupon);
+    }
+
+    public static Outcome redeem(Connection conn, String MID, String prizeId) throws SQLException {
+        return redeem(conn, MID, prizeId, null);
+    }
+
+    private static Outcome redeemInOneCall(Connection conn, String MID, String prizeId, String coupon) throws SQLException {
+        CallableStatement call = StatementCache.of(conn).prepareCall(REDEEM_BLOCK);
+        call.setString(1, MID);
+        call.setString(2, prizeId);
+        call.setString(3, coupon);
+        call.registerOutParameter(4, Types.INTEGER);
+        call.execute();
+        switch (call.getInt(4)) {
+            case 0:
+                return Outcome.ACCEPTED;
+            case 1:
+                return Outcome.OUT_OF_STOCK;
+            case 3:
+                return Outcome.COUPON_REJECTED;
+            default:
+                return Outcome.INSUFFICIENT_TICKETS;
+        }
+    }
+
+    private static Outcome redeemPortable(Connection conn, String MID, String prizeId, String coupon) throws SQLException {
+        try {
+            int off = 0;
+            if (coupon != null) {
+                off = CouponEngine.claim(conn, coupon, MID, CouponEngine.Kind.PRIZE);
+                if (off < 0) {
+                    conn.rollback();
+                    return Outcome.COUPON_REJECTED;
+                }
+            }
+
+            PreparedStatement pstmt = StatementCache.of(conn).prepare(TAKE_INVENTORY);
+            pstmt.setString(1, prizeId);
+            if (pstmt.executeUpdate() == 0) {
+                conn.rollback();
+                return Outcome.OUT_OF_STOCK;
+            }
+
+            pstmt = StatementCache.of(conn).prepare(TAKE_TICKETS);
+            pstmt.setString(1, prizeId);
+            pstmt.setInt(2, off);
+            pstmt.setString(3, MID);
+            pstmt.setString(4, prizeId);
+            pstmt.setInt(5, off);
+            if (pstmt.executeUpdate() == 0) {
+                conn.rollback(); // give the inventory and the coupon back
+                return Outcome.INSUFFICIENT_TICKETS;
+            }
+
+            pstmt = StatementCache.of(conn).prepare(RECORD_REDEMPTION);
+            pstmt.setString(1, MID);
+            pstmt.setString(2, prizeId);
+            pstmt.executeUpdate();
+            conn.commit();
+            return Outcome.ACCEPTED;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Method Name: isOracle
+     * Purpose: Tells whether a connection can run PL/SQL blocks.
+     * Pre-conditions: conn is open.
+     * Post-conditions: Returns true for Oracle connections.
+     * Parameters:
+     * - conn (in): Connection to inspect.
+     */
+    static boolean isOracle(Connection conn) throws SQLException {
+        return conn.getMetaData().getURL().startsWith("jdbc:oracle:");
+    }
+}
@@ -0,0 +1,276 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: ResultStreamer.java moves query results from a ResultSet to the terminal or to a
+ * file without holding them all in memory. It sets a tunable JDBC fetch size, renders terminal
+ * output through a buffer that is flushed one block of rows at a time, pages through large
+ * results with keyset pagination, and exports results as CSV or JSON straight to a file.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Scanner;
+
+/**
+ * Class Name: ResultStreamer
+ * External Packages: java.io, java.nio.file, java.sql
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Helpers shared by the report queries. The fetch size comes from arcade.fetchSize
+ * (default 500 rows per round trip) and the page size from arcade.pageSize (default 25 rows).
+ * A page query filters on "(? IS NULL OR key > ?)", binding the last key of the previous page (null
+ * for the first page) to both markers and the page size to the third, and returns the key in its
+ * first column. Each page is then an index range scan instead of an OFFSET that rereads every
+ * earlier page.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * console(): Returns a block-buffered writer over System.out.
+ * query(Connection conn, String sql): Prepares a cached statement with the configured fetch size.
+ * page(...): Interactively pages through a keyset-paginated query.
+ * export(Connection conn, String sql, Path file, Format format): Streams a query to a CSV or JSON file.
+ * write(ResultSet rs, Writer out, Format format): Streams a result set to any writer as CSV or JSON.
+ */
+public class ResultStreamer {
+
+    public static final int FETCH_SIZE = Integer.getInteger("arcade.fetchSize", 500);
+    public static final int PAGE_SIZE = Integer.getInteger("arcade.pageSize", 25);
+    private static final int BLOCK_ROWS = 256; // rows buffered before the terminal is flushed
+
+    /**
+     * File formats supported by export.
+     */
+    public enum Format { CSV, JSON }
+
+    /**
+     * Renders a row of output for a page; the ResultSet is positioned on the row.
+     */
+    public interface RowPrinter {
+        void print(ResultSet rs, BlockWriter out) throws SQLException;
+    }
+
+    /**
+     * A PrintWriter over System.out that flushes once per block of rows instead of once per line.
+     * Closing it flushes but leaves System.out open.
+     */
+    public static final class BlockWriter extends PrintWriter {
+        private int rows;
+
+        private BlockWriter() {
+            super(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024), false);
+        }
+
+        /**
+         * Method Name: row
+         * Purpose: Formats one row and flushes when a full block has been buffered.
+         * Pre-conditions: None.
+         * Post-conditions: The row is buffered or written.
+         * Parameters:
+         * - format, args (in): As for printf.
+         */
+        public void row(String format, Object... args) {
+            printf(format, args);
+            if (++rows % BLOCK_ROWS == 0) {
+                flush();
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    /**
+     * Method Name: console
+     * Purpose: Returns a block-buffered writer for rendering report rows to the terminal.
+     * Pre-conditions: None.
+     * Post-conditions: The caller closes it (which only flushes) when the report is done.
+     * Parameters: None.
+     */
+    public static BlockWriter console() {
+        return new BlockWriter();
+    }
+
+    /**
+     * Method Name: query
+     * Purpose: Returns the cached statement for sql with the configured fetch size applied.
+     * Pre-conditions: conn is open.
+     * Post-conditions: Rows are fetched FETCH_SIZE at a time when the statement is executed.
+     * Parameters:
+     * - conn (in): Connection to run on.
+     * - sql (in): Query text.
+     */
+    public static PreparedStatement query(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = StatementCache.of(conn).prepare(sql);
+        stmt.setFetchSize(FETCH_SIZE);
+        return stmt;
+    }
+
+    /**
+     * Method Name: page
+     * Purpose: Shows a query one page at a time, asking the user before fetching the next page.
+     * Pre-conditions: pageSql follows the keyset contract described on the class; countSql returns one number.
+     * Post-conditions: Pages are printed until the results end or the user stops.
+     * Parameters:
+     * - conn (in): Connection to run on.
+     * - scanner (in): Scanner used to ask for the next page.
+     * - countSql (in): Query returning the total number of rows, used for "page N of M".
+     * - pageSql (in): Keyset page query.
+     * - header (in): Printed above every page.
+     * - printer (in): Renders one row.
+     */
+    public static void page(Connection conn, Scanner scanner, String countSql, String pageSql, String header, RowPrinter printer) throws SQLException {
+        long total;
+        try (ResultSet rs = StatementCache.of(conn).prepare(countSql).executeQuery()) {
+            total = rs.next() ? rs.getLong(1) : 0;
+        }
+        long pages = Math.max(1, (total + PAGE_SIZE - 1) / PAGE_SIZE);
+
+        String lastKey = null;
+        for (int pageNo = 1; ; pageNo++) {
+            PreparedStatement stmt = StatementCache.of(conn).prepare(pageSql);
+            stmt.setFetchSize(PAGE_SIZE);
+            stmt.setString(1, lastKey);
+            stmt.setString(2, lastKey);
+            stmt.setInt(3, PAGE_SIZE);
+
+            int rows = 0;
+            BlockWriter out = console();
+            out.println(header);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lastKey = rs.getString(1);
+                    printer.print(rs, out);
+                    rows++;
+                }
+            }
+            out.printf("-- page %d of %d (%d row(s) total) --%n", pageNo, pages, total);
+            out.close();
+
+            if (rows == 0 || pageNo >= pages) {
+                return;
+            }
+            System.out.print("Enter for the next page, q to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method Name: export
+     * Purpose: Writes every row of a query to a file as CSV (with a header line) or as a JSON array.
+     * Pre-conditions: sql takes no parameters.
+     * Post-conditions: The file holds the full result; only one fetch batch is in memory at a time.
+     * Parameters:
+     * - conn (in): Connection to run on.
+     * - sql (in): Query text.
+     * - file (in): Destination file, overwritten if it exists.
+     * - format (in): CSV or JSON.
+     */
+    public static long export(Connection conn, String sql, Path file, Format format) throws SQLException, IOException {
+        try (ResultSet rs = query(conn, sql).executeQuery();
+             Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            return write(rs, out, format);
+        }
+    }
+
+    /**
+     * Method Name: write
+     * Purpose: Writes the remaining rows of a result set as CSV (with a header line) or as a JSON array.
+     * Pre-conditions: rs is positioned before its first row.
+     * Post-conditions: All rows are written; neither rs nor out is closed.
+     * Parameters:
+     * - rs (in): The result to write.
+     * - out (in): Destination.
+     * - format (in): CSV or JSON.
+     */
+    public static long write(ResultSet rs, Writer out, Format format) throws SQLException, IOException {
+        long rows = 0;
+        ResultSetMetaData md = rs.getMetaData();
+        int cols = md.getColumnCount();
+
+        if (format == Format.CSV) {
+            for (int c = 1; c <= cols; c++) {
+                out.write((c > 1 ? "," : "") + csv(md.getColumnLabel(c)));
+            }
+            out.write('\n');
+            while (rs.next()) {
+                for (int c = 1; c <= cols; c++) {
+                    String v = rs.getString(c);
+                    out.write((c > 1 ? "," : "") + (v == null ? "" : csv(v)));
+                }
+                out.write('\n');
+                rows++;
+            }
+        } else {
+            out.write('[');
+            while (rs.next()) {
+                out.write(rows == 0 ? "\n  {" : ",\n  {");
+                for (int c = 1; c <= cols; c++) {
+                    out.write((c > 1 ? ", " : "") + json(md.getColumnLabel(c)) + ": ");
+                    if (isNumeric(md.getColumnType(c))) {
+                        BigDecimal n = rs.getBigDecimal(c); // Oracle's getString gives ".5", which is not JSON
+                        out.write(n == null ? "null" : n.toPlainString());
+                    } else {
+                        String v = rs.getString(c);
+                        out.write(v == null ? "null" : json(v));
+                    }
+                }
+                out.write('}');
+                rows++;
+            }
+            out.write(rows == 0 ? "]\n" : "\n]\n");
+        }
+        return rows;
+    }
+
+    private static boolean isNumeric(int sqlType) {
+        switch (sqlType) {
+            case Types.NUMERIC: case Types.DECIMAL: case Types.INTEGER: case Types.BIGINT:
+            case Types.SMALLINT: case Types.TINYINT: case Types.DOUBLE: case Types.FLOAT: case Types.REAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String csv(String v) {
+        if (v.indexOf(',') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0) {
+            return v;
+        }
+        return '"' + v.replace("\"", "\"\"") + '"';
+    }
+
+    // Quotes and escapes a string as a JSON string literal
+    static String json(String v) {
+        StringBuilder sb = new StringBuilder(v.length() + 2).append('"');
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,303 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: SpendAggregates.java keeps how much each member spent per day, in the MemberSpendDaily
+ * table (see extensions.sql) and in memory, so that "spent $100 or more in the past month" is a
+ * lookup in a handful of daily buckets instead of a scan of the whole TokenPurchase history.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class Name: SpendAggregates
+ * External Packages: java.sql, java.time, java.util, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: Every token purchase adds its amount to the member's bucket for that day with a MERGE
+ * in the purchase's transaction, and to memory once that transaction has committed, so a retried
+ * transaction is never counted twice. In memory each member has a ring of daily buckets covering the last
+ * WINDOW_DAYS days; the past-month total is the sum of the buckets on or after the same day last
+ * month, matching ADD_MONTHS(CURRENT_DATE, -1) in query 2. Amounts are kept in cents. Like the
+ * leaderboard, nothing is maintained while the store is not loaded; run backfill() when enabling it.
+ * Other kiosks and services write the same table, so windows older than arcade.spendAggregates.maxAgeMs
+ * (default 60000) are reloaded from MemberSpendDaily on the next lookup, as PrizeCatalog does. A reload
+ * holds off commit() until it has swapped in the new windows, so a purchase is never both read from the
+ * table and added again.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * isLoaded(): Whether the store is active.
+ * load(Connection conn): Reads the last WINDOW_DAYS days of buckets into memory.
+ * backfill(Connection conn): Rebuilds MemberSpendDaily from TokenPurchase, then loads it.
+ * record(Connection conn, List<Bucket> buckets): Adds purchases to their daily buckets, in the caller's transaction.
+ * commit(Connection conn, List<Bucket> buckets): Commits the caller's transaction and applies its buckets to memory.
+ * spentThisMonth(Connection conn, String MID): The member's spend since the same day last month, in cents.
+ * membersSpendingAtLeast(Connection conn, long cents): Members whose past-month spend reaches a threshold.
+ * removeMember(Connection conn, String MID): Drops a deleted member's buckets.
+ * removeMembers(Connection conn, List<String> mids): Drops the buckets of many deleted members at once.
+ * removed(List<String> mids): Drops the members' buckets from memory after their delete commits.
+ */
+public class SpendAggregates {
+
+    private static final int WINDOW_DAYS = 32; // longer than any month, so the ring always covers one
+    private static final long MAX_AGE_NANOS = Long.getLong("arcade.spendAggregates.maxAgeMs", 60_000L) * 1_000_000L;
+
+    private static final String LOAD =
+            "SELECT MID, spendDay, amount FROM hamadayaz.MemberSpendDaily WHERE spendDay >= TRUNC(CURRENT_DATE) - ?";
+    private static final String ADD =
+            "MERGE INTO hamadayaz.MemberSpendDaily d " +
+            "USING (SELECT ? AS MID, ? AS spendDay, ? AS amount FROM dual) s " +
+            "ON (d.MID = s.MID AND d.spendDay = s.spendDay) " +
+            "WHEN MATCHED THEN UPDATE SET d.amount = d.amount + s.amount " +
+            "WHEN NOT MATCHED THEN INSERT (MID, spendDay, amount) VALUES (s.MID, s.spendDay, s.amount)";
+    private static final String BACKFILL =
+            "INSERT INTO hamadayaz.MemberSpendDaily (MID, spendDay, amount) " +
+            "SELECT MID, TRUNC(purchaseDate), SUM(amountSpent) FROM hamadayaz.TokenPurchase " +
+            "GROUP BY MID, TRUNC(purchaseDate)";
+    private static final String DELETE_MEMBERS = "DELETE FROM hamadayaz.MemberSpendDaily WHERE MID IN (%s)";
+
+    /**
+     * The last WINDOW_DAYS daily totals of one member, indexed by epoch day modulo WINDOW_DAYS.
+     */
+    private static final class Window {
+        final long[] day = new long[WINDOW_DAYS];
+        final long[] cents = new long[WINDOW_DAYS];
+
+        synchronized void add(long epochDay, long amount) {
+            int slot = Math.floorMod(epochDay, WINDOW_DAYS);
+            if (day[slot] != epochDay) { // slot still holds a day that has left the window
+                day[slot] = epochDay;
+                cents[slot] = 0;
+            }
+            cents[slot] += amount;
+        }
+
+        synchronized long sumSince(long firstEpochDay) {
+            long total = 0;
+            for (int i = 0; i < WINDOW_DAYS; i++) {
+                if (day[i] >= firstEpochDay) {
+                    total += cents[i];
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * An amount, in cents, to add to one member's bucket for one day.
+     */
+    public record Bucket(String MID, LocalDate day, long cents) {}
+
+    private static volatile ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private static volatile boolean loaded;
+    private static volatile long loadedNanos;
+    private static final ReadWriteLock commitLock = new ReentrantReadWriteLock(); // commits share it, a load takes it alone
+
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Method Name: load
+     * Purpose: Reads the recent daily buckets into memory.
+     * Pre-conditions: MemberSpendDaily exists and is in step with TokenPurchase.
+     * Post-conditions: Month-to-date lookups are served from memory. Purchases keep being recorded
+     *                  while a reload reads, and their commit() waits for it to finish.
+     * Parameters:
+     * - conn (in): Connection to read through.
+     */
+    public static synchronized void load(Connection conn) throws SQLException {
+        ConcurrentHashMap<String, Window> fresh = new ConcurrentHashMap<>();
+        commitLock.writeLock().lock();
+        try {
+            PreparedStatement stmt = ResultStreamer.query(conn, LOAD);
+            stmt.setInt(1, WINDOW_DAYS);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long epochDay = rs.getDate(2).toLocalDate().toEpochDay();
+                    long cents = Math.round(rs.getDouble(3) * 100);
+                    fresh.computeIfAbsent(rs.getString(1), k -> new Window()).add(epochDay, cents);
+                }
+            }
+            windows = fresh;
+            loadedNanos = System.nanoTime();
+            loaded = true;
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method Name: backfill
+     * Purpose: Recomputes MemberSpendDaily from the full TokenPurchase history.
+     * Pre-conditions: conn has auto-commit off.
+     * Post-conditions: The buckets are committed and loaded.
+     * Parameters:
+     * - conn (in): Connection to run on.
+     */
+    public static synchronized void backfill(Connection conn) throws SQLException {
+        try {
+            StatementCache.of(conn).prepare("DELETE FROM hamadayaz.MemberSpendDaily").executeUpdate();
+            StatementCache.of(conn).prepare(BACKFILL).executeUpdate();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+        load(conn);
+    }
+
+    /**
+     * Method Name: record
+     * Purpose: Adds purchases to their members' daily buckets in the database.
+     * Pre-conditions: Called in the transaction that inserts the TokenPurchase rows; the caller then
+     * commits it by passing the same buckets to commit().
+     * Post-conditions: The bucket rows are updated in the caller's transaction.
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - buckets (in): Amounts to add, one per member and day.
+     */
+    public static void record(Connection conn, List<Bucket> buckets) throws SQLException {
+        if (!loaded || buckets.isEmpty()) {
+            return;
+        }
+        PreparedStatement stmt = StatementCache.of(conn).prepare(ADD);
+        for (Bucket b : buckets) {
+            stmt.setString(1, b.MID());
+            stmt.setDate(2, java.sql.Date.valueOf(b.day()));
+            stmt.setDouble(3, b.cents() / 100.0);
+            stmt.addBatch();
+        }
+        stmt.executeBatch();
+    }
+
+    /**
+     * Method Name: commit
+     * Purpose: Commits the caller's transaction and applies its buckets to the in-memory windows.
+     * Pre-conditions: The same buckets were passed to record() in this transaction.
+     * Post-conditions: The transaction is committed and month-to-date lookups include the purchases.
+     *                  If the commit throws, memory is unchanged and the caller rolls back.
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - buckets (in): The amounts recorded.
+     */
+    public static void commit(Connection conn, List<Bucket> buckets) throws SQLException {
+        commitLock.readLock().lock();
+        try {
+            conn.commit();
+            if (!loaded) {
+                return;
+            }
+            ConcurrentHashMap<String, Window> w = windows;
+            for (Bucket b : buckets) {
+                w.computeIfAbsent(b.MID(), k -> new Window()).add(b.day().toEpochDay(), b.cents());
+            }
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method Name: spentThisMonth
+     * Purpose: Returns what a member spent since the same day last month.
+     * Pre-conditions: isLoaded() is true.
+     * Post-conditions: The windows are reloaded first if they are older than the maximum age.
+     * Parameters:
+     * - conn (in): Connection to reload through.
+     * - MID (in): Member ID.
+     */
+    public static long spentThisMonth(Connection conn, String MID) throws SQLException {
+        Window w = current(conn).get(MID);
+        return w == null ? 0 : w.sumSince(windowStart());
+    }
+
+    /**
+     * Method Name: membersSpendingAtLeast
+     * Purpose: Finds the members whose past-month spend is at least the threshold.
+     * Pre-conditions: isLoaded() is true.
+     * Post-conditions: Returns MID to spend (cents); the windows are reloaded first if they are older
+     *                  than the maximum age.
+     * Parameters:
+     * - conn (in): Connection to reload through.
+     * - thresholdCents (in): Minimum spend in cents.
+     */
+    public static Map<String, Long> membersSpendingAtLeast(Connection conn, long thresholdCents) throws SQLException {
+        long start = windowStart();
+        Map<String, Long> result = new HashMap<>();
+        current(conn).forEach((mid, w) -> {
+            long total = w.sumSince(start);
+            if (total >= thresholdCents) {
+                result.put(mid, total);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Method Name: removeMember
+     * Purpose: Drops a deleted member's buckets.
+     * Pre-conditions: Called in the member's delete transaction.
+     * Post-conditions: The member's rows are deleted in the caller's transaction; call removed() after the commit.
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - MID (in): Member ID.
+     */
+    public static void removeMember(Connection conn, String MID) throws SQLException {
+        removeMembers(conn, List.of(MID));
+    }
+
+    /**
+     * Method Name: removeMembers
+     * Purpose: Drops deleted members' buckets with one DELETE.
+     * Pre-conditions: Called in the members' delete transaction; at most 1000 members.
+     * Post-conditions: Their rows are deleted in the caller's transaction; call removed() after the commit.
+     * Parameters:
+     * - conn (in): The caller's connection.
+     * - mids (in): Member IDs.
+     */
+    public static void removeMembers(Connection conn, List<String> mids) throws SQLException {
+        if (!loaded || mids.isEmpty()) {
+            return;
+        }
+        MemberPurge.prepareIn(conn, DELETE_MEMBERS, mids).executeUpdate();
+    }
+
+    /**
+     * Method Name: removed
+     * Purpose: Drops deleted members' buckets from memory.
+     * Pre-conditions: The transaction that called removeMember(s) for them has committed.
+     * Post-conditions: Their spend no longer counts towards query 2.
+     * Parameters:
+     * - mids (in): Member IDs.
+     */
+    public static void removed(List<String> mids) {
+        for (String MID : mids) {
+            windows.remove(MID);
+        }
+    }
+
+    private static ConcurrentHashMap<String, Window> current(Connection conn) throws SQLException {
+        if (System.nanoTime() - loadedNanos >= MAX_AGE_NANOS) {
+            synchronized (SpendAggregates.class) {
+                if (System.nanoTime() - loadedNanos >= MAX_AGE_NANOS) { // another thread may have reloaded meanwhile
+                    load(conn);
+                }
+            }
+        }
+        return windows;
+    }
+
+    private static long windowStart() {
+        return LocalDate.now().minusMonths(1).toEpochDay();
+    }
+}
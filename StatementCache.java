@@ -0,0 +1,167 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: StatementCache.java keeps the prepared statements of each connection so that the
+ * constant SQL in Project and Queries is parsed once per connection instead of on every call,
+ * and so that those statements are closed when the connection goes away instead of leaking cursors.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class Name: StatementCache
+ * External Packages: java.sql, java.util
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: A per-connection registry of prepared statements keyed by their SQL text. The first
+ * call for a statement prepares it (a miss); later calls on the same connection return the same
+ * statement (a hit). Each connection's cache is an access-ordered LRU map bounded by
+ * arcade.statementCache.size; the least recently used statement is closed when the bound is reached.
+ * Callers must not close statements obtained from the cache, only the ResultSets they produce.
+ *
+ * Constructor: Private, use of(Connection).
+ *
+ * Instance Methods:
+ * of(Connection conn): Returns the cache for a connection, creating it on first use.
+ * prepare(String sql): Returns the cached PreparedStatement for sql.
+ * prepareCall(String sql): Returns the cached CallableStatement for sql.
+ * release(Connection conn): Closes and forgets every statement cached for a connection.
+ * summary(): Reports hit, miss and eviction counts across all connections.
+ */
+public class StatementCache {
+
+    private static final int CAPACITY = Integer.getInteger("arcade.statementCache.size", 64);
+    private static final Map<Connection, StatementCache> caches = new ConcurrentHashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private final Connection conn;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    private StatementCache(Connection conn) {
+        this.conn = conn;
+        this.statements = new LinkedHashMap<>(CAPACITY * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= CAPACITY) {
+                    return false;
+                }
+                evictions.incrementAndGet();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Method Name: of
+     * Purpose: Looks up the statement cache that belongs to a connection.
+     * Pre-conditions: conn is open.
+     * Post-conditions: Returns the connection's cache, creating an empty one if needed.
+     * Parameters:
+     * - conn (in): The connection whose statements are cached.
+     */
+    public static StatementCache of(Connection conn) {
+        return caches.computeIfAbsent(conn, StatementCache::new);
+    }
+
+    /**
+     * Method Name: prepare
+     * Purpose: Returns a prepared statement for sql, preparing it only on the first request.
+     * Pre-conditions: The connection is open.
+     * Post-conditions: The statement stays cached; callers set every parameter before executing it.
+     * Parameters:
+     * - sql (in): Constant SQL text, used as the cache key.
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt != null && !stmt.isClosed()) {
+            hits.incrementAndGet();
+            return stmt;
+        }
+        misses.incrementAndGet();
+        stmt = conn.prepareStatement(sql);
+        statements.put(sql, stmt);
+        return stmt;
+    }
+
+    /**
+     * Method Name: prepareCall
+     * Purpose: Same as prepare, for PL/SQL blocks and stored procedure calls.
+     * Pre-conditions: The connection is open.
+     * Post-conditions: The callable statement stays cached.
+     * Parameters:
+     * - sql (in): Constant call text, used as the cache key.
+     */
+    public synchronized CallableStatement prepareCall(String sql) throws SQLException {
+        String key = "{call}" + sql;
+        PreparedStatement stmt = statements.get(key);
+        if (stmt instanceof CallableStatement && !stmt.isClosed()) {
+            hits.incrementAndGet();
+            return (CallableStatement) stmt;
+        }
+        misses.incrementAndGet();
+        CallableStatement call = conn.prepareCall(sql);
+        statements.put(key, call);
+        return call;
+    }
+
+    /**
+     * Method Name: release
+     * Purpose: Closes every statement cached for a connection; called before the connection is closed.
+     * Pre-conditions: None.
+     * Post-conditions: The connection has no cache entry.
+     * Parameters:
+     * - conn (in): The connection being closed.
+     */
+    public static void release(Connection conn) {
+        StatementCache cache = caches.remove(conn);
+        if (cache != null) {
+            synchronized (cache) {
+                cache.statements.values().forEach(StatementCache::closeQuietly);
+                cache.statements.clear();
+            }
+        }
+    }
+
+    /**
+     * Method Name: summary
+     * Purpose: Reports cache effectiveness across all connections.
+     * Pre-conditions: None.
+     * Post-conditions: Returns a one-line summary.
+     * Parameters: None.
+     */
+    public static String summary() {
+        long h = hits.get();
+        long m = misses.get();
+        double ratio = h + m == 0 ? 0.0 : 100.0 * h / (h + m);
+        return String.format("statement cache hits=%d misses=%d evictions=%d hitRatio=%.1f%% connections=%d",
+                h, m, evictions.get(), ratio, caches.size());
+    }
+
+    public static long hits() {
+        return hits.get();
+    }
+
+    public static long misses() {
+        return misses.get();
+    }
+
+    private static void closeQuietly(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+            // the connection is going away anyway
+        }
+    }
+}
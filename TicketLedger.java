@@ -0,0 +1,568 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: TicketLedger.java absorbs ticket awards and token purchases in memory and writes
+ * them to the Member and TokenPurchase tables in periodic batched transactions, so that busy kiosks
+ * do not each pay for a synchronous UPDATE and commit. Every change is appended to a replay log
+ * before it is applied, and the log is replayed on startup, so a crash does not lose changes that
+ * were accepted but not yet flushed.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class Name: TicketLedger
+ * External Packages: java.nio, java.sql, java.util.concurrent
+ * Containing Package: Default package.
+ * Inheritance Information: Implements AutoCloseable.
+ *
+ * Description: Changes are collected in a "segment": a map from MID to atomic ticket and spend
+ * counters, a queue of purchase rows, and an append-only log file holding the same changes. Recording
+ * a change takes no locks: it appends one line to the segment's log and adds to the atomic counters.
+ * A flush swaps in a fresh segment, waits for in-flight writers of the old one to finish, writes the
+ * old segment's totals to the database in one transaction and then deletes its log. Because every log
+ * file holds exactly the changes of its own segment, replaying the files left after a crash re-applies
+ * precisely the changes that were never committed. Each flush also records its segment id in
+ * TicketLedgerSync (per arcade.ledger.name) in the same transaction, so a segment whose log survived a
+ * crash between the commit and the delete is recognised on replay and skipped, not applied twice.
+ *
+ * A segment the database keeps refusing (a purchase for a member deleted by another process, say)
+ * would hold up every later one, since segments are written in order. After arcade.ledger.maxFailures
+ * (default 5) refusals in a row it is written member by member instead, each member's changes under
+ * their own savepoint, as GamePlayIngestor and BulkImport replay a refused batch row by row. Only the
+ * members whose changes the database refuses are rolled back to their savepoint and written to
+ * ledger-<id>.failed, and reported, for applying by hand; everyone else's changes commit together with
+ * the segment's TicketLedgerSync marker. Connection failures do not count towards the limit.
+ *
+ * Spend that is still in the ledger is not visible to SQL until the next flush, so buyTokens adds
+ * pendingSpentCents to what it reads. Ticket awards are not: a member's balance lags them by at most
+ * arcade.ledger.flushMs.
+ *
+ * Constructor: TicketLedger(ConnectionPool pool, Path directory, boolean syncEachRecord)
+ *
+ * Instance Methods:
+ * recover(): Replays and flushes log files left by a previous run.
+ * start(long flushIntervalMillis): Starts the periodic flush thread.
+ * recordTickets(String MID, long tickets): Adds (or with a negative value removes) tickets.
+ * recordPurchase(String MID, int tokens, long amountCents): Records a token purchase.
+ * pendingSpentCents(String MID): Unflushed spend for a member.
+ * flush(): Writes all accumulated deltas to the database.
+ * close(): Stops the flush thread and flushes what is left.
+ */
+public class TicketLedger implements AutoCloseable {
+
+    private static final String UPDATE_MEMBER =
+            "UPDATE hamadayaz.Member SET totalTickets = totalTickets + ?, totalSpent = totalSpent + ? WHERE MID = ?";
+    private static final String INSERT_PURCHASE =
+            "INSERT INTO hamadayaz.TokenPurchase (PID, MID, tokenNo, purchaseDate, amountSpent) " +
+            "VALUES (seq_token_purchase.nextval, ?, ?, ?, ?)";
+    private static final String READ_FLUSHED = "SELECT segmentId FROM hamadayaz.TicketLedgerSync WHERE name = ?";
+    private static final String WRITE_FLUSHED =
+            "MERGE INTO hamadayaz.TicketLedgerSync s USING (SELECT ? AS name, ? AS segmentId FROM dual) n ON (s.name = n.name) " +
+            "WHEN MATCHED THEN UPDATE SET s.segmentId = n.segmentId WHEN NOT MATCHED THEN INSERT (name, segmentId) VALUES (n.name, n.segmentId)";
+    private static final String NAME = System.getProperty("arcade.ledger.name", "default");
+    private static final int MAX_FAILURES = Math.max(1, Integer.getInteger("arcade.ledger.maxFailures", 5));
+
+    private final ConnectionPool pool;
+    private final Path directory;
+    private final boolean syncEachRecord;
+    private final AtomicLong nextSegmentId = new AtomicLong();
+    private final AtomicReference<Segment> current = new AtomicReference<>();
+    private final ConcurrentLinkedDeque<Segment> sealed = new ConcurrentLinkedDeque<>(); // waiting to be written
+    private final Object flushLock = new Object(); // only one flush at a time; never taken by recorders
+    private ScheduledExecutorService flusher;
+
+    private final AtomicLong flushedSegments = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong refusedMembers = new AtomicLong();
+
+    /**
+     * Running ticket and spend totals for one member within a segment.
+     */
+    private static final class MemberDelta {
+        final AtomicLong tickets = new AtomicLong();
+        final AtomicLong spentCents = new AtomicLong();
+    }
+
+    /**
+     * One token purchase waiting to be inserted into TokenPurchase.
+     */
+    private record Purchase(String MID, int tokens, long amountCents, long epochMillis) {
+    }
+
+    /**
+     * A generation of changes together with the log file that makes them durable.
+     */
+    private static final class Segment {
+        final long id;
+        final Path file;
+        final FileChannel log;
+        final ConcurrentHashMap<String, MemberDelta> deltas = new ConcurrentHashMap<>();
+        final ConcurrentLinkedQueue<Purchase> purchases = new ConcurrentLinkedQueue<>();
+        final AtomicInteger inflight = new AtomicInteger();
+        volatile boolean sealed;
+        int failures; // refusals in a row; only touched under flushLock
+
+        Segment(long id, Path file, FileChannel log) {
+            this.id = id;
+            this.file = file;
+            this.log = log;
+        }
+
+        MemberDelta delta(String MID) {
+            return deltas.computeIfAbsent(MID, k -> new MemberDelta());
+        }
+
+        boolean isEmpty() {
+            return deltas.isEmpty() && purchases.isEmpty();
+        }
+    }
+
+    /**
+     * Method Name: TicketLedger (constructor)
+     * Purpose: Creates a ledger whose replay log lives in directory.
+     * Pre-conditions: directory is writable.
+     * Post-conditions: An empty segment is open; call recover() before recording new changes.
+     * Parameters:
+     * - pool (in): Pool used by flushes.
+     * - directory (in): Where the replay log files are kept.
+     * - syncEachRecord (in): When true every record is forced to disk before it is acknowledged.
+     */
+    public TicketLedger(ConnectionPool pool, Path directory, boolean syncEachRecord) throws IOException {
+        this.pool = pool;
+        this.directory = directory;
+        this.syncEachRecord = syncEachRecord;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "ledger-*.log")) {
+            for (Path p : logs) {
+                nextSegmentId.accumulateAndGet(segmentId(p) + 1, Math::max);
+            }
+        }
+        current.set(openSegment());
+    }
+
+    /**
+     * Method Name: recover
+     * Purpose: Replays log files left behind by a run that did not flush before exiting.
+     * Pre-conditions: Called once at startup, before any record* call.
+     * Post-conditions: Log files of segments that were already committed are deleted; the others are
+     *                  replayed and flushed, or left queued for the flush thread if the database refuses them.
+     * Parameters: None.
+     */
+    public int recover() throws IOException, SQLException {
+        long flushedUpTo;
+        Connection conn = pool.borrow();
+        try {
+            flushedUpTo = flushedSegment(conn);
+        } finally {
+            pool.release(conn);
+        }
+        // Segment ids must keep growing past the last committed one, even if the directory was emptied
+        Segment fresh = current.get();
+        if (fresh.id <= flushedUpTo) {
+            nextSegmentId.accumulateAndGet(flushedUpTo + 1, Math::max);
+            current.set(openSegment());
+            fresh.log.close();
+            Files.deleteIfExists(fresh.file);
+        }
+
+        List<Path> leftovers = new ArrayList<>();
+        long currentId = current.get().id;
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "ledger-*.log")) {
+            for (Path p : logs) {
+                if (segmentId(p) != currentId) {
+                    leftovers.add(p);
+                }
+            }
+        }
+        leftovers.sort(Comparator.comparingLong(TicketLedger::segmentId));
+
+        int replayed = 0;
+        for (Path p : leftovers) {
+            if (segmentId(p) <= flushedUpTo) {
+                Files.deleteIfExists(p); // committed before the crash, only the delete was lost
+                continue;
+            }
+            Segment seg = new Segment(segmentId(p), p, null);
+            seg.sealed = true;
+            try (BufferedReader in = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (apply(seg, line)) {
+                        replayed++;
+                    }
+                }
+            }
+            sealed.addLast(seg);
+        }
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.err.println("Ledger replay not finished, the flush thread will retry: " + e.getMessage());
+        }
+        return replayed;
+    }
+
+    /**
+     * Method Name: start
+     * Purpose: Starts flushing in the background.
+     * Pre-conditions: Not already started.
+     * Post-conditions: flush() runs every flushIntervalMillis on a daemon thread.
+     * Parameters:
+     * - flushIntervalMillis (in): Time between flushes.
+     */
+    public void start(long flushIntervalMillis) {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ledger-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (SQLException | IOException e) {
+                System.err.println("Ledger flush failed, will retry: " + e.getMessage());
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method Name: recordTickets
+     * Purpose: Adds a ticket delta for a member.
+     * Pre-conditions: None.
+     * Post-conditions: The delta is in the replay log and will be applied by the next flush.
+     * Parameters:
+     * - MID (in): Member ID.
+     * - tickets (in): Tickets to add; negative to deduct.
+     */
+    public void recordTickets(String MID, long tickets) throws IOException {
+        record("T|" + MID + "|" + tickets + "\n", seg -> seg.delta(MID).tickets.addAndGet(tickets));
+    }
+
+    /**
+     * Method Name: recordPurchase
+     * Purpose: Records a token purchase: adds to the member's total spent and queues a TokenPurchase row.
+     * Pre-conditions: None.
+     * Post-conditions: The purchase is in the replay log and will be written by the next flush.
+     * Parameters:
+     * - MID (in): Member ID.
+     * - tokens (in): Tokens bought.
+     * - amountCents (in): Amount charged, in cents.
+     */
+    public void recordPurchase(String MID, int tokens, long amountCents) throws IOException {
+        long now = System.currentTimeMillis();
+        record("P|" + MID + "|" + tokens + "|" + amountCents + "|" + now + "\n", seg -> {
+            seg.delta(MID).spentCents.addAndGet(amountCents);
+            seg.purchases.add(new Purchase(MID, tokens, amountCents, now));
+        });
+    }
+
+    /**
+     * Method Name: pendingSpentCents
+     * Purpose: Returns the spend delta for a member that has not been flushed yet.
+     * Pre-conditions: None.
+     * Post-conditions: None.
+     * Parameters:
+     * - MID (in): Member ID.
+     */
+    public long pendingSpentCents(String MID) {
+        long total = 0;
+        for (Segment seg : segments()) {
+            MemberDelta d = seg.deltas.get(MID);
+            if (d != null) {
+                total += d.spentCents.get();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Method Name: flush
+     * Purpose: Writes every accumulated delta and purchase row to the database.
+     * Pre-conditions: None.
+     * Post-conditions: Flushed segments are committed and their log files deleted; a failed segment is
+     *                  kept and retried by the next flush, unless the database has refused it MAX_FAILURES
+     *                  times in a row, in which case it is written member by member and only the refused
+     *                  members' records are moved aside.
+     * Parameters: None.
+     */
+    public void flush() throws SQLException, IOException {
+        synchronized (flushLock) {
+            Segment old = current.get();
+            if (!old.isEmpty()) {
+                current.set(openSegment());
+                old.sealed = true;
+                while (old.inflight.get() != 0) {
+                    Thread.onSpinWait(); // a recorder is between its log append and counter update
+                }
+                sealed.addLast(old);
+            }
+
+            Segment seg;
+            while ((seg = sealed.peekFirst()) != null) {
+                try {
+                    write(seg);
+                } catch (SQLException e) {
+                    failedFlushes.incrementAndGet();
+                    if (isConnectionFailure(e) || ++seg.failures < MAX_FAILURES) {
+                        throw e;
+                    }
+                    isolate(seg, e);
+                }
+                sealed.pollFirst();
+                if (seg.log != null) {
+                    seg.log.close();
+                }
+                Files.deleteIfExists(seg.file);
+                flushedSegments.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Method Name: close
+     * Purpose: Stops the background flush and writes what is left.
+     * Pre-conditions: None.
+     * Post-conditions: All accepted changes are committed, or left in the log for recover() if the database is unreachable.
+     * Parameters: None.
+     */
+    @Override
+    public void close() throws SQLException, IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+        Segment last = current.get();
+        last.log.close();
+        if (last.isEmpty()) {
+            Files.deleteIfExists(last.file);
+        }
+    }
+
+    public String summary() {
+        return String.format("ledger flushedSegments=%d failedFlushes=%d waitingSegments=%d refusedMembers=%d",
+                flushedSegments.get(), failedFlushes.get(), sealed.size(), refusedMembers.get());
+    }
+
+    // Failures that say nothing about the segment itself: retrying later may well succeed
+    private static boolean isConnectionFailure(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException
+                || (state != null && state.startsWith("08"));
+    }
+
+    private static long flushedSegment(Connection conn) throws SQLException {
+        PreparedStatement stmt = StatementCache.of(conn).prepare(READ_FLUSHED);
+        stmt.setString(1, NAME);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong("segmentId") : -1;
+        }
+    }
+
+    private interface Mutation {
+        void apply(Segment seg);
+    }
+
+    private void record(String line, Mutation mutation) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (true) {
+            Segment seg = current.get();
+            seg.inflight.incrementAndGet();
+            try {
+                if (seg.sealed) {
+                    continue; // a flush just swapped segments, use the new one
+                }
+                while (bytes.hasRemaining()) {
+                    seg.log.write(bytes); // append mode, so concurrent lines do not interleave
+                }
+                if (syncEachRecord) {
+                    seg.log.force(false);
+                }
+                mutation.apply(seg);
+                return;
+            } finally {
+                seg.inflight.decrementAndGet();
+            }
+        }
+    }
+
+    private void write(Segment seg) throws SQLException {
+        try (Metrics.Span span = Metrics.start("ledgerFlush")) {
+            Connection conn = pool.borrow();
+            try {
+                List<SpendAggregates.Bucket> buckets = writeChanges(conn, seg.deltas, seg.purchases);
+                markFlushed(conn, seg);
+                SpendAggregates.commit(conn, buckets);
+                span.rows(seg.deltas.size() + seg.purchases.size());
+            } catch (SQLException e) {
+                conn.rollback();
+                clearBatches(conn);
+                throw e;
+            } finally {
+                pool.release(conn);
+            }
+        }
+    }
+
+    // Writes a refused segment one member at a time: a member whose changes the database refuses is rolled
+    // back to their savepoint and their records go to ledger-<id>.failed; the rest commit with the marker
+    private void isolate(Segment seg, SQLException cause) throws SQLException, IOException {
+        Map<String, List<Purchase>> purchasesOf = new HashMap<>();
+        for (Purchase p : seg.purchases) {
+            purchasesOf.computeIfAbsent(p.MID(), k -> new ArrayList<>()).add(p);
+        }
+        try (Metrics.Span span = Metrics.start("ledgerIsolate")) {
+            Connection conn = pool.borrow();
+            try {
+                List<SpendAggregates.Bucket> buckets = new ArrayList<>();
+                StringBuilder refused = new StringBuilder(); // in the replay log's format
+                int refusedCount = 0;
+                for (Map.Entry<String, MemberDelta> e : seg.deltas.entrySet()) {
+                    String MID = e.getKey();
+                    List<Purchase> purchases = purchasesOf.getOrDefault(MID, List.of());
+                    Savepoint before = conn.setSavepoint();
+                    try {
+                        buckets.addAll(writeChanges(conn, Map.of(MID, e.getValue()), purchases));
+                        span.rows(1 + purchases.size());
+                    } catch (SQLException rowError) {
+                        if (isConnectionFailure(rowError)) {
+                            throw rowError;
+                        }
+                        conn.rollback(before);
+                        clearBatches(conn);
+                        refusedCount++;
+                        refused.append("T|").append(MID).append('|').append(e.getValue().tickets.get()).append('\n');
+                        for (Purchase p : purchases) {
+                            refused.append("P|").append(MID).append('|').append(p.tokens()).append('|')
+                                    .append(p.amountCents()).append('|').append(p.epochMillis()).append('\n');
+                        }
+                        System.err.println("Ledger segment " + seg.id + ": changes for " + MID + " refused: " + rowError.getMessage().trim());
+                    }
+                }
+                Path failed = directory.resolve("ledger-" + seg.id + ".failed");
+                if (refusedCount > 0) {
+                    // Written before the commit; if the commit fails the whole segment is retried and this is rewritten
+                    try (FileChannel out = FileChannel.open(failed, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                        ByteBuffer bytes = ByteBuffer.wrap(refused.toString().getBytes(StandardCharsets.UTF_8));
+                        while (bytes.hasRemaining()) {
+                            out.write(bytes);
+                        }
+                        out.force(true);
+                    }
+                }
+                markFlushed(conn, seg);
+                SpendAggregates.commit(conn, buckets);
+                if (refusedCount > 0) {
+                    refusedMembers.addAndGet(refusedCount);
+                    System.err.println("Ledger segment " + seg.id + " was refused " + seg.failures + " times (" +
+                            cause.getMessage().trim() + "); the changes of " + refusedCount + " member(s) were moved to " +
+                            failed + " to be applied by hand, the rest are written");
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                clearBatches(conn);
+                throw e;
+            } finally {
+                pool.release(conn);
+            }
+        }
+    }
+
+    // Adds the deltas to Member and inserts the purchases in the caller's transaction; returns the spend buckets to apply after the commit
+    private static List<SpendAggregates.Bucket> writeChanges(Connection conn, Map<String, MemberDelta> deltas,
+                                                             Collection<Purchase> purchases) throws SQLException {
+        PreparedStatement update = StatementCache.of(conn).prepare(UPDATE_MEMBER);
+        for (Map.Entry<String, MemberDelta> e : deltas.entrySet()) {
+            update.setLong(1, e.getValue().tickets.get());
+            update.setBigDecimal(2, BigDecimal.valueOf(e.getValue().spentCents.get(), 2));
+            update.setString(3, e.getKey());
+            update.addBatch();
+        }
+        update.executeBatch();
+
+        PreparedStatement insert = StatementCache.of(conn).prepare(INSERT_PURCHASE);
+        Map<String, Long> daily = new HashMap<>(); // MID|day -> cents, for the spend aggregates
+        for (Purchase p : purchases) {
+            java.sql.Date day = new java.sql.Date(p.epochMillis());
+            insert.setString(1, p.MID());
+            insert.setInt(2, p.tokens());
+            insert.setDate(3, day);
+            insert.setBigDecimal(4, BigDecimal.valueOf(p.amountCents(), 2));
+            insert.addBatch();
+            daily.merge(p.MID() + "|" + day.toLocalDate(), p.amountCents(), Long::sum);
+        }
+        if (!purchases.isEmpty()) {
+            insert.executeBatch();
+        }
+
+        List<SpendAggregates.Bucket> buckets = new ArrayList<>(daily.size());
+        daily.forEach((key, cents) -> {
+            int bar = key.lastIndexOf('|');
+            buckets.add(new SpendAggregates.Bucket(key.substring(0, bar),
+                    java.time.LocalDate.parse(key.substring(bar + 1)), cents));
+        });
+        SpendAggregates.record(conn, buckets);
+        return buckets;
+    }
+
+    private static void markFlushed(Connection conn, Segment seg) throws SQLException {
+        PreparedStatement mark = StatementCache.of(conn).prepare(WRITE_FLUSHED);
+        mark.setString(1, NAME);
+        mark.setLong(2, seg.id);
+        mark.executeUpdate();
+    }
+
+    private static void clearBatches(Connection conn) throws SQLException {
+        StatementCache.of(conn).prepare(UPDATE_MEMBER).clearBatch(); // cached; a failed batch must not ride along
+        StatementCache.of(conn).prepare(INSERT_PURCHASE).clearBatch();
+    }
+
+    private boolean apply(Segment seg, String line) {
+        String[] f = line.split("\\|");
+        try {
+            if (f[0].equals("T") && f.length == 3) {
+                seg.delta(f[1]).tickets.addAndGet(Long.parseLong(f[2]));
+                return true;
+            } else if (f[0].equals("P") && f.length == 5) {
+                long cents = Long.parseLong(f[3]);
+                seg.delta(f[1]).spentCents.addAndGet(cents);
+                seg.purchases.add(new Purchase(f[1], Integer.parseInt(f[2]), cents, Long.parseLong(f[4])));
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            // torn last line from a crash mid-write
+        }
+        return false;
+    }
+
+    private List<Segment> segments() {
+        List<Segment> all = new ArrayList<>(sealed);
+        all.add(current.get());
+        return all;
+    }
+
+    private Segment openSegment() throws IOException {
+        long id = nextSegmentId.getAndIncrement();
+        Path file = directory.resolve("ledger-" + id + ".log");
+        FileChannel log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new Segment(id, file, log);
+    }
+
+    private static long segmentId(Path p) {
+        String name = p.getFileName().toString();
+        return Long.parseLong(name.substring("ledger-".length(), name.length() - ".log".length()));
+    }
+}
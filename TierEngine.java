@@ -0,0 +1,143 @@
+/* Author: Hamad Ayaz
+ * Course: CS460
+ * Assg_Name: Final Project
+ * Description: TierEngine.java prices token purchases: the tier discount, the tokens bought and any
+ * tier upgrade with its bonus tickets. Money is in whole cents and tiers are enum constants, so the
+ * price is exact and working it out allocates nothing, one purchase at a time or a batch in one pass.
+ *
+ * Language: Java, version 16
+ * Compilation: javac *.java
+ * */
+
+/**
+ * Class Name: TierEngine
+ * External Packages: None.
+ * Containing Package: Default package.
+ * Inheritance Information: No Inheritance.
+ *
+ * Description: The discounts, tokens per dollar, upgrade thresholds and bonuses come from
+ * LoyaltyRules; by default they are the ones buyTokens has always applied:
+ *   Standard members pay full price, Gold members get 10% off, Diamond members 20% off.
+ *   Tokens are 5 per dollar of the price before the discount.
+ *   A member whose total spent plus the price of the purchase reaches $250 becomes Gold (5000 bonus
+ *   tickets), and one reaching $500 becomes Diamond (15000 bonus tickets, or 10000 coming from Gold).
+ * Any tier name other than Gold and Diamond, including none, is Standard. Discounts are in basis
+ * points and round half up to the cent, so the charge and the saving always add up to the price.
+ *
+ * Constructor: None, all methods are static.
+ *
+ * Instance Methods:
+ * Tier.of(String name): The tier a Member.tier value stands for.
+ * cents(double dollars): Dollars entered at the till, in cents.
+ * price(Batch batch): Prices every purchase in a batch with the rules in force.
+ */
+public final class TierEngine {
+
+    public static final long NEVER = 100_000_000_000_000_000L; // cents; larger than any NUMBER(12,2) total
+
+    public enum Tier {
+        STANDARD(null), GOLD("Gold"), DIAMOND("Diamond"); // lowest first
+
+        public final String label; // the Member.tier value written for an upgrade; Standard is never written
+
+        Tier(String label) {
+            this.label = label;
+        }
+
+        public static Tier of(String name) {
+            if ("Diamond".equals(name)) {
+                return DIAMOND;
+            }
+            return "Gold".equals(name) ? GOLD : STANDARD;
+        }
+    }
+
+    private TierEngine() {
+    }
+
+    public static long cents(double dollars) {
+        return Math.round(dollars * 100);
+    }
+
+    /**
+     * Class Name: Batch
+     * Description: Purchases to price together, kept in parallel arrays that are reused from batch to
+     * batch. Members are numbered by the caller; purchases refer to them by number, so a member
+     * buying twice in one batch is priced the second time with the spend and tier of the first.
+     * price() updates the member arrays in place and fills in the result arrays.
+     */
+    public static final class Batch {
+        public final Tier[] memberTier;
+        public final long[] memberSpentCents;
+        public final int[] member;
+        public final long[] amountCents;
+        public final long[] chargedCents;
+        public final int[] tokens;
+        public final int[] bonusTickets;
+        public final Tier[] newTier;
+        private int members;
+        private int size;
+
+        public Batch(int maxMembers, int maxPurchases) {
+            memberTier = new Tier[maxMembers];
+            memberSpentCents = new long[maxMembers];
+            member = new int[maxPurchases];
+            amountCents = new long[maxPurchases];
+            chargedCents = new long[maxPurchases];
+            tokens = new int[maxPurchases];
+            bonusTickets = new int[maxPurchases];
+            newTier = new Tier[maxPurchases];
+        }
+
+        public int addMember(Tier tier, long spentCents) {
+            memberTier[members] = tier;
+            memberSpentCents[members] = spentCents;
+            return members++;
+        }
+
+        public void addPurchase(int memberNo, long amountCents) {
+            member[size] = memberNo;
+            this.amountCents[size] = amountCents;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            members = 0;
+            size = 0;
+        }
+    }
+
+    /**
+     * Method Name: price
+     * Purpose: Prices every purchase in the batch, in the order they were added.
+     * Pre-conditions: Each member's spend is their total spent, as in Member.totalSpent.
+     * Post-conditions: chargedCents, tokens, bonusTickets and newTier hold each purchase's result; the
+     *                  members' tiers and spend include every purchase. Returns the total charged.
+     * Parameters:
+     * - batch (in/out): The purchases and the members they are for.
+     */
+    public static long price(Batch batch) {
+        LoyaltyRules.Pricing rules = LoyaltyRules.pricing(); // one set of rules for the whole batch
+        long total = 0;
+        for (int i = 0; i < batch.size; i++) {
+            int m = batch.member[i];
+            Tier tier = batch.memberTier[m];
+            long amount = batch.amountCents[i];
+            long charged = rules.chargedCents(tier, amount);
+            Tier next = rules.upgrade(tier, batch.memberSpentCents[m] + amount);
+
+            batch.chargedCents[i] = charged;
+            batch.tokens[i] = rules.tokens(tier, amount);
+            batch.bonusTickets[i] = rules.bonusTickets(tier, next);
+            batch.newTier[i] = next;
+            batch.memberTier[m] = next;
+            batch.memberSpentCents[m] += charged; // totalSpent grows by what was charged
+            total += charged;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,112 @@
+-- Tables used by the performance extensions (leaderboard, aggregates, archival, ...).
+-- Run once after the base tables exist. Column types follow the base tables they reference.
+
+-- Top-K scores per game, kept in step with GamePlay by Leaderboard.java
+CREATE TABLE hamadayaz.GameHighScore (
+    GID     VARCHAR2(20) NOT NULL,
+    MID     VARCHAR2(20) NOT NULL,
+    score   NUMBER       NOT NULL
+);
+CREATE INDEX hamadayaz.GameHighScore_gid ON hamadayaz.GameHighScore (GID, score DESC);
+
+-- Each member's single best score, used to answer query 4
+CREATE TABLE hamadayaz.MemberBestScore (
+    MID     VARCHAR2(20) PRIMARY KEY,
+    GID     VARCHAR2(20) NOT NULL,
+    score   NUMBER       NOT NULL
+);
+
+-- Each member's token spend per day, kept by SpendAggregates.java to answer query 2
+CREATE TABLE hamadayaz.MemberSpendDaily (
+    MID       VARCHAR2(20) NOT NULL,
+    spendDay  DATE         NOT NULL,
+    amount    NUMBER(12,2) NOT NULL,
+    PRIMARY KEY (MID, spendDay)
+);
+CREATE INDEX hamadayaz.MemberSpendDaily_day ON hamadayaz.MemberSpendDaily (spendDay);
+
+-- Lets query 4 read a member's best play with one index range scan instead of sorting all their plays
+CREATE INDEX hamadayaz.GamePlay_mid_score ON hamadayaz.GamePlay (MID, score DESC);
+
+-- One row per member removed by MemberPurge.java, with the tickets they forfeited
+CREATE TABLE hamadayaz.MemberPurgeLog (
+    MID             VARCHAR2(20) NOT NULL,
+    ticketsSettled  NUMBER       NOT NULL,
+    purgedOn        DATE         NOT NULL
+);
+
+-- Games being retired by GameArchiver.java; a row here hides the game while its plays are archived
+CREATE TABLE hamadayaz.GameRetirement (
+    GID           VARCHAR2(20) PRIMARY KEY,
+    name          VARCHAR2(50),
+    retiredOn     DATE         NOT NULL,
+    rowsArchived  NUMBER       NOT NULL,
+    finishedOn    DATE
+);
+
+-- Plays of retired games, moved out of GamePlay in chunks
+CREATE TABLE hamadayaz.GamePlayArchive (
+    GID         VARCHAR2(20) NOT NULL,
+    MID         VARCHAR2(20) NOT NULL,
+    score       NUMBER       NOT NULL,
+    archivedOn  DATE         NOT NULL
+);
+CREATE INDEX hamadayaz.GamePlayArchive_gid ON hamadayaz.GamePlayArchive (GID);
+
+-- One partition per month for the purchase and redemption history, so date-range reports such as
+-- query 2 read only the months they need and PurchaseHistory.java can drop whole months at a time.
+-- Months from 2024 on get their partition automatically when their first row arrives.
+ALTER TABLE hamadayaz.TokenPurchase MODIFY
+    PARTITION BY RANGE (purchaseDate) INTERVAL (NUMTOYMINTERVAL(1, 'MONTH'))
+    (PARTITION TokenPurchase_before_2024 VALUES LESS THAN (DATE '2024-01-01'))
+    ONLINE;
+ALTER TABLE hamadayaz.PrizeRedemption MODIFY
+    PARTITION BY RANGE (xactDate) INTERVAL (NUMTOYMINTERVAL(1, 'MONTH'))
+    (PARTITION PrizeRedemption_before_2024 VALUES LESS THAN (DATE '2024-01-01'))
+    ONLINE;
+CREATE INDEX hamadayaz.TokenPurchase_mid_date ON hamadayaz.TokenPurchase (MID, purchaseDate) LOCAL;
+
+-- Per-member monthly totals of the months PurchaseHistory.java has dropped from the tables above
+CREATE TABLE hamadayaz.MemberMonthlySpend (
+    MID        VARCHAR2(20) NOT NULL,
+    month      DATE         NOT NULL,
+    purchases  NUMBER       NOT NULL,
+    tokens     NUMBER       NOT NULL,
+    amount     NUMBER(12,2) NOT NULL,
+    PRIMARY KEY (MID, month)
+);
+CREATE TABLE hamadayaz.MemberMonthlyRedemption (
+    MID          VARCHAR2(20) NOT NULL,
+    PrizeID      VARCHAR2(20) NOT NULL,
+    month        DATE         NOT NULL,
+    redemptions  NUMBER       NOT NULL,
+    PRIMARY KEY (MID, PrizeID, month)
+);
+
+-- Last ticket sync round MemberTable.java committed, per member table; read on startup to tell which
+-- in-flight awards already reached Member before a crash
+CREATE TABLE hamadayaz.MemberTableSync (
+    name       VARCHAR2(40) PRIMARY KEY,
+    syncRound  NUMBER       NOT NULL
+);
+
+-- Coupons issued by CouponEngine.java: TOKENS coupons take amount percent off a token purchase, PRIZE
+-- coupons take amount tickets off a prize. MID is null for a coupon anyone can present; expiresOn is
+-- the last day it can be used, or null for never. Rows inserted with only couponID and MID, as
+-- ArcadeStore does, are 0% token coupons that never expire.
+ALTER TABLE hamadayaz.Coupon ADD (
+    kind        VARCHAR2(6)  DEFAULT 'TOKENS' NOT NULL,
+    amount      NUMBER       DEFAULT 0 NOT NULL,
+    issuedAt    TIMESTAMP,
+    expiresOn   DATE,
+    redeemedOn  DATE
+);
+CREATE INDEX hamadayaz.Coupon_issuedAt ON hamadayaz.Coupon (issuedAt);
+CREATE INDEX hamadayaz.Coupon_expiresOn ON hamadayaz.Coupon (expiresOn);
+
+-- Last segment TicketLedger.java committed, per ledger (arcade.ledger.name); read on startup so a
+-- segment whose log outlived its commit is not replayed twice
+CREATE TABLE hamadayaz.TicketLedgerSync (
+    name       VARCHAR2(40) PRIMARY KEY,
+    segmentId  NUMBER       NOT NULL
+);